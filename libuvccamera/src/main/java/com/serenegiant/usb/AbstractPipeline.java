@@ -0,0 +1,98 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb;
+
+/**
+ * Base class of IPipeline implementations that have their native object.
+ */
+public abstract class AbstractPipeline implements IPipeline {
+	// same values as pipeline_type_t in IPipeline.h
+	/*package*/static final int TYPE_SIMPLE_BUFFERED = 0;
+	/*package*/static final int TYPE_CALLBACK = 200;
+	/*package*/static final int TYPE_CONVERT = 300;
+	/*package*/static final int TYPE_PREVIEW = 400;
+	/*package*/static final int TYPE_DISTRIBUTE = 600;
+	/*package*/static final int TYPE_PRE_EVENT_BUFFER = 700;
+	/*package*/static final int TYPE_MJPEG_RECORD = 800;
+
+	private static boolean isLoaded;
+	static {
+		if (!isLoaded) {
+			System.loadLibrary("jpeg-turbo1500");
+			System.loadLibrary("usb100");
+			System.loadLibrary("uvc");
+			System.loadLibrary("UVCCamera");
+			isLoaded = true;
+		}
+	}
+
+	// these fields are accessed from native code and do not change name and remove
+	protected long mNativePtr;
+	protected final int mType;
+
+	protected AbstractPipeline(final int type) {
+		mType = type;
+	}
+
+	@Override
+	public synchronized int getState() {
+		return mNativePtr != 0 ? nativeGetState(mNativePtr) : STATE_UNINITIALIZED;
+	}
+
+	@Override
+	public synchronized void setPipeline(final IPipeline pipeline) {
+		if (mNativePtr != 0) {
+			nativeSetPipeline(mNativePtr, pipeline);
+		}
+	}
+
+	@Override
+	public synchronized void start() {
+		if (mNativePtr != 0) {
+			nativeStart(mNativePtr);
+		}
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (mNativePtr != 0) {
+			nativeStop(mNativePtr);
+		}
+	}
+
+	@Override
+	public synchronized void release() {
+		if (mNativePtr != 0) {
+			nativeDestroy(mNativePtr);
+			mNativePtr = 0;
+		}
+	}
+
+	// native methods are registered to each subclass
+	protected abstract void nativeDestroy(final long id_pipeline);
+	protected abstract int nativeGetState(final long id_pipeline);
+	protected abstract int nativeSetPipeline(final long id_pipeline, final IPipeline pipeline);
+	protected abstract int nativeStart(final long id_pipeline);
+	protected abstract int nativeStop(final long id_pipeline);
+}
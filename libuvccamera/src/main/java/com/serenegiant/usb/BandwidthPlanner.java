@@ -0,0 +1,587 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.util.Log;
+import android.util.SparseIntArray;
+
+import com.serenegiant.usb.USBMonitor.UsbControlBlock;
+
+/**
+ * plan the video format, frame size and frame rate of several UVC cameras
+ * so that their isochronous endpoints fit into the bandwidth of the USB bus(host controller)
+ * that they share. the last camera fails to start preview with no bandwidth otherwise.
+ * each camera should be opened but not previewing.
+ * <pre>
+ * final BandwidthPlanner planner = new BandwidthPlanner();
+ * planner.add(camera1, 1280, 720, 15, 30, UVCCamera.FRAME_FORMAT_YUYV);
+ * planner.add(camera2, 1280, 720, 15, 30, UVCCamera.FRAME_FORMAT_YUYV);
+ * final BandwidthPlanner.Plan plan = planner.plan();
+ * if (plan.apply()) { // start preview of each camera }
+ * </pre>
+ * the camera reserves the bytes per service interval of the alternate setting
+ * that can carry the stream, YUYV needs width x height x 2 bytes per frame and
+ * MJPEG is estimated with the compression ratio(#setMjpegCompressionRatio).
+ * when the cameras do not fit, the camera is switched to the other format(usually MJPEG)
+ * and then to lower frame rate, in this order.
+ */
+public class BandwidthPlanner {
+	private static final boolean DEBUG = false;	// TODO set false on production
+	private static final String TAG = BandwidthPlanner.class.getSimpleName();
+
+	// speed of USB device, the values of libusb_speed
+	public static final int SPEED_UNKNOWN = 0;
+	public static final int SPEED_LOW = 1;
+	public static final int SPEED_FULL = 2;
+	public static final int SPEED_HIGH = 3;
+	public static final int SPEED_SUPER = 4;
+	public static final int SPEED_SUPER_PLUS = 5;
+
+	/** compression ratio of MJPEG against YUYV, usual camera is 5-10 but depends on the scene */
+	public static final float DEFAULT_MJPEG_COMPRESSION_RATIO = 4.0f;
+
+	// bDescriptorSubtype of format descriptor
+	private static final int VS_FORMAT_UNCOMPRESSED = 4;
+	private static final int VS_FORMAT_MJPEG = 6;
+	/** UVC payload header of each isochronous packet, 12 bytes with PTS and SCR */
+	private static final int PAYLOAD_HEADER_BYTES = 12;
+	/** frame rates that are tried for the camera that has continuous frame intervals */
+	private static final int[] CONTINUOUS_FPS = { 60, 30, 25, 20, 15, 10, 5 };
+	/** rank of the camera that can not stream at all */
+	private static final int RANK_NONE = 10000;
+
+	/**
+	 * streaming mode of a camera and the bandwidth that it reserves
+	 */
+	public static class Mode {
+		/** UVCCamera.FRAME_FORMAT_YUYV or UVCCamera.FRAME_FORMAT_MJPEG */
+		public final int frameFormat;
+		public final int width;
+		public final int height;
+		public final int fps;
+		/** bytes per service interval of the alternate setting, 0 on bulk transfer */
+		public final int bytesPerInterval;
+		/** estimated bytes per service interval that the stream needs */
+		public final int requiredBytesPerInterval;
+		/** service interval in microseconds, 125 on high speed or faster, 1000 on full speed */
+		public final int intervalUs;
+		/** 0 is the best mode of the camera */
+		private final int rank;
+
+		private Mode(final int frameFormat, final int width, final int height, final int fps,
+			final int bytesPerInterval, final int requiredBytesPerInterval, final int intervalUs, final int rank) {
+
+			this.frameFormat = frameFormat;
+			this.width = width;
+			this.height = height;
+			this.fps = fps;
+			this.bytesPerInterval = bytesPerInterval;
+			this.requiredBytesPerInterval = requiredBytesPerInterval;
+			this.intervalUs = intervalUs;
+			this.rank = rank;
+		}
+
+		private Mode(final Mode other, final int rank) {
+			this(other.frameFormat, other.width, other.height, other.fps,
+				other.bytesPerInterval, other.requiredBytesPerInterval, other.intervalUs, rank);
+		}
+
+		/**
+		 * @return bandwidth that this mode reserves on the bus
+		 */
+		public int getBytesPerMs() {
+			return (int)((long)bytesPerInterval * 1000 / intervalUs);
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "%s %dx%d@%d %dB/%dus(needs %dB)",
+				frameFormat == UVCCamera.FRAME_FORMAT_YUYV ? "YUYV" : "MJPEG",
+				width, height, fps, bytesPerInterval, intervalUs, requiredBytesPerInterval);
+		}
+	}
+
+	/**
+	 * result of #plan
+	 */
+	public static class Plan {
+		private final List<Entry> mEntries;
+		private final Mode[] mModes;
+
+		private Plan(final List<Entry> entries, final Mode[] modes) {
+			mEntries = entries;
+			mModes = modes;
+		}
+
+		/**
+		 * @return true if all cameras have the mode
+		 */
+		public boolean isFeasible() {
+			for (final Mode mode: mModes) {
+				if (mode == null) return false;
+			}
+			return true;
+		}
+
+		/**
+		 * @param camera
+		 * @return null if the camera was not added or can not stream with other cameras
+		 */
+		public Mode getMode(final UVCCamera camera) {
+			final int n = mEntries.size();
+			for (int i = 0; i < n; i++) {
+				if (mEntries.get(i).camera == camera) {
+					return mModes[i];
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * bandwidth that the planned cameras reserve on the bus
+		 * @param busNum
+		 * @return bytes per millisecond
+		 */
+		public int getBusLoad(final int busNum) {
+			int result = 0;
+			final int n = mEntries.size();
+			for (int i = 0; i < n; i++) {
+				if ((mEntries.get(i).busNum == busNum) && (mModes[i] != null)) {
+					result += mModes[i].getBytesPerMs();
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * set the planned mode and bandwidth to each camera with UVCCamera#setPreviewSize
+		 * and UVCCamera#setBandwidthLimit, they are applied at next UVCCamera#startPreview.
+		 * the camera that has no mode is not changed.
+		 * @return same as #isFeasible
+		 * @throws IllegalArgumentException the camera refused the mode
+		 */
+		public boolean apply() throws IllegalArgumentException {
+			final int n = mEntries.size();
+			for (int i = 0; i < n; i++) {
+				final Mode mode = mModes[i];
+				if (mode != null) {
+					final UVCCamera camera = mEntries.get(i).camera;
+					camera.setBandwidthLimit(mode.bytesPerInterval);
+					camera.setPreviewSize(mode.width, mode.height, mode.fps, mode.fps,
+						mode.frameFormat, UVCCamera.DEFAULT_BANDWIDTH);
+				}
+			}
+			return isFeasible();
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder sb = new StringBuilder();
+			final int n = mEntries.size();
+			for (int i = 0; i < n; i++) {
+				final Entry entry = mEntries.get(i);
+				if (i > 0) sb.append('\n');
+				sb.append(String.format(Locale.US, "bus%03d/%03d:%s", entry.busNum, entry.devNum,
+					mModes[i] != null ? mModes[i].toString() : "no bandwidth"));
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * a camera and what it requested
+	 */
+	private static class Entry {
+		private final UVCCamera camera;
+		private final int busNum, devNum;
+		private final JSONObject info;
+		private final int speed;
+		private final int width, height, minFps, maxFps, preferredFormat;
+		/** candidates in the order of preference, set by #plan */
+		private List<Mode> candidates;
+
+		private Entry(final UVCCamera camera, final int busNum, final int devNum, final JSONObject info,
+			final int width, final int height, final int minFps, final int maxFps, final int preferredFormat) {
+
+			this.camera = camera;
+			this.busNum = busNum;
+			this.devNum = devNum;
+			this.info = info;
+			this.speed = info.optInt("speed", SPEED_UNKNOWN);
+			this.width = width;
+			this.height = height;
+			this.minFps = minFps;
+			this.maxFps = maxFps;
+			this.preferredFormat = preferredFormat;
+		}
+	}
+
+	private final List<Entry> mEntries = new ArrayList<Entry>();
+	private final SparseIntArray mBusBudgets = new SparseIntArray();
+	private float mMjpegCompressionRatio = DEFAULT_MJPEG_COMPRESSION_RATIO;
+
+	/**
+	 * add the camera that prefers YUYV
+	 * @param camera opened camera
+	 * @param width
+	 * @param height
+	 * @param minFps
+	 * @param maxFps
+	 * @throws IllegalStateException the camera is not opened
+	 */
+	public void add(final UVCCamera camera,
+		final int width, final int height, final int minFps, final int maxFps) throws IllegalStateException {
+
+		add(camera, width, height, minFps, maxFps, UVCCamera.FRAME_FORMAT_YUYV);
+	}
+
+	/**
+	 * add the camera to plan
+	 * @param camera opened camera
+	 * @param width
+	 * @param height
+	 * @param minFps
+	 * @param maxFps
+	 * @param preferredFormat UVCCamera.FRAME_FORMAT_YUYV or UVCCamera.FRAME_FORMAT_MJPEG,
+	 * 			the other format is used when the cameras do not fit into the bus with this format
+	 * @throws IllegalStateException the camera is not opened
+	 */
+	public synchronized void add(final UVCCamera camera,
+		final int width, final int height, final int minFps, final int maxFps,
+		final int preferredFormat) throws IllegalStateException {
+
+		final UsbControlBlock ctrlBlock = camera.getUsbControlBlock();
+		final String info = camera.getBandwidthInfo();
+		if ((ctrlBlock == null) || (info == null)) {
+			throw new IllegalStateException("camera is not opened");
+		}
+		if ((width <= 0) || (height <= 0) || (minFps > maxFps)) {
+			throw new IllegalArgumentException("invalid size or frame rate");
+		}
+		remove(camera);
+		try {
+			mEntries.add(new Entry(camera, ctrlBlock.getBusNum(), ctrlBlock.getDevNum(),
+				new JSONObject(info), width, height, minFps, maxFps, preferredFormat));
+		} catch (final JSONException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public synchronized void remove(final UVCCamera camera) {
+		for (int i = mEntries.size() - 1; i >= 0; i--) {
+			if (mEntries.get(i).camera == camera) {
+				mEntries.remove(i);
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		mEntries.clear();
+	}
+
+	/**
+	 * @param ratio compression ratio of MJPEG against YUYV that is used to estimate the bandwidth of MJPEG,
+	 * 			lower value is safer but may select lower frame rate
+	 */
+	public synchronized void setMjpegCompressionRatio(final float ratio) {
+		if (ratio < 1.0f) {
+			throw new IllegalArgumentException("ratio should be 1 or more");
+		}
+		mMjpegCompressionRatio = ratio;
+	}
+
+	/**
+	 * override the bandwidth of the bus that the cameras can use,
+	 * e.g. when other isochronous devices like audio share the bus
+	 * @param busNum
+	 * @param bytesPerMs 0 to use #getDefaultBudget
+	 */
+	public synchronized void setBusBudget(final int busNum, final int bytesPerMs) {
+		if (bytesPerMs > 0) {
+			mBusBudgets.put(busNum, bytesPerMs);
+		} else {
+			mBusBudgets.delete(busNum);
+		}
+	}
+
+	/**
+	 * bandwidth for periodic transfers of the bus, USB 2.0 allows 80% of the microframe
+	 * and USB 3.x allows 90% of the bus interval for them.
+	 * @param speed SPEED_XXX
+	 * @return bytes per millisecond
+	 */
+	public static int getDefaultBudget(final int speed) {
+		switch (speed) {
+		case SPEED_LOW:
+			return 150;			// 1.5Mbps, interrupt transfer only
+		case SPEED_FULL:
+			return 1350;		// 90% of 1500 bytes per frame
+		case SPEED_HIGH:
+			return 48000;		// 80% of 7500 bytes per microframe x 8
+		case SPEED_SUPER:
+			return 450000;		// 90% of 5Gbps with 8b/10b encoding
+		case SPEED_SUPER_PLUS:
+			return 1090000;		// 90% of 10Gbps with 128b/132b encoding
+		default:
+			return 48000;
+		}
+	}
+
+	/**
+	 * choose the mode of each camera so that cameras on the same bus fit into the bandwidth of the bus.
+	 * the modes are chosen so that the worst mode among the cameras on the bus is as good as possible.
+	 * @return
+	 */
+	public synchronized Plan plan() {
+		final List<Entry> entries = new ArrayList<Entry>(mEntries);
+		final Mode[] modes = new Mode[entries.size()];
+		for (final Entry entry: entries) {
+			entry.candidates = listCandidates(entry, mMjpegCompressionRatio);
+		}
+		final SparseIntArray speeds = new SparseIntArray();
+		for (final Entry entry: entries) {
+			// the bus is planned even if the speed is unknown, the default budget is used then
+			if ((speeds.indexOfKey(entry.busNum) < 0) || (entry.speed > speeds.get(entry.busNum))) {
+				speeds.put(entry.busNum, entry.speed);
+			}
+		}
+		final int numBus = speeds.size();
+		for (int i = 0; i < numBus; i++) {
+			final int busNum = speeds.keyAt(i);
+			final int budget = mBusBudgets.get(busNum, getDefaultBudget(speeds.valueAt(i)));
+			final List<Integer> indices = new ArrayList<Integer>();
+			for (int j = 0; j < entries.size(); j++) {
+				if (entries.get(j).busNum == busNum) {
+					indices.add(j);
+				}
+			}
+			final Search search = new Search(entries, indices, budget);
+			search.run(0, 0, 0, 0, 0);
+			if (search.best != null) {
+				for (int j = 0; j < indices.size(); j++) {
+					modes[indices.get(j)] = search.best[j];
+				}
+			}
+			if (DEBUG) Log.v(TAG, String.format(Locale.US, "plan:bus%03d,budget=%d", busNum, budget));
+		}
+		final Plan result = new Plan(entries, modes);
+		if (DEBUG) Log.v(TAG, "plan:" + result);
+		return result;
+	}
+
+	/**
+	 * exhaustive search of the modes of the cameras on a bus,
+	 * that minimizes cameras without mode, the worst rank, sum of ranks and bandwidth in this order
+	 */
+	private static class Search {
+		private final List<Entry> entries;
+		private final List<Integer> indices;
+		private final int budget;
+		private final Mode[] current;
+		private Mode[] best;
+		private long bestCost = Long.MAX_VALUE;
+
+		private Search(final List<Entry> entries, final List<Integer> indices, final int budget) {
+			this.entries = entries;
+			this.indices = indices;
+			this.budget = budget;
+			current = new Mode[indices.size()];
+		}
+
+		private void run(final int ix, final int none, final int worst, final int sum, final int load) {
+			if (ix >= current.length) {
+				final long cost = ((((long)none * RANK_NONE + worst) * RANK_NONE + sum) << 24)
+					+ Math.min(load, 0xffffff);
+				if (cost < bestCost) {
+					bestCost = cost;
+					best = current.clone();
+				}
+				return;
+			}
+			final Entry entry = entries.get(indices.get(ix));
+			for (final Mode mode: entry.candidates) {
+				final int l = load + mode.getBytesPerMs();
+				if (l > budget) continue;
+				current[ix] = mode;
+				run(ix + 1, none, Math.max(worst, mode.rank), sum + mode.rank, l);
+			}
+			current[ix] = null;
+			run(ix + 1, none + 1, worst, sum, load);
+		}
+	}
+
+	/**
+	 * @return modes that the camera can stream in the order of preference,
+	 * 		higher frame rate first and the preferred format first at the same frame rate
+	 */
+	private static List<Mode> listCandidates(final Entry entry, final float mjpegRatio) {
+		final List<Mode> result = new ArrayList<Mode>();
+		try {
+			// unknown speed is planned as high speed same as #getDefaultBudget
+			final int intervalUs = entry.speed != SPEED_UNKNOWN ? entry.info.getInt("intervalUs") : 125;
+			final JSONArray formats = entry.info.getJSONArray("formats");
+			final int numFormats = formats.length();
+			for (int i = 0; i < numFormats; i++) {
+				final JSONObject format = formats.getJSONObject(i);
+				final int type = format.getInt("type");
+				final int frameFormat;
+				if (type == VS_FORMAT_UNCOMPRESSED) {
+					frameFormat = UVCCamera.FRAME_FORMAT_YUYV;
+				} else if (type == VS_FORMAT_MJPEG) {
+					frameFormat = UVCCamera.FRAME_FORMAT_MJPEG;
+				} else {
+					continue;
+				}
+				final int[] alts = getBytesPerInterval(entry.info, format.getInt("interface"));
+				final JSONArray frames = format.getJSONArray("frames");
+				final int numFrames = frames.length();
+				for (int j = 0; j < numFrames; j++) {
+					final JSONObject frame = frames.getJSONObject(j);
+					if ((frame.getInt("width") != entry.width) || (frame.getInt("height") != entry.height)) continue;
+					// bytes per frame, MJPEG is estimated from YUYV because maxFrameSize of MJPEG is just the upper bound
+					final int yuyvBytes = entry.width * entry.height * 2;
+					final double frameBytes = frameFormat == UVCCamera.FRAME_FORMAT_YUYV
+						? Math.max(frame.optInt("maxFrameSize", 0), yuyvBytes)
+						: yuyvBytes / mjpegRatio;
+					for (final int interval: listIntervals(frame, entry.minFps, entry.maxFps)) {
+						final int required = (int)Math.ceil(frameBytes * 10000000.0 / interval * intervalUs / 1000000.0)
+							+ PAYLOAD_HEADER_BYTES;
+						final int bytesPerInterval;
+						if (alts != null) {
+							bytesPerInterval = chooseAltSetting(alts, required);
+							if (bytesPerInterval <= 0) continue;	// the camera can not transfer this mode
+						} else {
+							bytesPerInterval = 0;	// bulk transfer does not reserve bandwidth
+						}
+						result.add(new Mode(frameFormat, entry.width, entry.height, 10000000 / interval,
+							bytesPerInterval, required, intervalUs, 0));
+					}
+				}
+			}
+		} catch (final JSONException e) {
+			Log.w(TAG, e);
+		}
+		Collections.sort(result, new Comparator<Mode>() {
+			@Override
+			public int compare(final Mode lhs, final Mode rhs) {
+				if (lhs.fps != rhs.fps) {
+					return rhs.fps - lhs.fps;
+				}
+				final int l = lhs.frameFormat == entry.preferredFormat ? 0 : 1;
+				final int r = rhs.frameFormat == entry.preferredFormat ? 0 : 1;
+				return l != r ? l - r : lhs.bytesPerInterval - rhs.bytesPerInterval;
+			}
+		});
+		final List<Mode> ranked = new ArrayList<Mode>(result.size());
+		for (final Mode mode: result) {
+			// skip same format and frame rate(e.g. same frame size in several format descriptors)
+			final Mode last = ranked.isEmpty() ? null : ranked.get(ranked.size() - 1);
+			if ((last != null) && (last.fps == mode.fps) && (last.frameFormat == mode.frameFormat)) continue;
+			ranked.add(new Mode(mode, ranked.size()));
+		}
+		if (DEBUG) Log.v(TAG, String.format(Locale.US, "listCandidates:bus%03d/%03d:%s",
+			entry.busNum, entry.devNum, ranked));
+		return ranked;
+	}
+
+	/**
+	 * @return frame intervals in 100ns within the range of frame rate,
+	 * 		the frame rate of each interval is compared as integer like libuvc
+	 */
+	private static List<Integer> listIntervals(final JSONObject frame, final int minFps, final int maxFps) throws JSONException {
+		final List<Integer> result = new ArrayList<Integer>();
+		final JSONArray intervals = frame.optJSONArray("intervals");
+		if (intervals != null) {
+			final int n = intervals.length();
+			for (int i = 0; i < n; i++) {
+				final int interval = intervals.getInt(i);
+				if ((interval > 0) && (10000000 / interval >= minFps) && (10000000 / interval <= maxFps)) {
+					result.add(interval);
+				}
+			}
+		} else {
+			final int minInterval = frame.getInt("minInterval");
+			final int maxInterval = frame.getInt("maxInterval");
+			if (minInterval <= 0) return result;
+			final int highFps = Math.min(maxFps, 10000000 / minInterval);
+			final int lowFps = Math.max(minFps, maxInterval > 0 ? 10000000 / maxInterval : 1);
+			if (highFps >= lowFps) {
+				result.add(10000000 / highFps);
+			}
+			for (final int fps: CONTINUOUS_FPS) {
+				if ((fps < highFps) && (fps >= lowFps)) {
+					result.add(10000000 / fps);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return bytes per interval of each alternate setting, null on bulk transfer
+	 */
+	private static int[] getBytesPerInterval(final JSONObject info, final int interfaceNum) throws JSONException {
+		final JSONArray interfaces = info.getJSONArray("interfaces");
+		final int n = interfaces.length();
+		for (int i = 0; i < n; i++) {
+			final JSONObject intf = interfaces.getJSONObject(i);
+			if (intf.getInt("interface") == interfaceNum) {
+				if (!intf.optBoolean("isochronous", false)) {
+					return null;
+				}
+				final JSONArray bytes = intf.getJSONArray("bytesPerInterval");
+				final int[] result = new int[bytes.length()];
+				for (int j = 0; j < result.length; j++) {
+					result[j] = bytes.getInt(j);
+				}
+				return result;
+			}
+		}
+		return new int[0];
+	}
+
+	/**
+	 * same as the selection of the alternate setting in libuvc(uvc_stream_start_bandwidth),
+	 * first alternate setting that has enough bytes per interval
+	 * @return bytes per interval of the alternate setting, 0 if no alternate setting has enough bytes
+	 */
+	private static int chooseAltSetting(final int[] alts, final int required) {
+		for (final int bytes: alts) {
+			if (bytes >= required) {
+				return bytes;
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb;
+
+import java.util.Locale;
+
+/**
+ * Description of the frame that is passed to IFrameInfoCallback#onFrame.
+ * The native library updates the same instance for every frame to avoid allocation,
+ * so the values are valid only while IFrameInfoCallback#onFrame is running.
+ * FrameReader.Frame has its own instance that is valid until the frame is released.
+ */
+public final class FrameInfo {
+	// these fields are updated from native code
+	private int mPixelFormat;
+	private int mWidth, mHeight;
+	private int mPlanes;
+	private int mStride0, mStride1;
+	private int mOffset1;
+	private int mSize;
+	private long mCaptureTimeNs;
+	private int mSequence;
+	private int mDroppedFrames;
+
+	/*package*/FrameInfo() {
+	}
+
+	/**
+	 * @return pixel format of the frame, UVCCamera.PIXEL_FORMAT_XXX that was passed to UVCCamera#setFrameInfoCallback
+	 * (PIXEL_FORMAT_RAW/PIXEL_FORMAT_YUV is YUYV)
+	 */
+	public int getPixelFormat() {
+		return mPixelFormat;
+	}
+
+	public int getWidth() {
+		return mWidth;
+	}
+
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/**
+	 * @return 1 for packed formats, 2 for PIXEL_FORMAT_YUV420SP/PIXEL_FORMAT_NV21(Y plane and interleaved chroma plane)
+	 */
+	public int getPlaneCount() {
+		return mPlanes;
+	}
+
+	/**
+	 * @param plane
+	 * @return bytes per row of the plane, 0 if the frame does not have the plane
+	 */
+	public int getStride(final int plane) {
+		switch (plane) {
+		case 0:
+			return mStride0;
+		case 1:
+			return mPlanes > 1 ? mStride1 : 0;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * @param plane
+	 * @return offset of the plane from the start of the frame buffer
+	 */
+	public int getOffset(final int plane) {
+		return (plane == 1) && (mPlanes > 1) ? mOffset1 : 0;
+	}
+
+	/**
+	 * @return bytes of the frame buffer
+	 */
+	public int getSize() {
+		return mSize;
+	}
+
+	/**
+	 * @return time when the camera captured the frame in the same clock as System#nanoTime,
+	 * see IFrameCallback#onFrame(ByteBuffer, long, int)
+	 */
+	public long getCaptureTimeNs() {
+		return mCaptureTimeNs;
+	}
+
+	/**
+	 * @return frame number, this may skip when frames were dropped
+	 */
+	public int getSequence() {
+		return mSequence;
+	}
+
+	/**
+	 * @return number of frames that were dropped between the previous callback and this frame
+	 * (any reason, from USB transfers to the capture thread)
+	 */
+	public int getDroppedFrames() {
+		return mDroppedFrames;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.US, "FrameInfo(format=%d,%dx%d,planes=%d,stride=%d/%d,offset=%d,size=%d,captureTimeNs=%d,sequence=%d,dropped=%d)",
+			mPixelFormat, mWidth, mHeight, mPlanes, mStride0, mStride1, mOffset1, mSize,
+			mCaptureTimeNs, mSequence, mDroppedFrames);
+	}
+}
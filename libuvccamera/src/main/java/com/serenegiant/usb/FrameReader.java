@@ -0,0 +1,253 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * ImageReader like consumer of the converted frames.
+ * Unlike IFrameCallback, the frame is not copied and is not processed on the capture thread.
+ * The native library queues the frame that is backed by its frame pool and notifies
+ * OnFrameAvailableListener, then you acquire it on any thread, process it
+ * and release it back to the frame pool with Frame#release.
+ * At most maxFrames frames are queued or acquired at the same time, and when the consumer
+ * falls behind, the frame is dropped by the drop policy and counted as UVCCamera.DROP_READER_FULL.
+ * The reader is detached from the camera on UVCCamera#stopPreview/#close or #close of this reader,
+ * queued frames are discarded then but acquired frames stay valid until they are released.
+ */
+public final class FrameReader {
+	/** drop the oldest queued frame that is not acquired yet for the new frame */
+	public static final int DROP_OLDEST = 0;
+	/** drop the new frame and keep queued frames */
+	public static final int DROP_NEWEST = 1;
+	/** max value of maxFrames */
+	public static final int MAX_FRAMES = 8;
+
+	public interface OnFrameAvailableListener {
+		/**
+		 * called when a new frame is queued.
+		 * this is called once for each queued frame but frames may be dropped before you acquire them.
+		 * @param reader
+		 */
+		public void onFrameAvailable(FrameReader reader);
+	}
+
+	/**
+	 * Frame that is acquired from FrameReader.
+	 * the buffer and the info are valid until #release is called.
+	 */
+	public final class Frame {
+		private final FrameInfo mInfo = new FrameInfo();
+		private ByteBuffer mBuffer;
+
+		private Frame() {
+		}
+
+		/**
+		 * @return direct ByteBuffer on the native frame, you should handle it's byte order and limitation.
+		 * @throws IllegalStateException the frame was already released
+		 */
+		public ByteBuffer getBuffer() {
+			final ByteBuffer buffer = mBuffer;
+			if (buffer == null) {
+				throw new IllegalStateException("frame is already released");
+			}
+			return buffer;
+		}
+
+		/**
+		 * @return description of the frame, dropped frames are counted since the previous acquired frame.
+		 */
+		public FrameInfo getInfo() {
+			return mInfo;
+		}
+
+		/**
+		 * release the frame back to the native frame pool. don't access the buffer after this.
+		 * calling this several times is safe.
+		 */
+		public void release() {
+			releaseFrame(this);
+		}
+	}
+
+	private final UVCCamera mCamera;
+	private final int mMaxFrames;
+	private final Object mSync = new Object();
+	private final List<Frame> mPool = new ArrayList<Frame>(MAX_FRAMES);
+	private int mAcquired;
+	// these are volatile because native capture thread reads them without mSync
+	private volatile boolean mClosed;
+	private volatile OnFrameAvailableListener mListener;
+	private volatile Handler mHandler;
+
+	private final Runnable mNotifyTask = new Runnable() {
+		@Override
+		public void run() {
+			final OnFrameAvailableListener listener = mListener;
+			if (!mClosed && (listener != null)) {
+				listener.onFrameAvailable(FrameReader.this);
+			}
+		}
+	};
+
+	/*package*/FrameReader(final UVCCamera camera, final int maxFrames) {
+		mCamera = camera;
+		mMaxFrames = maxFrames;
+	}
+
+	/**
+	 * @return max number of frames that are queued or acquired at the same time
+	 */
+	public int getMaxFrames() {
+		return mMaxFrames;
+	}
+
+	/**
+	 * set listener that is called on the thread of the handler when a new frame is queued.
+	 * @param listener null to remove
+	 * @param handler null to use the Looper of the current thread
+	 * @throws IllegalArgumentException handler is null and the current thread does not have Looper
+	 */
+	public void setOnFrameAvailableListener(final OnFrameAvailableListener listener, final Handler handler) {
+		Handler h = null;
+		if (listener != null) {
+			if (handler != null) {
+				h = handler;
+			} else {
+				final Looper looper = Looper.myLooper();
+				if (looper == null) {
+					throw new IllegalArgumentException("handler is null but the current thread is not a looper");
+				}
+				h = new Handler(looper);
+			}
+		}
+		synchronized (mSync) {
+			if (mHandler != null) {
+				mHandler.removeCallbacks(mNotifyTask);
+			}
+			mListener = listener;
+			mHandler = h;
+		}
+	}
+
+	/**
+	 * acquire the oldest queued frame.
+	 * @return null if no frame is queued or the reader is closed
+	 * @throws IllegalStateException maxFrames frames are already acquired and not released
+	 */
+	public Frame acquireNextFrame() {
+		return acquireFrame(false);
+	}
+
+	/**
+	 * acquire the latest queued frame and release older queued frames.
+	 * @return null if no frame is queued or the reader is closed
+	 * @throws IllegalStateException maxFrames frames are already acquired and not released
+	 */
+	public Frame acquireLatestFrame() {
+		return acquireFrame(true);
+	}
+
+	/**
+	 * detach this reader from the camera. queued frames are discarded
+	 * but acquired frames stay valid until they are released.
+	 */
+	public void close() {
+		synchronized (mSync) {
+			if (mClosed) return;
+			mClosed = true;
+			if (mHandler != null) {
+				mHandler.removeCallbacks(mNotifyTask);
+			}
+			mListener = null;
+			mHandler = null;
+		}
+		mCamera.removeFrameReader(this);
+	}
+
+	public boolean isClosed() {
+		return mClosed;
+	}
+
+	private Frame acquireFrame(final boolean latest) {
+		final Frame frame;
+		synchronized (mSync) {
+			if (mClosed) {
+				return null;
+			}
+			if (mAcquired >= mMaxFrames) {
+				throw new IllegalStateException("maxFrames(" + mMaxFrames + ") frames are already acquired");
+			}
+			// reserve the slot here and call UVCCamera without mSync,
+			// because UVCCamera#stopPreview/#createFrameReader call #close while holding UVCCamera
+			frame = mPool.isEmpty() ? new Frame() : mPool.remove(mPool.size() - 1);
+			mAcquired++;
+		}
+		// FrameInfo of each Frame is updated only while it is not acquired
+		final ByteBuffer buffer = mCamera.acquireReaderFrame(this, latest, frame.mInfo);
+		synchronized (mSync) {
+			if (buffer == null) {
+				mAcquired--;
+				mPool.add(frame);
+				return null;
+			}
+			// the frame stays valid even if this reader was closed meanwhile, same as other acquired frames
+			frame.mBuffer = buffer;
+			return frame;
+		}
+	}
+
+	private void releaseFrame(final Frame frame) {
+		final ByteBuffer buffer;
+		synchronized (mSync) {
+			buffer = frame.mBuffer;
+			if (buffer == null) {
+				return;
+			}
+			frame.mBuffer = null;
+			mAcquired--;
+			mPool.add(frame);
+		}
+		mCamera.releaseReaderFrame(buffer);
+	}
+
+	/**
+	 * called from native capture thread via JNI, don't rename this.
+	 * this must not wait for mSync because UVCCamera#stopPreview waits for the capture thread
+	 * while holding UVCCamera and #close that is called there takes mSync.
+	 */
+	@SuppressWarnings("unused")
+	private void onFrameAvailable() {
+		final Handler handler = mHandler;
+		if (!mClosed && (handler != null)) {
+			handler.post(mNotifyTask);
+		}
+	}
+}
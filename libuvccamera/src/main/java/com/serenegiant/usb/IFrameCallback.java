@@ -40,6 +40,23 @@ public interface IFrameCallback {
 	 * consider to get images via texture(SurfaceTexture) and read pixel buffer from it using OpenGL|ES2/3
 	 * instead of using IFrameCallback(this way is much efficient in most case than using IFrameCallback).
 	 * @param frame this is direct ByteBuffer from JNI layer and you should handle it's byte order and limitation.
+	 * The same ByteBuffer is passed again for later frames(position and limit are reset),
+	 * so don't keep it after this method returned.
 	 */
 	public void onFrame(ByteBuffer frame);
+
+	/**
+	 * Same as #onFrame(ByteBuffer) but with the timestamp of the frame.
+	 * The native library calls this method instead of #onFrame(ByteBuffer),
+	 * default implementation just calls #onFrame(ByteBuffer).
+	 * @param frame same as #onFrame(ByteBuffer)
+	 * @param captureTimeNs time when the camera captured the frame in the same clock as System#nanoTime.
+	 * This is PTS of the frame converted with the camera clock recovered from SCR,
+	 * or the time when the first data of the frame arrived if the camera does not send them.
+	 * This always increases frame by frame.
+	 * @param sequence frame number, this may skip when frames were dropped
+	 */
+	public default void onFrame(ByteBuffer frame, long captureTimeNs, int sequence) {
+		onFrame(frame);
+	}
 }
@@ -0,0 +1,37 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb;
+
+/**
+ * Callback interface for UVCCamera#setFrameDropCallback
+ */
+public interface IFrameDropCallback {
+	/**
+	 * called periodically from native thread while previewing.
+	 * stopping preview waits for this returns, so don't call UVCCamera#stopPreview/close/destroy here.
+	 * @param drops number of dropped frames since UVCCamera#startPreview for each reason,
+	 * indexed by UVCCamera.DROP_XXX. the array is reused, so copy it if you need to keep the values.
+	 */
+	void onFrameDrop(int[] drops);
+}
@@ -0,0 +1,43 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Callback interface for UVCCamera#setFrameInfoCallback
+ * Same as IFrameCallback but the frame comes with its description,
+ * so you don't need to calculate the size/layout of the frame from the pixel format
+ * and you can find dropped frames or skip stale frames with the capture time.
+ */
+public interface IFrameInfoCallback {
+	/**
+	 * This method is called from native library via JNI on the same thread as UVCCamera#startCapture,
+	 * same as IFrameCallback#onFrame.
+	 * @param frame this is direct ByteBuffer from JNI layer and you should handle it's byte order and limitation.
+	 * @param info description of the frame. the instance is reused for every frame
+	 * and its values are valid only while this method is running, copy them if you need to keep them.
+	 */
+	public void onFrame(ByteBuffer frame, FrameInfo info);
+}
@@ -0,0 +1,60 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb;
+
+/**
+ * Stage of native frame pipeline graph.
+ * The first stage is set to UVCCamera#setPipeline and receives captured frames(YUYV or MJPEG),
+ * then each stage handles the frame on its own thread and passes it to next stage(s).
+ * All stages are native objects, so you should call #release when you don't need it
+ * after removing it from UVCCamera and from previous stages.
+ */
+public interface IPipeline {
+	// same values as pipeline_state_t in IPipeline.h
+	public static final int STATE_UNINITIALIZED = 0;
+	public static final int STATE_RELEASING = 10;
+	public static final int STATE_INITIALIZED = 20;
+	public static final int STATE_STARTING = 30;
+	public static final int STATE_RUNNING = 40;
+	public static final int STATE_STOPPING = 50;
+
+	/**
+	 * @return STATE_XXX
+	 */
+	public int getState();
+	/**
+	 * set next stage of this stage
+	 * @param pipeline null to remove
+	 */
+	public void setPipeline(IPipeline pipeline);
+	/**
+	 * start the thread of this stage, frames are dropped until this is called
+	 */
+	public void start();
+	public void stop();
+	/**
+	 * stop and release the native object
+	 */
+	public void release();
+}
@@ -0,0 +1,161 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * JPEG encoder that compresses YUYV/NV12/NV21 frames with the bundled libjpeg-turbo
+ * directly from the frame buffer, without converting to RGB/Bitmap.
+ * The output buffer is reused by the caller, so no memory is allocated for each frame.
+ * Pass frames of IFrameCallback as follows:
+ * UVCCamera.PIXEL_FORMAT_YUV  -> FORMAT_YUYV
+ * UVCCamera.PIXEL_FORMAT_NV21 -> FORMAT_NV12 (chroma of this format is stored in U/V order)
+ * UVCCamera.PIXEL_FORMAT_YUV420SP -> FORMAT_NV21
+ */
+public class JpegEncoder {
+	// same values as JPEG_ENCODER_FORMAT_XXX in JpegEncoder.h
+	public static final int FORMAT_YUYV = 0;
+	public static final int FORMAT_NV12 = 1;
+	public static final int FORMAT_NV21 = 2;
+
+	// same values as TJSAMP_XXX in turbojpeg.h
+	public static final int SUBSAMPLING_444 = 0;
+	public static final int SUBSAMPLING_422 = 1;
+	public static final int SUBSAMPLING_420 = 2;
+	public static final int SUBSAMPLING_GRAY = 3;
+
+	public static final int DEFAULT_QUALITY = 90;
+
+	private static boolean isLoaded;
+	static {
+		if (!isLoaded) {
+			System.loadLibrary("jpeg-turbo1500");
+			System.loadLibrary("usb100");
+			System.loadLibrary("uvc");
+			System.loadLibrary("UVCCamera");
+			isLoaded = true;
+		}
+	}
+
+	// this field is accessed from native code and do not change name and remove
+	private long mNativePtr;
+	private int mQuality = DEFAULT_QUALITY;
+	private int mSubsampling = SUBSAMPLING_420;
+
+	public JpegEncoder() {
+		nativeCreate();
+	}
+
+	public synchronized void release() {
+		if (mNativePtr != 0) {
+			nativeDestroy(mNativePtr);
+			mNativePtr = 0;
+		}
+	}
+
+	/**
+	 * @param quality [1, 100]
+	 */
+	public synchronized void setQuality(final int quality) {
+		if ((quality < 1) || (quality > 100)) {
+			throw new IllegalArgumentException("quality should be in [1, 100]:" + quality);
+		}
+		mQuality = quality;
+	}
+
+	public synchronized int getQuality() {
+		return mQuality;
+	}
+
+	/**
+	 * @param subsampling one of SUBSAMPLING_444, SUBSAMPLING_422, SUBSAMPLING_420 and SUBSAMPLING_GRAY
+	 */
+	public synchronized void setSubsampling(final int subsampling) {
+		if ((subsampling < SUBSAMPLING_444) || (subsampling > SUBSAMPLING_GRAY)) {
+			throw new IllegalArgumentException("unknown subsampling:" + subsampling);
+		}
+		mSubsampling = subsampling;
+	}
+
+	public synchronized int getSubsampling() {
+		return mSubsampling;
+	}
+
+	/**
+	 * encode frame in direct ByteBuffer into direct ByteBuffer.
+	 * JPEG data is written from the beginning of dst and dst's limit is set to its end.
+	 * @param src direct ByteBuffer of frame data
+	 * @param width should be even
+	 * @param height should be even
+	 * @param format FORMAT_YUYV, FORMAT_NV12 or FORMAT_NV21
+	 * @param dst direct ByteBuffer, capacity should be #getMaxBytes or larger
+	 * @return bytes of JPEG data, negative value on error
+	 */
+	public synchronized int encode(final ByteBuffer src, final int width, final int height,
+		final int format, final ByteBuffer dst) {
+
+		final int result = mNativePtr != 0
+			? nativeEncode(mNativePtr, src, width, height, format, dst, mQuality, mSubsampling) : -1;
+		if (result > 0) {
+			dst.clear();
+			dst.limit(result);
+		}
+		return result;
+	}
+
+	/**
+	 * encode frame in byte array into byte array
+	 * @param src frame data
+	 * @param width should be even
+	 * @param height should be even
+	 * @param format FORMAT_YUYV, FORMAT_NV12 or FORMAT_NV21
+	 * @param dst length should be #getMaxBytes or larger
+	 * @return bytes of JPEG data, negative value on error
+	 */
+	public synchronized int encode(final byte[] src, final int width, final int height,
+		final int format, final byte[] dst) {
+
+		return mNativePtr != 0
+			? nativeEncodeArray(mNativePtr, src, width, height, format, dst, mQuality, mSubsampling) : -1;
+	}
+
+	/**
+	 * @return required size of output buffer of #encode
+	 */
+	public static int getMaxBytes(final int width, final int height, final int subsampling) {
+		return nativeGetMaxBytes(width, height, subsampling);
+	}
+
+	// #nativeCreate and #nativeDestroy are not static methods.
+	private final native long nativeCreate();
+	private final native void nativeDestroy(final long id_encoder);
+	private static final native int nativeEncode(final long id_encoder,
+		final ByteBuffer src, final int width, final int height, final int format,
+		final ByteBuffer dst, final int quality, final int subsampling);
+	private static final native int nativeEncodeArray(final long id_encoder,
+		final byte[] src, final int width, final int height, final int format,
+		final byte[] dst, final int quality, final int subsampling);
+	private static final native int nativeGetMaxBytes(final int width, final int height, final int subsampling);
+}
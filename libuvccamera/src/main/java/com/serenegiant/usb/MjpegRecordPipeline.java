@@ -0,0 +1,73 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb;
+
+/**
+ * Stage that records MJPEG frames from the camera into a Matroska (.mkv) file as they are,
+ * without decoding or re-encoding, and passes frames to next stage.
+ * Frames are written on the native thread of this stage with the capture time of each frame.
+ * Only video is recorded. Frames of other formats (e.g. FRAME_FORMAT_YUYV) are not recorded,
+ * so set this stage on UVCCamera directly (or after stages that do not convert frames).
+ * The file is finished when this stage is stopped or released.
+ */
+public class MjpegRecordPipeline extends AbstractPipeline {
+	private final String mOutputPath;
+
+	/**
+	 * @param path output file path, existing file is overwritten
+	 * @throws IllegalArgumentException if the file could not be created
+	 */
+	public MjpegRecordPipeline(final String path) {
+		super(TYPE_MJPEG_RECORD);
+		mOutputPath = path;
+		nativeCreate(path);
+		if (mNativePtr == 0) {
+			throw new IllegalArgumentException("failed to create " + path);
+		}
+	}
+
+	public String getOutputPath() {
+		return mOutputPath;
+	}
+
+	/**
+	 * @return JSON string, {"recording", "frames", "bytes", "durationMs", "skippedFrames", "error"}
+	 */
+	public synchronized String getStats() {
+		return mNativePtr != 0 ? nativeGetStats(mNativePtr) : null;
+	}
+
+	@Override
+	protected final native void nativeDestroy(final long id_pipeline);
+	@Override
+	protected final native int nativeGetState(final long id_pipeline);
+	@Override
+	protected final native int nativeSetPipeline(final long id_pipeline, final IPipeline pipeline);
+	@Override
+	protected final native int nativeStart(final long id_pipeline);
+	@Override
+	protected final native int nativeStop(final long id_pipeline);
+	private final native long nativeCreate(final String path);
+	private static final native String nativeGetStats(final long id_pipeline);
+}
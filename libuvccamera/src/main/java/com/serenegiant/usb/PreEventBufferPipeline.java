@@ -0,0 +1,80 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb;
+
+/**
+ * Stage that keeps the last MJPEG frames in memory-mapped segment files and passes frames
+ * to next stage. The oldest segment is evicted when all segments are full, so the buffered
+ * duration depends on segmentBytes * numSegments and the frame size.
+ * Frames of other formats are not buffered, so put this stage before any ConvertPipeline.
+ */
+public class PreEventBufferPipeline extends AbstractPipeline {
+	/**
+	 * @param dir directory to create segment files, app-internal storage is recommended
+	 * @param segmentBytes size of each segment file in bytes, larger than the maximum frame size
+	 * @param numSegments number of segment files, [2, 64]
+	 * @throws IllegalArgumentException if creating or mapping segment files failed
+	 */
+	public PreEventBufferPipeline(final String dir, final int segmentBytes, final int numSegments) {
+		super(TYPE_PRE_EVENT_BUFFER);
+		nativeCreate(dir, segmentBytes, numSegments);
+		if (mNativePtr == 0) {
+			throw new IllegalArgumentException("failed to create segment files in " + dir);
+		}
+	}
+
+	/**
+	 * write the frames of last durationMs (relative to the latest frame) to the file
+	 * as MJPEG stream (concatenated JPEG images), the default Huffman tables are inserted
+	 * into the frames that do not have them. The live stream keeps running while exporting.
+	 * This blocks until writing finishes, so do not call this on the UI thread.
+	 * @param path output file path
+	 * @param durationMs
+	 * @return number of written frames, negative value on error
+	 */
+	public synchronized int export(final String path, final long durationMs) {
+		return mNativePtr != 0 ? nativeExport(mNativePtr, path, durationMs) : -1;
+	}
+
+	/**
+	 * @return JSON string, {"segments", "segmentBytes", "frames", "durationMs", "droppedFrames", "exports"}
+	 */
+	public synchronized String getStats() {
+		return mNativePtr != 0 ? nativeGetStats(mNativePtr) : null;
+	}
+
+	@Override
+	protected final native void nativeDestroy(final long id_pipeline);
+	@Override
+	protected final native int nativeGetState(final long id_pipeline);
+	@Override
+	protected final native int nativeSetPipeline(final long id_pipeline, final IPipeline pipeline);
+	@Override
+	protected final native int nativeStart(final long id_pipeline);
+	@Override
+	protected final native int nativeStop(final long id_pipeline);
+	private final native long nativeCreate(final String dir, final int segmentBytes, final int numSegments);
+	private static final native int nativeExport(final long id_pipeline, final String path, final long durationMs);
+	private static final native String nativeGetStats(final long id_pipeline);
+}
@@ -23,6 +23,7 @@
 
 package com.serenegiant.usb;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -51,6 +52,11 @@ public class UVCCamera {
 	public static final int DEFAULT_PREVIEW_MAX_FPS = 30;
 	public static final float DEFAULT_BANDWIDTH = 1.0f;
 
+	/**
+	 * same value as UVC_ERROR_TIMEOUT in libuvc.h
+	 */
+	public static final int UVC_ERROR_TIMEOUT = -7;
+
 	public static final int FRAME_FORMAT_YUYV = 0;
 	public static final int FRAME_FORMAT_MJPEG = 1;
 
@@ -61,6 +67,29 @@ public class UVCCamera {
 	public static final int PIXEL_FORMAT_YUV420SP = 4;
 	public static final int PIXEL_FORMAT_NV21 = 5;		// = YVU420SemiPlanar
 
+	// index of the array of #getFrameDrops and IFrameDropCallback#onFrameDrop
+	/** broken payload header or frame buffer overflow, usually USB bandwidth/transfer error */
+	public static final int DROP_PAYLOAD_ERROR = 0;
+	/** frame was overwritten in libuvc before the native callback thread took it */
+	public static final int DROP_SEQUENCE_GAP = 1;
+	/** size/resolution of the frame does not match, usually lost packets of uncompressed frame */
+	public static final int DROP_INVALID_SIZE = 2;
+	/** could not get frame buffer from native frame pool */
+	public static final int DROP_NO_BUFFER = 3;
+	/** preview thread did not keep up with the camera */
+	public static final int DROP_PREVIEW_QUEUE_FULL = 4;
+	/** capture thread(capture Surface/IFrameCallback) did not keep up with preview thread */
+	public static final int DROP_CAPTURE_OVERWRITE = 5;
+	/** FrameReader did not acquire/release frames fast enough and a frame was dropped by its drop policy */
+	public static final int DROP_READER_FULL = 6;
+	/** payloads that were not written into the payload recording because the storage did not keep up,
+	 * this counts payloads and the frames are not dropped from the preview, see #setPayloadRecording */
+	public static final int DROP_RECORDER_FULL = 7;
+	public static final int NUM_DROP_REASONS = 8;
+	public static final int DEFAULT_DROP_NOTIFY_INTERVAL_MS = 1000;
+	// for #setTransferCount
+	public static final int TRANSFERS_AUTO = -1;
+
 	//--------------------------------------------------------------------------------
     public static final int	CTRL_SCANNING		= 0x00000001;	// D0:  Scanning Mode
     public static final int CTRL_AE				= 0x00000002;	// D1:  Auto-Exposure Mode
@@ -128,6 +157,13 @@ public class UVCCamera {
 	}
 
 	private UsbControlBlock mCtrlBlock;
+	private FrameReader mFrameReader;
+	private IPipeline mPipeline;
+	/**
+	 * lock for #waitBurst and #getBurstStats instead of this instance
+	 * so that waiting does not block other methods, native object is released with this lock
+	 */
+	private final Object mBurstSync = new Object();
     protected long mControlSupports;			// カメラコントロールでサポートしている機能フラグ
     protected long mProcSupports;				// プロセッシングユニットでサポートしている機能フラグ
     protected int mCurrentFrameFormat = FRAME_FORMAT_MJPEG;
@@ -238,8 +274,14 @@ public class UVCCamera {
      */
     public synchronized void close() {
     	stopPreview();
+    	if ((mNativePtr != 0) && (mPipeline != null)) {
+    		nativeSetPipeline(mNativePtr, null);
+    		mPipeline = null;
+    	}
     	if (mNativePtr != 0) {
-    		nativeRelease(mNativePtr);
+    		synchronized (mBurstSync) {
+    			nativeRelease(mNativePtr);
+    		}
 //    		mNativePtr = 0;	// nativeDestroyを呼ぶのでここでクリアしちゃダメ
     	}
     	if (mCtrlBlock != null) {
@@ -336,6 +378,13 @@ public class UVCCamera {
 		}
 	}
 
+	/**
+	 * @return frame format that was set by #setPreviewSize, FRAME_FORMAT_YUYV or FRAME_FORMAT_MJPEG
+	 */
+	public synchronized int getFrameFormat() {
+		return mCurrentFrameFormat;
+	}
+
 	public List<Size> getSupportedSizeList() {
 		final int type = (mCurrentFrameFormat > 0) ? 6 : 4;
 		return getSupportedSize(type, mSupportedSize);
@@ -409,8 +458,420 @@ public class UVCCamera {
      * @param pixelFormat
      */
     public void setFrameCallback(final IFrameCallback callback, final int pixelFormat) {
+    	setFrameCallback(callback, pixelFormat, 1);
+    }
+
+    /**
+     * set frame callback with reduced resolution.
+     * on MJPEG mode, frames for callback are decoded with DCT scaling of libjpeg
+     * and their size is ceil(width / scaleDenominator) x ceil(height / scaleDenominator)
+     * (width is rounded down to even for PIXEL_FORMAT_RAW/PIXEL_FORMAT_YUV,
+     * width and height are rounded down to even for PIXEL_FORMAT_NV21/PIXEL_FORMAT_YUV420SP).
+     * preview is not affected. scaleDenominator is ignored on YUYV mode.
+     * @param callback
+     * @param pixelFormat
+     * @param scaleDenominator 1, 2, 4 or 8
+     */
+    public void setFrameCallback(final IFrameCallback callback, final int pixelFormat, final int scaleDenominator) {
+    	switch (scaleDenominator) {
+    	case 1:
+    	case 2:
+    	case 4:
+    	case 8:
+    		break;
+    	default:
+    		throw new IllegalArgumentException("scaleDenominator should be 1, 2, 4 or 8:" + scaleDenominator);
+    	}
+    	if (mNativePtr != 0) {
+        	nativeSetFrameCallback(mNativePtr, callback, pixelFormat, scaleDenominator);
+    	}
+    }
+
+    /**
+     * set frame callback that receives description of each frame(size, layout, capture time, sequence
+     * and dropped frames) with the frame. this replaces the callback of #setFrameCallback and vice versa.
+     * @param callback null to remove
+     * @param pixelFormat
+     * @param scaleDenominator 1, 2, 4 or 8, see #setFrameCallback(IFrameCallback, int, int)
+     */
+    public void setFrameInfoCallback(final IFrameInfoCallback callback, final int pixelFormat, final int scaleDenominator) {
+    	switch (scaleDenominator) {
+    	case 1:
+    	case 2:
+    	case 4:
+    	case 8:
+    		break;
+    	default:
+    		throw new IllegalArgumentException("scaleDenominator should be 1, 2, 4 or 8:" + scaleDenominator);
+    	}
+    	if (mNativePtr != 0) {
+        	nativeSetFrameCallback(mNativePtr, callback, pixelFormat, scaleDenominator);
+    	}
+    }
+
+    /**
+     * create FrameReader that acquires converted frames without copying them and processes them
+     * on any thread, see FrameReader. this replaces the callback of #setFrameCallback/#setFrameInfoCallback
+     * and previous FrameReader is closed.
+     * @param pixelFormat
+     * @param scaleDenominator 1, 2, 4 or 8, see #setFrameCallback(IFrameCallback, int, int)
+     * @param maxFrames max number of frames that are queued or acquired at the same time, 1 to FrameReader.MAX_FRAMES.
+     * the frames come from the native frame pool, so large value increases memory usage.
+     * @param dropPolicy FrameReader.DROP_OLDEST or FrameReader.DROP_NEWEST, which frame is dropped
+     * when maxFrames frames are queued or acquired
+     * @return null if the camera is not opened
+     */
+    public synchronized FrameReader createFrameReader(final int pixelFormat, final int scaleDenominator,
+    	final int maxFrames, final int dropPolicy) {
+
+    	switch (scaleDenominator) {
+    	case 1:
+    	case 2:
+    	case 4:
+    	case 8:
+    		break;
+    	default:
+    		throw new IllegalArgumentException("scaleDenominator should be 1, 2, 4 or 8:" + scaleDenominator);
+    	}
+    	if ((maxFrames < 1) || (maxFrames > FrameReader.MAX_FRAMES)) {
+    		throw new IllegalArgumentException("maxFrames should be 1 to " + FrameReader.MAX_FRAMES + ":" + maxFrames);
+    	}
+    	if ((dropPolicy != FrameReader.DROP_OLDEST) && (dropPolicy != FrameReader.DROP_NEWEST)) {
+    		throw new IllegalArgumentException("unknown dropPolicy:" + dropPolicy);
+    	}
+    	if (mNativePtr == 0) {
+    		return null;
+    	}
+    	if (mFrameReader != null) {
+    		mFrameReader.close();
+    	}
+    	final FrameReader reader = new FrameReader(this, maxFrames);
+    	if (nativeSetFrameReader(mNativePtr, reader, pixelFormat, scaleDenominator, maxFrames, dropPolicy) != 0) {
+    		return null;
+    	}
+    	mFrameReader = reader;
+    	return reader;
+    }
+
+    /**
+     * set first stage of native pipeline graph that receives captured frames(YUYV or MJPEG)
+     * on the capture thread, in addition to #setFrameCallback and capture Surface.
+     * e.g. convert => distribute => callback/preview
+     * <pre>
+     * final ConvertPipeline convert = new ConvertPipeline(PIXEL_FORMAT_YUV);
+     * final DistributePipeline distribute = new DistributePipeline();
+     * convert.setPipeline(distribute);
+     * distribute.addPipeline(callbackPipeline);
+     * distribute.addPipeline(previewPipeline);
+     * // start each stage and then
+     * camera.setPipeline(convert);
+     * </pre>
+     * the camera does not own the pipeline, remove it from the camera before releasing it.
+     * this is removed on #close.
+     * @param pipeline null to remove
+     */
+    public synchronized void setPipeline(final IPipeline pipeline) {
+    	if (mNativePtr != 0) {
+    		nativeSetPipeline(mNativePtr, pipeline);
+    		mPipeline = pipeline;
+    	}
+    }
+
+    public synchronized IPipeline getPipeline() {
+    	return mPipeline;
+    }
+
+    /*package*/synchronized ByteBuffer acquireReaderFrame(final FrameReader reader, final boolean latest, final FrameInfo info) {
+    	// FrameReader calls this without its lock, the reader may be already replaced by new one
+    	return (mNativePtr != 0) && (mFrameReader == reader) ? nativeAcquireReaderFrame(mNativePtr, latest, info) : null;
+    }
+
+    /*package*/synchronized void releaseReaderFrame(final ByteBuffer buffer) {
+    	// frames were already freed if the camera was destroyed
+    	if (mNativePtr != 0) {
+    		nativeReleaseReaderFrame(mNativePtr, buffer);
+    	}
+    }
+
+    /*package*/synchronized void removeFrameReader(final FrameReader reader) {
+    	if (mFrameReader == reader) {
+    		mFrameReader = null;
+    		if (mNativePtr != 0) {
+    			nativeSetFrameCallback(mNativePtr, null, 0, 1);
+    		}
+    	}
+    }
+
+    /**
+     * set whether native side hands over frame buffer of libuvc to preview thread
+     * without copying. this takes effect at next #startPreview
+     * @param zeroCopy
+     */
+    public synchronized void setZeroCopy(final boolean zeroCopy) {
+    	if (mNativePtr != 0) {
+    		nativeSetZeroCopy(mNativePtr, zeroCopy);
+    	}
+    }
+
+    /**
+     * @return total bytes copied in native frame path since #startPreview
+     */
+    public synchronized long getCopiedBytes() {
+    	return mNativePtr != 0 ? nativeGetCopiedBytes(mNativePtr) : 0;
+    }
+
+    /**
+     * @return number of frames received from camera since #startPreview
+     */
+    public synchronized long getCopiedFrames() {
+    	return mNativePtr != 0 ? nativeGetCopiedFrames(mNativePtr) : 0;
+    }
+
+    /**
+     * set number of native threads that decode MJPEG frames for preview.
+     * if numThreads is larger than 1, consecutive MJPEG frames are decoded in parallel
+     * and drawn in the order they arrived, this adds latency of up to numThreads frames.
+     * 1 decodes on the preview thread(default). this takes effect at next #startPreview
+     * and is ignored on YUYV mode.
+     * @param numThreads 1 to 8, number of CPU cores is a good choice
+     */
+    public synchronized void setDecodeThreads(final int numThreads) {
+    	if (mNativePtr != 0) {
+    		nativeSetDecodeThreads(mNativePtr, numThreads);
+    	}
+    }
+
+    /**
+     * set number of native threads that decode one MJPEG frame for preview.
+     * if numThreads is larger than 1 and the frame has restart markers(DRI),
+     * the frame is split into horizontal stripes at the restart markers and they are
+     * decoded in parallel, this reduces latency of large frames like 4K.
+     * frames without restart markers are decoded by one thread.
+     * this is used only when #setDecodeThreads is 1 and takes effect from next frame.
+     * @param numThreads 1 to 8
+     */
+    public synchronized void setStripeDecodeThreads(final int numThreads) {
+    	if (mNativePtr != 0) {
+    		nativeSetStripeDecodeThreads(mNativePtr, numThreads);
+    	}
+    }
+
+    /**
+     * @return number of frames drawn into preview Surface per second, updated every second
+     */
+    public synchronized float getDecodeFps() {
+    	return mNativePtr != 0 ? nativeGetDecodeFps(mNativePtr) : 0;
+    }
+
+    /**
+     * @return max number of decoded frames that had to wait for an earlier frame
+     * since #startPreview, 0 if decode threads are not used
+     */
+    public synchronized int getReorderDepth() {
+    	return mNativePtr != 0 ? nativeGetReorderDepth(mNativePtr) : 0;
+    }
+
+    /**
+     * get latency of each stage of native frame pipeline since #startPreview as JSON string.
+     * {"decodeFps":float, "reorderDepth":int, "drops":{"payloadError":int, "sequenceGap":int, "invalidSize":int,
+     * "noBuffer":int, "previewQueueFull":int, "captureOverwrite":int,
+     * "readerFull":int, "recorderFull":int}(same as #getFrameDrops),
+     * "transfers":[{"interface":int, "isochronous":boolean, "autoTuned":boolean, "transfers":int,
+     * "packetsPerTransfer":int, "bytesPerPacket":int, "transferUs":int, "callbacks":int,
+     * "callbacksPerSec":float}, ...](USB transfers of each stream, see #setTransferCount),
+     * "stages":{"queue":{...}, "decode":{...}, "draw":{...},
+     * "capture":{...}, "callback":{...}, "previewTotal":{...}, "callbackTotal":{...}}}
+     * and each stage is {"count":int, "mean":int, "p50":int, "p90":int, "p99":int, "max":int} in microseconds.
+     * queue: last payload of the frame received => queued to preview thread,
+     * decode: => decoded(without decode threads, this is the waiting time of preview thread
+     * and decoding is included in draw), draw: => drawn into preview Surface,
+     * capture: => queued to capture thread, callback: => IFrameCallback#onFrame returned,
+     * previewTotal/callbackTotal: last payload received => drawn/IFrameCallback#onFrame returned.
+     * percentiles are the upper bound of histogram bucket and their error is less than 25%.
+     * @return null if the camera is not opened
+     */
+    public synchronized String getPipelineStats() {
+    	return mNativePtr != 0 ? nativeGetPipelineStats(mNativePtr) : null;
+    }
+
+    /**
+     * get number of frames that were dropped in native frame pipeline since #startPreview.
+     * DROP_PAYLOAD_ERROR and DROP_INVALID_SIZE usually mean loss on USB,
+     * DROP_SEQUENCE_GAP, DROP_PREVIEW_QUEUE_FULL, DROP_CAPTURE_OVERWRITE and DROP_READER_FULL mean
+     * the consumer did not keep up with the camera.
+     * @return array that has NUM_DROP_REASONS elements indexed by DROP_XXX, null if the camera is not opened
+     */
+    public synchronized int[] getFrameDrops() {
+    	return mNativePtr != 0 ? nativeGetFrameDrops(mNativePtr) : null;
+    }
+
+    /**
+     * set callback that is called periodically with the same values as #getFrameDrops while previewing.
+     * the callback is called on a native thread even if no frame arrives.
+     * @param callback null to remove
+     * @param intervalMs interval of notification in milliseconds
+     * @throws IllegalArgumentException if intervalMs is not positive
+     */
+    public synchronized void setFrameDropCallback(final IFrameDropCallback callback, final int intervalMs) {
+    	if (intervalMs <= 0) {
+    		throw new IllegalArgumentException("invalid interval:" + intervalMs);
+    	}
+    	if (mNativePtr != 0) {
+    		nativeSetFrameDropCallback(mNativePtr, callback, intervalMs);
+    	}
+    }
+
+    public void setFrameDropCallback(final IFrameDropCallback callback) {
+    	setFrameDropCallback(callback, DEFAULT_DROP_NOTIFY_INTERVAL_MS);
+    }
+
+    /**
+     * set number of USB transfers that are queued for the stream, applied at next #startPreview.
+     * more transfers tolerate longer stall of the native USB event thread, fewer transfers use less memory.
+     * with TRANSFERS_AUTO, packets per isochronous transfer and number of transfers are chosen
+     * from frame size, frame interval and packet size of the endpoint so that completion callbacks
+     * are fewer while transfers in flight still cover about 50ms. bulk stream uses default then.
+     * chosen values and callbacks per second are in #getPipelineStats.
+     * @param numTransfers 1 to 32, 0 means default(10), TRANSFERS_AUTO(or any negative value) for auto tuning
+     */
+    public synchronized void setTransferCount(final int numTransfers) {
     	if (mNativePtr != 0) {
-        	nativeSetFrameCallback(mNativePtr, callback, pixelFormat);
+    		nativeSetTransferCount(mNativePtr, numTransfers);
+    	}
+    }
+
+    /**
+     * get memory that native library allocated for streaming as JSON string.
+     * {"streams":[{"interface":int, "transfers":int, "transferBytes":int, "frameBufferBytes":int,
+     * "frameBufferGrows":int}, ...], "framePoolFrames":int, "framePoolBytes":int, "totalBytes":int,
+     * "callbackBufferBinds":int}
+     * frameBufferBytes is sized from the max frame size that the camera reported and
+     * frameBufferGrows counts how many times it grew because the camera sent larger frame.
+     * frameBufferBytes is 0 on zero-copy streaming because frames belong to the frame pool.
+     * callbackBufferBinds counts direct ByteBuffers created for IFrameCallback/IFrameInfoCallback,
+     * they are reused for pooled frames so this stays same while streaming with same size.
+     * @return null if the camera is not opened
+     */
+    public synchronized String getMemoryUsage() {
+    	return mNativePtr != 0 ? nativeGetMemoryUsage(mNativePtr) : null;
+    }
+
+    /**
+     * save the next frame as JPEG file without decoding and re-encoding in MJPEG mode.
+     * Huffman tables that UVC cameras omit are inserted so that any JPEG decoder can read it.
+     * the frame is copied on the capture thread and the file is written on the caller thread,
+     * so this does not stall preview, but blocks until the next frame arrives and is written.
+     * @param path file path that the app can write
+     * @param timeoutMs max time to wait the next frame
+     * @return bytes of the file, negative value on error,
+     * UVC_ERROR_NOT_SUPPORTED(-12) if previewing is not in MJPEG mode
+     */
+    public synchronized int captureStill(final String path, final int timeoutMs) {
+    	return mNativePtr != 0 ? nativeCaptureStill(mNativePtr, path, timeoutMs) : -1;
+    }
+
+    /**
+     * max number of frames of one burst, same as MAX_BURST_FRAMES in BurstCapture.h
+     */
+    public static final int MAX_BURST_FRAMES = 256;
+
+    /**
+     * start capturing consecutive frames from the next frame into the native ring
+     * that is allocated here, and write them as burst_0000.jpg, burst_0001.jpg... into dir
+     * on native encoder threads. MJPEG frames are written without re-encoding
+     * and YUYV frames are encoded with libjpeg-turbo.
+     * the capture thread only copies each frame, so frames are captured at full rate
+     * as long as the ring has free slots. the ring is kept and reused by next burst.
+     * this returns immediately, call #waitBurst to wait for the files.
+     * @param dir directory that the app can write
+     * @param numFrames number of frames, [0, MAX_BURST_FRAMES], 0 means all frames until durationMs
+     * @param durationMs time from the first frame, 0 means until numFrames
+     * @param quality JPEG quality of YUYV frames, [1, 100]
+     * @param numThreads number of encoder threads, [1, 4]
+     * @return 0 on success, negative value on error, UVC_ERROR_BUSY(-6) if previous burst is in progress
+     */
+    public synchronized int startBurst(final String dir, final int numFrames, final int durationMs,
+    	final int quality, final int numThreads) {
+
+    	return mNativePtr != 0 ? nativeStartBurst(mNativePtr, dir, numFrames, durationMs, quality, numThreads) : -1;
+    }
+
+    /**
+     * wait until all captured frames of the burst are written.
+     * this does not lock this instance, but #close and #destroy wait until this returns.
+     * @param timeoutMs 0 means just checking
+     * @return number of written frames, #UVC_ERROR_TIMEOUT if the burst is still in progress,
+     * other negative value if the camera is already closed
+     */
+    public int waitBurst(final int timeoutMs) {
+    	synchronized (mBurstSync) {
+    		final long ptr = mNativePtr;
+    		return ptr != 0 ? nativeWaitBurst(ptr, timeoutMs) : -1;
+    	}
+    }
+
+    /**
+     * stop capturing frames of the burst, frames that were already captured are still written
+     * @return number of captured frames
+     */
+    public synchronized int stopBurst() {
+    	return mNativePtr != 0 ? nativeStopBurst(mNativePtr) : -1;
+    }
+
+    /**
+     * @return JSON string, {"capturing", "finished", "frames", "durationMs", "slots", "slotBytes",
+     * "captured", "written", "dropped", "missed", "errors", "bytes", "captureMs", "elapsedMs"}
+     * dropped is frames that had no free slot, missed is frames that did not reach the capture thread
+     */
+    public String getBurstStats() {
+    	synchronized (mBurstSync) {
+    		final long ptr = mNativePtr;
+    		return ptr != 0 ? nativeGetBurstStats(ptr) : null;
+    	}
+    }
+
+    /**
+     * record every USB payload(with UVC payload header) of the stream into the file
+     * so that the stream can be replayed later without the camera, e.g. to reproduce an issue
+     * that happens only with a specific camera. recording starts at next #startPreview
+     * and ends at #stopPreview. the file grows as fast as the stream(e.g. 10MB/s or more with MJPEG).
+     * payloads are written by a native writer thread, and payloads that could not be buffered
+     * while the storage was slow are missing from the recording and counted as DROP_RECORDER_FULL.
+     * @param path file path that the app can write, null to cancel
+     */
+    public synchronized void setPayloadRecording(final String path) {
+    	if (mNativePtr != 0) {
+    		nativeSetPayloadRecording(mNativePtr, path);
+    	}
+    }
+
+    /**
+     * get information to estimate USB bandwidth of each video format as JSON string,
+     * see BandwidthPlanner.
+     * {"speed":int, "intervalUs":int,
+     * "interfaces":[{"interface":int, "endpoint":int, "isochronous":bool, "bytesPerInterval":[int, ...]}, ...],
+     * "formats":[{"interface":int, "index":int, "type":int, "frames":[{"index":int, "width":int, "height":int,
+     * "maxFrameSize":int, "intervals":[int, ...]}, ...]}, ...]}
+     * speed is the value of libusb_speed(2: full speed, 3: high speed, 4: SuperSpeed, 5: SuperSpeed+),
+     * bytesPerInterval is of each alternate setting including burst/multiplier of the endpoint,
+     * intervals are frame intervals in 100ns(continuous frame intervals are shown as
+     * "minInterval", "maxInterval" and "intervalStep").
+     * @return null if the camera is not opened
+     */
+    public synchronized String getBandwidthInfo() {
+    	return mNativePtr != 0 ? nativeGetBandwidthInfo(mNativePtr) : null;
+    }
+
+    /**
+     * limit the bytes per service interval(125us on high speed or faster, 1ms on full speed)
+     * that the isochronous endpoint reserves on the bus, applied at next #startPreview.
+     * the alternate setting that has this bytes per interval is selected
+     * regardless of the bandwidth factor of #setPreviewSize.
+     * @param bytesPerInterval one of bytesPerInterval of #getBandwidthInfo, 0 to use the bandwidth factor
+     */
+    public synchronized void setBandwidthLimit(final int bytesPerInterval) {
+    	if (mNativePtr != 0) {
+    		nativeSetBandwidthLimit(mNativePtr, bytesPerInterval);
     	}
     }
 
@@ -427,6 +888,9 @@ public class UVCCamera {
      * stop preview
      */
     public synchronized void stopPreview() {
+    	if (mFrameReader != null) {
+    		mFrameReader.close();
+    	}
     	setFrameCallback(null, 0);
     	if (mCtrlBlock != null) {
     		nativeStopPreview(mNativePtr);
@@ -439,8 +903,10 @@ public class UVCCamera {
     public synchronized void destroy() {
     	close();
     	if (mNativePtr != 0) {
-    		nativeDestroy(mNativePtr);
-    		mNativePtr = 0;
+    		synchronized (mBurstSync) {
+    			nativeDestroy(mNativePtr);
+    			mNativePtr = 0;
+    		}
     	}
     }
 
@@ -1048,7 +1514,32 @@ public class UVCCamera {
     private static final native int nativeStartPreview(final long id_camera);
     private static final native int nativeStopPreview(final long id_camera);
     private static final native int nativeSetPreviewDisplay(final long id_camera, final Surface surface);
-    private static final native int nativeSetFrameCallback(final long mNativePtr, final IFrameCallback callback, final int pixelFormat);
+    private static final native int nativeSetFrameCallback(final long mNativePtr, final Object callback, final int pixelFormat, final int scaleDenominator);
+    private static final native int nativeSetPipeline(final long mNativePtr, final IPipeline pipeline);
+    private static final native int nativeSetFrameReader(final long mNativePtr, final FrameReader reader, final int pixelFormat, final int scaleDenominator, final int maxFrames, final int dropPolicy);
+    private static final native ByteBuffer nativeAcquireReaderFrame(final long mNativePtr, final boolean latest, final FrameInfo info);
+    private static final native int nativeReleaseReaderFrame(final long mNativePtr, final ByteBuffer buffer);
+    private static final native int nativeSetZeroCopy(final long mNativePtr, final boolean zeroCopy);
+    private static final native long nativeGetCopiedBytes(final long mNativePtr);
+    private static final native long nativeGetCopiedFrames(final long mNativePtr);
+    private static final native int nativeSetDecodeThreads(final long mNativePtr, final int numThreads);
+    private static final native int nativeSetStripeDecodeThreads(final long mNativePtr, final int numThreads);
+    private static final native float nativeGetDecodeFps(final long mNativePtr);
+    private static final native int nativeGetReorderDepth(final long mNativePtr);
+    private static final native String nativeGetPipelineStats(final long mNativePtr);
+    private static final native int nativeSetFrameDropCallback(final long mNativePtr, final IFrameDropCallback callback, final int intervalMs);
+    private static final native int[] nativeGetFrameDrops(final long mNativePtr);
+    private static final native int nativeSetTransferCount(final long mNativePtr, final int numTransfers);
+    private static final native String nativeGetMemoryUsage(final long mNativePtr);
+    private static final native int nativeCaptureStill(final long mNativePtr, final String path, final int timeoutMs);
+    private static final native int nativeStartBurst(final long mNativePtr, final String dir,
+    	final int numFrames, final int durationMs, final int quality, final int numThreads);
+    private static final native int nativeWaitBurst(final long mNativePtr, final int timeoutMs);
+    private static final native int nativeStopBurst(final long mNativePtr);
+    private static final native String nativeGetBurstStats(final long mNativePtr);
+    private static final native int nativeSetPayloadRecording(final long mNativePtr, final String path);
+    private static final native String nativeGetBandwidthInfo(final long mNativePtr);
+    private static final native int nativeSetBandwidthLimit(final long mNativePtr, final int bytesPerInterval);
 
 //**********************************************************************
     /**
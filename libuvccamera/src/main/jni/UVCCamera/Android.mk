@@ -35,6 +35,7 @@ CFLAGS := -Werror
 
 LOCAL_C_INCLUDES := \
 		$(LOCAL_PATH)/ \
+		$(LOCAL_PATH)/pipeline \
 		$(LOCAL_PATH)/../ \
 		$(LOCAL_PATH)/../rapidjson/include \
 
@@ -48,7 +49,7 @@ LOCAL_LDLIBS := -L$(SYSROOT)/usr/lib -ldl
 LOCAL_LDLIBS += -llog
 LOCAL_LDLIBS += -landroid
 
-LOCAL_SHARED_LIBRARIES += usb100 uvc
+LOCAL_SHARED_LIBRARIES += usb100 uvc jpeg-turbo1500
 
 LOCAL_ARM_MODE := arm
 
@@ -60,7 +61,23 @@ LOCAL_SRC_FILES := \
 		UVCButtonCallback.cpp \
 		UVCStatusCallback.cpp \
 		Parameters.cpp \
-		serenegiant_usb_UVCCamera.cpp
+		JpegEncoder.cpp \
+		BurstCapture.cpp \
+		serenegiant_usb_UVCCamera.cpp \
+		serenegiant_usb_JpegEncoder.cpp \
+		pipeline/common_utils.cpp \
+		pipeline/pipeline_helper.cpp \
+		pipeline/IPipeline.cpp \
+		pipeline/AbstractBufferedPipeline.cpp \
+		pipeline/SimpleBufferedPipeline.cpp \
+		pipeline/CaptureBasePipeline.cpp \
+		pipeline/CallbackPipeline.cpp \
+		pipeline/ConvertPipeline.cpp \
+		pipeline/DistributePipeline.cpp \
+		pipeline/PreviewPipeline.cpp \
+		pipeline/PreEventBufferPipeline.cpp \
+		pipeline/MatroskaWriter.cpp \
+		pipeline/MjpegRecordPipeline.cpp
 
 LOCAL_MODULE    := UVCCamera
 include $(BUILD_SHARED_LIBRARY)
@@ -0,0 +1,548 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: BurstCapture.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#if 1	// set 1 if you don't need debug message
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// ignore LOGV/LOGD/MARK
+	#endif
+	#undef USE_LOGALL
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+	#undef NDEBUG		// depends on definition in Android.mk and Application.mk
+#endif
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <errno.h>
+#include <limits.h>
+#include <time.h>
+
+#include "utilbase.h"
+#include "BurstCapture.h"
+#include "JpegEncoder.h"
+#include "rapidjson/rapidjson.h"
+#include "rapidjson/stringbuffer.h"
+#include "rapidjson/writer.h"
+
+using namespace rapidjson;
+
+static inline int64_t systemTimeNs() {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return ts.tv_sec * 1000000000LL + ts.tv_nsec;
+}
+
+BurstCapture::BurstCapture()
+:	num_slots(0),
+	allocated_slots(0),
+	slot_bytes(0),
+	write_pos(0),
+	read_pos(0),
+	armed(false),
+	running(false),
+	dir(NULL),
+	quality(DEFAULT_BURST_QUALITY),
+	requested_frames(0),
+	duration_ns(0),
+	first_frame_ns(0),
+	last_frame_ns(0),
+	start_time_ns(0),
+	finish_time_ns(0),
+	last_sequence(0),
+	captured(0),
+	written(0),
+	dropped(0),
+	missed(0),
+	errors(0),
+	bytes(0),
+	num_threads(0) {
+
+	ENTER();
+	pthread_mutex_init(&mutex, NULL);
+	pthread_cond_init(&sync, NULL);
+	memset(slots, 0, sizeof(slots));
+	memset(slot_state, 0, sizeof(slot_state));
+	memset(slot_index, 0, sizeof(slot_index));
+	EXIT();
+}
+
+BurstCapture::~BurstCapture() {
+	ENTER();
+	release();
+	pthread_cond_destroy(&sync);
+	pthread_mutex_destroy(&mutex);
+	EXIT();
+}
+
+/**
+ * all frames that were captured are written(or failed), call with mutex locked
+ */
+inline bool BurstCapture::isFinished() const {
+	return !armed && (written + errors >= captured);
+}
+
+/**
+ * start capturing from the next frame, this returns immediately
+ * and frames are written while capturing
+ * @param dir directory to write burst_XXXX.jpg, should exist
+ * @param num_frames number of frames to capture, [0, MAX_BURST_FRAMES], 0 means until duration_ms
+ * @param duration_ms time to capture frames from the first frame, 0 means until num_frames
+ * @param quality JPEG quality of YUYV frames, [1, 100]
+ * @param num_threads number of encoder threads, [1, MAX_BURST_THREADS]
+ * @param frame_bytes max bytes of a frame, size of each slot
+ * @return 0 on success, UVC_ERROR_BUSY if previous burst is in progress
+ */
+int BurstCapture::start(const char *_dir, const int &num_frames, const int &duration_ms,
+	const int &_quality, const int &_num_threads, const size_t &frame_bytes) {
+
+	ENTER();
+
+	if (UNLIKELY(!_dir || (num_frames < 0) || (num_frames > MAX_BURST_FRAMES)
+		|| (duration_ms < 0) || (!num_frames && !duration_ms) || !frame_bytes)) {
+
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+	pthread_mutex_lock(&mutex);
+	const bool busy = armed || !isFinished();
+	pthread_mutex_unlock(&mutex);
+	if (UNLIKELY(busy)) {
+		RETURN(UVC_ERROR_BUSY, int);
+	}
+	// encoder threads of previous burst exit by themselves
+	stop_threads();
+	if (UNLIKELY(!alloc_slots(num_frames ? num_frames : DEFAULT_BURST_SLOTS, frame_bytes))) {
+		RETURN(UVC_ERROR_NO_MEM, int);
+	}
+
+	pthread_mutex_lock(&mutex);
+	{
+		free(dir);
+		dir = strdup(_dir);
+		quality = (_quality >= 1) && (_quality <= 100) ? _quality : DEFAULT_BURST_QUALITY;
+		requested_frames = num_frames;
+		duration_ns = duration_ms * 1000000LL;
+		first_frame_ns = last_frame_ns = finish_time_ns = 0;
+		start_time_ns = systemTimeNs();
+		last_sequence = 0;
+		captured = written = dropped = missed = errors = 0;
+		bytes = 0;
+		write_pos = read_pos = 0;
+		for (int i = 0; i < num_slots; i++) {
+			slot_state[i] = BURST_SLOT_FREE;
+		}
+		running = true;
+		const int n = _num_threads < 1 ? 1 : (_num_threads > MAX_BURST_THREADS ? MAX_BURST_THREADS : _num_threads);
+		for (num_threads = 0; num_threads < n; num_threads++) {
+			if (UNLIKELY(pthread_create(&threads[num_threads], NULL, encoder_thread_func, (void *)this))) {
+				LOGW("failed to create encoder thread:errno=%d", errno);
+				break;
+			}
+		}
+		armed = num_threads > 0;
+		running = armed;
+	}
+	pthread_mutex_unlock(&mutex);
+
+	RETURN(armed ? 0 : UVC_ERROR_OTHER, int);
+}
+
+/**
+ * copy the frame into the free slot, called from the capture thread.
+ * the frame is counted as dropped when all slots are waiting for encoder
+ */
+void BurstCapture::handOverFrame(uvc_frame_t *frame) {
+	pthread_mutex_lock(&mutex);
+	if (UNLIKELY(!armed)) {
+		pthread_mutex_unlock(&mutex);
+		return;
+	}
+	const int64_t now = frame->capture_time_ns ? frame->capture_time_ns : systemTimeNs();
+	if (!first_frame_ns) {
+		first_frame_ns = now;
+	} else if (duration_ns && (now - first_frame_ns >= duration_ns)) {
+		armed = false;
+		if (isFinished()) {
+			finish_time_ns = systemTimeNs();
+		}
+		pthread_cond_broadcast(&sync);
+		pthread_mutex_unlock(&mutex);
+		return;
+	}
+	if (last_sequence && (frame->sequence > last_sequence + 1)) {
+		missed += frame->sequence - last_sequence - 1;
+	}
+	last_sequence = frame->sequence;
+	last_frame_ns = now;
+	const size_t frame_bytes = frame->actual_bytes;
+	int pos = -1;
+	if (LIKELY((slot_state[write_pos] == BURST_SLOT_FREE) && (frame_bytes <= slot_bytes)
+		&& ((frame->frame_format == UVC_FRAME_FORMAT_MJPEG) || (frame->frame_format == UVC_FRAME_FORMAT_YUYV)))) {
+
+		// encoder threads do not touch this slot until it is marked as filled
+		pos = write_pos;
+		slot_index[pos] = captured + dropped;
+		write_pos = (write_pos + 1) % num_slots;
+		captured++;
+	} else {
+		dropped++;
+	}
+	if (requested_frames && (captured + dropped >= (uint32_t)requested_frames)) {
+		armed = false;
+	}
+	pthread_mutex_unlock(&mutex);
+
+	if (LIKELY(pos >= 0)) {
+		uvc_frame_t *slot = slots[pos];
+		memcpy(slot->data, frame->data, frame_bytes);
+		slot->actual_bytes = frame_bytes;
+		slot->width = frame->width;
+		slot->height = frame->height;
+		slot->step = frame->step;
+		slot->frame_format = frame->frame_format;
+		slot->sequence = frame->sequence;
+		slot->capture_time_ns = frame->capture_time_ns;
+		pthread_mutex_lock(&mutex);
+		{
+			slot_state[pos] = BURST_SLOT_FILLED;
+			pthread_cond_broadcast(&sync);
+		}
+		pthread_mutex_unlock(&mutex);
+	} else if (!armed) {
+		// wake up encoder threads so that they can exit when all frames are written
+		pthread_mutex_lock(&mutex);
+		{
+			if (isFinished() && !finish_time_ns) {
+				finish_time_ns = systemTimeNs();
+			}
+			pthread_cond_broadcast(&sync);
+		}
+		pthread_mutex_unlock(&mutex);
+	}
+}
+
+/**
+ * wait until all captured frames are written
+ * @param timeout_ms 0 means just checking
+ * @return number of written frames, UVC_ERROR_TIMEOUT if the burst is still in progress
+ */
+int BurstCapture::wait(const int &timeout_ms) {
+	ENTER();
+
+	struct timespec ts;
+	clock_gettime(CLOCK_REALTIME, &ts);
+	const int64_t t = ts.tv_nsec + timeout_ms * 1000000LL;
+	ts.tv_sec += t / 1000000000LL;
+	ts.tv_nsec = t % 1000000000LL;
+	int result;
+	pthread_mutex_lock(&mutex);
+	{
+		for (; (timeout_ms > 0) && !isFinished() ;) {
+			if (pthread_cond_timedwait(&sync, &mutex, &ts) == ETIMEDOUT) {
+				break;
+			}
+		}
+		result = isFinished() ? (int)written : UVC_ERROR_TIMEOUT;
+	}
+	pthread_mutex_unlock(&mutex);
+
+	RETURN(result, int);
+}
+
+/**
+ * stop capturing, frames that were already captured are still written
+ * @return number of captured frames
+ */
+int BurstCapture::cancel() {
+	ENTER();
+
+	int result;
+	pthread_mutex_lock(&mutex);
+	{
+		armed = false;
+		if (isFinished() && !finish_time_ns) {
+			finish_time_ns = systemTimeNs();
+		}
+		result = (int)captured;
+		pthread_cond_broadcast(&sync);
+	}
+	pthread_mutex_unlock(&mutex);
+
+	RETURN(result, int);
+}
+
+/**
+ * stop capturing and encoding immediately and release slots
+ */
+void BurstCapture::release() {
+	ENTER();
+
+	pthread_mutex_lock(&mutex);
+	{
+		armed = false;
+	}
+	pthread_mutex_unlock(&mutex);
+	stop_threads();
+	free_slots();
+	free(dir);
+	dir = NULL;
+
+	EXIT();
+}
+
+/**
+ * stop encoder threads and wait for them to exit,
+ * each thread finishes the frame that it is writing
+ */
+void BurstCapture::stop_threads() {
+	ENTER();
+
+	pthread_mutex_lock(&mutex);
+	{
+		running = false;
+		pthread_cond_broadcast(&sync);
+	}
+	pthread_mutex_unlock(&mutex);
+	for (int i = 0; i < num_threads; i++) {
+		if (pthread_join(threads[i], NULL) != EXIT_SUCCESS) {
+			LOGW("pthread_join failed");
+		}
+	}
+	num_threads = 0;
+	pthread_mutex_lock(&mutex);
+	{
+		// frames that were not written are counted as dropped
+		if (written + errors < captured) {
+			dropped += captured - written - errors;
+			captured = written + errors;
+		}
+	}
+	pthread_mutex_unlock(&mutex);
+
+	EXIT();
+}
+
+/**
+ * allocate slots, slots of previous burst are reused if they are enough
+ */
+bool BurstCapture::alloc_slots(const int &_num_slots, const size_t &bytes) {
+	ENTER();
+
+	if ((allocated_slots < _num_slots) || (slot_bytes < bytes)) {
+		free_slots();
+		for (int i = 0; i < _num_slots; i++) {
+			slots[i] = uvc_allocate_frame(bytes);
+			if (UNLIKELY(!slots[i])) {
+				LOGE("failed to allocate slot:%d/%d,bytes=%d", i, _num_slots, (int)bytes);
+				free_slots();
+				RETURN(false, bool);
+			}
+			// touch all pages here so that the capture thread does not take page faults
+			memset(slots[i]->data, 0, bytes);
+			allocated_slots = i + 1;
+		}
+		slot_bytes = bytes;
+	}
+	num_slots = _num_slots;
+
+	RETURN(true, bool);
+}
+
+void BurstCapture::free_slots() {
+	ENTER();
+
+	for (int i = 0; i < allocated_slots; i++) {
+		uvc_free_frame(slots[i]);
+		slots[i] = NULL;
+	}
+	allocated_slots = num_slots = 0;
+	slot_bytes = 0;
+
+	EXIT();
+}
+
+/*static*/
+void *BurstCapture::encoder_thread_func(void *vptr_args) {
+	ENTER();
+
+	BurstCapture *burst = reinterpret_cast<BurstCapture *>(vptr_args);
+	if (LIKELY(burst)) {
+		burst->do_encode();
+	}
+
+	PRE_EXIT();
+	pthread_exit(NULL);
+}
+
+/**
+ * take filled slots in the order of capturing and write them,
+ * the thread exits when all frames of the burst are written
+ */
+void BurstCapture::do_encode() {
+	ENTER();
+
+	JpegEncoder encoder;
+	uvc_frame_t *jpeg = uvc_allocate_frame(slot_bytes);
+	uint8_t *buf = NULL;
+	size_t buf_bytes = 0;
+	for ( ; ; ) {
+		pthread_mutex_lock(&mutex);
+		for (; running && (slot_state[read_pos] != BURST_SLOT_FILLED) && !isFinished() ;) {
+			pthread_cond_wait(&sync, &mutex);
+		}
+		if (!running || (slot_state[read_pos] != BURST_SLOT_FILLED)) {
+			pthread_mutex_unlock(&mutex);
+			break;
+		}
+		const int pos = read_pos;
+		const uint32_t index = slot_index[pos];
+		read_pos = (read_pos + 1) % num_slots;
+		slot_state[pos] = BURST_SLOT_ENCODING;
+		pthread_mutex_unlock(&mutex);
+
+		const int result = write_frame(slots[pos], index, encoder, jpeg, &buf, &buf_bytes);
+
+		pthread_mutex_lock(&mutex);
+		{
+			slot_state[pos] = BURST_SLOT_FREE;
+			if (LIKELY(result > 0)) {
+				written++;
+				bytes += result;
+			} else {
+				errors++;
+			}
+			if (isFinished() && !finish_time_ns) {
+				finish_time_ns = systemTimeNs();
+			}
+			pthread_cond_broadcast(&sync);
+		}
+		pthread_mutex_unlock(&mutex);
+	}
+	free(buf);
+	if (jpeg) {
+		uvc_free_frame(jpeg);
+	}
+
+	EXIT();
+}
+
+/**
+ * write the frame as JPEG file, MJPEG frame is written without re-encoding
+ * @return bytes of the file, negative value on error
+ */
+int BurstCapture::write_frame(uvc_frame_t *frame, const uint32_t &index, JpegEncoder &encoder,
+	uvc_frame_t *jpeg, uint8_t **buf, size_t *buf_bytes) {
+
+	ENTER();
+
+	const uint8_t *data = NULL;
+	size_t data_bytes = 0;
+	int result = 0;
+	if (frame->frame_format == UVC_FRAME_FORMAT_MJPEG) {
+		result = jpeg ? uvc_mjpeg2jpeg(frame, jpeg) : UVC_ERROR_NO_MEM;
+		if (LIKELY(!result)) {
+			data = (const uint8_t *)jpeg->data;
+			data_bytes = jpeg->actual_bytes;
+		}
+	} else {
+		const size_t max_bytes = JpegEncoder::getMaxBytes(frame->width, frame->height, TJSAMP_420);
+		if (*buf_bytes < max_bytes) {
+			uint8_t *p = (uint8_t *)realloc(*buf, max_bytes);
+			if (LIKELY(p)) {
+				*buf = p;
+				*buf_bytes = max_bytes;
+			}
+		}
+		result = *buf_bytes >= max_bytes
+			? encoder.encode((const uint8_t *)frame->data, frame->width, frame->height,
+				JPEG_ENCODER_FORMAT_YUYV, *buf, *buf_bytes, quality, TJSAMP_420)
+			: UVC_ERROR_NO_MEM;
+		if (LIKELY(result > 0)) {
+			data = *buf;
+			data_bytes = result;
+			result = 0;
+		}
+	}
+	if (LIKELY(!result)) {
+		char path[PATH_MAX];
+		snprintf(path, sizeof(path), "%s/burst_%04u.jpg", dir, index);
+		FILE *fp = fopen(path, "wb");
+		if (LIKELY(fp)) {
+			const size_t w = fwrite(data, 1, data_bytes, fp);
+			result = (!fclose(fp) && (w == data_bytes)) ? (int)w : UVC_ERROR_IO;
+		} else {
+			LOGE("failed to open %s:errno=%d", path, errno);
+			result = UVC_ERROR_IO;
+		}
+	}
+
+	RETURN(result, int);
+}
+
+/**
+ * @return JSON string, should be freed by caller
+ */
+char *BurstCapture::getStats() {
+	StringBuffer buffer;
+	Writer<StringBuffer> json(buffer);
+
+	pthread_mutex_lock(&mutex);
+	json.StartObject();
+	{
+		json.String("capturing");
+		json.Bool(armed);
+		json.String("finished");
+		json.Bool(isFinished());
+		json.String("frames");
+		json.Int(requested_frames);
+		json.String("durationMs");
+		json.Int64(duration_ns / 1000000LL);
+		json.String("slots");
+		json.Int(num_slots);
+		json.String("slotBytes");
+		json.Uint64(slot_bytes);
+		json.String("captured");
+		json.Uint(captured);
+		json.String("written");
+		json.Uint(written);
+		json.String("dropped");
+		json.Uint(dropped);
+		json.String("missed");
+		json.Uint(missed);
+		json.String("errors");
+		json.Uint(errors);
+		json.String("bytes");
+		json.Uint64(bytes);
+		json.String("captureMs");
+		json.Int64((last_frame_ns - first_frame_ns) / 1000000LL);
+		json.String("elapsedMs");
+		json.Int64(start_time_ns
+			? ((finish_time_ns ? finish_time_ns : systemTimeNs()) - start_time_ns) / 1000000LL : 0);
+	}
+	json.EndObject();
+	pthread_mutex_unlock(&mutex);
+
+	return strdup(buffer.GetString());
+}
@@ -0,0 +1,103 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: BurstCapture.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef BURSTCAPTURE_H_
+#define BURSTCAPTURE_H_
+
+#include <pthread.h>
+#include "libuvc/libuvc.h"
+
+#pragma interface
+
+#define MAX_BURST_FRAMES 256		// max number of slots of the ring
+#define DEFAULT_BURST_SLOTS 60		// number of slots when only the duration is specified
+#define MAX_BURST_THREADS 4
+#define DEFAULT_BURST_QUALITY 90	// JPEG quality of YUYV frames
+
+#define BURST_SLOT_FREE 0
+#define BURST_SLOT_FILLED 1			// copied by the capture thread, waiting for encoder
+#define BURST_SLOT_ENCODING 2
+
+class JpegEncoder;
+
+/**
+ * capture consecutive frames into a preallocated ring and write them as JPEG files
+ * (burst_0000.jpg, burst_0001.jpg...) on encoder threads.
+ * the capture thread only copies each frame into the free slot, MJPEG frames are saved
+ * as they are(with Huffman tables) and YUYV frames are encoded by JpegEncoder.
+ * slots are kept after the burst and reused by next burst of same or smaller size.
+ */
+class BurstCapture {
+private:
+	pthread_mutex_t mutex;
+	pthread_cond_t sync;			// signaled when a slot is filled or freed
+	uvc_frame_t *slots[MAX_BURST_FRAMES];
+	int slot_state[MAX_BURST_FRAMES];
+	uint32_t slot_index[MAX_BURST_FRAMES];	// frame number in the burst, used for file name
+	int num_slots;					// slots of current burst
+	int allocated_slots;
+	size_t slot_bytes;
+	int write_pos;					// next slot that the capture thread fills
+	int read_pos;					// next slot that encoder threads take
+	volatile bool armed;			// true while capturing frames
+	bool running;					// true while encoder threads are running
+	char *dir;
+	int quality;
+	int requested_frames;			// 0 means unlimited(until duration)
+	int64_t duration_ns;			// 0 means unlimited(until requested_frames)
+	int64_t first_frame_ns;
+	int64_t last_frame_ns;
+	int64_t start_time_ns;
+	int64_t finish_time_ns;
+	uint32_t last_sequence;
+	uint32_t captured;				// frames copied into slots
+	uint32_t written;				// frames written into files
+	uint32_t dropped;				// frames that could not be copied(no free slot or too large)
+	uint32_t missed;				// frames that did not reach the capture thread, gaps of sequence
+	uint32_t errors;				// frames that could not be encoded or written
+	uint64_t bytes;
+	pthread_t threads[MAX_BURST_THREADS];
+	int num_threads;
+	static void *encoder_thread_func(void *vptr_args);
+	void do_encode();
+	int write_frame(uvc_frame_t *frame, const uint32_t &index, JpegEncoder &encoder,
+		uvc_frame_t *jpeg, uint8_t **buf, size_t *buf_bytes);
+	bool alloc_slots(const int &slots, const size_t &bytes);
+	void free_slots();
+	void stop_threads();
+	inline bool isFinished() const;
+public:
+	BurstCapture();
+	~BurstCapture();
+	inline bool isArmed() const { return armed; };
+	int start(const char *dir, const int &num_frames, const int &duration_ms,
+		const int &quality, const int &num_threads, const size_t &frame_bytes);
+	void handOverFrame(uvc_frame_t *frame);
+	int wait(const int &timeout_ms);
+	int cancel();
+	void release();
+	char *getStats();
+};
+
+#endif /* BURSTCAPTURE_H_ */
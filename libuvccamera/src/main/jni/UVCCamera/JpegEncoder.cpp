@@ -0,0 +1,331 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: JpegEncoder.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#if 1	// set 1 if you don't need debug message
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// ignore LOGV/LOGD/MARK
+	#endif
+	#undef USE_LOGALL
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+	#undef NDEBUG		// depends on definition in Android.mk and Application.mk
+#endif
+
+#include <string.h>
+
+#include "utilbase.h"
+#include "libuvc/libuvc.h"
+#include "JpegEncoder.h"
+
+#define ROUND_UP_8(v) (((v) + 7) & ~7)
+
+void JpegEncoder::error_exit(j_common_ptr cinfo) {
+	error_mgr *myerr = (error_mgr *)cinfo->err;
+#ifndef NDEBUG
+	char err_msg[JMSG_LENGTH_MAX];
+	(*cinfo->err->format_message)(cinfo, err_msg);
+	LOGW("err=%s", err_msg);
+#endif
+	longjmp(myerr->jmp, 1);
+}
+
+JpegEncoder::JpegEncoder()
+:	initialized(false),
+	rows(NULL),
+	rows_bytes(0) {
+
+	ENTER();
+	memset(&cinfo, 0, sizeof(cinfo));
+	cinfo.err = jpeg_std_error(&jerr.super);
+	jerr.super.error_exit = error_exit;
+	if (LIKELY(!setjmp(jerr.jmp))) {
+		jpeg_create_compress(&cinfo);
+		initialized = true;
+	} else {
+		LOGE("jpeg_create_compress failed");
+	}
+	EXIT();
+}
+
+JpegEncoder::~JpegEncoder() {
+	ENTER();
+	if (initialized) {
+		jpeg_destroy_compress(&cinfo);
+		initialized = false;
+	}
+	free(rows);
+	rows = NULL;
+	EXIT();
+}
+
+bool JpegEncoder::ensure_rows(const size_t &bytes) {
+	if (UNLIKELY(rows_bytes < bytes)) {
+		uint8_t *p = (uint8_t *)realloc(rows, bytes);
+		if (UNLIKELY(!p)) {
+			return false;
+		}
+		rows = p;
+		rows_bytes = bytes;
+	}
+	return true;
+}
+
+/**
+ * libjpeg reads each row up to the multiple of 8 samples, fill the rest by the last sample
+ */
+static inline void pad_row(uint8_t *row, const int &width, const int &padded) {
+	if (padded > width) {
+		memset(row + width, row[width - 1], padded - width);
+	}
+}
+
+/**
+ * de-interleave luma/chroma rows of the MCU row that starts at mcu_y from YUYV,
+ * chroma is averaged vertically for 4:2:0 and duplicated horizontally for 4:4:4.
+ * rows below the frame repeat the last row
+ */
+void JpegEncoder::fill_yuyv(const uint8_t *src, const int &width, const int &height,
+	const int &subsampling, const int &mcu_y,
+	JSAMPROW *y_rows, JSAMPROW *u_rows, JSAMPROW *v_rows) {
+
+	const int mcu_h = subsampling == TJSAMP_420 ? 16 : 8;
+	const int src_step = width * 2;
+	const int yw = ROUND_UP_8(width);
+	for (int i = 0; i < mcu_h; i++) {
+		const int r = mcu_y + i < height ? mcu_y + i : height - 1;
+		if (UNLIKELY(r < mcu_y + i)) {
+			y_rows[i] = y_rows[i - 1];
+			continue;
+		}
+		const uint8_t *yuv = src + src_step * r;
+		uint8_t *yy = rows + yw * i;
+		for (int w = 0; w < width; w += 2) {
+			yy[w] = yuv[2 * w];
+			yy[w + 1] = yuv[2 * w + 2];
+		}
+		pad_row(yy, width, yw);
+		y_rows[i] = yy;
+	}
+	if (subsampling == TJSAMP_GRAY) return;
+
+	const int cw = subsampling == TJSAMP_444 ? width : width / 2;
+	const int cwp = ROUND_UP_8(cw);
+	uint8_t *u_buf = rows + yw * mcu_h;
+	uint8_t *v_buf = u_buf + cwp * DCTSIZE;
+	for (int i = 0; i < DCTSIZE; i++) {
+		uint8_t *uu = u_buf + cwp * i, *vv = v_buf + cwp * i;
+		if (subsampling == TJSAMP_420) {
+			const int r = mcu_y + 2 * i < height ? mcu_y + 2 * i : height - 2;
+			const uint8_t *yuv = src + src_step * r;
+			const uint8_t *yuv1 = yuv + src_step;
+			for (int j = 0; j < cw; j++) {
+				uu[j] = (yuv[4 * j + 1] + yuv1[4 * j + 1] + 1) >> 1;
+				vv[j] = (yuv[4 * j + 3] + yuv1[4 * j + 3] + 1) >> 1;
+			}
+		} else {
+			const int r = mcu_y + i < height ? mcu_y + i : height - 1;
+			const uint8_t *yuv = src + src_step * r;
+			if (subsampling == TJSAMP_444) {
+				for (int j = 0; j < width / 2; j++) {
+					uu[2 * j] = uu[2 * j + 1] = yuv[4 * j + 1];
+					vv[2 * j] = vv[2 * j + 1] = yuv[4 * j + 3];
+				}
+			} else {
+				for (int j = 0; j < cw; j++) {
+					uu[j] = yuv[4 * j + 1];
+					vv[j] = yuv[4 * j + 3];
+				}
+			}
+		}
+		pad_row(uu, cw, cwp);
+		pad_row(vv, cw, cwp);
+		u_rows[i] = uu;
+		v_rows[i] = vv;
+	}
+}
+
+/**
+ * set luma rows of the MCU row that starts at mcu_y into the Y plane of NV12/NV21 as is
+ * (copied only when width is not a multiple of 8) and de-interleave only the chroma rows of that MCU row,
+ * chroma row is used twice vertically for 4:2:2/4:4:4 and duplicated horizontally for 4:4:4.
+ * rows below the frame repeat the last row
+ */
+void JpegEncoder::fill_nv(const uint8_t *src, const int &width, const int &height, const int &format,
+	const int &subsampling, const int &mcu_y, JSAMPROW *y_rows, JSAMPROW *u_rows, JSAMPROW *v_rows) {
+
+	const int mcu_h = subsampling == TJSAMP_420 ? 16 : 8;
+	const int yw = ROUND_UP_8(width);
+	for (int i = 0; i < mcu_h; i++) {
+		const int r = mcu_y + i < height ? mcu_y + i : height - 1;
+		if (LIKELY(yw == width)) {
+			// libjpeg never writes into input rows
+			y_rows[i] = (JSAMPROW)(src + width * r);
+		} else {
+			// copy to pad the last block instead of reading the head of next row
+			uint8_t *yy = rows + yw * i;
+			memcpy(yy, src + width * r, width);
+			pad_row(yy, width, yw);
+			y_rows[i] = yy;
+		}
+	}
+	if (subsampling == TJSAMP_GRAY) return;
+
+	const uint8_t *uv_plane = src + width * height;
+	const int u_offset = format == JPEG_ENCODER_FORMAT_NV12 ? 0 : 1;
+	const int v_offset = 1 - u_offset;
+	const int ch = height / 2;
+	const int cw = subsampling == TJSAMP_444 ? width : width / 2;
+	const int cwp = ROUND_UP_8(cw);
+	uint8_t *u_buf = rows + (yw == width ? 0 : yw * mcu_h);
+	uint8_t *v_buf = u_buf + cwp * DCTSIZE;
+	int prev = -1;
+	for (int i = 0; i < DCTSIZE; i++) {
+		// source chroma has half height
+		int r = subsampling == TJSAMP_420 ? mcu_y / 2 + i : (mcu_y + i) / 2;
+		if (UNLIKELY(r >= ch)) r = ch - 1;
+		if (r == prev) {
+			u_rows[i] = u_rows[i - 1];
+			v_rows[i] = v_rows[i - 1];
+			continue;
+		}
+		prev = r;
+		const uint8_t *uv = uv_plane + width * r;
+		uint8_t *uu = u_buf + cwp * i, *vv = v_buf + cwp * i;
+		if (subsampling == TJSAMP_444) {
+			for (int j = 0; j < width / 2; j++) {
+				uu[2 * j] = uu[2 * j + 1] = uv[2 * j + u_offset];
+				vv[2 * j] = vv[2 * j + 1] = uv[2 * j + v_offset];
+			}
+		} else {
+			for (int j = 0; j < cw; j++) {
+				uu[j] = uv[2 * j + u_offset];
+				vv[j] = uv[2 * j + v_offset];
+			}
+		}
+		pad_row(uu, cw, cwp);
+		pad_row(vv, cw, cwp);
+		u_rows[i] = uu;
+		v_rows[i] = vv;
+	}
+}
+
+/**
+ * @param src frame data, getFrameBytes(width, height, format) bytes
+ * @param width should be even
+ * @param height should be even
+ * @param format JPEG_ENCODER_FORMAT_XXX
+ * @param dst output buffer, should be getMaxBytes(width, height, subsampling) bytes or more
+ * @param quality 1-100
+ * @param subsampling TJSAMP_444, TJSAMP_422, TJSAMP_420 or TJSAMP_GRAY
+ * @return bytes of JPEG data, negative value on error
+ */
+int JpegEncoder::encode(const uint8_t *src, const int &width, const int &height, const int &format,
+	uint8_t *dst, const size_t &dst_bytes, const int &quality, const int &subsampling) {
+
+	ENTER();
+
+	if (UNLIKELY(!initialized || !src || !dst
+		|| (width <= 0) || (height <= 0) || (width & 1) || (height & 1)
+		|| ((format != JPEG_ENCODER_FORMAT_YUYV) && (format != JPEG_ENCODER_FORMAT_NV12)
+			&& (format != JPEG_ENCODER_FORMAT_NV21))
+		|| (quality < 1) || (quality > 100)
+		|| ((subsampling != TJSAMP_444) && (subsampling != TJSAMP_422)
+			&& (subsampling != TJSAMP_420) && (subsampling != TJSAMP_GRAY))
+		|| (dst_bytes < getMaxBytes(width, height, subsampling)))) {
+
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+	const bool gray = subsampling == TJSAMP_GRAY;
+	const int mcu_h = subsampling == TJSAMP_420 ? 16 : 8;
+	const int cw = subsampling == TJSAMP_444 ? width : width / 2;
+	// NV12/NV21 luma rows are used in place unless they need padding
+	const size_t bytes = ((format == JPEG_ENCODER_FORMAT_YUYV) || (width & 7) ? ROUND_UP_8(width) * mcu_h : 0)
+		+ (gray ? 0 : ROUND_UP_8(cw) * DCTSIZE * 2);
+	if (UNLIKELY(!ensure_rows(bytes))) {
+		RETURN(UVC_ERROR_NO_MEM, int);
+	}
+	JSAMPROW y_rows[16], u_rows[DCTSIZE], v_rows[DCTSIZE];
+	JSAMPARRAY planes[3] = { y_rows, u_rows, v_rows };
+	unsigned char *jpeg = dst;
+	unsigned long jpeg_bytes = dst_bytes;
+
+	if (setjmp(jerr.jmp)) {
+		jpeg_abort_compress(&cinfo);
+		RETURN(UVC_ERROR_OTHER, int);
+	}
+	jpeg_mem_dest(&cinfo, &jpeg, &jpeg_bytes);
+	cinfo.image_width = width;
+	cinfo.image_height = height;
+	cinfo.input_components = gray ? 1 : 3;
+	cinfo.in_color_space = gray ? JCS_GRAYSCALE : JCS_YCbCr;
+	jpeg_set_defaults(&cinfo);
+	jpeg_set_quality(&cinfo, quality, TRUE);
+	cinfo.raw_data_in = TRUE;
+	cinfo.dct_method = JDCT_IFAST;
+	cinfo.comp_info[0].h_samp_factor = subsampling == TJSAMP_422 || subsampling == TJSAMP_420 ? 2 : 1;
+	cinfo.comp_info[0].v_samp_factor = subsampling == TJSAMP_420 ? 2 : 1;
+	if (!gray) {
+		for (int i = 1; i < 3; i++) {
+			cinfo.comp_info[i].h_samp_factor = cinfo.comp_info[i].v_samp_factor = 1;
+		}
+	}
+	jpeg_start_compress(&cinfo, TRUE);
+	while (cinfo.next_scanline < cinfo.image_height) {
+		if (format == JPEG_ENCODER_FORMAT_YUYV) {
+			fill_yuyv(src, width, height, subsampling, cinfo.next_scanline, y_rows, u_rows, v_rows);
+		} else {
+			fill_nv(src, width, height, format, subsampling, cinfo.next_scanline, y_rows, u_rows, v_rows);
+		}
+		jpeg_write_raw_data(&cinfo, planes, mcu_h);
+	}
+	jpeg_finish_compress(&cinfo);
+
+	int result;
+	if (LIKELY(jpeg == dst)) {
+		result = (int)jpeg_bytes;
+	} else {
+		// libjpeg allocated new buffer because dst was too small, this should not happen
+		LOGW("output buffer overflow");
+		free(jpeg);
+		result = UVC_ERROR_OTHER;
+	}
+
+	RETURN(result, int);
+}
+
+/**
+ * @return max bytes of JPEG data, output buffer of encode should be this size or larger
+ */
+size_t JpegEncoder::getMaxBytes(const int &width, const int &height, const int &subsampling) {
+	const unsigned long bytes = tjBufSize(width, height, subsampling);
+	return bytes == (unsigned long)-1 ? 0 : bytes;
+}
+
+/**
+ * @return bytes of source frame
+ */
+size_t JpegEncoder::getFrameBytes(const int &width, const int &height, const int &format) {
+	return format == JPEG_ENCODER_FORMAT_YUYV ? width * height * 2 : (width * height * 3) / 2;
+}
@@ -0,0 +1,76 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: JpegEncoder.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef JPEGENCODER_H_
+#define JPEGENCODER_H_
+
+#pragma interface
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <stdint.h>
+#include <setjmp.h>
+#include "jpeglib.h"
+#include "turbojpeg.h"
+
+// layout of source frame
+#define JPEG_ENCODER_FORMAT_YUYV	0	// packed 4:2:2, Y0 U Y1 V
+#define JPEG_ENCODER_FORMAT_NV12	1	// Y plane followed by interleaved U/V(4:2:0)
+#define JPEG_ENCODER_FORMAT_NV21	2	// Y plane followed by interleaved V/U(4:2:0)
+
+/**
+ * encode YUYV/NV12/NV21 frame into JPEG with libjpeg-turbo without color conversion.
+ * frame is passed to jpeg_write_raw_data one MCU row at a time like YuvToJpegEncoder,
+ * NV12/NV21 Y rows are used in place and only the chroma (and YUYV luma) of current MCU row
+ * is de-interleaved into a small work buffer, JPEG data is written into the caller's buffer
+ * so no memory is allocated while encoding frames of same size.
+ * not thread safe, the caller should serialize calls.
+ */
+class JpegEncoder {
+private:
+	struct error_mgr {
+		struct jpeg_error_mgr super;
+		jmp_buf jmp;
+	};
+	struct jpeg_compress_struct cinfo;
+	struct error_mgr jerr;
+	bool initialized;
+	uint8_t *rows;			// work buffer for rows of one MCU row
+	size_t rows_bytes;
+	static void error_exit(j_common_ptr cinfo);
+	bool ensure_rows(const size_t &bytes);
+	void fill_yuyv(const uint8_t *src, const int &width, const int &height, const int &subsampling,
+		const int &mcu_y, JSAMPROW *y_rows, JSAMPROW *u_rows, JSAMPROW *v_rows);
+	void fill_nv(const uint8_t *src, const int &width, const int &height, const int &format,
+		const int &subsampling, const int &mcu_y, JSAMPROW *y_rows, JSAMPROW *u_rows, JSAMPROW *v_rows);
+public:
+	JpegEncoder();
+	~JpegEncoder();
+	int encode(const uint8_t *src, const int &width, const int &height, const int &format,
+		uint8_t *dst, const size_t &dst_bytes, const int &quality, const int &subsampling);
+	static size_t getMaxBytes(const int &width, const int &height, const int &subsampling);
+	static size_t getFrameBytes(const int &width, const int &height, const int &format);
+};
+
+#endif /* JPEGENCODER_H_ */
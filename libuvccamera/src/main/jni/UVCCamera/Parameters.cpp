@@ -392,3 +392,114 @@ char *UVCDiags::getSupportedSize(const uvc_device_handle_t *deviceHandle) {
 	writer.EndObject();
 	RETURN(strdup(buffer.GetString()), char *);
 }
+
+/**
+ * @return JSON string of information to estimate USB bandwidth of each video format, caller should free it
+ * {"speed":int, "intervalUs":int,
+ *  "interfaces":[{"interface":int, "endpoint":int, "isochronous":bool, "bytesPerInterval":[int, ...]}, ...],
+ *  "formats":[{"interface":int, "index":int, "type":int, "frames":[{"index":int, "width":int, "height":int,
+ *  "maxFrameSize":int, "intervals":[int, ...]}, ...]}, ...]}
+ * speed is enum libusb_speed(estimated from bcdUSB if libusb does not know it), bytesPerInterval is of each alternate setting of the interface
+ * (alternate setting 0 is always 0) that includes burst/multiplier of high speed/SuperSpeed endpoint,
+ * intervals are frame intervals in 100ns, continuous frame intervals are shown as
+ * "minInterval", "maxInterval" and "intervalStep" instead of "intervals".
+ */
+char *UVCDiags::getBandwidthInfo(const uvc_device_handle_t *deviceHandle) {
+	StringBuffer buffer;
+	Writer<StringBuffer> writer(buffer);
+	uvc_device_handle_t *devh = const_cast<uvc_device_handle_t *>(deviceHandle);
+
+	ENTER();
+	// libusb does not know the speed of the device on Android, this estimates it from the descriptor then
+	const int speed = devh->usb_devh ? _uvc_get_device_speed(devh) : LIBUSB_SPEED_UNKNOWN;
+	writer.StartObject();
+	{
+		write(writer, "speed", speed);
+		write(writer, "intervalUs", speed >= LIBUSB_SPEED_HIGH ? 125 : 1000);
+		uvc_streaming_interface_t *stream_if;
+		writer.String("interfaces");
+		writer.StartArray();
+		if (devh->info->config) {
+			DL_FOREACH(devh->info->stream_ifs, stream_if)
+			{
+				const struct libusb_interface *interface = &devh->info->config->interface[stream_if->bInterfaceNumber];
+				writer.StartObject();
+				{
+					write(writer, "interface", stream_if->bInterfaceNumber);
+					write(writer, "endpoint", stream_if->bEndpointAddress);
+					writer.String("isochronous");
+					writer.Bool(interface->num_altsetting > 1);
+					writer.String("bytesPerInterval");
+					writer.StartArray();
+					for (int alt_idx = 0; alt_idx < interface->num_altsetting; alt_idx++) {
+						const struct libusb_interface_descriptor *altsetting = interface->altsetting + alt_idx;
+						size_t bytes = 0;
+						for (int ep_idx = 0; ep_idx < altsetting->bNumEndpoints; ep_idx++) {
+							if (altsetting->endpoint[ep_idx].bEndpointAddress == stream_if->bEndpointAddress) {
+								bytes = _uvc_endpoint_bytes_per_interval(&altsetting->endpoint[ep_idx]);
+								break;
+							}
+						}
+						writer.Uint((unsigned)bytes);
+					}
+					writer.EndArray();
+				}
+				writer.EndObject();
+			}
+		}
+		writer.EndArray();
+		writer.String("formats");
+		writer.StartArray();
+		DL_FOREACH(devh->info->stream_ifs, stream_if)
+		{
+			uvc_format_desc_t *fmt_desc;
+			uvc_frame_desc_t *frame_desc;
+			DL_FOREACH(stream_if->format_descs, fmt_desc)
+			{
+				switch (fmt_desc->bDescriptorSubtype) {
+				case UVC_VS_FORMAT_UNCOMPRESSED:
+				case UVC_VS_FORMAT_MJPEG:
+					break;
+				default:
+					continue;
+				}
+				writer.StartObject();
+				{
+					write(writer, "interface", stream_if->bInterfaceNumber);
+					write(writer, "index", fmt_desc->bFormatIndex);
+					write(writer, "type", fmt_desc->bDescriptorSubtype);
+					writer.String("frames");
+					writer.StartArray();
+					DL_FOREACH(fmt_desc->frame_descs, frame_desc)
+					{
+						writer.StartObject();
+						{
+							write(writer, "index", frame_desc->bFrameIndex);
+							write(writer, "width", frame_desc->wWidth);
+							write(writer, "height", frame_desc->wHeight);
+							write(writer, "maxFrameSize", frame_desc->dwMaxVideoFrameBufferSize);
+							if (frame_desc->intervals) {
+								writer.String("intervals");
+								writer.StartArray();
+								for (uint32_t *interval = frame_desc->intervals; *interval; ++interval) {
+									writer.Uint(*interval);
+								}
+								writer.EndArray();
+							} else {
+								write(writer, "minInterval", frame_desc->dwMinFrameInterval);
+								write(writer, "maxInterval", frame_desc->dwMaxFrameInterval);
+								write(writer, "intervalStep", frame_desc->dwFrameIntervalStep);
+							}
+						}
+						writer.EndObject();
+					}
+					writer.EndArray();
+				}
+				writer.EndObject();
+			}
+		}
+		writer.EndArray();
+	}
+	writer.EndObject();
+	RETURN(strdup(buffer.GetString()), char *);
+}
@@ -36,6 +36,7 @@ public:
 	char *getDescriptions(const uvc_device_handle_t *deviceHandle);
 	char *getCurrentStream(const uvc_stream_ctrl_t *ctrl);
 	char *getSupportedSize(const uvc_device_handle_t *deviceHandle);
+	char *getBandwidthInfo(const uvc_device_handle_t *deviceHandle);
 };
 
 #endif /* PARAMETERS_H_ */
@@ -264,15 +264,51 @@ int UVCCamera::setPreviewDisplay(ANativeWindow *preview_window) {
 	RETURN(result, int);
 }
 
-int UVCCamera::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format) {
+int UVCCamera::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format, int scale_denom) {
 	ENTER();
 	int result = EXIT_FAILURE;
 	if (mPreview) {
-		result = mPreview->setFrameCallback(env, frame_callback_obj, pixel_format);
+		result = mPreview->setFrameCallback(env, frame_callback_obj, pixel_format, scale_denom);
 	}
 	RETURN(result, int);
 }
 
+int UVCCamera::setPipeline(IPipeline *pipeline) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setPipeline(pipeline);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::setFrameReader(JNIEnv *env, jobject frame_reader_obj, int pixel_format, int scale_denom,
+	int max_frames, int drop_policy) {
+
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setFrameReader(env, frame_reader_obj, pixel_format, scale_denom, max_frames, drop_policy);
+	}
+	RETURN(result, int);
+}
+
+jobject UVCCamera::acquireReaderFrame(JNIEnv *env, const bool latest, jobject info) {
+	jobject result = NULL;
+	if (mPreview) {
+		result = mPreview->acquireReaderFrame(env, latest, info);
+	}
+	return result;
+}
+
+int UVCCamera::releaseReaderFrame(JNIEnv *env, jobject buffer) {
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->releaseReaderFrame(env, buffer);
+	}
+	return result;
+}
+
 int UVCCamera::startPreview() {
 	ENTER();
 
@@ -300,6 +336,191 @@ int UVCCamera::setCaptureDisplay(ANativeWindow *capture_window) {
 	RETURN(result, int);
 }
 
+int UVCCamera::setZeroCopy(bool zero_copy) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setZeroCopy(zero_copy);
+	}
+	RETURN(result, int);
+}
+
+uint64_t UVCCamera::getCopiedBytes() {
+	ENTER();
+	uint64_t result = 0;
+	if (mPreview) {
+		result = mPreview->getCopiedBytes();
+	}
+	RETURN(result, uint64_t);
+}
+
+uint64_t UVCCamera::getCopiedFrames() {
+	ENTER();
+	uint64_t result = 0;
+	if (mPreview) {
+		result = mPreview->getCopiedFrames();
+	}
+	RETURN(result, uint64_t);
+}
+
+int UVCCamera::setDecodeThreads(int num_threads) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setDecodeThreads(num_threads);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::setStripeDecodeThreads(int num_threads) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setStripeDecodeThreads(num_threads);
+	}
+	RETURN(result, int);
+}
+
+float UVCCamera::getDecodeFps() {
+	ENTER();
+	float result = 0;
+	if (mPreview) {
+		result = mPreview->getDecodeFps();
+	}
+	RETURN(result, float);
+}
+
+char *UVCCamera::getPipelineStats() {
+	ENTER();
+	char *result = NULL;
+	if (mPreview) {
+		result = mPreview->getPipelineStats();
+	}
+	RETURN(result, char *);
+}
+
+int UVCCamera::setFrameDropCallback(JNIEnv *env, jobject frame_drop_callback_obj, int interval_ms) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setFrameDropCallback(env, frame_drop_callback_obj, interval_ms);
+	}
+	RETURN(result, int);
+}
+
+/**
+ * @param drops array that has NUM_DROP_REASONS elements
+ */
+int UVCCamera::getFrameDrops(uint32_t *drops) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		mPreview->getFrameDrops(drops);
+		result = EXIT_SUCCESS;
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::setTransferCount(int num_transfers) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setTransferCount(num_transfers);
+	}
+	RETURN(result, int);
+}
+
+char *UVCCamera::getMemoryUsage() {
+	ENTER();
+	char *result = NULL;
+	if (mPreview) {
+		result = mPreview->getMemoryUsage();
+	}
+	RETURN(result, char *);
+}
+
+int UVCCamera::captureStill(const char *path, int timeout_ms) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->captureStill(path, timeout_ms);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::startBurst(const char *dir, int num_frames, int duration_ms, int quality, int num_threads) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->startBurst(dir, num_frames, duration_ms, quality, num_threads);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::waitBurst(int timeout_ms) {
+	ENTER();
+	// should be negative, positive value is number of written frames
+	int result = UVC_ERROR_INVALID_DEVICE;
+	if (mPreview) {
+		result = mPreview->waitBurst(timeout_ms);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::stopBurst() {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->stopBurst();
+	}
+	RETURN(result, int);
+}
+
+char *UVCCamera::getBurstStats() {
+	ENTER();
+	char *result = NULL;
+	if (mPreview) {
+		result = mPreview->getBurstStats();
+	}
+	RETURN(result, char *);
+}
+
+int UVCCamera::setPayloadRecording(const char *path) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setPayloadRecording(path);
+	}
+	RETURN(result, int);
+}
+
+char *UVCCamera::getBandwidthInfo() {
+	ENTER();
+	if (mDeviceHandle) {
+		UVCDiags params;
+		RETURN(params.getBandwidthInfo(mDeviceHandle), char *)
+	}
+	RETURN(NULL, char *);
+}
+
+int UVCCamera::setBandwidthLimit(int bytes_per_interval) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setBandwidthLimit(bytes_per_interval);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::getReorderDepth() {
+	ENTER();
+	int result = 0;
+	if (mPreview) {
+		result = mPreview->getReorderDepth();
+	}
+	RETURN(result, int);
+}
+
 //======================================================================
 // カメラのサポートしているコントロール機能を取得する
 int UVCCamera::getCtrlSupports(uint64_t *supports) {
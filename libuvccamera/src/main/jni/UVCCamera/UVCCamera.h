@@ -190,10 +190,34 @@ public:
 	char *getSupportedSize();
 	int setPreviewSize(int width, int height, int min_fps, int max_fps, int mode, float bandwidth = DEFAULT_BANDWIDTH);
 	int setPreviewDisplay(ANativeWindow *preview_window);
-	int setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format);
+	int setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format, int scale_denom = 1);
+	int setPipeline(IPipeline *pipeline);
+	int setFrameReader(JNIEnv *env, jobject frame_reader_obj, int pixel_format, int scale_denom, int max_frames, int drop_policy);
+	jobject acquireReaderFrame(JNIEnv *env, const bool latest, jobject info);
+	int releaseReaderFrame(JNIEnv *env, jobject buffer);
 	int startPreview();
 	int stopPreview();
 	int setCaptureDisplay(ANativeWindow *capture_window);
+	int setZeroCopy(bool zero_copy);
+	uint64_t getCopiedBytes();
+	uint64_t getCopiedFrames();
+	int setDecodeThreads(int num_threads);
+	int setStripeDecodeThreads(int num_threads);
+	float getDecodeFps();
+	int getReorderDepth();
+	char *getPipelineStats();
+	int setFrameDropCallback(JNIEnv *env, jobject frame_drop_callback_obj, int interval_ms);
+	int getFrameDrops(uint32_t *drops);
+	int setTransferCount(int num_transfers);
+	char *getMemoryUsage();
+	int captureStill(const char *path, int timeout_ms);
+	int startBurst(const char *dir, int num_frames, int duration_ms, int quality, int num_threads);
+	int waitBurst(int timeout_ms);
+	int stopBurst();
+	char *getBurstStats();
+	int setPayloadRecording(const char *path);
+	char *getBandwidthInfo();
+	int setBandwidthLimit(int bytes_per_interval);
 
 	int getCtrlSupports(uint64_t *supports);
 	int getProcSupports(uint64_t *supports);
@@ -23,6 +23,7 @@
 */
 
 #include <stdlib.h>
+#include <errno.h>
 #include <linux/time.h>
 #include <unistd.h>
 
@@ -39,12 +40,29 @@
 
 #include "utilbase.h"
 #include "UVCPreview.h"
+#include "IPipeline.h"
 #include "libuvc_internal.h"
+#include "rapidjson/rapidjson.h"
+#include "rapidjson/stringbuffer.h"
+#include "rapidjson/writer.h"
+
+using namespace rapidjson;
 
 #define	LOCAL_DEBUG 0
-#define MAX_FRAME 4
+#define MAX_FRAME 4		// should be power of 2
+#define MAX_CAPTURE_FRAME 1
 #define PREVIEW_PIXEL_BYTES 4	// RGBA/RGBX
 #define FRAME_POOL_SZ MAX_FRAME + 2
+#define DECODE_JOB_MASK (MAX_DECODE_JOBS - 1)
+#define FPS_INTERVAL_NS 1000000000LL	// interval of updating fps
+#define MAX_MEMORY_USAGE_STREAMS 4		// max number of streams in memory usage report
+#define MAX_TRANSFER_INFO_STREAMS 4		// max number of streams in pipeline stats
+
+static inline int64_t systemTimeNs() {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return ts.tv_sec * 1000000000LL + ts.tv_nsec;
+}
 
 UVCPreview::UVCPreview(uvc_device_handle_t *devh)
 :	mPreviewWindow(NULL),
@@ -64,19 +82,73 @@ UVCPreview::UVCPreview(uvc_device_handle_t *devh)
 	previewFormat(WINDOW_FORMAT_RGBA_8888),
 	mIsRunning(false),
 	mIsCapturing(false),
-	captureQueu(NULL),
+	previewFrames(MAX_FRAME, SPSC_DROP_NEWEST),
+	captureQueu(MAX_CAPTURE_FRAME, SPSC_DROP_OLDEST),
 	mFrameCallbackObj(NULL),
+	mFrameInfoObj(NULL),
+	mLastCallbackSequence(0),
+	mCallbackBufferNext(0),
+	mBufferClear(NULL),
+	mCallbackBufferBinds(0),
+	mReaderQueuedCount(0),
+	mReaderAcquiredCount(0),
+	mReaderMaxFrames(1),
+	mReaderDropPolicy(READER_DROP_OLDEST),
+	mReaderLastSequence(0),
+	mPipeline(NULL),
+	mStillRequested(false),
+	mStillFrame(NULL),
 	mFrameCallbackFunc(NULL),
-	callbackPixelBytes(2) {
+	mFrameCallbackScaledFunc(NULL),
+	mCallbackScale(1),
+	callbackPixelBytes(2),
+	mZeroCopy(false),
+	mZeroCopyStreaming(false),
+	mCopiedBytes(0),
+	mCopiedFrames(0),
+	mDecodeThreads(1),
+	mDecodeThreadCount(0),
+	mMaxPoolFrames(FRAME_POOL_SZ),
+	mDecodeRunning(false),
+	mDecodeHead(0),
+	mDecodeNext(0),
+	mDecodeTail(0),
+	mMaxDecodeJobs(0),
+	mDecodeFps(0),
+	mReorderDepth(0),
+	mFpsStartTime(0),
+	mFpsFrames(0),
+	mStripeThreads(1),
+	mStripePool(NULL),
+	mFrameDropCallbackObj(NULL),
+	mDropNotifyIntervalMs(DEFAULT_DROP_NOTIFY_INTERVAL_MS),
+	mTransferCount(0),
+	mBandwidthLimit(0) {
 
 	ENTER();
-	pthread_cond_init(&preview_sync, NULL);
 	pthread_mutex_init(&preview_mutex, NULL);
 //
 	pthread_cond_init(&capture_sync, NULL);
 	pthread_mutex_init(&capture_mutex, NULL);
+	pthread_mutex_init(&pipeline_mutex, NULL);
+	pthread_mutex_init(&still_mutex, NULL);
+	pthread_cond_init(&still_sync, NULL);
 //	
 	pthread_mutex_init(&pool_mutex, NULL);
+//
+	pthread_mutex_init(&decode_mutex, NULL);
+	pthread_cond_init(&decode_sync, NULL);
+	pthread_cond_init(&decode_done_sync, NULL);
+	memset(mDecodeJobs, 0, sizeof(mDecodeJobs));
+	memset(mCallbackBuffers, 0, sizeof(mCallbackBuffers));
+//
+	pthread_mutex_init(&drop_mutex, NULL);
+	pthread_mutex_init(&reader_mutex, NULL);
+	pthread_cond_init(&drop_sync, NULL);
+	memset((void *)mDrops, 0, sizeof(mDrops));
+	memset(&mDropsBase, 0, sizeof(mDropsBase));
+	iframedropcallback_fields.onFrameDrop = NULL;
+	pthread_mutex_init(&stream_mutex, NULL);
 	EXIT();
 }
 
@@ -91,12 +163,30 @@ UVCPreview::~UVCPreview() {
 	mCaptureWindow = NULL;
 	clearPreviewFrame();
 	clearCaptureFrame();
+	JNIEnv *env = getEnv();
+	if (LIKELY(env)) {
+		// frames that FrameReader did not release
+		releaseReaderFrames(env, true);
+	}
+	if (mStillFrame) {
+		recycle_frame(mStillFrame);
+		mStillFrame = NULL;
+	}
 	clear_pool();
+	pthread_mutex_destroy(&reader_mutex);
 	pthread_mutex_destroy(&preview_mutex);
-	pthread_cond_destroy(&preview_sync);
 	pthread_mutex_destroy(&capture_mutex);
+	pthread_mutex_destroy(&pipeline_mutex);
+	pthread_cond_destroy(&still_sync);
+	pthread_mutex_destroy(&still_mutex);
 	pthread_cond_destroy(&capture_sync);
 	pthread_mutex_destroy(&pool_mutex);
+	pthread_cond_destroy(&decode_done_sync);
+	pthread_cond_destroy(&decode_sync);
+	pthread_mutex_destroy(&decode_mutex);
+	pthread_cond_destroy(&drop_sync);
+	pthread_mutex_destroy(&drop_mutex);
+	pthread_mutex_destroy(&stream_mutex);
 	EXIT();
 }
 
@@ -124,7 +214,7 @@ uvc_frame_t *UVCPreview::get_frame(size_t data_bytes) {
 
 void UVCPreview::recycle_frame(uvc_frame_t *frame) {
 	pthread_mutex_lock(&pool_mutex);
-	if (LIKELY(mFramePool.size() < FRAME_POOL_SZ)) {
+	if (LIKELY(mFramePool.size() < mMaxPoolFrames)) {
 		mFramePool.put(frame);
 		frame = NULL;
 	}
@@ -165,19 +255,43 @@ void UVCPreview::clear_pool() {
 	EXIT();
 }
 
+/**
+ * frame pool interface for zero-copy streaming of libuvc
+ * libuvc assembles payloads directly into the frame obtained here
+ */
+// static
+uvc_frame_t *UVCPreview::pool_get_frame(size_t data_bytes, void *vptr_args) {
+	UVCPreview *preview = reinterpret_cast<UVCPreview *>(vptr_args);
+	uvc_frame_t *frame = preview->get_frame(data_bytes);
+	if (LIKELY(frame) && UNLIKELY(frame->data_bytes < data_bytes)) {
+		if (UNLIKELY(uvc_ensure_frame_size(frame, data_bytes))) {
+			preview->recycle_frame(frame);
+			frame = NULL;
+		}
+	}
+	return frame;
+}
+
+// static
+void UVCPreview::pool_recycle_frame(uvc_frame_t *frame, void *vptr_args) {
+	UVCPreview *preview = reinterpret_cast<UVCPreview *>(vptr_args);
+	preview->recycle_frame(frame);
+}
+
 inline const bool UVCPreview::isRunning() const {return mIsRunning; }
 
 int UVCPreview::setPreviewSize(int width, int height, int min_fps, int max_fps, int mode, float bandwidth) {
 	ENTER();
 	
 	int result = 0;
-	if ((requestWidth != width) || (requestHeight != height) || (requestMode != mode)) {
+	requestBandwidth = bandwidth;
+	if ((requestWidth != width) || (requestHeight != height) || (requestMode != mode)
+		|| (requestMinFps != min_fps) || (requestMaxFps != max_fps)) {
 		requestWidth = width;
 		requestHeight = height;
 		requestMinFps = min_fps;
 		requestMaxFps = max_fps;
 		requestMode = mode;
-		requestBandwidth = bandwidth;
 
 		uvc_stream_ctrl_t ctrl;
 		result = uvc_get_stream_ctrl_format_size_fps(mDeviceHandle, &ctrl,
@@ -206,7 +320,371 @@ int UVCPreview::setPreviewDisplay(ANativeWindow *preview_window) {
 	RETURN(0, int);
 }
 
-int UVCPreview::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format) {
+/**
+ * set whether libuvc hands over its working buffer directly to preview thread
+ * instead of copying it twice(libuvc internal frame and duplicated frame).
+ * this is applied at next #startPreview
+ */
+int UVCPreview::setZeroCopy(bool zero_copy) {
+	ENTER();
+	mZeroCopy = zero_copy;
+	RETURN(0, int);
+}
+
+/**
+ * total bytes of memcpy in frame path since #startPreview
+ */
+uint64_t UVCPreview::getCopiedBytes() {
+	return __atomic_load_n(&mCopiedBytes, __ATOMIC_RELAXED);
+}
+
+/**
+ * set number of threads to decode MJPEG frames.
+ * if num_threads is larger than 1, MJPEG frames are decoded into intermediate RGBX frames
+ * by worker threads in parallel and drawn in the order they arrived,
+ * otherwise preview thread decodes MJPEG frames into the Surface directly.
+ * this takes effect at next startPreview and does not affect YUYV mode
+ */
+int UVCPreview::setDecodeThreads(int num_threads) {
+	ENTER();
+	if (num_threads < 1) {
+		num_threads = 1;
+	} else if (num_threads > MAX_DECODE_THREADS) {
+		num_threads = MAX_DECODE_THREADS;
+	}
+	mDecodeThreads = num_threads;
+	RETURN(0, int);
+}
+
+/**
+ * set number of threads to decode one MJPEG frame for preview.
+ * if num_threads is larger than 1 and the frame has restart markers, the frame is split
+ * into stripes at RSTn boundaries and they are decoded in parallel into the Surface.
+ * this is used only when decode worker threads are not used and takes effect from next frame,
+ * the worker threads are kept while previewing and recreated by the preview thread when this is changed
+ */
+int UVCPreview::setStripeDecodeThreads(int num_threads) {
+	ENTER();
+	if (num_threads < 1) {
+		num_threads = 1;
+	} else if (num_threads > MAX_DECODE_THREADS) {
+		num_threads = MAX_DECODE_THREADS;
+	}
+	mStripeThreads = num_threads;
+	RETURN(0, int);
+}
+
+/**
+ * add elapsed time since the previous stage of the frame to the histogram of the stage
+ * and mark the frame with current time. call only from the thread that owns the frame now
+ */
+void UVCPreview::markStage(uvc_frame_t *frame, int stage) {
+	const int64_t now = systemTimeNs();
+	mLatency[stage].add(now - frame->stage_time);
+	frame->stage_time = now;
+	if (stage == STAGE_DRAW) {
+		mLatency[STAGE_PREVIEW_TOTAL].add(now - frame->complete_time);
+	}
+}
+
+static const char *STAGE_NAMES[NUM_STAGES] = {
+	"queue", "decode", "draw", "capture", "callback", "previewTotal", "callbackTotal",
+};
+
+static const char *DROP_REASON_NAMES[NUM_DROP_REASONS] = {
+	"payloadError", "sequenceGap", "invalidSize", "noBuffer", "previewQueueFull", "captureOverwrite",
+	"readerFull", "recorderFull",
+};
+
+/**
+ * @return JSON string of latency of each stage since startPreview, caller should free it
+ * {"decodeFps":float, "reorderDepth":int, "drops":{"payloadError":int, ...},
+ * "transfers":[{"interface":int, "isochronous":bool, "autoTuned":bool, "transfers":int,
+ * "packetsPerTransfer":int, "bytesPerPacket":int, "transferUs":int, "callbacks":int,
+ * "callbacksPerSec":float}, ...],
+ * "stages":{"queue":{"count":int, "mean":us,
+ * "p50":us, "p90":us, "p99":us, "max":us}, "decode":{...}, ...}}
+ */
+char *UVCPreview::getPipelineStats() {
+	StringBuffer buffer;
+	Writer<StringBuffer> writer(buffer);
+	latency_stats_t stats;
+	uvc_stream_transfer_info_t transfers[MAX_TRANSFER_INFO_STREAMS];
+	int num_streams;
+
+	ENTER();
+	pthread_mutex_lock(&stream_mutex);
+	{
+		num_streams = uvc_get_transfer_info(mDeviceHandle, transfers, MAX_TRANSFER_INFO_STREAMS);
+	}
+	pthread_mutex_unlock(&stream_mutex);
+	if (num_streams > MAX_TRANSFER_INFO_STREAMS) num_streams = MAX_TRANSFER_INFO_STREAMS;
+	writer.StartObject();
+	{
+		writer.String("decodeFps");
+		writer.Double(mDecodeFps);
+		writer.String("reorderDepth");
+		writer.Int(mReorderDepth);
+		uint32_t drops[NUM_DROP_REASONS];
+		getFrameDrops(drops);
+		writer.String("drops");
+		writer.StartObject();
+		for (int i = 0; i < NUM_DROP_REASONS; i++) {
+			writer.String(DROP_REASON_NAMES[i]);
+			writer.Uint(drops[i]);
+		}
+		writer.EndObject();
+		writer.String("transfers");
+		writer.StartArray();
+		for (int i = 0; i < num_streams; i++) {
+			writer.StartObject();
+			{
+				writer.String("interface");
+				writer.Uint(transfers[i].bInterfaceNumber);
+				writer.String("isochronous");
+				writer.Bool(transfers[i].isochronous);
+				writer.String("autoTuned");
+				writer.Bool(transfers[i].auto_tuned);
+				writer.String("transfers");
+				writer.Int(transfers[i].num_transfers);
+				writer.String("packetsPerTransfer");
+				writer.Int(transfers[i].packets_per_transfer);
+				writer.String("bytesPerPacket");
+				writer.Uint((unsigned)transfers[i].bytes_per_packet);
+				writer.String("transferUs");
+				writer.Uint(transfers[i].transfer_us);
+				writer.String("callbacks");
+				writer.Uint64(transfers[i].callbacks);
+				writer.String("callbacksPerSec");
+				writer.Double(transfers[i].callbacks_per_sec);
+			}
+			writer.EndObject();
+		}
+		writer.EndArray();
+		writer.String("stages");
+		writer.StartObject();
+		for (int i = 0; i < NUM_STAGES; i++) {
+			mLatency[i].snapshot(stats);
+			writer.String(STAGE_NAMES[i]);
+			writer.StartObject();
+			{
+				writer.String("count");
+				writer.Uint64(stats.count);
+				writer.String("mean");
+				writer.Uint(stats.mean);
+				writer.String("p50");
+				writer.Uint(stats.p50);
+				writer.String("p90");
+				writer.Uint(stats.p90);
+				writer.String("p99");
+				writer.Uint(stats.p99);
+				writer.String("max");
+				writer.Uint(stats.max);
+			}
+			writer.EndObject();
+		}
+		writer.EndObject();
+	}
+	writer.EndObject();
+	RETURN(strdup(buffer.GetString()), char *);
+}
+
+/**
+ * get number of dropped frames for each reason(DROP_XXX) since startPreview
+ * @param drops array that has NUM_DROP_REASONS elements
+ */
+void UVCPreview::getFrameDrops(uint32_t *drops) {
+	uvc_stream_drops_t lib;
+	uvc_get_stream_drops(mDeviceHandle, &lib);
+	for (int i = 0; i < NUM_DROP_REASONS; i++) {
+		drops[i] = __atomic_load_n(&mDrops[i], __ATOMIC_RELAXED);
+	}
+	drops[DROP_PAYLOAD_ERROR] += lib.error_frames - mDropsBase.error_frames;
+	drops[DROP_SEQUENCE_GAP] += lib.skipped_frames - mDropsBase.skipped_frames;
+	drops[DROP_NO_BUFFER] += lib.no_buffer_frames - mDropsBase.no_buffer_frames;
+	drops[DROP_RECORDER_FULL] += lib.unrecorded_payloads - mDropsBase.unrecorded_payloads;
+}
+
+/**
+ * set callback that is called periodically with number of dropped frames while previewing
+ * @param frame_drop_callback_obj global reference of IFrameDropCallback, NULL to remove
+ * @param interval_ms interval of notification in milliseconds
+ */
+int UVCPreview::setFrameDropCallback(JNIEnv *env, jobject frame_drop_callback_obj, int interval_ms) {
+
+	ENTER();
+	pthread_mutex_lock(&drop_mutex);
+	{
+		if (!env->IsSameObject(mFrameDropCallbackObj, frame_drop_callback_obj)) {
+			iframedropcallback_fields.onFrameDrop = NULL;
+			if (mFrameDropCallbackObj) {
+				env->DeleteGlobalRef(mFrameDropCallbackObj);
+			}
+			mFrameDropCallbackObj = frame_drop_callback_obj;
+			if (frame_drop_callback_obj) {
+				// get method IDs of Java object for callback
+				jclass clazz = env->GetObjectClass(frame_drop_callback_obj);
+				if (LIKELY(clazz)) {
+					iframedropcallback_fields.onFrameDrop = env->GetMethodID(clazz,
+						"onFrameDrop", "([I)V");
+				} else {
+					LOGW("failed to get object class");
+				}
+				env->ExceptionClear();
+				if (!iframedropcallback_fields.onFrameDrop) {
+					LOGE("Can't find IFrameDropCallback#onFrameDrop");
+					env->DeleteGlobalRef(frame_drop_callback_obj);
+					mFrameDropCallbackObj = frame_drop_callback_obj = NULL;
+				}
+			}
+		} else if (frame_drop_callback_obj) {
+			// same object, we don't need new global reference
+			env->DeleteGlobalRef(frame_drop_callback_obj);
+		}
+		mDropNotifyIntervalMs = interval_ms > 0 ? interval_ms : DEFAULT_DROP_NOTIFY_INTERVAL_MS;
+		// notify thread waits again with new interval
+		pthread_cond_broadcast(&drop_sync);
+	}
+	pthread_mutex_unlock(&drop_mutex);
+	RETURN(0, int);
+}
+
+/**
+ * set number of USB transfers of the stream, applied at next startPreview
+ * @param num_transfers 0 means default of libuvc(LIBUVC_NUM_TRANSFER_BUFS),
+ * 			negative value means auto tuning(UVC_NUM_TRANSFERS_AUTO)
+ */
+int UVCPreview::setTransferCount(int num_transfers) {
+	ENTER();
+	if (num_transfers < 0) {
+		num_transfers = UVC_NUM_TRANSFERS_AUTO;
+	} else if (num_transfers > LIBUVC_MAX_TRANSFER_BUFS) {
+		num_transfers = LIBUVC_MAX_TRANSFER_BUFS;
+	}
+	mTransferCount = num_transfers;
+	RETURN(0, int);
+}
+
+/**
+ * record every USB payload of the stream that starts at next startPreview into the file,
+ * recording ends at stopPreview. the file can be replayed with uvc_replay_open.
+ * @param path NULL to cancel
+ */
+int UVCPreview::setPayloadRecording(const char *path) {
+	ENTER();
+	int result;
+	pthread_mutex_lock(&stream_mutex);
+	{
+		result = uvc_record_payloads(mDeviceHandle, path);
+	}
+	pthread_mutex_unlock(&stream_mutex);
+	RETURN(result, int);
+}
+
+/**
+ * limit the bytes per service interval(125us on high speed or faster, 1ms on full speed)
+ * that the isochronous endpoint reserves on the bus, applied at next startPreview.
+ * this overrides the bandwidth factor of setPreviewSize with the factor against
+ * dwMaxPayloadTransferSize that the camera requests so that the alternate setting
+ * that has this bytes per interval is selected.
+ * @param bytes_per_interval 0 to use the bandwidth factor
+ */
+int UVCPreview::setBandwidthLimit(int bytes_per_interval) {
+	ENTER();
+	mBandwidthLimit = bytes_per_interval > 0 ? bytes_per_interval : 0;
+	RETURN(0, int);
+}
+
+/**
+ * @return JSON string of memory for streaming, caller should free it
+ * {"streams":[{"interface":int, "transfers":int, "transferBytes":int, "frameBufferBytes":int,
+ * "frameBufferGrows":int}, ...], "framePoolFrames":int, "framePoolBytes":int, "totalBytes":int,
+ * "callbackBufferBinds":int}
+ */
+char *UVCPreview::getMemoryUsage() {
+	StringBuffer buffer;
+	Writer<StringBuffer> writer(buffer);
+	uvc_stream_memory_t usage[MAX_MEMORY_USAGE_STREAMS];
+	uint64_t total = 0;
+	size_t pool_bytes = 0;
+	int n, pool_frames;
+
+	ENTER();
+	pthread_mutex_lock(&stream_mutex);
+	{
+		n = uvc_get_memory_usage(mDeviceHandle, usage, MAX_MEMORY_USAGE_STREAMS);
+	}
+	pthread_mutex_unlock(&stream_mutex);
+	if (n > MAX_MEMORY_USAGE_STREAMS) n = MAX_MEMORY_USAGE_STREAMS;
+	pthread_mutex_lock(&pool_mutex);
+	{
+		pool_frames = mFramePool.size();
+		for (int i = 0; i < pool_frames; i++) {
+			pool_bytes += mFramePool[i]->data_bytes;
+		}
+	}
+	pthread_mutex_unlock(&pool_mutex);
+
+	writer.StartObject();
+	{
+		writer.String("streams");
+		writer.StartArray();
+		for (int i = 0; i < n; i++) {
+			writer.StartObject();
+			{
+				writer.String("interface");
+				writer.Uint(usage[i].bInterfaceNumber);
+				writer.String("transfers");
+				writer.Int(usage[i].num_transfers);
+				writer.String("transferBytes");
+				writer.Uint64(usage[i].transfer_bytes);
+				writer.String("frameBufferBytes");
+				writer.Uint64(usage[i].frame_buf_bytes);
+				writer.String("frameBufferGrows");
+				writer.Uint(usage[i].frame_buf_grows);
+			}
+			writer.EndObject();
+			total += usage[i].transfer_bytes + usage[i].frame_buf_bytes;
+		}
+		writer.EndArray();
+		// frames in use by preview/capture threads are not counted
+		writer.String("framePoolFrames");
+		writer.Int(pool_frames);
+		writer.String("framePoolBytes");
+		writer.Uint64(pool_bytes);
+		total += pool_bytes;
+		writer.String("totalBytes");
+		writer.Uint64(total);
+		// ByteBuffers created for frame callback, this should stop increasing while streaming
+		writer.String("callbackBufferBinds");
+		writer.Uint(__atomic_load_n(&mCallbackBufferBinds, __ATOMIC_RELAXED));
+	}
+	writer.EndObject();
+	RETURN(strdup(buffer.GetString()), char *);
+}
+
+/**
+ * @return number of frames drawn per second
+ */
+float UVCPreview::getDecodeFps() {
+	return mDecodeFps;
+}
+
+/**
+ * @return max number of decoded frames that waited for earlier frame since startPreview
+ */
+int UVCPreview::getReorderDepth() {
+	return mReorderDepth;
+}
+
+/**
+ * total number of frames received from libuvc since #startPreview
+ */
+uint64_t UVCPreview::getCopiedFrames() {
+	return __atomic_load_n(&mCopiedFrames, __ATOMIC_RELAXED);
+}
+
+int UVCPreview::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format, int scale_denom) {
 	
 	ENTER();
 	pthread_mutex_lock(&capture_mutex);
@@ -214,7 +692,7 @@ int UVCPreview::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pi
 		if (isRunning() && isCapturing()) {
 			mIsCapturing = false;
 			if (mFrameCallbackObj) {
-				pthread_cond_signal(&capture_sync);
+				captureQueu.wakeup();
 				pthread_cond_wait(&capture_sync, &capture_mutex);	// wait finishing capturing
 			}
 		}
@@ -223,13 +701,55 @@ int UVCPreview::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pi
 			if (mFrameCallbackObj) {
 				env->DeleteGlobalRef(mFrameCallbackObj);
 			}
+			if (mFrameInfoObj) {
+				env->DeleteGlobalRef(mFrameInfoObj);
+				mFrameInfoObj = NULL;
+			}
+			// frames that were acquired stay valid until FrameReader releases them
+			releaseReaderFrames(env, false);
 			mFrameCallbackObj = frame_callback_obj;
+			mLastCallbackSequence = 0;
 			if (frame_callback_obj) {
 				// get method IDs of Java object for callback
 				jclass clazz = env->GetObjectClass(frame_callback_obj);
 				if (LIKELY(clazz)) {
-					iframecallback_fields.onFrame = env->GetMethodID(clazz,
-						"onFrame",	"(Ljava/nio/ByteBuffer;)V");
+					jclass reader_clazz = env->FindClass("com/serenegiant/usb/FrameReader");
+					if (reader_clazz && env->IsInstanceOf(frame_callback_obj, reader_clazz)) {
+						iframecallback_fields.type = FRAME_CALLBACK_READER;
+						iframecallback_fields.onFrame = env->GetMethodID(clazz,
+							"onFrameAvailable",	"()V");
+					} else {
+						iframecallback_fields.onFrame = NULL;
+					}
+					if (reader_clazz) {
+						env->DeleteLocalRef(reader_clazz);
+					}
+					if (!iframecallback_fields.onFrame) {
+						env->ExceptionClear();
+						iframecallback_fields.type = FRAME_CALLBACK_INFO;
+						iframecallback_fields.onFrame = env->GetMethodID(clazz,
+							"onFrame",	"(Ljava/nio/ByteBuffer;Lcom/serenegiant/usb/FrameInfo;)V");
+					}
+					if (!iframecallback_fields.onFrame) {
+						env->ExceptionClear();
+						iframecallback_fields.type = FRAME_CALLBACK_TIME;
+						iframecallback_fields.onFrame = env->GetMethodID(clazz,
+							"onFrame",	"(Ljava/nio/ByteBuffer;JI)V");
+					}
+					if (!iframecallback_fields.onFrame) {
+						// implemented with old IFrameCallback that does not have default method
+						env->ExceptionClear();
+						iframecallback_fields.type = FRAME_CALLBACK_BUFFER;
+						iframecallback_fields.onFrame = env->GetMethodID(clazz,
+							"onFrame",	"(Ljava/nio/ByteBuffer;)V");
+					}
+					if (iframecallback_fields.onFrame
+						&& ((iframecallback_fields.type == FRAME_CALLBACK_INFO)
+							|| (iframecallback_fields.type == FRAME_CALLBACK_READER))
+						&& !createFrameInfo(env)) {
+
+						iframecallback_fields.onFrame = NULL;
+					}
 				} else {
 					LOGW("failed to get object class");
 				}
@@ -240,9 +760,24 @@ int UVCPreview::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pi
 					mFrameCallbackObj = frame_callback_obj = NULL;
 				}
 			}
+		} else if (frame_callback_obj) {
+			// same object, we don't need new global reference
+			env->DeleteGlobalRef(frame_callback_obj);
 		}
 		if (frame_callback_obj) {
 			mPixelFormat = pixel_format;
+			switch (scale_denom) {
+			case 1:
+			case 2:
+			case 4:
+			case 8:
+				mCallbackScale = scale_denom;
+				break;
+			default:
+				LOGW("unsupported scale denominator %d", scale_denom);
+				mCallbackScale = 1;
+				break;
+			}
 			callbackPixelFormatChanged();
 		}
 	}
@@ -250,8 +785,308 @@ int UVCPreview::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pi
 	RETURN(0, int);
 }
 
+/**
+ * create FrameInfo that is passed to IFrameInfoCallback#onFrame for every frame
+ * @return false if FrameInfo is not available
+ */
+bool UVCPreview::createFrameInfo(JNIEnv *env) {
+	jclass clazz = env->FindClass("com/serenegiant/usb/FrameInfo");
+	if (UNLIKELY(!clazz)) {
+		env->ExceptionClear();
+		LOGE("Can't find FrameInfo");
+		return false;
+	}
+	frameinfo_fields.pixelFormat = env->GetFieldID(clazz, "mPixelFormat", "I");
+	frameinfo_fields.width = env->GetFieldID(clazz, "mWidth", "I");
+	frameinfo_fields.height = env->GetFieldID(clazz, "mHeight", "I");
+	frameinfo_fields.planes = env->GetFieldID(clazz, "mPlanes", "I");
+	frameinfo_fields.stride0 = env->GetFieldID(clazz, "mStride0", "I");
+	frameinfo_fields.stride1 = env->GetFieldID(clazz, "mStride1", "I");
+	frameinfo_fields.offset1 = env->GetFieldID(clazz, "mOffset1", "I");
+	frameinfo_fields.size = env->GetFieldID(clazz, "mSize", "I");
+	frameinfo_fields.captureTimeNs = env->GetFieldID(clazz, "mCaptureTimeNs", "J");
+	frameinfo_fields.sequence = env->GetFieldID(clazz, "mSequence", "I");
+	frameinfo_fields.droppedFrames = env->GetFieldID(clazz, "mDroppedFrames", "I");
+	jmethodID init = env->GetMethodID(clazz, "<init>", "()V");
+	jobject info = init && !env->ExceptionCheck() ? env->NewObject(clazz, init) : NULL;
+	env->ExceptionClear();
+	env->DeleteLocalRef(clazz);
+	if (UNLIKELY(!info)) {
+		LOGE("failed to create FrameInfo");
+		return false;
+	}
+	mFrameInfoObj = env->NewGlobalRef(info);
+	env->DeleteLocalRef(info);
+	return mFrameInfoObj != NULL;
+}
+
+/**
+ * get direct ByteBuffer for the callback frame without allocating Java object every frame.
+ * ByteBuffers are bound to the data of pooled frames and reused while the same frame comes again,
+ * the oldest one is rebound when the data is not bound yet(new frame or the size changed).
+ * position and limit are reset because the callback may have moved them.
+ * @return global reference of direct ByteBuffer, caller should not delete it
+ */
+jobject UVCPreview::getCallbackBuffer(JNIEnv *env, void *data, const size_t bytes) {
+	for (int i = 0; i < CALLBACK_BUFFERS; i++) {
+		callback_buffer_t *cb = &mCallbackBuffers[i];
+		if (cb->buffer && (cb->data == data) && (cb->bytes == bytes)) {
+			if (LIKELY(mBufferClear)) {
+				jobject ret = env->CallObjectMethod(cb->buffer, mBufferClear);
+				env->ExceptionClear();
+				env->DeleteLocalRef(ret);
+			}
+			return cb->buffer;
+		}
+	}
+	if (UNLIKELY(!mBufferClear)) {
+		jclass clazz = env->FindClass("java/nio/Buffer");
+		if (LIKELY(clazz)) {
+			mBufferClear = env->GetMethodID(clazz, "clear", "()Ljava/nio/Buffer;");
+			env->DeleteLocalRef(clazz);
+		}
+		env->ExceptionClear();
+	}
+	callback_buffer_t *cb = &mCallbackBuffers[mCallbackBufferNext];
+	mCallbackBufferNext = (mCallbackBufferNext + 1) % CALLBACK_BUFFERS;
+	if (cb->buffer) {
+		env->DeleteGlobalRef(cb->buffer);
+		cb->buffer = NULL;
+	}
+	jobject buf = env->NewDirectByteBuffer(data, bytes);
+	if (LIKELY(buf)) {
+		cb->buffer = env->NewGlobalRef(buf);
+		env->DeleteLocalRef(buf);
+	}
+	env->ExceptionClear();
+	cb->data = data;
+	cb->bytes = bytes;
+	__atomic_fetch_add(&mCallbackBufferBinds, 1, __ATOMIC_RELAXED);
+	return cb->buffer;
+}
+
+/**
+ * release all ByteBuffers for the frame callback, called on the capture thread when capturing finished
+ * because the frames that they are bound to can be freed after that
+ */
+void UVCPreview::releaseCallbackBuffers(JNIEnv *env) {
+	for (int i = 0; i < CALLBACK_BUFFERS; i++) {
+		callback_buffer_t *cb = &mCallbackBuffers[i];
+		if (cb->buffer) {
+			env->DeleteGlobalRef(cb->buffer);
+		}
+		cb->buffer = NULL;
+		cb->data = NULL;
+		cb->bytes = 0;
+	}
+	mCallbackBufferNext = 0;
+}
+
+/**
+ * set description of the callback frame to FrameInfo
+ * @param info FrameInfo
+ * @param frame callback frame, after conversion to mPixelFormat
+ * @param bytes size of the ByteBuffer on the frame
+ * @param capture_time capture time of the original frame
+ * @param sequence sequence of the original frame
+ * @param dropped number of frames that were dropped since the previous frame
+ */
+void UVCPreview::updateFrameInfo(JNIEnv *env, jobject info, const uvc_frame_t *frame, const size_t bytes,
+	const int64_t capture_time, const uint32_t sequence, const uint32_t dropped) {
+
+	const int width = frame->width;
+	const int height = frame->height;
+	int planes = 1, stride0, stride1 = 0, offset1 = 0;
+	switch (mPixelFormat) {
+	case PIXEL_FORMAT_RGBX:
+		stride0 = width * 4;
+		break;
+	case PIXEL_FORMAT_YUV20SP:
+	case PIXEL_FORMAT_NV21:
+		planes = 2;
+		stride0 = stride1 = width;
+		offset1 = width * height;
+		break;
+	default:	// PIXEL_FORMAT_RAW/PIXEL_FORMAT_YUV(YUYV), PIXEL_FORMAT_RGB565
+		stride0 = width * 2;
+		break;
+	}
+	env->SetIntField(info, frameinfo_fields.pixelFormat, mPixelFormat);
+	env->SetIntField(info, frameinfo_fields.width, width);
+	env->SetIntField(info, frameinfo_fields.height, height);
+	env->SetIntField(info, frameinfo_fields.planes, planes);
+	env->SetIntField(info, frameinfo_fields.stride0, stride0);
+	env->SetIntField(info, frameinfo_fields.stride1, stride1);
+	env->SetIntField(info, frameinfo_fields.offset1, offset1);
+	env->SetIntField(info, frameinfo_fields.size, (jint)bytes);
+	env->SetLongField(info, frameinfo_fields.captureTimeNs, (jlong)capture_time);
+	env->SetIntField(info, frameinfo_fields.sequence, (jint)sequence);
+	env->SetIntField(info, frameinfo_fields.droppedFrames, (jint)dropped);
+}
+
+/**
+ * set FrameReader instead of frame callback.
+ * converted frames are queued and FrameReader#onFrameAvailable is called,
+ * then FrameReader acquires them on any thread and releases them to the frame pool
+ * without copying them into Java heap.
+ * @param frame_reader_obj global reference of FrameReader, NULL to remove
+ * @param max_frames max frames that are queued or acquired at the same time, 1 to MAX_READER_FRAMES
+ * @param drop_policy READER_DROP_XXX, which frame is dropped when max_frames are queued or acquired
+ */
+int UVCPreview::setFrameReader(JNIEnv *env, jobject frame_reader_obj, int pixel_format, int scale_denom,
+	int max_frames, int drop_policy) {
+
+	ENTER();
+	pthread_mutex_lock(&reader_mutex);
+	{
+		mReaderMaxFrames = max_frames < 1 ? 1 : (max_frames > MAX_READER_FRAMES ? MAX_READER_FRAMES : max_frames);
+		mReaderDropPolicy = drop_policy == READER_DROP_NEWEST ? READER_DROP_NEWEST : READER_DROP_OLDEST;
+	}
+	pthread_mutex_unlock(&reader_mutex);
+	const int result = setFrameCallback(env, frame_reader_obj, pixel_format, scale_denom);
+	RETURN(result, int);
+}
+
+/**
+ * queue converted frame for FrameReader, called on the capture thread
+ * @param buffer direct ByteBuffer on the frame
+ * @return true if the frame was queued and FrameReader owns it, false if the frame was dropped
+ */
+bool UVCPreview::queueReaderFrame(JNIEnv *env, uvc_frame_t *frame, jobject buffer) {
+	reader_frame_t dropped = { NULL, NULL };
+	bool queued = false;
+
+	pthread_mutex_lock(&reader_mutex);
+	{
+		if ((mReaderQueuedCount + mReaderAcquiredCount >= mReaderMaxFrames)
+			&& mReaderQueuedCount && (mReaderDropPolicy == READER_DROP_OLDEST)) {
+			// the consumer falls behind, replace the oldest frame that is not acquired yet
+			dropped = mReaderQueued[0];
+			mReaderQueuedCount--;
+			memmove(mReaderQueued, mReaderQueued + 1, sizeof(reader_frame_t) * mReaderQueuedCount);
+		}
+		if (mReaderQueuedCount + mReaderAcquiredCount < mReaderMaxFrames) {
+			mReaderQueued[mReaderQueuedCount].frame = frame;
+			mReaderQueued[mReaderQueuedCount].buffer = env->NewGlobalRef(buffer);
+			mReaderQueuedCount++;
+			queued = true;
+		}
+	}
+	pthread_mutex_unlock(&reader_mutex);
+	if (dropped.frame) {
+		env->DeleteGlobalRef(dropped.buffer);
+		recycle_frame(dropped.frame);
+	}
+	if (!queued || dropped.frame) {
+		countDrop(DROP_READER_FULL);
+	}
+	return queued;
+}
+
+/**
+ * acquire the oldest queued frame(or the latest frame and release older ones)
+ * @param info FrameInfo to set description of the frame
+ * @return local reference of direct ByteBuffer on the frame, NULL if no frame is queued
+ */
+jobject UVCPreview::acquireReaderFrame(JNIEnv *env, const bool latest, jobject info) {
+	reader_frame_t skipped[MAX_READER_FRAMES];
+	reader_frame_t acquired = { NULL, NULL };
+	int num_skipped = 0;
+	jobject result = NULL;
+
+	pthread_mutex_lock(&reader_mutex);
+	{
+		if (latest && (mReaderQueuedCount > 1)) {
+			num_skipped = mReaderQueuedCount - 1;
+			memcpy(skipped, mReaderQueued, sizeof(reader_frame_t) * num_skipped);
+			mReaderQueued[0] = mReaderQueued[num_skipped];
+			mReaderQueuedCount = 1;
+		}
+		if (mReaderQueuedCount && (mReaderAcquiredCount < MAX_READER_FRAMES)) {
+			acquired = mReaderQueued[0];
+			mReaderQueuedCount--;
+			memmove(mReaderQueued, mReaderQueued + 1, sizeof(reader_frame_t) * mReaderQueuedCount);
+			mReaderAcquired[mReaderAcquiredCount++] = acquired;
+			result = env->NewLocalRef(acquired.buffer);
+		}
+	}
+	pthread_mutex_unlock(&reader_mutex);
+	for (int i = 0; i < num_skipped; i++) {
+		env->DeleteGlobalRef(skipped[i].buffer);
+		recycle_frame(skipped[i].frame);
+	}
+	if (acquired.frame && info) {
+		// only consumer threads update mReaderLastSequence and FrameReader serializes them
+		const uint32_t sequence = acquired.frame->sequence;
+		const uint32_t dropped = mReaderLastSequence && (sequence > mReaderLastSequence)
+			? sequence - mReaderLastSequence - 1 : 0;
+		mReaderLastSequence = sequence;
+		updateFrameInfo(env, info, acquired.frame, env->GetDirectBufferCapacity(acquired.buffer),
+			acquired.frame->capture_time_ns, sequence, dropped);
+	}
+	return result;
+}
+
+/**
+ * release acquired frame to the frame pool
+ * @param buffer ByteBuffer that acquireReaderFrame returned
+ * @return 0 if released, -1 if the frame is not acquired
+ */
+int UVCPreview::releaseReaderFrame(JNIEnv *env, jobject buffer) {
+	reader_frame_t released = { NULL, NULL };
+	const void *data = buffer ? env->GetDirectBufferAddress(buffer) : NULL;
+
+	pthread_mutex_lock(&reader_mutex);
+	{
+		for (int i = 0; data && (i < mReaderAcquiredCount); i++) {
+			if (mReaderAcquired[i].frame->data == data) {
+				released = mReaderAcquired[i];
+				mReaderAcquired[i] = mReaderAcquired[--mReaderAcquiredCount];
+				break;
+			}
+		}
+	}
+	pthread_mutex_unlock(&reader_mutex);
+	if (UNLIKELY(!released.frame)) {
+		return -1;
+	}
+	env->DeleteGlobalRef(released.buffer);
+	recycle_frame(released.frame);
+	return 0;
+}
+
+/**
+ * release frames that are queued for FrameReader
+ * @param acquired release acquired frames too, only when the FrameReader never release them
+ */
+void UVCPreview::releaseReaderFrames(JNIEnv *env, const bool acquired) {
+	pthread_mutex_lock(&reader_mutex);
+	{
+		for (int i = 0; i < mReaderQueuedCount; i++) {
+			env->DeleteGlobalRef(mReaderQueued[i].buffer);
+			recycle_frame(mReaderQueued[i].frame);
+		}
+		mReaderQueuedCount = 0;
+		for (int i = 0; acquired && (i < mReaderAcquiredCount); i++) {
+			env->DeleteGlobalRef(mReaderAcquired[i].buffer);
+			recycle_frame(mReaderAcquired[i].frame);
+		}
+		if (acquired) {
+			mReaderAcquiredCount = 0;
+		}
+		mReaderLastSequence = 0;
+	}
+	pthread_mutex_unlock(&reader_mutex);
+}
+
 void UVCPreview::callbackPixelFormatChanged() {
 	mFrameCallbackFunc = NULL;
+	mFrameCallbackScaledFunc = NULL;
+	if (frameMode && (mCallbackScale > 1)) {
+		// MJPEG frames are decoded with DCT scaling only for frame callback
+		callbackScaledPixelFormatChanged();
+		return;
+	}
 	const size_t sz = requestWidth * requestHeight;
 	switch (mPixelFormat) {
 	  case PIXEL_FORMAT_RAW:
@@ -274,17 +1109,52 @@ void UVCPreview::callbackPixelFormatChanged() {
 		break;
 	  case PIXEL_FORMAT_YUV20SP:
 		LOGI("PIXEL_FORMAT_YUV20SP:");
-		mFrameCallbackFunc = uvc_yuyv2iyuv420SP;
+		mFrameCallbackFunc = uvc_any2iyuv420SP;
 		callbackPixelBytes = (sz * 3) / 2;
 		break;
 	  case PIXEL_FORMAT_NV21:
 		LOGI("PIXEL_FORMAT_NV21:");
-		mFrameCallbackFunc = uvc_yuyv2yuv420SP;
+		mFrameCallbackFunc = uvc_any2yuv420SP;
 		callbackPixelBytes = (sz * 3) / 2;
 		break;
 	}
 }
 
+/**
+ * select decoder and calculate size of callback frame when frame callback
+ * requests reduced resolution in MJPEG mode.
+ * should be same size as uvc_mjpeg2xxx_scaled outputs.
+ */
+void UVCPreview::callbackScaledPixelFormatChanged() {
+	const int scale = mCallbackScale;
+	const size_t width = (requestWidth + scale - 1) / scale;
+	const size_t height = (requestHeight + scale - 1) / scale;
+	switch (mPixelFormat) {
+	  case PIXEL_FORMAT_RAW:
+	  case PIXEL_FORMAT_YUV:
+		mFrameCallbackScaledFunc = uvc_mjpeg2yuyv_scaled;
+		callbackPixelBytes = (width & ~1) * height * 2;
+		break;
+	  case PIXEL_FORMAT_RGB565:
+		mFrameCallbackScaledFunc = uvc_mjpeg2rgb565_scaled;
+		callbackPixelBytes = width * height * 2;
+		break;
+	  case PIXEL_FORMAT_RGBX:
+		mFrameCallbackScaledFunc = uvc_mjpeg2rgbx_scaled;
+		callbackPixelBytes = width * height * 4;
+		break;
+	  case PIXEL_FORMAT_YUV20SP:
+		mFrameCallbackScaledFunc = uvc_mjpeg2iyuv420SP_scaled;
+		callbackPixelBytes = ((width & ~1) * (height & ~1) * 3) / 2;
+		break;
+	  case PIXEL_FORMAT_NV21:
+		mFrameCallbackScaledFunc = uvc_mjpeg2yuv420SP_scaled;
+		callbackPixelBytes = ((width & ~1) * (height & ~1) * 3) / 2;
+		break;
+	}
+	LOGI("scaled frame callback:1/%d,%dx%d", scale, (int)width, (int)height);
+}
+
 void UVCPreview::clearDisplay() {
 	ENTER();
 
@@ -331,6 +1201,19 @@ int UVCPreview::startPreview() {
 	int result = EXIT_FAILURE;
 	if (!isRunning()) {
 		mIsRunning = true;
+		__atomic_store_n(&mCopiedBytes, 0, __ATOMIC_RELAXED);
+		__atomic_store_n(&mCopiedFrames, 0, __ATOMIC_RELAXED);
+		mDecodeFps = 0;
+		mReorderDepth = 0;
+		mFpsStartTime = 0;
+		mFpsFrames = 0;
+		for (int i = 0; i < NUM_STAGES; i++) {
+			mLatency[i].reset();
+		}
+		for (int i = 0; i < NUM_DROP_REASONS; i++) {
+			__atomic_store_n(&mDrops[i], 0, __ATOMIC_RELAXED);
+		}
+		uvc_get_stream_drops(mDeviceHandle, &mDropsBase);
 		pthread_mutex_lock(&preview_mutex);
 		{
 			if (LIKELY(mPreviewWindow)) {
@@ -341,11 +1224,7 @@ int UVCPreview::startPreview() {
 		if (UNLIKELY(result != EXIT_SUCCESS)) {
 			LOGW("UVCCamera::window does not exist/already running/could not create thread etc.");
 			mIsRunning = false;
-			pthread_mutex_lock(&preview_mutex);
-			{
-				pthread_cond_signal(&preview_sync);
-			}
-			pthread_mutex_unlock(&preview_mutex);
+			previewFrames.wakeup();
 		}
 	}
 	RETURN(result, int);
@@ -356,8 +1235,14 @@ int UVCPreview::stopPreview() {
 	bool b = isRunning();
 	if (LIKELY(b)) {
 		mIsRunning = false;
-		pthread_cond_signal(&preview_sync);
-		pthread_cond_signal(&capture_sync);
+		previewFrames.wakeup();
+		captureQueu.wakeup();
+		pthread_mutex_lock(&still_mutex);
+		{
+			pthread_cond_broadcast(&still_sync);
+		}
+		pthread_mutex_unlock(&still_mutex);
+		mBurst.cancel();
 		if (pthread_join(capture_thread, NULL) != EXIT_SUCCESS) {
 			LOGW("UVCPreview::terminate capture thread: pthread_join failed");
 		}
@@ -386,74 +1271,103 @@ int UVCPreview::stopPreview() {
 //**********************************************************************
 //
 //**********************************************************************
-void UVCPreview::uvc_preview_frame_callback(uvc_frame_t *frame, void *vptr_args) {
-	UVCPreview *preview = reinterpret_cast<UVCPreview *>(vptr_args);
-	if UNLIKELY(!preview->isRunning() || !frame || !frame->frame_format || !frame->data || !frame->data_bytes) return;
+bool UVCPreview::isValidFrame(uvc_frame_t *frame) {
+	if UNLIKELY(!isRunning() || !frame || !frame->frame_format || !frame->data || !frame->data_bytes) return false;
 	if (UNLIKELY(
-		((frame->frame_format != UVC_FRAME_FORMAT_MJPEG) && (frame->actual_bytes < preview->frameBytes))
-		|| (frame->width != preview->frameWidth) || (frame->height != preview->frameHeight) )) {
+		((frame->frame_format != UVC_FRAME_FORMAT_MJPEG) && (frame->actual_bytes < frameBytes))
+		|| ((int)frame->width != frameWidth) || ((int)frame->height != frameHeight) )) {
+
+		countDrop(DROP_INVALID_SIZE);
 
 #if LOCAL_DEBUG
 		LOGD("broken frame!:format=%d,actual_bytes=%d/%d(%d,%d/%d,%d)",
-			frame->frame_format, frame->actual_bytes, preview->frameBytes,
-			frame->width, frame->height, preview->frameWidth, preview->frameHeight);
+			frame->frame_format, frame->actual_bytes, frameBytes,
+			frame->width, frame->height, frameWidth, frameHeight);
 #endif
-		return;
+		return false;
 	}
+	return true;
+}
+
+void UVCPreview::uvc_preview_frame_callback(uvc_frame_t *frame, void *vptr_args) {
+	UVCPreview *preview = reinterpret_cast<UVCPreview *>(vptr_args);
+	if (UNLIKELY(!preview->isValidFrame(frame))) return;
 	if (LIKELY(preview->isRunning())) {
 		uvc_frame_t *copy = preview->get_frame(frame->data_bytes);
 		if (UNLIKELY(!copy)) {
 #if LOCAL_DEBUG
 			LOGE("uvc_callback:unable to allocate duplicate frame!");
 #endif
+			preview->countDrop(DROP_NO_BUFFER);
 			return;
 		}
 		uvc_error_t ret = uvc_duplicate_frame(frame, copy);
 		if (UNLIKELY(ret)) {
+			preview->countDrop(DROP_NO_BUFFER);
 			preview->recycle_frame(copy);
 			return;
 		}
+		// libuvc copied holdbuf into its frame and we duplicated it again
+		__atomic_fetch_add(&preview->mCopiedFrames, 1, __ATOMIC_RELAXED);
+		preview->addCopiedBytes(frame->actual_bytes * 2);
+		preview->markStage(copy, STAGE_QUEUE);
 		preview->addPreviewFrame(copy);
 	}
 }
 
+/**
+ * callback for zero-copy streaming, the frame came from our frame pool
+ * and we own it here, so we must recycle it if we don't pass it to preview thread
+ */
+void UVCPreview::uvc_preview_frame_callback_zerocopy(uvc_frame_t *frame, void *vptr_args) {
+	UVCPreview *preview = reinterpret_cast<UVCPreview *>(vptr_args);
+	if (UNLIKELY(!frame)) return;
+	if (LIKELY(preview->isValidFrame(frame))) {
+		__atomic_fetch_add(&preview->mCopiedFrames, 1, __ATOMIC_RELAXED);
+		preview->markStage(frame, STAGE_QUEUE);
+		preview->addPreviewFrame(frame);
+	} else {
+		preview->recycle_frame(frame);
+	}
+}
+
+/**
+ * called from libuvc callback thread(producer of previewFrames)
+ * if previewFrames is full, drop the newest one(= frame) as before
+ */
 void UVCPreview::addPreviewFrame(uvc_frame_t *frame) {
 
-	pthread_mutex_lock(&preview_mutex);
-	if (isRunning() && (previewFrames.size() < MAX_FRAME)) {
-		previewFrames.put(frame);
-		frame = NULL;
-		pthread_cond_signal(&preview_sync);
+	if (LIKELY(isRunning())) {
+		frame = previewFrames.put(frame);
+		if (UNLIKELY(frame)) {
+			countDrop(DROP_PREVIEW_QUEUE_FULL);
+		}
 	}
-	pthread_mutex_unlock(&preview_mutex);
 	if (frame) {
 		recycle_frame(frame);
 	}
 }
 
-uvc_frame_t *UVCPreview::waitPreviewFrame() {
-	uvc_frame_t *frame = NULL;
-	pthread_mutex_lock(&preview_mutex);
-	{
-		if (!previewFrames.size()) {
-			pthread_cond_wait(&preview_sync, &preview_mutex);
-		}
-		if (LIKELY(isRunning() && previewFrames.size() > 0)) {
-			frame = previewFrames.remove(0);
-		}
+/**
+ * called from preview thread(consumer of previewFrames)
+ */
+uvc_frame_t *UVCPreview::waitPreviewFrame() {
+	uvc_frame_t *frame = previewFrames.wait();
+	if (UNLIKELY(frame && !isRunning())) {
+		recycle_frame(frame);
+		frame = NULL;
 	}
-	pthread_mutex_unlock(&preview_mutex);
 	return frame;
 }
 
+/**
+ * this should be called from consumer thread or while the producer is not running
+ */
 void UVCPreview::clearPreviewFrame() {
-	pthread_mutex_lock(&preview_mutex);
-	{
-		for (int i = 0; i < previewFrames.size(); i++)
-			recycle_frame(previewFrames[i]);
-		previewFrames.clear();
+	uvc_frame_t *frame;
+	for (; (frame = previewFrames.get()) ;) {
+		recycle_frame(frame);
 	}
-	pthread_mutex_unlock(&preview_mutex);
 }
 
 void *UVCPreview::preview_thread_func(void *vptr_args) {
@@ -513,48 +1427,107 @@ void UVCPreview::do_preview(uvc_stream_ctrl_t *ctrl) {
 	ENTER();
 
 	uvc_frame_t *frame = NULL;
-	uvc_frame_t *frame_mjpeg = NULL;
-	uvc_error_t result = uvc_start_streaming_bandwidth(
-		mDeviceHandle, ctrl, uvc_preview_frame_callback, (void *)this, requestBandwidth, 0);
+	uvc_error_t result;
+	mZeroCopyStreaming = mZeroCopy;
+	float bandwidth = requestBandwidth;
+	const int bandwidth_limit = mBandwidthLimit;
+	if ((bandwidth_limit > 0) && (ctrl->dwMaxPayloadTransferSize > (uint32_t)bandwidth_limit)) {
+		bandwidth = (float)bandwidth_limit / ctrl->dwMaxPayloadTransferSize;
+		LOGI("bandwidth limit=%d,dwMaxPayloadTransferSize=%d,factor=%f",
+			bandwidth_limit, ctrl->dwMaxPayloadTransferSize, bandwidth);
+	}
+	pthread_mutex_lock(&stream_mutex);
+	uvc_set_num_transfers(mDeviceHandle, mTransferCount);
+	if (mZeroCopyStreaming) {
+		uvc_frame_pool_t pool;
+		pool.get_frame = pool_get_frame;
+		pool.recycle_frame = pool_recycle_frame;
+		pool.pool_ptr = (void *)this;
+		result = uvc_start_streaming_bandwidth_pool(
+			mDeviceHandle, ctrl, uvc_preview_frame_callback_zerocopy, (void *)this, bandwidth, &pool, 0);
+	} else {
+		result = uvc_start_streaming_bandwidth(
+			mDeviceHandle, ctrl, uvc_preview_frame_callback, (void *)this, bandwidth, 0);
+	}
+	pthread_mutex_unlock(&stream_mutex);
 
 	if (LIKELY(!result)) {
 		clearPreviewFrame();
+		if (frameMode && (mDecodeThreads > 1)) {
+			startDecodeWorkers(mDecodeThreads);
+		}
 		pthread_create(&capture_thread, NULL, capture_thread_func, (void *)this);
+		const bool drop_notify = !pthread_create(&drop_notify_thread, NULL, drop_notify_thread_func, (void *)this);
 
 #if LOCAL_DEBUG
 		LOGI("Streaming...");
 #endif
-		if (frameMode) {
-			// MJPEG mode
+		// in MJPEG mode, frames are not decoded into YUYV here.
+		// each consumer decodes MJPEG directly into the format that it needs,
+		// i.e. RGBX into the preview Surface here, and RGBX/RGB565/NV12/NV21 for
+		// the capture Surface and IFrameCallback on the capture thread.
+		if (mDecodeThreadCount) {
+			// decode worker threads decode MJPEG into RGBX frames in parallel,
+			// this thread queues frames and draws decoded ones in the order they arrived.
+			// the capture thread still receives original MJPEG frames in the same order.
 			for ( ; LIKELY(isRunning()) ; ) {
-				frame_mjpeg = waitPreviewFrame();
-				if (LIKELY(frame_mjpeg)) {
-					frame = get_frame(frame_mjpeg->width * frame_mjpeg->height * 2);
-					result = uvc_mjpeg2yuyv(frame_mjpeg, frame);   // MJPEG => yuyv
-					recycle_frame(frame_mjpeg);
-					if (LIKELY(!result)) {
-						frame = draw_preview_one(frame, &mPreviewWindow, uvc_any2rgbx, 4);
-						addCaptureFrame(frame);
-					} else {
-						recycle_frame(frame);
-					}
+				drawDecodedFrames();
+				pthread_mutex_lock(&decode_mutex);
+				const bool full = (int)(mDecodeTail - mDecodeHead) >= mMaxDecodeJobs;
+				if (full && (mDecodeJobs[mDecodeHead & DECODE_JOB_MASK].state != DECODE_JOB_DONE)) {
+					pthread_cond_wait(&decode_done_sync, &decode_mutex);
+				}
+				pthread_mutex_unlock(&decode_mutex);
+				if (full) continue;
+				// this returns NULL when the worker finished the oldest job
+				frame = waitPreviewFrame();
+				if (LIKELY(frame)) {
+					queueDecodeJob(frame);
 				}
 			}
 		} else {
-			// yuvyv mode
 			for ( ; LIKELY(isRunning()) ; ) {
 				frame = waitPreviewFrame();
 				if (LIKELY(frame)) {
-					frame = draw_preview_one(frame, &mPreviewWindow, uvc_any2rgbx, 4);
+					if (UNLIKELY(uvc_stripe_pool_get_threads(mStripePool) != mStripeThreads)) {
+						// only the preview thread touches the pool, recreate it when number of threads is changed
+						uvc_stripe_pool_destroy(mStripePool);
+						mStripePool = mStripeThreads > 1 ? uvc_stripe_pool_create(mStripeThreads) : NULL;
+						if (UNLIKELY((mStripeThreads > 1) && !mStripePool)) {
+							LOGW("failed to create stripe decode threads, decode serially");
+							mStripeThreads = 1;
+						}
+					}
+					// MJPEG frame is decoded while drawing into the Surface, STAGE_DECODE is marked there
+					frame = draw_preview_one(frame, &mPreviewWindow, uvc_any2rgbx, 4, true);
+					markStage(frame, STAGE_DRAW);
 					addCaptureFrame(frame);
+					updateDecodeFps(1);
 				}
 			}
 		}
-		pthread_cond_signal(&capture_sync);
+		captureQueu.wakeup();
+		if (LIKELY(drop_notify)) {
+			pthread_mutex_lock(&drop_mutex);
+			{
+				pthread_cond_broadcast(&drop_sync);
+			}
+			pthread_mutex_unlock(&drop_mutex);
+			if (pthread_join(drop_notify_thread, NULL) != EXIT_SUCCESS) {
+				LOGW("UVCPreview::terminate drop notify thread: pthread_join failed");
+			}
+		}
 #if LOCAL_DEBUG
 		LOGI("preview_thread_func:wait for all callbacks complete");
 #endif
-		uvc_stop_streaming(mDeviceHandle);
+		pthread_mutex_lock(&stream_mutex);
+		{
+			uvc_stop_streaming(mDeviceHandle);
+		}
+		pthread_mutex_unlock(&stream_mutex);
+		stopDecodeWorkers();
+		uvc_stripe_pool_destroy(mStripePool);
+		mStripePool = NULL;
 #if LOCAL_DEBUG
 		LOGI("Streaming finished");
 #endif
@@ -565,6 +1538,275 @@ void UVCPreview::do_preview(uvc_stream_ctrl_t *ctrl) {
 	EXIT();
 }
 
+//======================================================================
+// periodic notification of dropped frames
+//======================================================================
+// static
+void *UVCPreview::drop_notify_thread_func(void *vptr_args) {
+	ENTER();
+	UVCPreview *preview = reinterpret_cast<UVCPreview *>(vptr_args);
+	if (LIKELY(preview)) {
+		JavaVM *vm = getVM();
+		JNIEnv *env;
+		// attach to JavaVM
+		vm->AttachCurrentThread(&env, NULL);
+		preview->do_drop_notify(env);
+		// detach from JavaVM
+		vm->DetachCurrentThread();
+	}
+	PRE_EXIT();
+	pthread_exit(NULL);
+}
+
+/**
+ * call IFrameDropCallback#onFrameDrop every mDropNotifyIntervalMs while previewing,
+ * this does not depend on arrival of frames so that it is called even if all frames are lost.
+ * if no callback is set, wait until it is set or preview stops
+ */
+void UVCPreview::do_drop_notify(JNIEnv *env) {
+	ENTER();
+
+	uint32_t drops[NUM_DROP_REASONS];
+	jintArray array = env->NewIntArray(NUM_DROP_REASONS);
+	struct timespec ts;
+	pthread_mutex_lock(&drop_mutex);
+	for (; isRunning() ;) {
+		if (!mFrameDropCallbackObj) {
+			pthread_cond_wait(&drop_sync, &drop_mutex);
+			continue;
+		}
+		clock_gettime(CLOCK_REALTIME, &ts);
+		const int64_t t = ts.tv_nsec + mDropNotifyIntervalMs * 1000000LL;
+		ts.tv_sec += t / 1000000000LL;
+		ts.tv_nsec = t % 1000000000LL;
+		if (pthread_cond_timedwait(&drop_sync, &drop_mutex, &ts) != ETIMEDOUT) {
+			// woken up because callback/interval changed or preview is stopping
+			continue;
+		}
+		if (LIKELY(mFrameDropCallbackObj && array && isRunning())) {
+			// call without drop_mutex so that the callback can change the callback/interval
+			jobject callback = env->NewLocalRef(mFrameDropCallbackObj);
+			const jmethodID onFrameDrop = iframedropcallback_fields.onFrameDrop;
+			pthread_mutex_unlock(&drop_mutex);
+			{
+				getFrameDrops(drops);
+				env->SetIntArrayRegion(array, 0, NUM_DROP_REASONS, (const jint *)drops);
+				env->CallVoidMethod(callback, onFrameDrop, array);
+				env->ExceptionClear();
+				env->DeleteLocalRef(callback);
+			}
+			pthread_mutex_lock(&drop_mutex);
+		}
+	}
+	pthread_mutex_unlock(&drop_mutex);
+	if (array) {
+		env->DeleteLocalRef(array);
+	}
+
+	EXIT();
+}
+
+//======================================================================
+// MJPEG decode worker pool
+//======================================================================
+/**
+ * start decode worker threads, called from preview thread
+ * if no thread could start, preview thread decodes MJPEG frames by itself
+ */
+void UVCPreview::startDecodeWorkers(int num_threads) {
+	ENTER();
+
+	mDecodeHead = mDecodeNext = mDecodeTail = 0;
+	// one more job than threads so that workers don't stall while preview thread is drawing
+	mMaxDecodeJobs = num_threads + 1;
+	// each job holds MJPEG frame and decoded RGBX frame
+	mMaxPoolFrames = FRAME_POOL_SZ + mMaxDecodeJobs * 2;
+	mDecodeRunning = true;
+	mDecodeThreadCount = 0;
+	for (int i = 0; i < num_threads; i++) {
+		if (UNLIKELY(pthread_create(&decode_threads[i], NULL, decode_thread_func, (void *)this))) {
+			LOGW("failed to create decode thread#%d", i);
+			break;
+		}
+		mDecodeThreadCount++;
+	}
+	if (UNLIKELY(!mDecodeThreadCount)) {
+		mDecodeRunning = false;
+		mMaxPoolFrames = FRAME_POOL_SZ;
+	}
+	LOGI("decode threads=%d", mDecodeThreadCount);
+
+	EXIT();
+}
+
+/**
+ * terminate decode worker threads and release frames that are not drawn yet.
+ * called from preview thread after streaming stopped
+ */
+void UVCPreview::stopDecodeWorkers() {
+	ENTER();
+
+	if (mDecodeThreadCount) {
+		pthread_mutex_lock(&decode_mutex);
+		{
+			mDecodeRunning = false;
+			pthread_cond_broadcast(&decode_sync);
+		}
+		pthread_mutex_unlock(&decode_mutex);
+		for (int i = 0; i < mDecodeThreadCount; i++) {
+			if (pthread_join(decode_threads[i], NULL) != EXIT_SUCCESS) {
+				LOGW("UVCPreview::terminate decode thread: pthread_join failed");
+			}
+		}
+		for (; mDecodeHead != mDecodeTail; mDecodeHead++) {
+			decode_job_t *job = &mDecodeJobs[mDecodeHead & DECODE_JOB_MASK];
+			if (job->decoded) recycle_frame(job->decoded);
+			if (job->frame) recycle_frame(job->frame);
+			job->frame = job->decoded = NULL;
+		}
+		mDecodeNext = mDecodeTail = mDecodeHead = 0;
+		LOGI("decode threads=%d,fps=%.1f,reorder depth=%d", mDecodeThreadCount, mDecodeFps, mReorderDepth);
+		mDecodeThreadCount = 0;
+		mMaxPoolFrames = FRAME_POOL_SZ;
+	}
+
+	EXIT();
+}
+
+// static
+void *UVCPreview::decode_thread_func(void *vptr_args) {
+	ENTER();
+	UVCPreview *preview = reinterpret_cast<UVCPreview *>(vptr_args);
+	if (LIKELY(preview)) {
+		preview->do_decode();
+	}
+	PRE_EXIT();
+	pthread_exit(NULL);
+}
+
+/**
+ * loop of decode worker thread, take oldest queued job and decode it into RGBX frame
+ */
+void UVCPreview::do_decode() {
+	ENTER();
+
+	pthread_mutex_lock(&decode_mutex);
+	for (; mDecodeRunning ;) {
+		if (mDecodeNext == mDecodeTail) {
+			pthread_cond_wait(&decode_sync, &decode_mutex);
+			continue;
+		}
+		const uint32_t seq = mDecodeNext++;
+		decode_job_t *job = &mDecodeJobs[seq & DECODE_JOB_MASK];
+		job->state = DECODE_JOB_DECODING;
+		uvc_frame_t *frame = job->frame;
+		pthread_mutex_unlock(&decode_mutex);
+
+		uvc_frame_t *decoded = get_frame(previewBytes);
+		if (LIKELY(decoded) && UNLIKELY(uvc_mjpeg2rgbx(frame, decoded))) {
+			LOGW("failed to decode MJPEG frame");
+			recycle_frame(decoded);
+			decoded = NULL;
+		}
+		markStage(frame, STAGE_DECODE);
+
+		pthread_mutex_lock(&decode_mutex);
+		job->decoded = decoded;
+		job->state = DECODE_JOB_DONE;
+		const bool is_head = seq == mDecodeHead;
+		if (!is_head) {
+			// this frame and the frames after the oldest one have to wait for it
+			int waiting = 0;
+			for (uint32_t i = mDecodeHead; i != mDecodeTail; i++) {
+				if (mDecodeJobs[i & DECODE_JOB_MASK].state == DECODE_JOB_DONE) waiting++;
+			}
+			if (waiting > mReorderDepth) {
+				mReorderDepth = waiting;
+			}
+		}
+		pthread_cond_signal(&decode_done_sync);
+		pthread_mutex_unlock(&decode_mutex);
+		if (is_head) {
+			// preview thread may be waiting for new frame from libuvc
+			previewFrames.wakeup();
+		}
+		pthread_mutex_lock(&decode_mutex);
+	}
+	pthread_mutex_unlock(&decode_mutex);
+
+	EXIT();
+}
+
+/**
+ * queue MJPEG frame to decode worker, called from preview thread
+ * caller should confirm there is a free slot
+ */
+void UVCPreview::queueDecodeJob(uvc_frame_t *frame) {
+	pthread_mutex_lock(&decode_mutex);
+	{
+		decode_job_t *job = &mDecodeJobs[mDecodeTail & DECODE_JOB_MASK];
+		job->frame = frame;
+		job->decoded = NULL;
+		job->state = DECODE_JOB_QUEUED;
+		mDecodeTail++;
+		pthread_cond_signal(&decode_sync);
+	}
+	pthread_mutex_unlock(&decode_mutex);
+}
+
+/**
+ * draw decoded frames in the order they arrived and pass them to capture thread,
+ * stop at the first frame that is not decoded yet. called from preview thread
+ */
+void UVCPreview::drawDecodedFrames() {
+	int frames = 0;
+	for (;;) {
+		uvc_frame_t *frame, *decoded;
+		pthread_mutex_lock(&decode_mutex);
+		{
+			decode_job_t *job = &mDecodeJobs[mDecodeHead & DECODE_JOB_MASK];
+			if ((mDecodeHead == mDecodeTail) || (job->state != DECODE_JOB_DONE)) {
+				pthread_mutex_unlock(&decode_mutex);
+				break;
+			}
+			frame = job->frame;
+			decoded = job->decoded;
+			job->frame = job->decoded = NULL;
+			mDecodeHead++;
+		}
+		pthread_mutex_unlock(&decode_mutex);
+		if (LIKELY(decoded)) {
+			draw_preview_one(decoded, &mPreviewWindow, uvc_any2rgbx, 4);
+			recycle_frame(decoded);
+			markStage(frame, STAGE_DRAW);
+			frames++;
+		}
+		addCaptureFrame(frame);
+	}
+	if (frames) {
+		updateDecodeFps(frames);
+	}
+}
+
+/**
+ * count drawn frames and update fps every FPS_INTERVAL_NS, called from preview thread
+ */
+void UVCPreview::updateDecodeFps(int frames) {
+	const int64_t now = systemTimeNs();
+	if (UNLIKELY(!mFpsStartTime)) {
+		mFpsStartTime = now;
+		mFpsFrames = 0;
+		return;
+	}
+	mFpsFrames += frames;
+	const int64_t elapsed = now - mFpsStartTime;
+	if (elapsed >= FPS_INTERVAL_NS) {
+		mDecodeFps = (float)(mFpsFrames * 1000000000.0 / elapsed);
+		mFpsStartTime = now;
+		mFpsFrames = 0;
+	}
+}
+
 static void copyFrame(const uint8_t *src, uint8_t *dest, const int width, int height, const int stride_src, const int stride_dest) {
 	const int h8 = height % 8;
 	for (int i = 0; i < h8; i++) {
@@ -593,6 +1835,7 @@ static void copyFrame(const uint8_t *src, uint8_t *dest, const int width, int he
 
 
 // transfer specific frame data to the Surface(ANativeWindow)
+// return copied bytes, or -1 if failed
 int copyToSurface(uvc_frame_t *frame, ANativeWindow **window) {
 	// ENTER();
 	int result = 0;
@@ -614,6 +1857,7 @@ int copyToSurface(uvc_frame_t *frame, ANativeWindow **window) {
 			// transfer from frame data to the Surface
 			copyFrame(src, dest, w, h, src_step, dest_step);
 			ANativeWindow_unlockAndPost(*window);
+			result = w * h;
 		} else {
 			result = -1;
 		}
@@ -623,8 +1867,57 @@ int copyToSurface(uvc_frame_t *frame, ANativeWindow **window) {
 	return result; //RETURN(result, int);
 }
 
+// whether the frame can be written into the Surface directly without intermediate RGBX frame
+static inline bool canConvertToSurface(uvc_frame_t *frame) {
+	switch (frame->frame_format) {
+	case UVC_FRAME_FORMAT_YUYV:
+	case UVC_FRAME_FORMAT_MJPEG:
+	case UVC_FRAME_FORMAT_RGBX:
+		return true;
+	default:
+		return false;
+	}
+}
+
+// convert specific frame data and write it into the locked buffer of the Surface(ANativeWindow)
+// RGB565 window is supported only for YUYV frame
+// if pool is not NULL, MJPEG frame that has restart markers is decoded in parallel stripes by its threads
+// return 0 if success, or -1 if failed
+static int convertToBuffer(uvc_frame_t *frame, ANativeWindow_Buffer *buffer, uvc_stripe_pool_t *pool) {
+	int result;
+	uint8_t *dest = (uint8_t *)buffer->bits;
+	if (buffer->format == WINDOW_FORMAT_RGB_565) {
+		result = uvc_any2rgb565_to(frame, dest, buffer->stride * 2, buffer->width, buffer->height);
+	} else if (pool && (frame->frame_format == UVC_FRAME_FORMAT_MJPEG)) {
+		result = uvc_mjpeg2rgbx_to_parallel(frame, dest, buffer->stride * PREVIEW_PIXEL_BYTES,
+			buffer->width, buffer->height, pool);
+	} else {
+		result = uvc_any2rgbx_to(frame, dest, buffer->stride * PREVIEW_PIXEL_BYTES, buffer->width, buffer->height);
+	}
+	return UNLIKELY(result) ? -1 : 0;
+}
+
+// convert specific frame data and write it into the Surface(ANativeWindow) directly
+// return 0 if success, or -1 if failed
+int convertToSurface(uvc_frame_t *frame, ANativeWindow **window) {
+	// ENTER();
+	int result = -1;
+	if (LIKELY(*window)) {
+		ANativeWindow_Buffer buffer;
+		if (LIKELY(ANativeWindow_lock(*window, &buffer, NULL) == 0)) {
+			result = convertToBuffer(frame, &buffer, NULL);
+			ANativeWindow_unlockAndPost(*window);
+		}
+	}
+	return result; //RETURN(result, int);
+}
+
 // changed to return original frame instead of returning converted frame even if convert_func is not null.
-uvc_frame_t *UVCPreview::draw_preview_one(uvc_frame_t *frame, ANativeWindow **window, convFunc_t convert_func, int pixcelBytes) {
+// if the frame can be written into the Surface directly, convert_func is not used.
+// if mark_decode is true, STAGE_DECODE of the frame is marked when decoding(converting) finished
+// and before the result is posted to the Surface.
+uvc_frame_t *UVCPreview::draw_preview_one(uvc_frame_t *frame, ANativeWindow **window, convFunc_t convert_func, int pixcelBytes,
+	bool mark_decode) {
 	// ENTER();
 
 	int b = 0;
@@ -635,14 +1928,38 @@ uvc_frame_t *UVCPreview::draw_preview_one(uvc_frame_t *frame, ANativeWindow **wi
 	pthread_mutex_unlock(&preview_mutex);
 	if (LIKELY(b)) {
 		uvc_frame_t *converted;
-		if (convert_func) {
+		if (convert_func && canConvertToSurface(frame)) {
+			pthread_mutex_lock(&preview_mutex);
+			b = -1;
+			if (LIKELY(*window)) {
+				ANativeWindow_Buffer buffer;
+				if (LIKELY(ANativeWindow_lock(*window, &buffer, NULL) == 0)) {
+					// frame is decoded directly into the buffer of the Surface
+					b = convertToBuffer(frame, &buffer, mStripePool);
+					if (mark_decode) {
+						markStage(frame, STAGE_DECODE);
+						mark_decode = false;
+					}
+					ANativeWindow_unlockAndPost(*window);
+				}
+			}
+			pthread_mutex_unlock(&preview_mutex);
+			if (UNLIKELY(b)) {
+				LOGE("failed converting");
+			}
+		} else if (convert_func) {
 			converted = get_frame(frame->width * frame->height * pixcelBytes);
 			if LIKELY(converted) {
 				b = convert_func(frame, converted);
+				if (mark_decode) {
+					markStage(frame, STAGE_DECODE);
+					mark_decode = false;
+				}
 				if (!b) {
 					pthread_mutex_lock(&preview_mutex);
-					copyToSurface(converted, window);
+					b = copyToSurface(converted, window);
 					pthread_mutex_unlock(&preview_mutex);
+					if (LIKELY(b > 0)) addCopiedBytes(b);
 				} else {
 					LOGE("failed converting");
 				}
@@ -650,10 +1967,15 @@ uvc_frame_t *UVCPreview::draw_preview_one(uvc_frame_t *frame, ANativeWindow **wi
 			}
 		} else {
 			pthread_mutex_lock(&preview_mutex);
-			copyToSurface(frame, window);
+			b = copyToSurface(frame, window);
 			pthread_mutex_unlock(&preview_mutex);
+			if (LIKELY(b > 0)) addCopiedBytes(b);
 		}
 	}
+	if (mark_decode) {
+		// nothing was decoded, e.g. the Surface is not set
+		markStage(frame, STAGE_DECODE);
+	}
 	return frame; //RETURN(frame, uvc_frame_t *);
 }
 
@@ -669,7 +1991,7 @@ int UVCPreview::setCaptureDisplay(ANativeWindow *capture_window) {
 		if (isRunning() && isCapturing()) {
 			mIsCapturing = false;
 			if (mCaptureWindow) {
-				pthread_cond_signal(&capture_sync);
+				captureQueu.wakeup();
 				pthread_cond_wait(&capture_sync, &capture_mutex);	// wait finishing capturing
 			}
 		}
@@ -698,49 +2020,173 @@ int UVCPreview::setCaptureDisplay(ANativeWindow *capture_window) {
 	RETURN(0, int);
 }
 
+/**
+ * set first stage of native pipeline graph. captured frames(YUYV or MJPEG) are passed to
+ * IPipeline#queueFrame on the capture thread, the pipeline copies the frame into its own buffer.
+ * the pipeline is not owned by UVCPreview, set NULL before releasing it.
+ * @param pipeline NULL to remove
+ */
+int UVCPreview::setPipeline(IPipeline *pipeline) {
+	ENTER();
+	pthread_mutex_lock(&pipeline_mutex);
+	{
+		mPipeline = pipeline;
+	}
+	pthread_mutex_unlock(&pipeline_mutex);
+	RETURN(0, int);
+}
+
+/**
+ * save the next MJPEG frame as JPEG file without decoding/encoding.
+ * Huffman tables are inserted if the frame does not have them.
+ * the capture thread only copies the frame and the file is written on the caller thread,
+ * so this does not stall preview but blocks the caller until the next frame arrives.
+ * @param timeout_ms
+ * @return bytes of the file, UVC_ERROR_NOT_SUPPORTED if the preview is not MJPEG
+ */
+int UVCPreview::captureStill(const char *path, int timeout_ms) {
+	ENTER();
+
+	if (UNLIKELY(!path)) {
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+	if (UNLIKELY(!isRunning() || !frameMode)) {
+		RETURN(UVC_ERROR_NOT_SUPPORTED, int);
+	}
+	struct timespec ts;
+	clock_gettime(CLOCK_REALTIME, &ts);
+	const int64_t t = ts.tv_nsec + timeout_ms * 1000000LL;
+	ts.tv_sec += t / 1000000000LL;
+	ts.tv_nsec = t % 1000000000LL;
+	uvc_frame_t *frame;
+	pthread_mutex_lock(&still_mutex);
+	{
+		mStillRequested = true;
+		for (; isRunning() && !mStillFrame ;) {
+			if (pthread_cond_timedwait(&still_sync, &still_mutex, &ts) == ETIMEDOUT) {
+				break;
+			}
+		}
+		frame = mStillFrame;
+		mStillFrame = NULL;
+		mStillRequested = false;
+	}
+	pthread_mutex_unlock(&still_mutex);
+	if (UNLIKELY(!frame)) {
+		RETURN(UVC_ERROR_TIMEOUT, int);
+	}
+
+	int result = UVC_ERROR_NO_MEM;
+	uvc_frame_t *jpeg = get_frame(frame->actual_bytes);
+	if (LIKELY(jpeg)) {
+		result = uvc_mjpeg2jpeg(frame, jpeg);
+		if (LIKELY(!result)) {
+			FILE *fp = fopen(path, "wb");
+			if (LIKELY(fp)) {
+				const size_t written = fwrite(jpeg->data, 1, jpeg->actual_bytes, fp);
+				result = (!fclose(fp) && (written == jpeg->actual_bytes))
+					? (int)written : UVC_ERROR_IO;
+			} else {
+				LOGE("failed to open %s:errno=%d", path, errno);
+				result = UVC_ERROR_IO;
+			}
+		}
+		recycle_frame(jpeg);
+	}
+	recycle_frame(frame);
+
+	RETURN(result, int);
+}
+
+/**
+ * capture consecutive frames into the preallocated ring and write them as JPEG files
+ * (burst_XXXX.jpg) on encoder threads. this returns immediately, use #waitBurst to wait for files.
+ * MJPEG frames are written as they are and YUYV frames are encoded with libjpeg-turbo.
+ * @param dir directory that the app can write
+ * @param num_frames number of frames, [0, MAX_BURST_FRAMES], 0 means all frames until duration_ms
+ * @param duration_ms [0, ], 0 means until num_frames
+ * @param quality JPEG quality of YUYV frames
+ * @param num_threads number of encoder threads
+ * @return 0 on success, UVC_ERROR_BUSY if previous burst is in progress
+ */
+int UVCPreview::startBurst(const char *dir, int num_frames, int duration_ms, int quality, int num_threads) {
+	ENTER();
+
+	if (UNLIKELY(!isRunning())) {
+		RETURN(UVC_ERROR_NOT_SUPPORTED, int);
+	}
+	// MJPEG frames are far smaller than YUYV frames of same size
+	const int result = mBurst.start(dir, num_frames, duration_ms, quality, num_threads,
+		frameWidth * frameHeight * 2);
+
+	RETURN(result, int);
+}
+
+/**
+ * @param timeout_ms
+ * @return number of written frames, UVC_ERROR_TIMEOUT if the burst is still in progress
+ */
+int UVCPreview::waitBurst(int timeout_ms) {
+	ENTER();
+	RETURN(mBurst.wait(timeout_ms), int);
+}
+
+/**
+ * stop capturing frames, frames that were already captured are still written
+ * @return number of captured frames
+ */
+int UVCPreview::stopBurst() {
+	ENTER();
+	RETURN(mBurst.cancel(), int);
+}
+
+/**
+ * @return JSON string of BurstCapture#getStats, should be freed by caller
+ */
+char *UVCPreview::getBurstStats() {
+	ENTER();
+	RETURN(mBurst.getStats(), char *);
+}
+
+/**
+ * called from preview thread(producer of captureQueu)
+ * keep only latest one, older frame is evicted and recycled
+ */
 void UVCPreview::addCaptureFrame(uvc_frame_t *frame) {
-	pthread_mutex_lock(&capture_mutex);
 	if (LIKELY(isRunning())) {
-		// keep only latest one
-		if (captureQueu) {
-			recycle_frame(captureQueu);
+		markStage(frame, STAGE_CAPTURE);
+		frame = captureQueu.put(frame);
+		if (frame) {
+			countDrop(DROP_CAPTURE_OVERWRITE);
 		}
-		captureQueu = frame;
-		pthread_cond_broadcast(&capture_sync);
 	}
-	pthread_mutex_unlock(&capture_mutex);
+	if (frame) {
+		recycle_frame(frame);
+	}
 }
 
 /**
  * get frame data for capturing, if not exist, block and wait
+ * called from capture thread(consumer of captureQueu)
  */
 uvc_frame_t *UVCPreview::waitCaptureFrame() {
-	uvc_frame_t *frame = NULL;
-	pthread_mutex_lock(&capture_mutex);
-	{
-		if (!captureQueu) {
-			pthread_cond_wait(&capture_sync, &capture_mutex);
-		}
-		if (LIKELY(isRunning() && captureQueu)) {
-			frame = captureQueu;
-			captureQueu = NULL;
-		}
+	uvc_frame_t *frame = captureQueu.wait();
+	if (UNLIKELY(frame && !isRunning())) {
+		recycle_frame(frame);
+		frame = NULL;
 	}
-	pthread_mutex_unlock(&capture_mutex);
 	return frame;
 }
 
 /**
  * clear drame data for capturing
+ * this should be called from consumer thread or while the producer is not running
  */
 void UVCPreview::clearCaptureFrame() {
-	pthread_mutex_lock(&capture_mutex);
-	{
-		if (captureQueu)
-			recycle_frame(captureQueu);
-		captureQueu = NULL;
+	uvc_frame_t *frame;
+	for (; (frame = captureQueu.get()) ;) {
+		recycle_frame(frame);
 	}
-	pthread_mutex_unlock(&capture_mutex);
 }
 
 //======================================================================
@@ -786,6 +2232,7 @@ void UVCPreview::do_capture(JNIEnv *env) {
 		}
 		pthread_cond_broadcast(&capture_sync);
 	}	// end of for (; isRunning() ;)
+	releaseCallbackBuffers(env);
 	EXIT();
 }
 
@@ -800,7 +2247,10 @@ void UVCPreview::do_capture_idle_loop(JNIEnv *env) {
 }
 
 /**
- * write frame data to Surface for capturing
+ * write frame data to Surface for capturing.
+ * MJPEG frame is decoded directly into the Surface when it is the only consumer that decodes,
+ * if the frame callback also needs the decoded frame in full size, the frame is decoded once
+ * into YUYV and both the Surface and the frame callback convert from it.
  */
 void UVCPreview::do_capture_surface(JNIEnv *env) {
 	ENTER();
@@ -812,8 +2262,23 @@ void UVCPreview::do_capture_surface(JNIEnv *env) {
 	for (; isRunning() && isCapturing() ;) {
 		frame = waitCaptureFrame();
 		if (LIKELY(frame)) {
-			// frame data is always YUYV format.
-			if LIKELY(isCapturing()) {
+			uvc_frame_t *decoded = NULL;
+			// frame data is YUYV or MJPEG format.
+			if (LIKELY(isCapturing() && canConvertToSurface(frame))) {
+				if ((frame->frame_format == UVC_FRAME_FORMAT_MJPEG)
+					&& mFrameCallbackObj && !mFrameCallbackScaledFunc) {
+
+					// frame callback decodes the frame too, decode only once
+					decoded = get_frame(frame->width * frame->height * 2);
+					if (LIKELY(decoded) && UNLIKELY(uvc_mjpeg2yuyv(frame, decoded))) {
+						recycle_frame(decoded);
+						decoded = NULL;
+					}
+				}
+				if (LIKELY(mCaptureWindow)) {
+					convertToSurface(decoded ? decoded : frame, &mCaptureWindow);
+				}
+			} else if LIKELY(isCapturing()) {
 				if (UNLIKELY(!converted)) {
 					converted = get_frame(previewBytes);
 				}
@@ -821,12 +2286,13 @@ void UVCPreview::do_capture_surface(JNIEnv *env) {
 					int b = uvc_any2rgbx(frame, converted);
 					if (!b) {
 						if (LIKELY(mCaptureWindow)) {
-							copyToSurface(converted, &mCaptureWindow);
+							b = copyToSurface(converted, &mCaptureWindow);
+							if (LIKELY(b > 0)) addCopiedBytes(b);
 						}
 					}
 				}
 			}
-			do_capture_callback(env, frame);
+			do_capture_callback(env, frame, decoded);
 		}
 	}
 	if (converted) {
@@ -840,19 +2306,79 @@ void UVCPreview::do_capture_surface(JNIEnv *env) {
 	EXIT();
 }
 
+/**
+ * copy the MJPEG frame for #captureStill, called from capture thread
+ */
+void UVCPreview::handOverStillFrame(uvc_frame_t *frame) {
+	pthread_mutex_lock(&still_mutex);
+	if (LIKELY(mStillRequested && !mStillFrame && (frame->frame_format == UVC_FRAME_FORMAT_MJPEG))) {
+		const size_t bytes = frame->actual_bytes;
+		uvc_frame_t *copy = get_frame(bytes);
+		if (LIKELY(copy && ((copy->data_bytes >= bytes) || !uvc_ensure_frame_size(copy, bytes)))) {
+			memcpy(copy->data, frame->data, bytes);
+			copy->actual_bytes = bytes;
+			copy->width = frame->width;
+			copy->height = frame->height;
+			copy->frame_format = frame->frame_format;
+			copy->sequence = frame->sequence;
+			copy->capture_time = frame->capture_time;
+			copy->capture_time_ns = frame->capture_time_ns;
+			addCopiedBytes(bytes);
+			mStillFrame = copy;
+			pthread_cond_signal(&still_sync);
+		} else if (copy) {
+			recycle_frame(copy);
+		}
+	}
+	pthread_mutex_unlock(&still_mutex);
+}
+
 /**
 * call IFrameCallback#onFrame if needs
+* @param decoded YUYV frame that was decoded from the MJPEG frame for other consumer or NULL,
+*        this is used instead of decoding the frame again and is recycled here
  */
-void UVCPreview::do_capture_callback(JNIEnv *env, uvc_frame_t *frame) {
+void UVCPreview::do_capture_callback(JNIEnv *env, uvc_frame_t *frame, uvc_frame_t *decoded) {
 	ENTER();
 
 	if (LIKELY(frame)) {
+		if (UNLIKELY(mStillRequested)) {
+			handOverStillFrame(frame);
+		}
+		if (UNLIKELY(mBurst.isArmed())) {
+			mBurst.handOverFrame(frame);
+		}
+		if (mPipeline) {
+			pthread_mutex_lock(&pipeline_mutex);
+			if (LIKELY(mPipeline)) {
+				mPipeline->queueFrame(frame);
+			}
+			pthread_mutex_unlock(&pipeline_mutex);
+		}
 		uvc_frame_t *callback_frame = frame;
+		// converted frame does not have timestamps of the original frame
+		const int64_t stage_time = frame->stage_time;
+		const int64_t complete_time = frame->complete_time;
+		const int64_t capture_time = frame->capture_time_ns;
+		const uint32_t sequence = frame->sequence;
+		if (decoded) {
+			// still/burst/pipeline above need the MJPEG frame, the frame callback converts from YUYV
+			recycle_frame(frame);
+			callback_frame = frame = decoded;
+		}
 		if (mFrameCallbackObj) {
-			if (mFrameCallbackFunc) {
+			convFunc_t func = mFrameCallbackFunc;
+			const bool scaled = mFrameCallbackScaledFunc && (frame->frame_format == UVC_FRAME_FORMAT_MJPEG);
+			if (!func && (frame->frame_format == UVC_FRAME_FORMAT_MJPEG)) {
+				// PIXEL_FORMAT_RAW/PIXEL_FORMAT_YUV expect YUYV
+				func = uvc_mjpeg2yuyv;
+			}
+			if (func || scaled) {
 				callback_frame = get_frame(callbackPixelBytes);
 				if (LIKELY(callback_frame)) {
-					int b = mFrameCallbackFunc(frame, callback_frame);
+					int b = scaled
+						? mFrameCallbackScaledFunc(frame, callback_frame, mCallbackScale)
+						: func(frame, callback_frame);
 					recycle_frame(frame);
 					if (UNLIKELY(b)) {
 						LOGW("failed to convert for callback frame");
@@ -864,13 +2390,49 @@ void UVCPreview::do_capture_callback(JNIEnv *env, uvc_frame_t *frame) {
 					goto SKIP;
 				}
 			}
-			jobject buf = env->NewDirectByteBuffer(callback_frame->data, callbackPixelBytes);
-			env->CallVoidMethod(mFrameCallbackObj, iframecallback_fields.onFrame, buf);
+			jobject buf = getCallbackBuffer(env, callback_frame->data, callbackPixelBytes);
+			if (UNLIKELY(!buf)) {
+				LOGW("failed to create ByteBuffer for callback frame");
+				goto SKIP;
+			}
+			switch (iframecallback_fields.type) {
+			case FRAME_CALLBACK_READER:
+				callback_frame->capture_time_ns = capture_time;
+				callback_frame->sequence = sequence;
+				if (queueReaderFrame(env, callback_frame, buf)) {
+					callback_frame = NULL;	// FrameReader owns the frame until it is released
+					env->CallVoidMethod(mFrameCallbackObj, iframecallback_fields.onFrame);
+				}
+				break;
+			case FRAME_CALLBACK_INFO:
+			{
+				// sequence of libuvc skips when any stage dropped frames
+				const uint32_t dropped = mLastCallbackSequence && (sequence > mLastCallbackSequence)
+					? sequence - mLastCallbackSequence - 1 : 0;
+				mLastCallbackSequence = sequence;
+				updateFrameInfo(env, mFrameInfoObj, callback_frame, callbackPixelBytes,
+					capture_time, sequence, dropped);
+				env->CallVoidMethod(mFrameCallbackObj, iframecallback_fields.onFrame,
+					buf, mFrameInfoObj);
+				break;
+			}
+			case FRAME_CALLBACK_TIME:
+				env->CallVoidMethod(mFrameCallbackObj, iframecallback_fields.onFrame,
+					buf, (jlong)capture_time, (jint)sequence);
+				break;
+			default:
+				env->CallVoidMethod(mFrameCallbackObj, iframecallback_fields.onFrame, buf);
+				break;
+			}
 			env->ExceptionClear();
-			env->DeleteLocalRef(buf);
+			const int64_t now = systemTimeNs();
+			mLatency[STAGE_CALLBACK].add(now - stage_time);
+			mLatency[STAGE_CALLBACK_TOTAL].add(now - complete_time);
 		}
  SKIP:
-		recycle_frame(callback_frame);
+		if (callback_frame) {
+			recycle_frame(callback_frame);
+		}
 	}
 	EXIT();
 }
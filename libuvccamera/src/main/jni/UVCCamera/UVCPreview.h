@@ -29,6 +29,9 @@
 #include <pthread.h>
 #include <android/native_window.h>
 #include "objectarray.h"
+#include "spscring.h"
+#include "latencyhistogram.h"
+#include "BurstCapture.h"
 
 #pragma interface
 
@@ -40,6 +43,7 @@
 #define DEFAULT_BANDWIDTH 1.0f
 
 typedef uvc_error_t (*convFunc_t)(uvc_frame_t *in, uvc_frame_t *out);
+typedef uvc_error_t (*convScaledFunc_t)(uvc_frame_t *in, uvc_frame_t *out, int scale_denom);
 
 #define PIXEL_FORMAT_RAW 0		// same as PIXEL_FORMAT_YUV
 #define PIXEL_FORMAT_YUV 1
@@ -51,8 +55,89 @@ typedef uvc_error_t (*convFunc_t)(uvc_frame_t *in, uvc_frame_t *out);
 // for callback to Java object
 typedef struct {
 	jmethodID onFrame;
+	int type;	// FRAME_CALLBACK_XXX, arguments of onFrame
 } Fields_iframecallback;
 
+#define FRAME_CALLBACK_BUFFER 0		// IFrameCallback#onFrame(ByteBuffer)
+#define FRAME_CALLBACK_TIME 1		// IFrameCallback#onFrame(ByteBuffer, long, int)
+#define FRAME_CALLBACK_INFO 2		// IFrameInfoCallback#onFrame(ByteBuffer, FrameInfo)
+#define FRAME_CALLBACK_READER 3		// FrameReader#onFrameAvailable(), frames are acquired/released by FrameReader
+
+// fields of FrameInfo that is reused for every frame
+typedef struct {
+	jfieldID pixelFormat;
+	jfieldID width, height;
+	jfieldID planes;
+	jfieldID stride0, stride1;
+	jfieldID offset1;
+	jfieldID size;
+	jfieldID captureTimeNs;
+	jfieldID sequence;
+	jfieldID droppedFrames;
+} Fields_frameinfo;
+
+#define CALLBACK_BUFFERS 8		// direct ByteBuffers for frame callback, should cover frames that rotate in the pool
+
+// direct ByteBuffer that is bound to the data of pooled frame and reused while the frame is reused
+typedef struct {
+	void *data;
+	size_t bytes;
+	jobject buffer;		// global reference
+} callback_buffer_t;
+
+#define MAX_READER_FRAMES 8		// max frames that FrameReader holds, same as FrameReader.MAX_FRAMES
+#define READER_DROP_OLDEST 0	// same as FrameReader.DROP_OLDEST
+#define READER_DROP_NEWEST 1	// same as FrameReader.DROP_NEWEST
+
+// frame that is handed over to FrameReader
+typedef struct {
+	uvc_frame_t *frame;
+	jobject buffer;		// global reference of direct ByteBuffer on the frame
+} reader_frame_t;
+
+#define MAX_DECODE_THREADS 8
+#define MAX_DECODE_JOBS 16		// should be power of 2 and larger than MAX_DECODE_THREADS
+
+#define DECODE_JOB_QUEUED 0
+#define DECODE_JOB_DECODING 1
+#define DECODE_JOB_DONE 2
+
+// stages of frame pipeline for latency measurement
+#define STAGE_QUEUE 0			// payload completed => queued to preview thread
+#define STAGE_DECODE 1			// queued => decoded(without decode threads, waiting for preview thread and decoding)
+#define STAGE_DRAW 2			// decoded => drawn into preview Surface
+#define STAGE_CAPTURE 3			// drawn => queued to capture thread
+#define STAGE_CALLBACK 4		// queued to capture thread => IFrameCallback#onFrame returned
+#define STAGE_PREVIEW_TOTAL 5	// payload completed => drawn
+#define STAGE_CALLBACK_TOTAL 6	// payload completed => IFrameCallback#onFrame returned
+#define NUM_STAGES 7
+
+// reasons of frame drop, libuvc ones come first
+#define DROP_PAYLOAD_ERROR 0		// libuvc: broken payload header or frame buffer overflow
+#define DROP_SEQUENCE_GAP 1			// libuvc: overwritten before libuvc callback thread took it
+#define DROP_INVALID_SIZE 2			// size/resolution of the frame does not match
+#define DROP_NO_BUFFER 3			// could not get frame from frame pool
+#define DROP_PREVIEW_QUEUE_FULL 4	// preview thread did not keep up with the camera
+#define DROP_CAPTURE_OVERWRITE 5	// capture thread did not keep up with preview thread
+#define DROP_READER_FULL 6			// FrameReader did not acquire/release frames fast enough
+#define DROP_RECORDER_FULL 7		// libuvc: payload recording fell behind, payloads not frames
+#define NUM_DROP_REASONS 8
+
+#define DEFAULT_DROP_NOTIFY_INTERVAL_MS 1000
+
+typedef struct {
+	jmethodID onFrameDrop;
+} Fields_iframedropcallback;
+
+// MJPEG frame that is decoded by decode worker thread
+typedef struct decode_job {
+	uvc_frame_t *frame;		// MJPEG frame came from libuvc
+	uvc_frame_t *decoded;	// RGBX frame, NULL if decoding failed
+	int state;				// DECODE_JOB_xxx
+} decode_job_t;
+
+class IPipeline;
+
 class UVCPreview {
 private:
 	uvc_device_handle_t *mDeviceHandle;
@@ -66,8 +151,7 @@ private:
 	size_t frameBytes;
 	pthread_t preview_thread;
 	pthread_mutex_t preview_mutex;
-	pthread_cond_t preview_sync;
-	ObjectArray<uvc_frame_t *> previewFrames;
+	SPSCRing<uvc_frame_t *> previewFrames;	// libuvc callback thread => preview thread, drop newest
 	int previewFormat;
 	size_t previewBytes;
 //
@@ -76,11 +160,36 @@ private:
 	pthread_t capture_thread;
 	pthread_mutex_t capture_mutex;
 	pthread_cond_t capture_sync;
-	uvc_frame_t *captureQueu;			// keep latest frame
+	SPSCRing<uvc_frame_t *> captureQueu;	// preview thread => capture thread, keep latest frame
+	pthread_mutex_t pipeline_mutex;
+	IPipeline *mPipeline;			// first stage of pipeline graph that receives captured frames
+// still capture from MJPEG stream, the capture thread only copies the next frame
+	pthread_mutex_t still_mutex;
+	pthread_cond_t still_sync;
+	volatile bool mStillRequested;
+	uvc_frame_t *mStillFrame;
+	BurstCapture mBurst;			// burst capture, the capture thread only copies frames into its ring
 	jobject mFrameCallbackObj;
 	convFunc_t mFrameCallbackFunc;
+	convScaledFunc_t mFrameCallbackScaledFunc;	// decode MJPEG with DCT scaling for frame callback
 	Fields_iframecallback iframecallback_fields;
+	jobject mFrameInfoObj;		// global reference of FrameInfo for FRAME_CALLBACK_INFO
+	Fields_frameinfo frameinfo_fields;
+	uint32_t mLastCallbackSequence;	// to count frames dropped before the callback
+	callback_buffer_t mCallbackBuffers[CALLBACK_BUFFERS];	// only the capture thread accesses these
+	int mCallbackBufferNext;
+	jmethodID mBufferClear;
+	volatile uint32_t mCallbackBufferBinds;	// number of ByteBuffers that were created
+// FrameReader
+	pthread_mutex_t reader_mutex;
+	reader_frame_t mReaderQueued[MAX_READER_FRAMES];	// oldest first
+	reader_frame_t mReaderAcquired[MAX_READER_FRAMES];
+	int mReaderQueuedCount, mReaderAcquiredCount;
+	int mReaderMaxFrames;		// queued and acquired frames
+	int mReaderDropPolicy;
+	uint32_t mReaderLastSequence;
 	int mPixelFormat;
+	int mCallbackScale;		// requested scale denominator of frame callback(1, 2, 4, 8)
 	size_t callbackPixelBytes;
 // improve performance by reducing memory allocation
 	pthread_mutex_t pool_mutex;
@@ -89,16 +198,77 @@ private:
 	void recycle_frame(uvc_frame_t *frame);
 	void init_pool(size_t data_bytes);
 	void clear_pool();
+	static uvc_frame_t *pool_get_frame(size_t data_bytes, void *vptr_args);
+	static void pool_recycle_frame(uvc_frame_t *frame, void *vptr_args);
+// zero-copy streaming and counter of memory copy in frame path
+	volatile bool mZeroCopy;			// requested, applied at next startPreview
+	bool mZeroCopyStreaming;			// current streaming mode
+	volatile uint64_t mCopiedBytes;
+	volatile uint64_t mCopiedFrames;
+	inline void addCopiedBytes(size_t bytes) {
+		__atomic_fetch_add(&mCopiedBytes, (uint64_t)bytes, __ATOMIC_RELAXED);
+	}
+// MJPEG decode worker pool, frames are decoded in parallel and drawn in the order they arrived
+	volatile int mDecodeThreads;		// requested, applied at next startPreview
+	int mDecodeThreadCount;				// number of running worker threads, 0 if decoding on preview thread
+	int mMaxPoolFrames;					// number of frames that frame pool keeps
+	pthread_t decode_threads[MAX_DECODE_THREADS];
+	pthread_mutex_t decode_mutex;
+	pthread_cond_t decode_sync;			// signaled when new job is queued or worker should terminate
+	pthread_cond_t decode_done_sync;	// signaled when worker finished a job
+	volatile bool mDecodeRunning;
+	decode_job_t mDecodeJobs[MAX_DECODE_JOBS];
+	uint32_t mDecodeHead;				// next job to draw
+	uint32_t mDecodeNext;				// next job to decode
+	uint32_t mDecodeTail;				// next job to queue
+	int mMaxDecodeJobs;					// max number of jobs in flight
+	volatile float mDecodeFps;
+	volatile int mReorderDepth;			// max number of decoded frames that waited for earlier frame
+	int64_t mFpsStartTime;
+	int mFpsFrames;
+	volatile int mStripeThreads;		// number of threads to decode one MJPEG frame that has restart markers
+	uvc_stripe_pool_t *mStripePool;		// threads to decode stripes, only the preview thread touches this
+// latency of each stage of frame pipeline
+	LatencyHistogram mLatency[NUM_STAGES];
+	void markStage(uvc_frame_t *frame, int stage);
+// number of dropped frames for each reason since startPreview, libuvc counters are kept as difference from mDropsBase
+	volatile uint32_t mDrops[NUM_DROP_REASONS];
+	uvc_stream_drops_t mDropsBase;
+	inline void countDrop(int reason) {
+		__atomic_fetch_add(&mDrops[reason], 1, __ATOMIC_RELAXED);
+	}
+	pthread_t drop_notify_thread;
+	pthread_mutex_t drop_mutex;
+	pthread_cond_t drop_sync;
+	jobject mFrameDropCallbackObj;
+	Fields_iframedropcallback iframedropcallback_fields;
+	int mDropNotifyIntervalMs;
+	static void *drop_notify_thread_func(void *vptr_args);
+	void do_drop_notify(JNIEnv *env);
+// number of USB transfers and lock for opening/closing stream so that memory usage can be read safely
+	volatile int mTransferCount;		// requested, applied at next startPreview, 0 means default of libuvc, UVC_NUM_TRANSFERS_AUTO for auto tuning
+	pthread_mutex_t stream_mutex;
+	volatile int mBandwidthLimit;		// bytes per service interval of isochronous endpoint, 0 means requestBandwidth is used
+	void startDecodeWorkers(int num_threads);
+	void stopDecodeWorkers();
+	static void *decode_thread_func(void *vptr_args);
+	void do_decode();
+	void queueDecodeJob(uvc_frame_t *frame);
+	void drawDecodedFrames();
+	void updateDecodeFps(int frames);
 //
 	void clearDisplay();
+	bool isValidFrame(uvc_frame_t *frame);
 	static void uvc_preview_frame_callback(uvc_frame_t *frame, void *vptr_args);
+	static void uvc_preview_frame_callback_zerocopy(uvc_frame_t *frame, void *vptr_args);
 	void addPreviewFrame(uvc_frame_t *frame);
 	uvc_frame_t *waitPreviewFrame();
 	void clearPreviewFrame();
 	static void *preview_thread_func(void *vptr_args);
 	int prepare_preview(uvc_stream_ctrl_t *ctrl);
 	void do_preview(uvc_stream_ctrl_t *ctrl);
-	uvc_frame_t *draw_preview_one(uvc_frame_t *frame, ANativeWindow **window, convFunc_t func, int pixelBytes);
+	uvc_frame_t *draw_preview_one(uvc_frame_t *frame, ANativeWindow **window, convFunc_t func, int pixelBytes,
+		bool mark_decode = false);
 //
 	void addCaptureFrame(uvc_frame_t *frame);
 	uvc_frame_t *waitCaptureFrame();
@@ -107,8 +277,17 @@ private:
 	void do_capture(JNIEnv *env);
 	void do_capture_surface(JNIEnv *env);
 	void do_capture_idle_loop(JNIEnv *env);
-	void do_capture_callback(JNIEnv *env, uvc_frame_t *frame);
+	void do_capture_callback(JNIEnv *env, uvc_frame_t *frame, uvc_frame_t *decoded = NULL);
+	void handOverStillFrame(uvc_frame_t *frame);
+	bool createFrameInfo(JNIEnv *env);
+	jobject getCallbackBuffer(JNIEnv *env, void *data, const size_t bytes);
+	void releaseCallbackBuffers(JNIEnv *env);
+	void updateFrameInfo(JNIEnv *env, jobject info, const uvc_frame_t *frame, const size_t bytes,
+		const int64_t capture_time, const uint32_t sequence, const uint32_t dropped);
+	bool queueReaderFrame(JNIEnv *env, uvc_frame_t *frame, jobject buffer);
+	void releaseReaderFrames(JNIEnv *env, const bool acquired);
 	void callbackPixelFormatChanged();
+	void callbackScaledPixelFormatChanged();
 public:
 	UVCPreview(uvc_device_handle_t *devh);
 	~UVCPreview();
@@ -116,11 +295,35 @@ public:
 	inline const bool isRunning() const;
 	int setPreviewSize(int width, int height, int min_fps, int max_fps, int mode, float bandwidth = 1.0f);
 	int setPreviewDisplay(ANativeWindow *preview_window);
-	int setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format);
+	int setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format, int scale_denom = 1);
+	int setFrameReader(JNIEnv *env, jobject frame_reader_obj, int pixel_format, int scale_denom,
+		int max_frames, int drop_policy);
+	jobject acquireReaderFrame(JNIEnv *env, const bool latest, jobject info);
+	int releaseReaderFrame(JNIEnv *env, jobject buffer);
 	int startPreview();
 	int stopPreview();
 	inline const bool isCapturing() const;
 	int setCaptureDisplay(ANativeWindow *capture_window);
+	int setPipeline(IPipeline *pipeline);
+	int captureStill(const char *path, int timeout_ms);
+	int startBurst(const char *dir, int num_frames, int duration_ms, int quality, int num_threads);
+	int waitBurst(int timeout_ms);
+	int stopBurst();
+	char *getBurstStats();
+	int setZeroCopy(bool zero_copy);
+	uint64_t getCopiedBytes();
+	uint64_t getCopiedFrames();
+	int setDecodeThreads(int num_threads);
+	int setStripeDecodeThreads(int num_threads);
+	float getDecodeFps();
+	int getReorderDepth();
+	char *getPipelineStats();
+	int setFrameDropCallback(JNIEnv *env, jobject frame_drop_callback_obj, int interval_ms);
+	void getFrameDrops(uint32_t *drops);
+	int setTransferCount(int num_transfers);
+	char *getMemoryUsage();
+	int setPayloadRecording(const char *path);
+	int setBandwidthLimit(int bytes_per_interval);
 };
 
 #endif /* UVCPREVIEW_H_ */
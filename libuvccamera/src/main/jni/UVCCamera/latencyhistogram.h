@@ -0,0 +1,139 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: latencyhistogram.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef LATENCYHISTOGRAM_H_
+#define LATENCYHISTOGRAM_H_
+
+#include <stdint.h>
+#include <string.h>
+
+#define LATENCY_LINEAR_BUCKETS 8	// 0-7 microseconds, one bucket for each
+#define LATENCY_SUB_BUCKETS 4		// buckets for each power of 2 above that, error is less than 25%
+#define LATENCY_BUCKETS 96			// up to about 33 seconds
+
+/** snapshot of LatencyHistogram, all values are in microseconds */
+typedef struct latency_stats {
+	uint64_t count;
+	uint32_t mean;
+	uint32_t p50;
+	uint32_t p90;
+	uint32_t p99;
+	uint32_t max;
+} latency_stats_t;
+
+/**
+ * histogram of latency with logarithmic buckets.
+ * #add never takes a lock and can be called from any thread,
+ * #snapshot may run concurrently with #add and then it can miss the values
+ * that are being added at the same time.
+ */
+class LatencyHistogram {
+private:
+	volatile uint32_t m_buckets[LATENCY_BUCKETS];
+	volatile uint64_t m_count;
+	volatile uint64_t m_sum;
+	volatile uint32_t m_max;
+
+	static inline int bucketOf(const uint32_t us) {
+		if (us < LATENCY_LINEAR_BUCKETS) return us;
+		const int msb = 31 - __builtin_clz(us);	// 3 or more
+		const int sub = (us >> (msb - 2)) & (LATENCY_SUB_BUCKETS - 1);
+		const int ix = LATENCY_LINEAR_BUCKETS + (msb - 3) * LATENCY_SUB_BUCKETS + sub;
+		return ix < LATENCY_BUCKETS ? ix : LATENCY_BUCKETS - 1;
+	}
+
+	/** @return max value that falls into the bucket */
+	static inline uint32_t upperBoundOf(const int ix) {
+		if (ix < LATENCY_LINEAR_BUCKETS) return ix;
+		const int msb = (ix - LATENCY_LINEAR_BUCKETS) / LATENCY_SUB_BUCKETS + 3;
+		const int sub = (ix - LATENCY_LINEAR_BUCKETS) % LATENCY_SUB_BUCKETS;
+		return (uint32_t)(((uint64_t)(LATENCY_SUB_BUCKETS + sub + 1) << (msb - 2)) - 1);
+	}
+public:
+	LatencyHistogram() {
+		reset();
+	}
+
+	/**
+	 * clear all values, should not be called while other threads are adding values
+	 */
+	void reset() {
+		for (int i = 0; i < LATENCY_BUCKETS; i++) {
+			m_buckets[i] = 0;
+		}
+		m_count = m_sum = 0;
+		m_max = 0;
+	}
+
+	/**
+	 * @param ns latency in nanoseconds, negative value is treated as 0
+	 */
+	void add(const int64_t ns) {
+		const int64_t us64 = ns > 0 ? ns / 1000 : 0;
+		const uint32_t us = us64 < 0xffffffffLL ? (uint32_t)us64 : 0xffffffff;
+		__atomic_fetch_add(&m_buckets[bucketOf(us)], 1, __ATOMIC_RELAXED);
+		__atomic_fetch_add(&m_count, 1, __ATOMIC_RELAXED);
+		__atomic_fetch_add(&m_sum, (uint64_t)us, __ATOMIC_RELAXED);
+		uint32_t max = __atomic_load_n(&m_max, __ATOMIC_RELAXED);
+		for (; (us > max) && !__atomic_compare_exchange_n(&m_max, &max, us, true,
+			__ATOMIC_RELAXED, __ATOMIC_RELAXED) ;) {
+			// max was updated by other thread, retry
+		}
+	}
+
+	/**
+	 * calculate percentiles, each percentile is the upper bound of the bucket
+	 * and does not exceed max.
+	 */
+	void snapshot(latency_stats_t &stats) const {
+		uint32_t buckets[LATENCY_BUCKETS];
+		uint64_t count = 0;
+		for (int i = 0; i < LATENCY_BUCKETS; i++) {
+			buckets[i] = __atomic_load_n(&m_buckets[i], __ATOMIC_RELAXED);
+			count += buckets[i];
+		}
+		memset(&stats, 0, sizeof(stats));
+		stats.count = count;
+		stats.max = __atomic_load_n(&m_max, __ATOMIC_RELAXED);
+		if (!count) return;
+		stats.mean = (uint32_t)(__atomic_load_n(&m_sum, __ATOMIC_RELAXED) / count);
+		const uint64_t p50 = (count * 50 + 99) / 100;
+		const uint64_t p90 = (count * 90 + 99) / 100;
+		const uint64_t p99 = (count * 99 + 99) / 100;
+		uint64_t n = 0;
+		for (int i = 0; i < LATENCY_BUCKETS; i++) {
+			if (!buckets[i]) continue;
+			const uint64_t prev = n;
+			n += buckets[i];
+			uint32_t v = upperBoundOf(i);
+			if (v > stats.max) v = stats.max;
+			if ((prev < p50) && (n >= p50)) stats.p50 = v;
+			if ((prev < p90) && (n >= p90)) stats.p90 = v;
+			if ((prev < p99) && (n >= p99)) stats.p99 = v;
+		}
+	}
+};
+
+#endif	// LATENCYHISTOGRAM_H_
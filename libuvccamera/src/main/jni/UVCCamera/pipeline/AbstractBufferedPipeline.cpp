@@ -23,7 +23,9 @@ AbstractBufferedPipeline::AbstractBufferedPipeline(const int &_max_buffer_num, c
 	max_buffer_num(_max_buffer_num),
 	init_pool_num(_init_pool_num),
 	drop_frames(drop_frames_when_buffer_empty),
-	total_frame_num(0)
+	total_frame_num(0),
+	frame_pool(_max_buffer_num),
+	frame_buffers(_max_buffer_num)
 {
 	ENTER();
 
@@ -89,11 +91,19 @@ int AbstractBufferedPipeline::stop() {
 	if (LIKELY(b)) {
 		setState(PIPELINE_STATE_STOPPING);
 		mIsRunning = false;
-		pool_sync.broadcast();
-		buffer_sync.broadcast();
+		pool_mutex.lock();
+		{
+			pool_sync.broadcast();
+		}
+		pool_mutex.unlock();
+		buffer_mutex.lock();
+		{
+			buffer_sync.broadcast();
+		}
+		buffer_mutex.unlock();
 		LOGD("pthread_join:handler_thread");
 		if (pthread_join(handler_thread, NULL) != EXIT_SUCCESS) {
-			LOGW("PublisherPipeline::terminate publisher thread: pthread_join failed");
+			LOGW("AbstractBufferedPipeline::terminate handler thread: pthread_join failed");
 		}
 		setState(PIPELINE_STATE_INITIALIZED);
 		LOGD("handler_thread finished");
@@ -141,15 +151,17 @@ uvc_frame_t *AbstractBufferedPipeline::get_frame(const size_t &data_bytes) {
 	uvc_frame_t *frame = NULL;
 	Mutex::Autolock lock(pool_mutex);
 
-	if (UNLIKELY(frame_pool.empty() && (total_frame_num < max_buffer_num))) {
-		uint32_t n = total_frame_num * 2;
+	if (UNLIKELY(frame_pool.isEmpty() && (total_frame_num < max_buffer_num))) {
+		uint32_t n = total_frame_num ? total_frame_num * 2 : 1;
 		if (n > max_buffer_num) {
 			n = max_buffer_num;
 		}
 		n -= total_frame_num;
 		if (LIKELY(n > 0)) {
-			for (int i = 0; i < n; i++) {
-				frame = uvc_allocate_frame(data_bytes);
+			for (uint32_t i = 0; i < n; i++) {
+				uvc_frame_t *new_frame = uvc_allocate_frame(data_bytes);
+				if (UNLIKELY(!new_frame)) break;
+				frame_pool.put(new_frame);
 				total_frame_num++;
 			}
 			LOGW("allocate new frame:%d", total_frame_num);
@@ -157,15 +169,14 @@ uvc_frame_t *AbstractBufferedPipeline::get_frame(const size_t &data_bytes) {
 			LOGW("number of allocated frame exceeds limit");
 		}
 	}
-	if (UNLIKELY(frame_pool.empty() && !drop_frames)) {
+	if (UNLIKELY(frame_pool.isEmpty() && !drop_frames)) {
 		// if pool is empty and need to block(avoid dropping frames), wait frame recycling.
-		for (; mIsRunning && frame_pool.empty() ; ) {
+		for (; mIsRunning && frame_pool.isEmpty() ; ) {
 			pool_sync.wait(pool_mutex);
 		}
 	}
-	if (!frame_pool.empty()) {
-		frame = frame_pool.front();
-		frame_pool.pop_front();
+	if (!frame_pool.isEmpty()) {
+		frame = frame_pool.last();
 	}
 
 	return frame;
@@ -176,8 +187,8 @@ void AbstractBufferedPipeline::recycle_frame(uvc_frame_t *frame) {
 
 	if (LIKELY(frame)) {
 		Mutex::Autolock lock(pool_mutex);
-		if (LIKELY(frame_pool.size() < max_buffer_num)) {
-			frame_pool.push_back(frame);
+		if (LIKELY((uint32_t)frame_pool.size() < max_buffer_num)) {
+			frame_pool.put(frame);
 			frame = NULL;
 		}
 		if (UNLIKELY(frame)) {
@@ -207,7 +218,7 @@ void AbstractBufferedPipeline::init_pool(const size_t &data_bytes) {
 		for (uint32_t i = 0; i < init_pool_num; i++) {
 			frame = uvc_allocate_frame(frame_sz);
 			if (LIKELY(frame)) {
-				frame_pool.push_back(frame);
+				frame_pool.put(frame);
 				total_frame_num++;
 			} else {
 				LOGW("failed to allocate new frame:%d", total_frame_num);
@@ -225,9 +236,9 @@ void AbstractBufferedPipeline::clear_pool() {
 
 	Mutex::Autolock lock(pool_mutex);
 
-	for (auto iter = frame_pool.begin(); iter != frame_pool.end(); iter++) {
+	for (int i = 0; i < frame_pool.size(); i++) {
 		total_frame_num--;
-		uvc_free_frame(*iter);
+		uvc_free_frame(frame_pool[i]);
 	}
 	frame_pool.clear();
 	EXIT();
@@ -240,8 +251,8 @@ void AbstractBufferedPipeline::clear_pool() {
 void AbstractBufferedPipeline::clear_frames() {
 	Mutex::Autolock lock(buffer_mutex);
 
-	for (auto iter = frame_buffers.begin(); iter != frame_buffers.end(); iter++) {
-		recycle_frame(*iter);
+	for (int i = 0; i < frame_buffers.size(); i++) {
+		recycle_frame(frame_buffers[i]);
 	}
 	frame_buffers.clear();
 }
@@ -251,19 +262,13 @@ int AbstractBufferedPipeline::add_frame(uvc_frame_t *frame) {
 
 	buffer_mutex.lock();
 	{
-		// FIXME as current implementation, transferring frame data on my device is slower than that coming from UVC camera... just drop them now
-		if (frame_buffers.size() > max_buffer_num) {
-			// erase old frames
-			int cnt = 0;
-			for (auto iter = frame_buffers.begin();
-				 (iter != frame_buffers.end()) && (cnt < 5); iter++, cnt++) {
-				recycle_frame(*iter);
-				iter = frame_buffers.erase(iter);
-			}
+		// the handler thread did not keep up, drop the oldest frame
+		if ((uint32_t)frame_buffers.size() >= max_buffer_num) {
+			recycle_frame(frame_buffers.remove(0));
 			LOGW("droped frame data");
 		}
-		if (isRunning() && (frame_buffers.size() < max_buffer_num)) {
-			frame_buffers.push_back(frame);
+		if (isRunning()) {
+			frame_buffers.put(frame);
 			frame = NULL;
 		}
 		buffer_sync.signal();
@@ -281,12 +286,11 @@ uvc_frame_t *AbstractBufferedPipeline::wait_frame() {
 
 	Mutex::Autolock lock(buffer_mutex);
 
-	if (!frame_buffers.size()) {
+	if (!frame_buffers.size() && isRunning()) {
 		buffer_sync.wait(buffer_mutex);
 	}
 	if (LIKELY(isRunning() && frame_buffers.size() > 0)) {
-		frame = frame_buffers.front();
-		frame_buffers.pop_front();
+		frame = frame_buffers.remove(0);
 	}
 	return frame;
 }
@@ -7,11 +7,11 @@
 
 #include <stdlib.h>
 #include <pthread.h>
-#include <list>
 #include "Mutex.h"
 #include "Condition.h"
 
 #include "libUVCCamera.h"
+#include "objectarray.h"
 #include "IPipeline.h"
 
 #pragma interface
@@ -33,12 +33,12 @@ private:
 // frame buffer pool to improve performance by reducing memory allocation
 	mutable Mutex pool_mutex;
 	Condition pool_sync;
-	std::list<uvc_frame_t *> frame_pool;
+	ObjectArray<uvc_frame_t *> frame_pool;
 // frame buffers
 	pthread_t handler_thread;
 	mutable Mutex buffer_mutex;
 	Condition buffer_sync;
-	std::list<uvc_frame_t *> frame_buffers;
+	ObjectArray<uvc_frame_t *> frame_buffers;	// oldest first
 	static void *handler_thread_func(void *vptr_args);
 
 protected:
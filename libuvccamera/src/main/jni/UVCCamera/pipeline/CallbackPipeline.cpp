@@ -26,11 +26,15 @@
 
 CallbackPipeline::CallbackPipeline(const size_t &_data_bytes)
 :	CaptureBasePipeline(MAX_FRAME_NUM, INIT_FRAME_POOL_SZ, _data_bytes),
+	mFrameCallbackObj(NULL),
 	mFrameCallbackFunc(NULL),
+	mPixelFormat(PIXEL_FORMAT_RAW),
 	callbackPixelBytes(0)
 {
 	ENTER();
 
+	memset(&iframecallback_fields, 0, sizeof(iframecallback_fields));
+
 	setState(PIPELINE_STATE_INITIALIZED);
 
 	EXIT();
@@ -39,6 +43,14 @@ CallbackPipeline::CallbackPipeline(const size_t &_data_bytes)
 CallbackPipeline::~CallbackPipeline() {
 	ENTER();
 
+	if (mFrameCallbackObj) {
+		JNIEnv *env = getEnv();
+		if (LIKELY(env)) {
+			env->DeleteGlobalRef(mFrameCallbackObj);
+		}
+		mFrameCallbackObj = NULL;
+	}
+
 	EXIT();
 }
 
@@ -55,6 +67,7 @@ int CallbackPipeline::setFrameCallback(JNIEnv *env, jobject frame_callback_obj,
 		}
 	}
 	if (!env->IsSameObject(mFrameCallbackObj, frame_callback_obj))	{
+		iframecallback_fields.type = FRAME_CALLBACK_BUFFER;
 		iframecallback_fields.onFrame = NULL;
 		if (mFrameCallbackObj) {
 			env->DeleteGlobalRef(mFrameCallbackObj);
@@ -76,6 +89,9 @@ int CallbackPipeline::setFrameCallback(JNIEnv *env, jobject frame_callback_obj,
 				mFrameCallbackObj = frame_callback_obj = NULL;
 			}
 		}
+	} else if (frame_callback_obj) {
+		// same object, release the duplicated global reference
+		env->DeleteGlobalRef(frame_callback_obj);
 	}
 	if (frame_callback_obj) {
 		mPixelFormat = pixel_format;
@@ -151,7 +167,7 @@ void CallbackPipeline::do_capture(JNIEnv *env) {
 							goto SKIP;
 						}
 					}
-					jobject buf = env->NewDirectByteBuffer(callback_frame->data, callbackPixelBytes);
+					jobject buf = env->NewDirectByteBuffer(callback_frame->data, sz);
 					env->CallVoidMethod(mFrameCallbackObj, iframecallback_fields.onFrame, buf);
 					env->ExceptionClear();
 					env->DeleteLocalRef(buf);
@@ -209,8 +225,8 @@ static jint nativeSetPipeline(JNIEnv *env, jobject thiz,
 	jint result = JNI_ERR;
 	CallbackPipeline *pipeline = reinterpret_cast<CallbackPipeline *>(id_pipeline);
 	if (pipeline) {
-		IPipeline *pipeline = getPipeline(env, pipeline_obj);
-		result = pipeline->setPipeline(pipeline);
+		IPipeline *target_pipeline = getPipeline(env, pipeline_obj);
+		result = pipeline->setPipeline(target_pipeline);
 	}
 
 	RETURN(result, jint);
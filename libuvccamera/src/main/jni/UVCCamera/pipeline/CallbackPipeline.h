@@ -6,6 +6,7 @@
 #define PUPILMOBILE_CALLBACKPIPELINE_H
 
 #include "libUVCCamera.h"
+#include "UVCPreview.h"		// convFunc_t, Fields_iframecallback and PIXEL_FORMAT_XXX
 #include "CaptureBasePipeline.h"
 
 class CallbackPipeline : virtual public CaptureBasePipeline {
@@ -97,7 +97,7 @@ uvc_frame_t *CaptureBasePipeline::waitCaptureFrame() {
 	uvc_frame_t *frame = NULL;
 	Mutex::Autolock lock(capture_mutex);
 
-	if (!captureQueue) {
+	if (!captureQueue && isRunning() && isCapturing()) {
 		capture_sync.wait(capture_mutex);
 	}
 	if (LIKELY(isRunning() && captureQueue)) {
@@ -121,10 +121,14 @@ void CaptureBasePipeline::on_start() {
 void CaptureBasePipeline::on_stop() {
 	ENTER();
 
-	mIsCapturing = false;
-	capture_sync.broadcast();
+	capture_mutex.lock();
+	{
+		mIsCapturing = false;
+		capture_sync.broadcast();
+	}
+	capture_mutex.unlock();
 	if (pthread_join(capture_thread, NULL) != EXIT_SUCCESS) {
-		LOGW("UVCCameraControl::terminate capture thread: pthread_join failed");
+		LOGW("CaptureBasePipeline::terminate capture thread: pthread_join failed");
 	}
 	clearCaptureFrame();
 
@@ -191,7 +195,12 @@ void CaptureBasePipeline::internal_do_capture(JNIEnv *env) {
 	for (; isRunning() ;) {
 		mIsCapturing = true;
 		do_capture(env);
-		capture_sync.broadcast();
+		// under capture_mutex so that setFrameCallback/setCaptureDisplay does not miss this
+		capture_mutex.lock();
+		{
+			capture_sync.broadcast();
+		}
+		capture_mutex.unlock();
 	}	// end of for (; isRunning() ;)
 
 	EXIT();
@@ -0,0 +1,68 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: Condition.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef PIPELINE_CONDITION_H_
+#define PIPELINE_CONDITION_H_
+
+#include <stdint.h>
+#include <time.h>
+#include <pthread.h>
+
+#include "Mutex.h"
+
+// subset of android::Condition(libutils) that the pipelines use
+namespace android {
+
+class Condition {
+private:
+	pthread_cond_t mCond;
+	// force inhibiting copy/assignment
+	Condition(const Condition &src);
+	void operator =(const Condition &src);
+public:
+	inline Condition() { pthread_cond_init(&mCond, NULL); }
+	inline ~Condition() { pthread_cond_destroy(&mCond); }
+	inline int wait(Mutex &mutex) { return -pthread_cond_wait(&mCond, &mutex.mMutex); }
+	/**
+	 * @param reltime_ns relative timeout in nanoseconds
+	 * @return 0 if signaled, -ETIMEDOUT if timed out
+	 */
+	inline int waitRelative(Mutex &mutex, int64_t reltime_ns) {
+		struct timespec ts;
+		clock_gettime(CLOCK_REALTIME, &ts);
+		ts.tv_sec += reltime_ns / 1000000000LL;
+		ts.tv_nsec += reltime_ns % 1000000000LL;
+		if (ts.tv_nsec >= 1000000000L) {
+			ts.tv_sec++;
+			ts.tv_nsec -= 1000000000L;
+		}
+		return -pthread_cond_timedwait(&mCond, &mutex.mMutex, &ts);
+	}
+	inline void signal() { pthread_cond_signal(&mCond); }
+	inline void broadcast() { pthread_cond_broadcast(&mCond); }
+};
+
+}	// namespace android
+
+#endif /* PIPELINE_CONDITION_H_ */
@@ -46,8 +46,8 @@ int DistributePipeline::handle_frame(uvc_frame_t *frame) {
 
 	Mutex::Autolock lock(pipeline_mutex);
 
-	for (auto iter = pipelines.begin(); iter != pipelines.end(); iter++) {
-		(*iter)->queueFrame(frame);
+	for (int i = 0; i < pipelines.size(); i++) {
+		pipelines[i]->queueFrame(frame);
 	}
 
 	RETURN(0, int);
@@ -58,7 +58,9 @@ int DistributePipeline::addPipeline(IPipeline *pipeline) {
 
 	if (pipeline) {
 		Mutex::Autolock lock(pipeline_mutex);
-		pipelines.push_back(pipeline);
+		if (pipelines.getIndex(pipeline) < 0) {
+			pipelines.put(pipeline);
+		}
 	}
 
 	RETURN(0, int);
@@ -70,13 +72,7 @@ int DistributePipeline::removePipeline(IPipeline *pipeline) {
 	if (pipeline) {
 		Mutex::Autolock lock(pipeline_mutex);
 
-		for (auto iter = pipelines.begin(); iter != pipelines.end(); ) {
-			if (*iter == pipeline) {
-				iter = pipelines.erase(iter);
-			} else {
-				iter++;
-			}
-		}
+		pipelines.removeObject(pipeline);
 	}
 
 	RETURN(0, int);
@@ -26,6 +26,8 @@ typedef enum pipeline_type {
 	PIPELINE_TYPE_PREVIEW = 400,
 	PIPELINE_TYPE_PUBLISHER = 500,
 	PIPELINE_TYPE_DISTRIBUTE = 600,
+	PIPELINE_TYPE_PRE_EVENT_BUFFER = 700,
+	PIPELINE_TYPE_MJPEG_RECORD = 800,
 } pipeline_type_t;
 
 typedef enum _pipeline_state {
@@ -0,0 +1,456 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: MatroskaWriter.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#if 1	// set 1 if you don't need debug message
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// ignore LOGV/LOGD/MARK
+	#endif
+	#undef USE_LOGALL
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+	#undef NDEBUG		// depends on definition in Android.mk and Application.mk
+#endif
+
+#include <string.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <sys/uio.h>
+
+#include "utilbase.h"
+#include "MatroskaWriter.h"
+
+// EBML/Matroska element IDs
+#define ID_EBML					0x1A45DFA3
+#define ID_EBML_VERSION			0x4286
+#define ID_EBML_READ_VERSION	0x42F7
+#define ID_EBML_MAX_ID_LENGTH	0x42F2
+#define ID_EBML_MAX_SIZE_LENGTH	0x42F3
+#define ID_DOCTYPE				0x4282
+#define ID_DOCTYPE_VERSION		0x4287
+#define ID_DOCTYPE_READ_VERSION	0x4285
+#define ID_SEGMENT				0x18538067
+#define ID_SEEK_HEAD			0x114D9B74
+#define ID_SEEK					0x4DBB
+#define ID_SEEK_ID				0x53AB
+#define ID_SEEK_POSITION		0x53AC
+#define ID_INFO					0x1549A966
+#define ID_TIMECODE_SCALE		0x2AD7B1
+#define ID_MUXING_APP			0x4D80
+#define ID_WRITING_APP			0x5741
+#define ID_DURATION				0x4489
+#define ID_TRACKS				0x1654AE6B
+#define ID_TRACK_ENTRY			0xAE
+#define ID_TRACK_NUMBER			0xD7
+#define ID_TRACK_UID			0x73C5
+#define ID_TRACK_TYPE			0x83
+#define ID_FLAG_LACING			0x9C
+#define ID_CODEC_ID				0x86
+#define ID_VIDEO				0xE0
+#define ID_PIXEL_WIDTH			0xB0
+#define ID_PIXEL_HEIGHT			0xBA
+#define ID_CLUSTER				0x1F43B675
+#define ID_TIMECODE				0xE7
+#define ID_SIMPLE_BLOCK			0xA3
+#define ID_CUES					0x1C53BB6B
+#define ID_CUE_POINT			0xBB
+#define ID_CUE_TIME				0xB3
+#define ID_CUE_TRACK_POSITIONS	0xB7
+#define ID_CUE_TRACK			0xF7
+#define ID_CUE_CLUSTER_POSITION	0xF1
+
+#define MASTER_SIZE_BYTES 8
+#define CLUSTER_DURATION_MS 1000
+#define INIT_CUE_CAPACITY 64
+#define APP_NAME "UVCCamera"
+
+static size_t put_be(uint8_t *p, const uint64_t &val, const int &n) {
+	for (int i = 0; i < n; i++) {
+		p[i] = (uint8_t)(val >> ((n - 1 - i) * 8));
+	}
+	return n;
+}
+
+static size_t put_id(uint8_t *p, const uint32_t &id) {
+	const int n = id > 0xFFFFFF ? 4 : (id > 0xFFFF ? 3 : (id > 0xFF ? 2 : 1));
+	return put_be(p, id, n);
+}
+
+/** write the size as 8 bytes vint so that it can be updated later */
+static size_t put_size8(uint8_t *p, const uint64_t &size) {
+	p[0] = 0x01;
+	put_be(p + 1, size, 7);
+	return MASTER_SIZE_BYTES;
+}
+
+static size_t put_size(uint8_t *p, const uint64_t &size) {
+	if (size < 0x7F) {
+		return put_be(p, 0x80 | size, 1);
+	} else if (size < 0x3FFF) {
+		return put_be(p, 0x4000 | size, 2);
+	} else if (size < 0x1FFFFF) {
+		return put_be(p, 0x200000 | size, 3);
+	} else if (size < 0x0FFFFFFF) {
+		return put_be(p, 0x10000000 | size, 4);
+	}
+	return put_size8(p, size);
+}
+
+static size_t put_uint_fixed(uint8_t *p, const uint32_t &id, const uint64_t &val, const int &n) {
+	size_t pos = put_id(p, id);
+	pos += put_size(p + pos, n);
+	pos += put_be(p + pos, val, n);
+	return pos;
+}
+
+static size_t put_uint(uint8_t *p, const uint32_t &id, const uint64_t &val) {
+	int n = 1;
+	for (; (n < 8) && (val >> (n * 8)); n++) {}
+	return put_uint_fixed(p, id, val, n);
+}
+
+static size_t put_string(uint8_t *p, const uint32_t &id, const char *str) {
+	const size_t len = strlen(str);
+	size_t pos = put_id(p, id);
+	pos += put_size(p + pos, len);
+	memcpy(p + pos, str, len);
+	return pos + len;
+}
+
+static size_t put_float(uint8_t *p, const uint32_t &id, const double &val) {
+	uint64_t bits;
+	memcpy(&bits, &val, sizeof(bits));
+	return put_uint_fixed(p, id, bits, 8);
+}
+
+/** start master element with unknown size, @return offset of the size field */
+static size_t start_master(uint8_t *p, size_t &pos, const uint32_t &id) {
+	pos += put_id(p + pos, id);
+	const size_t size_pos = pos;
+	pos += put_size8(p + pos, 0);
+	return size_pos;
+}
+
+static void end_master(uint8_t *p, const size_t &pos, const size_t &size_pos) {
+	put_size8(p + size_pos, pos - size_pos - MASTER_SIZE_BYTES);
+}
+
+//**********************************************************************
+//
+//**********************************************************************
+MatroskaWriter::MatroskaWriter()
+:	fd(-1),
+	file_pos(0),
+	segment_data_pos(0),
+	cues_seek_pos(0),
+	duration_pos(0),
+	cluster_pos(0),
+	cluster_time_ms(0),
+	first_time_ns(-1),
+	last_time_ms(0),
+	cues(NULL),
+	cue_count(0),
+	cue_capacity(0),
+	frames(0),
+	bytes(0) {
+}
+
+MatroskaWriter::~MatroskaWriter() {
+	close();
+}
+
+/**
+ * create the output file, headers are written with the first frame
+ * because the frame size is not known until then
+ * @return 0 on success, negative errno on error
+ */
+int MatroskaWriter::open(const char *path) {
+	ENTER();
+
+	close();
+	fd = ::open(path, O_WRONLY | O_CREAT | O_TRUNC, 0644);
+	if (UNLIKELY(fd < 0)) {
+		LOGE("failed to open %s:errno=%d", path, errno);
+		RETURN(-errno, int);
+	}
+	file_pos = segment_data_pos = 0;
+	cluster_pos = 0;
+	first_time_ns = -1;
+	last_time_ms = 0;
+	cue_count = 0;
+	frames = 0;
+	bytes = 0;
+
+	RETURN(0, int);
+}
+
+int MatroskaWriter::write_at(const uint64_t &pos, const void *data, const size_t &size) {
+	return pwrite(fd, data, size, pos) == (ssize_t)size ? 0 : (errno ? -errno : -EIO);
+}
+
+int MatroskaWriter::append(const void *data, const size_t &size) {
+	const int result = write_at(file_pos, data, size);
+	if (LIKELY(!result)) {
+		file_pos += size;
+	}
+	return result;
+}
+
+int MatroskaWriter::write_header(const int &width, const int &height) {
+	ENTER();
+
+	uint8_t buf[512];
+	size_t pos = 0, size_pos, info_size_pos, tracks_size_pos;
+	size_t seek_value_pos[3];
+
+	size_pos = start_master(buf, pos, ID_EBML);
+	{
+		pos += put_uint(buf + pos, ID_EBML_VERSION, 1);
+		pos += put_uint(buf + pos, ID_EBML_READ_VERSION, 1);
+		pos += put_uint(buf + pos, ID_EBML_MAX_ID_LENGTH, 4);
+		pos += put_uint(buf + pos, ID_EBML_MAX_SIZE_LENGTH, 8);
+		pos += put_string(buf + pos, ID_DOCTYPE, "matroska");
+		pos += put_uint(buf + pos, ID_DOCTYPE_VERSION, 2);
+		pos += put_uint(buf + pos, ID_DOCTYPE_READ_VERSION, 2);
+	}
+	end_master(buf, pos, size_pos);
+	// size of Segment is updated on close
+	pos += put_id(buf + pos, ID_SEGMENT);
+	pos += put_size8(buf + pos, 0x00FFFFFFFFFFFFFFLL);	// unknown
+	const size_t segment_data = pos;
+	// SeekHead for Info, Tracks and Cues, position of Cues is updated on close
+	static const uint32_t seek_ids[3] = { ID_INFO, ID_TRACKS, ID_CUES };
+	size_pos = start_master(buf, pos, ID_SEEK_HEAD);
+	for (int i = 0; i < 3; i++) {
+		const size_t seek_size_pos = start_master(buf, pos, ID_SEEK);
+		pos += put_id(buf + pos, ID_SEEK_ID);
+		pos += put_size(buf + pos, 4);
+		pos += put_be(buf + pos, seek_ids[i], 4);
+		pos += put_uint_fixed(buf + pos, ID_SEEK_POSITION, 0, 8);
+		seek_value_pos[i] = pos - 8;
+		end_master(buf, pos, seek_size_pos);
+	}
+	end_master(buf, pos, size_pos);
+	// Info, Duration is updated on close
+	put_be(buf + seek_value_pos[0], pos - segment_data, 8);
+	info_size_pos = start_master(buf, pos, ID_INFO);
+	{
+		pos += put_uint(buf + pos, ID_TIMECODE_SCALE, 1000000);	// timecodes are in milliseconds
+		pos += put_string(buf + pos, ID_MUXING_APP, APP_NAME);
+		pos += put_string(buf + pos, ID_WRITING_APP, APP_NAME);
+		pos += put_float(buf + pos, ID_DURATION, 0.0);
+		duration_pos = pos - 8;
+	}
+	end_master(buf, pos, info_size_pos);
+	// Tracks
+	put_be(buf + seek_value_pos[1], pos - segment_data, 8);
+	tracks_size_pos = start_master(buf, pos, ID_TRACKS);
+	{
+		const size_t entry_size_pos = start_master(buf, pos, ID_TRACK_ENTRY);
+		{
+			pos += put_uint(buf + pos, ID_TRACK_NUMBER, 1);
+			pos += put_uint(buf + pos, ID_TRACK_UID, 1);
+			pos += put_uint(buf + pos, ID_TRACK_TYPE, 1);	// video
+			pos += put_uint(buf + pos, ID_FLAG_LACING, 0);
+			pos += put_string(buf + pos, ID_CODEC_ID, "V_MJPEG");
+			const size_t video_size_pos = start_master(buf, pos, ID_VIDEO);
+			{
+				pos += put_uint(buf + pos, ID_PIXEL_WIDTH, width);
+				pos += put_uint(buf + pos, ID_PIXEL_HEIGHT, height);
+			}
+			end_master(buf, pos, video_size_pos);
+		}
+		end_master(buf, pos, entry_size_pos);
+	}
+	end_master(buf, pos, tracks_size_pos);
+
+	const int result = append(buf, pos);
+	if (LIKELY(!result)) {
+		segment_data_pos = segment_data;
+		cues_seek_pos = seek_value_pos[2];
+	}
+
+	RETURN(result, int);
+}
+
+int MatroskaWriter::start_cluster(const int64_t &time_ms) {
+	if (UNLIKELY(cue_count >= cue_capacity)) {
+		const int capacity = cue_capacity ? cue_capacity * 2 : INIT_CUE_CAPACITY;
+		mkv_cue_t *c = (mkv_cue_t *)realloc(cues, sizeof(mkv_cue_t) * capacity);
+		if (UNLIKELY(!c)) {
+			return -ENOMEM;
+		}
+		cues = c;
+		cue_capacity = capacity;
+	}
+	uint8_t buf[32];
+	size_t pos = 0;
+	start_master(buf, pos, ID_CLUSTER);
+	pos += put_uint(buf + pos, ID_TIMECODE, time_ms);
+	const uint64_t cluster = file_pos;
+	const int result = append(buf, pos);
+	if (LIKELY(!result)) {
+		cues[cue_count].time_ms = time_ms;
+		cues[cue_count++].position = cluster - segment_data_pos;
+		cluster_pos = cluster;
+		cluster_time_ms = time_ms;
+	}
+	return result;
+}
+
+int MatroskaWriter::finish_cluster() {
+	int result = 0;
+	if (cluster_pos) {
+		uint8_t buf[MASTER_SIZE_BYTES];
+		const uint64_t size_pos = cluster_pos + 4;	// Cluster ID is 4 bytes
+		put_size8(buf, file_pos - size_pos - MASTER_SIZE_BYTES);
+		result = write_at(size_pos, buf, MASTER_SIZE_BYTES);
+		cluster_pos = 0;
+	}
+	return result;
+}
+
+int MatroskaWriter::write_cues() {
+	// each CuePoint takes 42 bytes at most
+	uint8_t *buf = (uint8_t *)malloc(cue_count * 48 + 16);
+	if (UNLIKELY(!buf)) {
+		return -ENOMEM;
+	}
+	size_t pos = 0;
+	const size_t size_pos = start_master(buf, pos, ID_CUES);
+	for (int i = 0; i < cue_count; i++) {
+		const size_t point_size_pos = start_master(buf, pos, ID_CUE_POINT);
+		pos += put_uint(buf + pos, ID_CUE_TIME, cues[i].time_ms);
+		const size_t positions_size_pos = start_master(buf, pos, ID_CUE_TRACK_POSITIONS);
+		pos += put_uint(buf + pos, ID_CUE_TRACK, 1);
+		pos += put_uint(buf + pos, ID_CUE_CLUSTER_POSITION, cues[i].position);
+		end_master(buf, pos, positions_size_pos);
+		end_master(buf, pos, point_size_pos);
+	}
+	end_master(buf, pos, size_pos);
+	uint8_t seek_pos[8];
+	put_be(seek_pos, file_pos - segment_data_pos, 8);
+	int result = write_at(cues_seek_pos, seek_pos, 8);
+	if (LIKELY(!result)) {
+		result = append(buf, pos);
+	}
+	free(buf);
+	return result;
+}
+
+/**
+ * append a MJPEG frame as a SimpleBlock, the frame data is written without copying
+ * @param time_ns capture time of the frame, timecodes are relative to the first frame
+ * @return 0 on success, negative errno on error
+ */
+int MatroskaWriter::writeFrame(const uint8_t *data, const size_t &size,
+	const int &width, const int &height, const int64_t &time_ns) {
+
+	int result = -EBADF;
+	if (UNLIKELY(fd < 0)) {
+		return result;
+	}
+	if (UNLIKELY(!segment_data_pos)) {
+		result = write_header(width, height);
+		if (UNLIKELY(result)) {
+			return result;
+		}
+		first_time_ns = time_ns;
+	}
+	int64_t time_ms = (time_ns - first_time_ns) / 1000000LL;
+	if (UNLIKELY(time_ms < last_time_ms)) {
+		time_ms = last_time_ms;	// keep timecodes monotonic
+	}
+	if (!cluster_pos || (time_ms - cluster_time_ms >= CLUSTER_DURATION_MS)) {
+		result = finish_cluster();
+		if (LIKELY(!result)) {
+			result = start_cluster(time_ms);
+		}
+		if (UNLIKELY(result)) {
+			return result;
+		}
+	}
+	uint8_t header[16];
+	size_t pos = put_id(header, ID_SIMPLE_BLOCK);
+	pos += put_size(header + pos, size + 4);
+	header[pos++] = 0x81;	// track number 1 as vint
+	pos += put_be(header + pos, (uint16_t)(int16_t)(time_ms - cluster_time_ms), 2);
+	header[pos++] = 0x80;	// key frame
+	struct iovec iov[2];
+	iov[0].iov_base = header;
+	iov[0].iov_len = pos;
+	iov[1].iov_base = (void *)data;
+	iov[1].iov_len = size;
+	const ssize_t written = pwritev(fd, iov, 2, file_pos);
+	if (UNLIKELY(written != (ssize_t)(pos + size))) {
+		LOGE("failed to write frame:errno=%d", errno);
+		return errno ? -errno : -EIO;
+	}
+	file_pos += written;
+	last_time_ms = time_ms;
+	frames++;
+	bytes += size;
+
+	return 0;
+}
+
+/**
+ * update sizes, Duration and Cues and close the file
+ */
+int MatroskaWriter::close() {
+	ENTER();
+
+	int result = 0;
+	if (fd >= 0) {
+		if (segment_data_pos) {
+			result = finish_cluster();
+			if (LIKELY(!result)) {
+				result = write_cues();
+			}
+			uint8_t buf[MASTER_SIZE_BYTES];
+			const double duration = (double)last_time_ms;
+			uint64_t bits;
+			memcpy(&bits, &duration, sizeof(bits));
+			put_be(buf, bits, 8);
+			if (LIKELY(!result)) {
+				result = write_at(duration_pos, buf, 8);
+			}
+			put_size8(buf, file_pos - segment_data_pos);
+			if (LIKELY(!result)) {
+				result = write_at(segment_data_pos - MASTER_SIZE_BYTES, buf, MASTER_SIZE_BYTES);
+			}
+		}
+		if (UNLIKELY(::close(fd) && !result)) {
+			result = -errno;
+		}
+		fd = -1;
+		segment_data_pos = 0;
+	}
+	free(cues);
+	cues = NULL;
+	cue_count = cue_capacity = 0;
+
+	RETURN(result, int);
+}
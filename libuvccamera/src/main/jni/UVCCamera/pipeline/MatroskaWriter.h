@@ -0,0 +1,79 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: MatroskaWriter.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef MATROSKAWRITER_H_
+#define MATROSKAWRITER_H_
+
+#include <stdlib.h>
+#include <stdint.h>
+
+#pragma interface
+
+typedef struct mkv_cue {
+	int64_t time_ms;		// timecode of the cluster
+	uint64_t position;		// position of the cluster relative to the segment data
+} mkv_cue_t;
+
+/**
+ * minimum Matroska muxer that writes MJPEG frames(V_MJPEG) as SimpleBlocks
+ * with their own timestamps without decoding/re-encoding.
+ * each frame is a key frame, so a new Cluster starts every 1 second for seeking.
+ * not thread safe, the caller should serialize calls.
+ */
+class MatroskaWriter {
+private:
+	int fd;
+	uint64_t file_pos;
+	uint64_t segment_data_pos;		// file position of the segment data
+	uint64_t cues_seek_pos;			// file position of SeekPosition for Cues
+	uint64_t duration_pos;			// file position of Duration value
+	uint64_t cluster_pos;			// file position of current Cluster, 0 if no cluster
+	int64_t cluster_time_ms;
+	int64_t first_time_ns;
+	int64_t last_time_ms;
+	mkv_cue_t *cues;
+	int cue_count;
+	int cue_capacity;
+	uint32_t frames;
+	uint64_t bytes;
+	int write_at(const uint64_t &pos, const void *data, const size_t &size);
+	int append(const void *data, const size_t &size);
+	int write_header(const int &width, const int &height);
+	int start_cluster(const int64_t &time_ms);
+	int finish_cluster();
+	int write_cues();
+public:
+	MatroskaWriter();
+	~MatroskaWriter();
+	int open(const char *path);
+	int writeFrame(const uint8_t *data, const size_t &size,
+		const int &width, const int &height, const int64_t &time_ns);
+	int close();
+	inline const bool isOpened() const { return fd >= 0; };
+	inline const uint32_t getFrames() const { return frames; };
+	inline const uint64_t getBytes() const { return bytes; };
+	inline const int64_t getDurationMs() const { return last_time_ms; };
+};
+
+#endif /* MATROSKAWRITER_H_ */
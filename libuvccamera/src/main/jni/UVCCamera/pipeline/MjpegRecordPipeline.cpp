@@ -0,0 +1,310 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: MjpegRecordPipeline.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#if 1	// set 1 if you don't need debug message
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// ignore LOGV/LOGD/MARK
+	#endif
+	#undef USE_LOGALL
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+	#undef NDEBUG		// depends on definition in Android.mk and Application.mk
+#endif
+
+#include <string.h>
+
+#include "utilbase.h"
+#include "common_utils.h"
+#include "rapidjson/rapidjson.h"
+#include "rapidjson/stringbuffer.h"
+#include "rapidjson/writer.h"
+
+#include "libUVCCamera.h"
+#include "pipeline_helper.h"
+#include "IPipeline.h"
+#include "MjpegRecordPipeline.h"
+
+using namespace rapidjson;
+
+#define INIT_FRAME_POOL_SZ 4
+// keep more frames than other pipelines to absorb storage stalls
+#define MAX_FRAME_NUM 16
+
+/* public */
+MjpegRecordPipeline::MjpegRecordPipeline()
+:	AbstractBufferedPipeline(MAX_FRAME_NUM, INIT_FRAME_POOL_SZ, DEFAULT_FRAME_SZ),
+	jpeg(uvc_allocate_frame(DEFAULT_FRAME_SZ)),
+	skipped_frames(0),
+	last_error(0)
+{
+	ENTER();
+	EXIT();
+}
+
+/* public */
+MjpegRecordPipeline::~MjpegRecordPipeline() {
+	ENTER();
+
+	release();
+	writer_mutex.lock();
+	{
+		writer.close();
+		if (jpeg) {
+			uvc_free_frame(jpeg);
+			jpeg = NULL;
+		}
+	}
+	writer_mutex.unlock();
+
+	EXIT();
+}
+
+/**
+ * create the output file
+ * @return 0 on success, negative errno on error
+ */
+int MjpegRecordPipeline::init(const char *path) {
+	ENTER();
+
+	int result;
+	writer_mutex.lock();
+	{
+		result = writer.open(path);
+		skipped_frames = 0;
+		last_error = result;
+	}
+	writer_mutex.unlock();
+	if (LIKELY(!result)) {
+		setState(PIPELINE_STATE_INITIALIZED);
+	}
+
+	RETURN(result, int);
+}
+
+void MjpegRecordPipeline::on_start() {
+	ENTER();
+	EXIT();
+}
+
+/**
+ * finish the file when this pipeline stops, frames are not recorded after this
+ */
+void MjpegRecordPipeline::on_stop() {
+	ENTER();
+
+	writer_mutex.lock();
+	{
+		const int r = writer.close();
+		if (UNLIKELY(r)) {
+			last_error = r;
+		}
+	}
+	writer_mutex.unlock();
+
+	EXIT();
+}
+
+int MjpegRecordPipeline::handle_frame(uvc_frame_t *frame) {
+	ENTER();
+
+	writer_mutex.lock();
+	if (LIKELY(writer.isOpened() && !last_error)) {
+		if (LIKELY(frame->frame_format == UVC_FRAME_FORMAT_MJPEG)) {
+			const int64_t time_ns = frame->capture_time_ns
+				? frame->capture_time_ns
+				: frame->capture_time.tv_sec * 1000000000LL + frame->capture_time.tv_usec * 1000LL;
+			// payloads without DHT rely on the default Huffman tables, insert them
+			// so that each block can be decoded as is
+			const uvc_frame_t *src = jpeg && !uvc_mjpeg2jpeg(frame, jpeg) ? jpeg : frame;
+			const int r = writer.writeFrame((const uint8_t *)src->data, src->actual_bytes,
+				frame->width, frame->height, time_ns);
+			if (UNLIKELY(r)) {
+				// storage full etc., stop recording and keep the file playable
+				LOGE("failed to write frame:err=%d", r);
+				last_error = r;
+				writer.close();
+			}
+		} else {
+			skipped_frames++;
+		}
+	}
+	writer_mutex.unlock();
+
+	RETURN(0, int);
+}
+
+/**
+ * @return JSON string, {"recording":bool, "frames":int, "bytes":int, "durationMs":int,
+ * "skippedFrames":int, "error":int}, caller should free it
+ */
+char *MjpegRecordPipeline::getStats() {
+	StringBuffer buffer;
+	Writer<StringBuffer> json(buffer);
+
+	writer_mutex.lock();
+	json.StartObject();
+	{
+		json.String("recording");
+		json.Bool(writer.isOpened() && isRunning());
+		json.String("frames");
+		json.Uint(writer.getFrames());
+		json.String("bytes");
+		json.Uint64(writer.getBytes());
+		json.String("durationMs");
+		json.Int64(writer.getDurationMs());
+		json.String("skippedFrames");
+		json.Uint(skipped_frames);
+		json.String("error");
+		json.Int(last_error);
+	}
+	json.EndObject();
+	writer_mutex.unlock();
+
+	return strdup(buffer.GetString());
+}
+
+//**********************************************************************
+//
+//**********************************************************************
+static ID_TYPE nativeCreate(JNIEnv *env, jobject thiz,
+	jstring path_str) {
+
+	ENTER();
+	MjpegRecordPipeline *pipeline = new MjpegRecordPipeline();
+	const char *c_path = env->GetStringUTFChars(path_str, JNI_FALSE);
+	const int r = pipeline->init(c_path);
+	env->ReleaseStringUTFChars(path_str, c_path);
+	if (UNLIKELY(r)) {
+		SAFE_DELETE(pipeline);
+	}
+	setField_long(env, thiz, "mNativePtr", reinterpret_cast<ID_TYPE>(pipeline));
+	RETURN(reinterpret_cast<ID_TYPE>(pipeline), ID_TYPE);
+}
+
+static void nativeDestroy(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	ENTER();
+	setField_long(env, thiz, "mNativePtr", 0);
+	MjpegRecordPipeline *pipeline = reinterpret_cast<MjpegRecordPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		pipeline->release();
+		SAFE_DELETE(pipeline);
+	}
+	EXIT();
+}
+
+static jint nativeGetState(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	ENTER();
+	jint result = 0;
+	MjpegRecordPipeline *pipeline = reinterpret_cast<MjpegRecordPipeline *>(id_pipeline);
+	if (pipeline) {
+		result = pipeline->getState();
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeSetPipeline(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline, jobject pipeline_obj) {
+
+	ENTER();
+	jint result = JNI_ERR;
+	MjpegRecordPipeline *pipeline = reinterpret_cast<MjpegRecordPipeline *>(id_pipeline);
+	if (pipeline) {
+		IPipeline *target_pipeline = getPipeline(env, pipeline_obj);
+		result = pipeline->setPipeline(target_pipeline);
+	}
+
+	RETURN(result, jint);
+}
+
+static jint nativeStart(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	ENTER();
+
+	int result = JNI_ERR;
+	MjpegRecordPipeline *pipeline = reinterpret_cast<MjpegRecordPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		result = pipeline->start();
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeStop(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	MjpegRecordPipeline *pipeline = reinterpret_cast<MjpegRecordPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		result = pipeline->stop();
+	}
+	RETURN(result, jint);
+}
+
+static jobject nativeGetStats(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	ENTER();
+	jstring result = NULL;
+	MjpegRecordPipeline *pipeline = reinterpret_cast<MjpegRecordPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		char *c_str = pipeline->getStats();
+		if (LIKELY(c_str)) {
+			result = env->NewStringUTF(c_str);
+			free(c_str);
+		}
+	}
+	RETURN(result, jobject);
+}
+
+//**********************************************************************
+//
+//**********************************************************************
+static JNINativeMethod methods[] = {
+	{ "nativeCreate",					"(Ljava/lang/String;)J", (void *) nativeCreate },
+	{ "nativeDestroy",					"(J)V", (void *) nativeDestroy },
+
+	{ "nativeGetState",					"(J)I", (void *) nativeGetState },
+	{ "nativeSetPipeline",				"(JLcom/serenegiant/usb/IPipeline;)I", (void *) nativeSetPipeline },
+
+	{ "nativeStart",					"(J)I", (void *) nativeStart },
+	{ "nativeStop",						"(J)I", (void *) nativeStop },
+
+	{ "nativeGetStats",					"(J)Ljava/lang/String;", (void *) nativeGetStats },
+};
+
+int register_mjpeg_record_pipeline(JNIEnv *env) {
+	LOGV("register_mjpeg_record_pipeline:");
+	if (registerNativeMethods(env,
+		"com/serenegiant/usb/MjpegRecordPipeline",
+		methods, NUM_ARRAY_ELEMENTS(methods)) < 0) {
+		return -1;
+	}
+    return 0;
+}
@@ -0,0 +1,62 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: MjpegRecordPipeline.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef MJPEGRECORDPIPELINE_H_
+#define MJPEGRECORDPIPELINE_H_
+
+#include <stdlib.h>
+#include <pthread.h>
+#include "Mutex.h"
+
+#include "libUVCCamera.h"
+#include "AbstractBufferedPipeline.h"
+#include "MatroskaWriter.h"
+
+#pragma interface
+
+/**
+ * records MJPEG frames from the camera into Matroska file without decoding/re-encoding.
+ * default Huffman tables are inserted into frames that do not have DHT like still capture.
+ * frames are written on the handler thread of this pipeline with their capture time.
+ * frames of other formats are passed to next pipeline without recording.
+ */
+class MjpegRecordPipeline : virtual public AbstractBufferedPipeline {
+private:
+	mutable Mutex writer_mutex;
+	MatroskaWriter writer;
+	uvc_frame_t *jpeg;			// work frame to insert the default Huffman tables
+	uint32_t skipped_frames;	// frames that were not MJPEG
+	int last_error;
+protected:
+	virtual void on_start();
+	virtual void on_stop();
+	virtual int handle_frame(uvc_frame_t *frame);
+public:
+	MjpegRecordPipeline();
+	virtual ~MjpegRecordPipeline();
+	int init(const char *path);
+	char *getStats();
+};
+
+#endif /* MJPEGRECORDPIPELINE_H_ */
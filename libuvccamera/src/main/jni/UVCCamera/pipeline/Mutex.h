@@ -0,0 +1,62 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: Mutex.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef PIPELINE_MUTEX_H_
+#define PIPELINE_MUTEX_H_
+
+#include <pthread.h>
+
+// subset of android::Mutex(libutils) that the pipelines use,
+// libutils is not a part of NDK
+namespace android {
+
+class Condition;
+
+class Mutex {
+	friend class Condition;
+private:
+	pthread_mutex_t mMutex;
+	// force inhibiting copy/assignment
+	Mutex(const Mutex &src);
+	void operator =(const Mutex &src);
+public:
+	inline Mutex() { pthread_mutex_init(&mMutex, NULL); }
+	inline ~Mutex() { pthread_mutex_destroy(&mMutex); }
+	inline int lock() { return -pthread_mutex_lock(&mMutex); }
+	inline void unlock() { pthread_mutex_unlock(&mMutex); }
+	inline int tryLock() { return -pthread_mutex_trylock(&mMutex); }
+
+	class Autolock {
+	private:
+		Mutex &mLock;
+	public:
+		inline Autolock(Mutex &mutex) : mLock(mutex) { mLock.lock(); }
+		inline Autolock(Mutex *mutex) : mLock(*mutex) { mLock.lock(); }
+		inline ~Autolock() { mLock.unlock(); }
+	};
+};
+
+}	// namespace android
+
+#endif /* PIPELINE_MUTEX_H_ */
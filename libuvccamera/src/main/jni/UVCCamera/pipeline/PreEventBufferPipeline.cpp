@@ -0,0 +1,524 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: PreEventBufferPipeline.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#if 1	// set 1 if you don't need debug message
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// ignore LOGV/LOGD/MARK
+	#endif
+	#undef USE_LOGALL
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+	#undef NDEBUG		// depends on definition in Android.mk and Application.mk
+#endif
+
+#include <stdio.h>
+#include <string.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <sys/mman.h>
+
+#include "utilbase.h"
+#include "common_utils.h"
+#include "rapidjson/rapidjson.h"
+#include "rapidjson/stringbuffer.h"
+#include "rapidjson/writer.h"
+
+#include "libUVCCamera.h"
+#include "pipeline_helper.h"
+#include "IPipeline.h"
+#include "PreEventBufferPipeline.h"
+
+using namespace rapidjson;
+
+#define INIT_FRAME_POOL_SZ 2
+#define MAX_FRAME_NUM 8
+#define INIT_INDEX_CAPACITY 256
+#define RECORD_ALIGN(n) (((n) + 7) & ~((size_t)7))
+
+/* public */
+PreEventBufferPipeline::PreEventBufferPipeline(const size_t &_segment_bytes, const int &_num_segments)
+:	AbstractBufferedPipeline(MAX_FRAME_NUM, INIT_FRAME_POOL_SZ, DEFAULT_FRAME_SZ),
+	segment_bytes(_segment_bytes),
+	num_segments(_num_segments < 2 ? 2 : (_num_segments > PRE_EVENT_MAX_SEGMENTS ? PRE_EVENT_MAX_SEGMENTS : _num_segments)),
+	current(0),
+	total_frames(0),
+	dropped_frames(0),
+	num_exports(0)
+{
+	ENTER();
+
+	memset(segments, 0, sizeof(segments));
+	for (int i = 0; i < PRE_EVENT_MAX_SEGMENTS; i++) {
+		segments[i].fd = -1;
+	}
+
+	EXIT();
+}
+
+/* public */
+PreEventBufferPipeline::~PreEventBufferPipeline() {
+	ENTER();
+
+	release();
+	free_segments();
+
+	EXIT();
+}
+
+/**
+ * create and map segment files, existing files are overwritten
+ * @param dir directory of segment files, internal storage or tmpfs is better than SD card
+ * because the kernel writes back dirty pages of the mapped files
+ * @return 0 on success
+ */
+int PreEventBufferPipeline::init(const char *dir) {
+	ENTER();
+
+	int result = 0;
+	char path[PATH_MAX];
+
+	Mutex::Autolock lock(index_mutex);
+
+	free_segments();
+	for (int i = 0; i < num_segments; i++) {
+		pre_event_segment_t &segment = segments[i];
+		snprintf(path, sizeof(path), "%s/preevent_%02d.seg", dir, i);
+		segment.fd = open(path, O_RDWR | O_CREAT, 0600);
+		if (UNLIKELY(segment.fd < 0)) {
+			LOGE("failed to open %s:errno=%d", path, errno);
+			result = -errno;
+			break;
+		}
+		// preallocate blocks so that appending does not allocate/fragment the file
+		int r = posix_fallocate(segment.fd, 0, segment_bytes);
+		if (UNLIKELY(r && (ftruncate(segment.fd, segment_bytes) < 0))) {
+			LOGE("failed to allocate %s:err=%d", path, r);
+			result = -r;
+			break;
+		}
+		void *base = mmap(NULL, segment_bytes, PROT_READ | PROT_WRITE, MAP_SHARED, segment.fd, 0);
+		if (UNLIKELY(base == MAP_FAILED)) {
+			LOGE("failed to map %s:errno=%d", path, errno);
+			result = -errno;
+			break;
+		}
+		segment.base = (uint8_t *)base;
+		segment.index = (pre_event_index_t *)malloc(sizeof(pre_event_index_t) * INIT_INDEX_CAPACITY);
+		segment.index_capacity = segment.index ? INIT_INDEX_CAPACITY : 0;
+		reset_segment(segment);
+	}
+	if (UNLIKELY(result)) {
+		free_segments();
+	} else {
+		current = 0;
+		setState(PIPELINE_STATE_INITIALIZED);
+	}
+
+	RETURN(result, int);
+}
+
+void PreEventBufferPipeline::free_segments() {
+	for (int i = 0; i < PRE_EVENT_MAX_SEGMENTS; i++) {
+		pre_event_segment_t &segment = segments[i];
+		if (segment.base) {
+			munmap(segment.base, segment_bytes);
+		}
+		if (segment.fd >= 0) {
+			close(segment.fd);
+		}
+		free(segment.index);
+		memset(&segment, 0, sizeof(segment));
+		segment.fd = -1;
+	}
+	total_frames = 0;
+}
+
+/**
+ * evict all frames in the segment, should be called with index_mutex
+ */
+void PreEventBufferPipeline::reset_segment(pre_event_segment_t &segment) {
+	total_frames -= segment.index_count;
+	segment.used = 0;
+	segment.index_count = 0;
+}
+
+void PreEventBufferPipeline::on_start() {
+	ENTER();
+	EXIT();
+}
+
+void PreEventBufferPipeline::on_stop() {
+	ENTER();
+	EXIT();
+}
+
+int PreEventBufferPipeline::handle_frame(uvc_frame_t *frame) {
+	ENTER();
+
+	append(frame);
+
+	RETURN(0, int);
+}
+
+/**
+ * append MJPEG frame to the current segment,
+ * move to the next(oldest) segment and evict it if the current segment is full
+ * @return true if appended
+ */
+bool PreEventBufferPipeline::append(uvc_frame_t *frame) {
+	const size_t record_bytes = RECORD_ALIGN(sizeof(pre_event_record_t) + frame->actual_bytes);
+	bool result = false;
+
+	Mutex::Autolock lock(index_mutex);
+
+	if (UNLIKELY((frame->frame_format != UVC_FRAME_FORMAT_MJPEG)
+		|| (record_bytes > segment_bytes) || !segments[current].base)) {
+
+		dropped_frames++;
+		return false;
+	}
+	pre_event_segment_t *segment = &segments[current];
+	if (segment->used + record_bytes > segment_bytes) {
+		const int next = (current + 1) % num_segments;
+		if (UNLIKELY(segments[next].pins)) {
+			// the oldest segment is being exported, drop frames until the export finishes
+			dropped_frames++;
+			return false;
+		}
+		current = next;
+		segment = &segments[current];
+		reset_segment(*segment);
+	}
+	if (UNLIKELY(segment->index_count >= segment->index_capacity)) {
+		const int capacity = segment->index_capacity ? segment->index_capacity * 2 : INIT_INDEX_CAPACITY;
+		pre_event_index_t *index = (pre_event_index_t *)realloc(segment->index, sizeof(pre_event_index_t) * capacity);
+		if (UNLIKELY(!index)) {
+			dropped_frames++;
+			return false;
+		}
+		segment->index = index;
+		segment->index_capacity = capacity;
+	}
+	const int64_t time_ns = frame->capture_time_ns
+		? frame->capture_time_ns
+		: frame->capture_time.tv_sec * 1000000000LL + frame->capture_time.tv_usec * 1000LL;
+	pre_event_record_t *record = (pre_event_record_t *)(segment->base + segment->used);
+	record->magic = PRE_EVENT_RECORD_MAGIC;
+	record->bytes = frame->actual_bytes;
+	record->time_ns = time_ns;
+	record->sequence = frame->sequence;
+	record->width = frame->width;
+	record->height = frame->height;
+	memcpy(record + 1, frame->data, frame->actual_bytes);
+	pre_event_index_t &entry = segment->index[segment->index_count++];
+	entry.offset = segment->used;
+	entry.bytes = frame->actual_bytes;
+	entry.time_ns = time_ns;
+	segment->used += record_bytes;
+	total_frames++;
+	result = true;
+
+	return result;
+}
+
+/**
+ * export the frames of last duration_ns(relative to the latest frame) to the file
+ * as MJPEG stream(concatenated JPEG). the default Huffman tables are inserted into frames
+ * that do not have DHT so that each frame can be decoded as is. frames are still appended while exporting
+ * because the segments are read without index_mutex, they are only pinned so that
+ * they are not evicted. this blocks the caller until writing finishes.
+ * @return number of exported frames, negative value on error
+ */
+int PreEventBufferPipeline::exportLast(const char *path, const int64_t &duration_ns) {
+	ENTER();
+
+	pre_event_index_t *entries = NULL;
+	int *entry_segments = NULL;
+	int num_entries = 0;
+	bool pinned[PRE_EVENT_MAX_SEGMENTS];
+
+	memset(pinned, 0, sizeof(pinned));
+	index_mutex.lock();
+	{
+		const pre_event_segment_t &latest = segments[current];
+		if (LIKELY(total_frames && latest.index_count)) {
+			const int64_t from = latest.index[latest.index_count - 1].time_ns - duration_ns;
+			entries = (pre_event_index_t *)malloc(sizeof(pre_event_index_t) * total_frames);
+			entry_segments = (int *)malloc(sizeof(int) * total_frames);
+			if (LIKELY(entries && entry_segments)) {
+				// from the oldest segment to the current one
+				for (int i = 1; i <= num_segments; i++) {
+					const int ix = (current + i) % num_segments;
+					pre_event_segment_t &segment = segments[ix];
+					for (int j = 0; j < segment.index_count; j++) {
+						if (segment.index[j].time_ns >= from) {
+							entries[num_entries] = segment.index[j];
+							entry_segments[num_entries++] = ix;
+							if (!pinned[ix]) {
+								pinned[ix] = true;
+								segment.pins++;
+							}
+						}
+					}
+				}
+			}
+		}
+		num_exports++;
+	}
+	index_mutex.unlock();
+
+	int result = num_entries;
+	if (num_entries) {
+		FILE *fp = fopen(path, "wb");
+		if (LIKELY(fp)) {
+			// work frame is reused for all frames of this export, exports may run concurrently
+			uvc_frame_t *jpeg = uvc_allocate_frame(DEFAULT_FRAME_SZ);
+			uvc_frame_t in;
+			memset(&in, 0, sizeof(in));
+			in.frame_format = UVC_FRAME_FORMAT_MJPEG;
+			for (int i = 0; i < num_entries; i++) {
+				const pre_event_record_t *record
+					= (const pre_event_record_t *)(segments[entry_segments[i]].base + entries[i].offset);
+				in.data = (void *)(record + 1);
+				in.actual_bytes = in.data_bytes = entries[i].bytes;
+				in.width = record->width;
+				in.height = record->height;
+				// write the frame as is if it is not a valid JPEG
+				const uvc_frame_t *src = jpeg && !uvc_mjpeg2jpeg(&in, jpeg) ? jpeg : &in;
+				if (UNLIKELY(fwrite(src->data, 1, src->actual_bytes, fp) != src->actual_bytes)) {
+					LOGE("failed to write %s:errno=%d", path, errno);
+					result = -errno;
+					break;
+				}
+			}
+			if (jpeg) {
+				uvc_free_frame(jpeg);
+			}
+			if (UNLIKELY(fclose(fp) && (result >= 0))) {
+				result = -errno;
+			}
+		} else {
+			LOGE("failed to open %s:errno=%d", path, errno);
+			result = -errno;
+		}
+		index_mutex.lock();
+		{
+			for (int i = 0; i < num_segments; i++) {
+				if (pinned[i]) {
+					segments[i].pins--;
+				}
+			}
+		}
+		index_mutex.unlock();
+	}
+	free(entries);
+	free(entry_segments);
+
+	RETURN(result, int);
+}
+
+/**
+ * @return JSON string, {"segments":int, "segmentBytes":int, "frames":int, "durationMs":int,
+ * "droppedFrames":int, "exports":int}, caller should free it
+ */
+char *PreEventBufferPipeline::getStats() {
+	StringBuffer buffer;
+	Writer<StringBuffer> writer(buffer);
+	int64_t oldest = 0, latest = 0;
+	uint32_t frames, dropped, exports;
+
+	index_mutex.lock();
+	{
+		for (int i = 1; i <= num_segments; i++) {
+			const pre_event_segment_t &segment = segments[(current + i) % num_segments];
+			if (segment.index_count) {
+				if (!oldest) oldest = segment.index[0].time_ns;
+				latest = segment.index[segment.index_count - 1].time_ns;
+			}
+		}
+		frames = total_frames;
+		dropped = dropped_frames;
+		exports = num_exports;
+	}
+	index_mutex.unlock();
+
+	writer.StartObject();
+	{
+		writer.String("segments");
+		writer.Int(num_segments);
+		writer.String("segmentBytes");
+		writer.Uint64(segment_bytes);
+		writer.String("frames");
+		writer.Uint(frames);
+		writer.String("durationMs");
+		writer.Int64((latest - oldest) / 1000000LL);
+		writer.String("droppedFrames");
+		writer.Uint(dropped);
+		writer.String("exports");
+		writer.Uint(exports);
+	}
+	writer.EndObject();
+	return strdup(buffer.GetString());
+}
+
+//**********************************************************************
+//
+//**********************************************************************
+static ID_TYPE nativeCreate(JNIEnv *env, jobject thiz,
+	jstring dir_str, jint segment_bytes, jint num_segments) {
+
+	ENTER();
+	PreEventBufferPipeline *pipeline = new PreEventBufferPipeline(segment_bytes, num_segments);
+	const char *c_dir = env->GetStringUTFChars(dir_str, JNI_FALSE);
+	const int r = pipeline->init(c_dir);
+	env->ReleaseStringUTFChars(dir_str, c_dir);
+	if (UNLIKELY(r)) {
+		SAFE_DELETE(pipeline);
+	}
+	setField_long(env, thiz, "mNativePtr", reinterpret_cast<ID_TYPE>(pipeline));
+	RETURN(reinterpret_cast<ID_TYPE>(pipeline), ID_TYPE);
+}
+
+static void nativeDestroy(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	ENTER();
+	setField_long(env, thiz, "mNativePtr", 0);
+	PreEventBufferPipeline *pipeline = reinterpret_cast<PreEventBufferPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		pipeline->release();
+		SAFE_DELETE(pipeline);
+	}
+	EXIT();
+}
+
+static jint nativeGetState(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	ENTER();
+	jint result = 0;
+	PreEventBufferPipeline *pipeline = reinterpret_cast<PreEventBufferPipeline *>(id_pipeline);
+	if (pipeline) {
+		result = pipeline->getState();
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeSetPipeline(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline, jobject pipeline_obj) {
+
+	ENTER();
+	jint result = JNI_ERR;
+	PreEventBufferPipeline *pipeline = reinterpret_cast<PreEventBufferPipeline *>(id_pipeline);
+	if (pipeline) {
+		IPipeline *target_pipeline = getPipeline(env, pipeline_obj);
+		result = pipeline->setPipeline(target_pipeline);
+	}
+
+	RETURN(result, jint);
+}
+
+static jint nativeStart(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	ENTER();
+
+	int result = JNI_ERR;
+	PreEventBufferPipeline *pipeline = reinterpret_cast<PreEventBufferPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		result = pipeline->start();
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeStop(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	PreEventBufferPipeline *pipeline = reinterpret_cast<PreEventBufferPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		result = pipeline->stop();
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeExport(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline, jstring path_str, jlong duration_ms) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	PreEventBufferPipeline *pipeline = reinterpret_cast<PreEventBufferPipeline *>(id_pipeline);
+	if (LIKELY(pipeline && path_str)) {
+		const char *c_path = env->GetStringUTFChars(path_str, JNI_FALSE);
+		result = pipeline->exportLast(c_path, duration_ms * 1000000LL);
+		env->ReleaseStringUTFChars(path_str, c_path);
+	}
+	RETURN(result, jint);
+}
+
+static jobject nativeGetStats(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	ENTER();
+	jstring result = NULL;
+	PreEventBufferPipeline *pipeline = reinterpret_cast<PreEventBufferPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		char *c_str = pipeline->getStats();
+		if (LIKELY(c_str)) {
+			result = env->NewStringUTF(c_str);
+			free(c_str);
+		}
+	}
+	RETURN(result, jobject);
+}
+
+//**********************************************************************
+//
+//**********************************************************************
+static JNINativeMethod methods[] = {
+	{ "nativeCreate",					"(Ljava/lang/String;II)J", (void *) nativeCreate },
+	{ "nativeDestroy",					"(J)V", (void *) nativeDestroy },
+
+	{ "nativeGetState",					"(J)I", (void *) nativeGetState },
+	{ "nativeSetPipeline",				"(JLcom/serenegiant/usb/IPipeline;)I", (void *) nativeSetPipeline },
+
+	{ "nativeStart",					"(J)I", (void *) nativeStart },
+	{ "nativeStop",						"(J)I", (void *) nativeStop },
+
+	{ "nativeExport",					"(JLjava/lang/String;J)I", (void *) nativeExport },
+	{ "nativeGetStats",					"(J)Ljava/lang/String;", (void *) nativeGetStats },
+};
+
+int register_pre_event_buffer_pipeline(JNIEnv *env) {
+	LOGV("register_pre_event_buffer_pipeline:");
+	if (registerNativeMethods(env,
+		"com/serenegiant/usb/PreEventBufferPipeline",
+		methods, NUM_ARRAY_ELEMENTS(methods)) < 0) {
+		return -1;
+	}
+    return 0;
+}
@@ -0,0 +1,98 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: PreEventBufferPipeline.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef PREEVENTBUFFERPIPELINE_H_
+#define PREEVENTBUFFERPIPELINE_H_
+
+#include <stdlib.h>
+#include <pthread.h>
+#include "Mutex.h"
+
+#include "libUVCCamera.h"
+#include "AbstractBufferedPipeline.h"
+
+#pragma interface
+
+#define PRE_EVENT_MAX_SEGMENTS 64
+#define PRE_EVENT_RECORD_MAGIC 0x46424550	// 'PEBF'
+
+// header of each record in the segment file, followed by MJPEG data and padded to 8 bytes
+typedef struct pre_event_record {
+	uint32_t magic;
+	uint32_t bytes;			// bytes of MJPEG data
+	int64_t time_ns;		// capture time(CLOCK_MONOTONIC)
+	uint32_t sequence;
+	uint16_t width;
+	uint16_t height;
+} pre_event_record_t;
+
+// in-memory time index of a record
+typedef struct pre_event_index {
+	uint32_t offset;		// offset of the record in the segment
+	uint32_t bytes;			// bytes of MJPEG data
+	int64_t time_ns;
+} pre_event_index_t;
+
+typedef struct pre_event_segment {
+	int fd;
+	uint8_t *base;			// memory mapped segment file
+	size_t used;
+	pre_event_index_t *index;
+	int index_count;
+	int index_capacity;
+	int pins;				// number of exports that are reading this segment
+} pre_event_segment_t;
+
+/**
+ * pre-event(time-shift) buffer that keeps the latest compressed(MJPEG) frames
+ * in a ring of preallocated memory mapped segment files.
+ * when the current segment is full, the oldest segment is overwritten.
+ * #exportLast copies the last N seconds to a file while frames are still appended.
+ */
+class PreEventBufferPipeline : virtual public AbstractBufferedPipeline {
+private:
+	const size_t segment_bytes;
+	const int num_segments;
+	mutable Mutex index_mutex;
+	pre_event_segment_t segments[PRE_EVENT_MAX_SEGMENTS];
+	int current;				// index of the segment that frames are appended to
+	uint32_t total_frames;		// frames in all segments
+	uint32_t dropped_frames;	// frames that were not MJPEG, too large or the next segment was being exported
+	uint32_t num_exports;
+	void free_segments();
+	void reset_segment(pre_event_segment_t &segment);
+	bool append(uvc_frame_t *frame);
+protected:
+	virtual void on_start();
+	virtual void on_stop();
+	virtual int handle_frame(uvc_frame_t *frame);
+public:
+	PreEventBufferPipeline(const size_t &segment_bytes, const int &num_segments);
+	virtual ~PreEventBufferPipeline();
+	int init(const char *dir);
+	int exportLast(const char *path, const int64_t &duration_ns);
+	char *getStats();
+};
+
+#endif /* PREEVENTBUFFERPIPELINE_H_ */
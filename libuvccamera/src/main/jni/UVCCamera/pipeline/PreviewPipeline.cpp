@@ -13,6 +13,7 @@
 	#undef NDEBUG		// depends on definition in Android.mk and Application.mk
 #endif
 
+#include <string.h>
 #include <android/native_window_jni.h>
 
 #include "utilbase.h"
@@ -60,7 +61,7 @@ static void copyFrame(const uint8_t *src, uint8_t *dest, const int width, int he
 		memcpy(dest, src, width);
 		dest += stride_dest; src += stride_src;
 	}
-	for (int i = 0; i < height; i += 8) {
+	for (int i = h8; i < height; i += 8) {
 		memcpy(dest, src, width);
 		dest += stride_dest; src += stride_src;
 		memcpy(dest, src, width);
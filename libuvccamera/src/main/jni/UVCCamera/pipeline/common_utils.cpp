@@ -0,0 +1,82 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: common_utils.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#include "utilbase.h"
+#include "common_utils.h"
+
+/**
+ * set the value into the long field
+ * @param env: this param should not be null
+ * @param java_obj: this param should not be null
+ * @param field_name
+ * @params val
+ */
+jlong setField_long(JNIEnv *env, jobject java_obj, const char *field_name, jlong val) {
+	jclass clazz = env->GetObjectClass(java_obj);
+	jfieldID field = env->GetFieldID(clazz, field_name, "J");
+	if (LIKELY(field)) {
+		env->SetLongField(java_obj, field, val);
+	} else {
+		LOGE("setField_long:field '%s' not found", field_name);
+		env->ExceptionClear();	// clear java.lang.NoSuchFieldError exception
+	}
+	env->DeleteLocalRef(clazz);
+	return val;
+}
+
+/**
+ * get the value of the long field
+ * @return 0 if the field does not exist
+ */
+jlong getField_long(JNIEnv *env, jobject java_obj, const char *field_name) {
+	jlong result = 0;
+	jclass clazz = env->GetObjectClass(java_obj);
+	jfieldID field = env->GetFieldID(clazz, field_name, "J");
+	if (LIKELY(field)) {
+		result = env->GetLongField(java_obj, field);
+	} else {
+		LOGE("getField_long:field '%s' not found", field_name);
+		env->ExceptionClear();
+	}
+	env->DeleteLocalRef(clazz);
+	return result;
+}
+
+/**
+ * get the value of the int field
+ * @return 0 if the field does not exist
+ */
+jint getField_int(JNIEnv *env, jobject java_obj, const char *field_name) {
+	jint result = 0;
+	jclass clazz = env->GetObjectClass(java_obj);
+	jfieldID field = env->GetFieldID(clazz, field_name, "I");
+	if (LIKELY(field)) {
+		result = env->GetIntField(java_obj, field);
+	} else {
+		LOGE("getField_int:field '%s' not found", field_name);
+		env->ExceptionClear();
+	}
+	env->DeleteLocalRef(clazz);
+	return result;
+}
@@ -3,17 +3,25 @@
 //
 
 #include "utilbase.h"
-#include "Timers.h"
 #include "SimpleBufferedPipeline.h"
-#include "SQLiteBufferedPipeline.h"
-#include "UVCCameraControl.h"
 #include "CallbackPipeline.h"
 #include "ConvertPipeline.h"
 #include "PreviewPipeline.h"
-#include "PublisherPipeline.h"
 #include "DistributePipeline.h"
+#include "PreEventBufferPipeline.h"
+#include "MjpegRecordPipeline.h"
 #include "pipeline_helper.h"
 
+// PublisherPipeline(ZeroMQ), SQLiteBufferedPipeline(SQLite) and UVCCameraControl
+// depend on libraries that are not in this project and they are not built.
+extern int register_simple_buffered_pipeline(JNIEnv *env);
+extern int register_callback_pipeline(JNIEnv *env);
+extern int register_convert_pipeline(JNIEnv *env);
+extern int register_preview_pipeline(JNIEnv *env);
+extern int register_distribute_pipeline(JNIEnv *env);
+extern int register_pre_event_buffer_pipeline(JNIEnv *env);
+extern int register_mjpeg_record_pipeline(JNIEnv *env);
+
 IPipeline *getPipeline(JNIEnv *env, jobject pipeline_obj) {
 	ENTER();
 
@@ -26,12 +34,6 @@ IPipeline *getPipeline(JNIEnv *env, jobject pipeline_obj) {
 		case PIPELINE_TYPE_SIMPLE_BUFFERED:
 			result = reinterpret_cast<SimpleBufferedPipeline *>(id_pipeline);
 			break;
-		case PIPELINE_TYPE_SQLITE_BUFFERED:
-			result = reinterpret_cast<SQLiteBufferedPipeline *>(id_pipeline);
-			break;
-		case PIPELINE_TYPE_UVC_CONTROL:
-			result = reinterpret_cast<UVCCameraControl *>(id_pipeline);
-			break;
 		case PIPELINE_TYPE_CALLBACK:
 			result = reinterpret_cast<CallbackPipeline *>(id_pipeline);
 			break;
@@ -41,12 +43,15 @@ IPipeline *getPipeline(JNIEnv *env, jobject pipeline_obj) {
 		case PIPELINE_TYPE_PREVIEW:
 			result = reinterpret_cast<PreviewPipeline *>(id_pipeline);
 			break;
-		case PIPELINE_TYPE_PUBLISHER:
-			result = reinterpret_cast<PublisherPipeline *>(id_pipeline);
-			break;
 		case PIPELINE_TYPE_DISTRIBUTE:
 			result = reinterpret_cast<DistributePipeline *>(id_pipeline);
 			break;
+		case PIPELINE_TYPE_PRE_EVENT_BUFFER:
+			result = reinterpret_cast<PreEventBufferPipeline *>(id_pipeline);
+			break;
+		case PIPELINE_TYPE_MJPEG_RECORD:
+			result = reinterpret_cast<MjpegRecordPipeline *>(id_pipeline);
+			break;
 		default:
 			result = NULL;
 			break;
@@ -54,3 +59,18 @@ IPipeline *getPipeline(JNIEnv *env, jobject pipeline_obj) {
 
 	RETURN(result, IPipeline *);
 }
+
+int register_pipelines(JNIEnv *env) {
+	ENTER();
+
+	int result = 0;
+	result |= register_simple_buffered_pipeline(env);
+	result |= register_callback_pipeline(env);
+	result |= register_convert_pipeline(env);
+	result |= register_preview_pipeline(env);
+	result |= register_distribute_pipeline(env);
+	result |= register_pre_event_buffer_pipeline(env);
+	result |= register_mjpeg_record_pipeline(env);
+
+	RETURN(result, int);
+}
@@ -10,5 +10,6 @@
 #include "IPipeline.h"
 
 IPipeline *getPipeline(JNIEnv *env, jobject pipeline_obj);
+int register_pipelines(JNIEnv *env);
 
 #endif //PUPILMOBILE_PIPELINE_HELPER_H_H
@@ -0,0 +1,147 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: serenegiant_usb_JpegEncoder.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#if 1	// set 1 if you don't need debug message
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// ignore LOGV/LOGD/MARK
+	#endif
+	#undef USE_LOGALL
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+	#undef NDEBUG		// depends on definition in Android.mk and Application.mk
+#endif
+
+#include <jni.h>
+
+#include "utilbase.h"
+#include "common_utils.h"
+#include "libUVCCamera.h"
+#include "libuvc/libuvc.h"
+#include "JpegEncoder.h"
+
+//**********************************************************************
+//
+//**********************************************************************
+static ID_TYPE nativeCreate(JNIEnv *env, jobject thiz) {
+
+	ENTER();
+	JpegEncoder *encoder = new JpegEncoder();
+	setField_long(env, thiz, "mNativePtr", reinterpret_cast<ID_TYPE>(encoder));
+	RETURN(reinterpret_cast<ID_TYPE>(encoder), ID_TYPE);
+}
+
+static void nativeDestroy(JNIEnv *env, jobject thiz,
+	ID_TYPE id_encoder) {
+
+	ENTER();
+	setField_long(env, thiz, "mNativePtr", 0);
+	JpegEncoder *encoder = reinterpret_cast<JpegEncoder *>(id_encoder);
+	SAFE_DELETE(encoder);
+	EXIT();
+}
+
+/**
+ * encode from direct ByteBuffer into direct ByteBuffer without copying
+ */
+static jint nativeEncode(JNIEnv *env, jobject thiz,
+	ID_TYPE id_encoder, jobject src_buf, jint width, jint height, jint format,
+	jobject dst_buf, jint quality, jint subsampling) {
+
+	ENTER();
+	jint result = UVC_ERROR_INVALID_PARAM;
+	JpegEncoder *encoder = reinterpret_cast<JpegEncoder *>(id_encoder);
+	if (LIKELY(encoder && src_buf && dst_buf)) {
+		const uint8_t *src = (const uint8_t *)env->GetDirectBufferAddress(src_buf);
+		const jlong src_bytes = env->GetDirectBufferCapacity(src_buf);
+		uint8_t *dst = (uint8_t *)env->GetDirectBufferAddress(dst_buf);
+		const jlong dst_bytes = env->GetDirectBufferCapacity(dst_buf);
+		if (LIKELY(src && dst
+			&& (src_bytes >= (jlong)JpegEncoder::getFrameBytes(width, height, format)))) {
+
+			result = encoder->encode(src, width, height, format, dst, dst_bytes, quality, subsampling);
+		}
+	}
+	RETURN(result, jint);
+}
+
+/**
+ * encode from byte array into byte array.
+ * arrays are pinned while encoding, so this may block GC for a few milliseconds
+ */
+static jint nativeEncodeArray(JNIEnv *env, jobject thiz,
+	ID_TYPE id_encoder, jbyteArray src_array, jint width, jint height, jint format,
+	jbyteArray dst_array, jint quality, jint subsampling) {
+
+	ENTER();
+	jint result = UVC_ERROR_INVALID_PARAM;
+	JpegEncoder *encoder = reinterpret_cast<JpegEncoder *>(id_encoder);
+	if (LIKELY(encoder && src_array && dst_array)) {
+		const jsize src_bytes = env->GetArrayLength(src_array);
+		const jsize dst_bytes = env->GetArrayLength(dst_array);
+		if (LIKELY(src_bytes >= (jsize)JpegEncoder::getFrameBytes(width, height, format))) {
+			uint8_t *src = (uint8_t *)env->GetPrimitiveArrayCritical(src_array, NULL);
+			uint8_t *dst = (uint8_t *)env->GetPrimitiveArrayCritical(dst_array, NULL);
+			if (LIKELY(src && dst)) {
+				result = encoder->encode(src, width, height, format, dst, dst_bytes, quality, subsampling);
+			} else {
+				result = UVC_ERROR_NO_MEM;
+			}
+			// release in reverse order, JNI_ABORT because source is not modified
+			if (dst) env->ReleasePrimitiveArrayCritical(dst_array, dst, 0);
+			if (src) env->ReleasePrimitiveArrayCritical(src_array, src, JNI_ABORT);
+		}
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeGetMaxBytes(JNIEnv *env, jclass clazz,
+	jint width, jint height, jint subsampling) {
+
+	ENTER();
+	const size_t bytes = JpegEncoder::getMaxBytes(width, height, subsampling);
+	RETURN(bytes <= 0x7fffffff ? (jint)bytes : 0, jint);
+}
+
+//**********************************************************************
+//
+//**********************************************************************
+static JNINativeMethod methods[] = {
+	{ "nativeCreate",					"()J", (void *) nativeCreate },
+	{ "nativeDestroy",					"(J)V", (void *) nativeDestroy },
+
+	{ "nativeEncode",					"(JLjava/nio/ByteBuffer;IIILjava/nio/ByteBuffer;II)I", (void *) nativeEncode },
+	{ "nativeEncodeArray",				"(J[BIII[BII)I", (void *) nativeEncodeArray },
+	{ "nativeGetMaxBytes",				"(III)I", (void *) nativeGetMaxBytes },
+};
+
+int register_jpeg_encoder(JNIEnv *env) {
+	LOGV("register_jpeg_encoder:");
+	if (registerNativeMethods(env,
+		"com/serenegiant/usb/JpegEncoder",
+		methods, NUM_ARRAY_ELEMENTS(methods)) < 0) {
+		return -1;
+	}
+    return 0;
+}
@@ -38,6 +38,7 @@
 
 #include "libUVCCamera.h"
 #include "UVCCamera.h"
+#include "pipeline_helper.h"
 
 /**
  * set the value into the long field
@@ -264,18 +265,67 @@ static jint nativeSetPreviewDisplay(JNIEnv *env, jobject thiz,
 }
 
 static jint nativeSetFrameCallback(JNIEnv *env, jobject thiz,
-	ID_TYPE id_camera, jobject jIFrameCallback, jint pixel_format) {
+	ID_TYPE id_camera, jobject jIFrameCallback, jint pixel_format, jint scale_denom) {
 
 	jint result = JNI_ERR;
 	ENTER();
 	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
 	if (LIKELY(camera)) {
 		jobject frame_callback_obj = env->NewGlobalRef(jIFrameCallback);
-		result = camera->setFrameCallback(env, frame_callback_obj, pixel_format);
+		result = camera->setFrameCallback(env, frame_callback_obj, pixel_format, scale_denom);
 	}
 	RETURN(result, jint);
 }
 
+static jint nativeSetPipeline(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jobject pipeline_obj) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		IPipeline *pipeline = getPipeline(env, pipeline_obj);
+		result = camera->setPipeline(pipeline);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeSetFrameReader(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jobject jFrameReader, jint pixel_format, jint scale_denom,
+	jint max_frames, jint drop_policy) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		jobject frame_reader_obj = env->NewGlobalRef(jFrameReader);
+		result = camera->setFrameReader(env, frame_reader_obj, pixel_format, scale_denom, max_frames, drop_policy);
+	}
+	RETURN(result, jint);
+}
+
+static jobject nativeAcquireReaderFrame(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jboolean latest, jobject info) {
+
+	jobject result = NULL;
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->acquireReaderFrame(env, latest, info);
+	}
+	return result;
+}
+
+static jint nativeReleaseReaderFrame(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jobject buffer) {
+
+	jint result = JNI_ERR;
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->releaseReaderFrame(env, buffer);
+	}
+	return result;
+}
+
 static jint nativeSetCaptureDisplay(JNIEnv *env, jobject thiz,
 	ID_TYPE id_camera, jobject jSurface) {
 
@@ -289,6 +339,277 @@ static jint nativeSetCaptureDisplay(JNIEnv *env, jobject thiz,
 	RETURN(result, jint);
 }
 
+static jint nativeSetZeroCopy(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jboolean zero_copy) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->setZeroCopy(zero_copy);
+	}
+	RETURN(result, jint);
+}
+
+static jlong nativeGetCopiedBytes(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	jlong result = 0;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->getCopiedBytes();
+	}
+	RETURN(result, jlong);
+}
+
+static jlong nativeGetCopiedFrames(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	jlong result = 0;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->getCopiedFrames();
+	}
+	RETURN(result, jlong);
+}
+
+static jint nativeSetDecodeThreads(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint num_threads) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->setDecodeThreads(num_threads);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeSetStripeDecodeThreads(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint num_threads) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->setStripeDecodeThreads(num_threads);
+	}
+	RETURN(result, jint);
+}
+
+static jfloat nativeGetDecodeFps(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	jfloat result = 0;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->getDecodeFps();
+	}
+	RETURN(result, jfloat);
+}
+
+static jobject nativeGetPipelineStats(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	ENTER();
+	jstring result = NULL;
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		char *c_str = camera->getPipelineStats();
+		if (LIKELY(c_str)) {
+			result = env->NewStringUTF(c_str);
+			free(c_str);
+		}
+	}
+	RETURN(result, jobject);
+}
+
+static jint nativeSetFrameDropCallback(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jobject jIFrameDropCallback, jint interval_ms) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		jobject frame_drop_callback_obj = env->NewGlobalRef(jIFrameDropCallback);
+		result = camera->setFrameDropCallback(env, frame_drop_callback_obj, interval_ms);
+	}
+	RETURN(result, jint);
+}
+
+static jintArray nativeGetFrameDrops(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	ENTER();
+	jintArray result = NULL;
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		uint32_t drops[NUM_DROP_REASONS];
+		if (!camera->getFrameDrops(drops)) {
+			result = env->NewIntArray(NUM_DROP_REASONS);
+			if (LIKELY(result)) {
+				env->SetIntArrayRegion(result, 0, NUM_DROP_REASONS, (const jint *)drops);
+			}
+		}
+	}
+	RETURN(result, jintArray);
+}
+
+static jint nativeSetTransferCount(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint num_transfers) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->setTransferCount(num_transfers);
+	}
+	RETURN(result, jint);
+}
+
+static jobject nativeGetMemoryUsage(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	ENTER();
+	jstring result = NULL;
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		char *c_str = camera->getMemoryUsage();
+		if (LIKELY(c_str)) {
+			result = env->NewStringUTF(c_str);
+			free(c_str);
+		}
+	}
+	RETURN(result, jobject);
+}
+
+static jint nativeCaptureStill(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jstring path_str, jint timeout_ms) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera && path_str)) {
+		const char *c_path = env->GetStringUTFChars(path_str, JNI_FALSE);
+		result = camera->captureStill(c_path, timeout_ms);
+		env->ReleaseStringUTFChars(path_str, c_path);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeStartBurst(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jstring dir_str, jint num_frames, jint duration_ms, jint quality, jint num_threads) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera && dir_str)) {
+		const char *c_dir = env->GetStringUTFChars(dir_str, JNI_FALSE);
+		result = camera->startBurst(c_dir, num_frames, duration_ms, quality, num_threads);
+		env->ReleaseStringUTFChars(dir_str, c_dir);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeWaitBurst(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint timeout_ms) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->waitBurst(timeout_ms);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeStopBurst(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->stopBurst();
+	}
+	RETURN(result, jint);
+}
+
+static jobject nativeGetBurstStats(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	ENTER();
+	jstring result = NULL;
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		char *c_str = camera->getBurstStats();
+		if (LIKELY(c_str)) {
+			result = env->NewStringUTF(c_str);
+			free(c_str);
+		}
+	}
+	RETURN(result, jobject);
+}
+
+static jint nativeSetPayloadRecording(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jstring path_str) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		const char *c_path = path_str ? env->GetStringUTFChars(path_str, JNI_FALSE) : NULL;
+		result = camera->setPayloadRecording(c_path);
+		if (c_path) {
+			env->ReleaseStringUTFChars(path_str, c_path);
+		}
+	}
+	RETURN(result, jint);
+}
+
+static jobject nativeGetBandwidthInfo(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	ENTER();
+	jstring result = NULL;
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		char *c_str = camera->getBandwidthInfo();
+		if (LIKELY(c_str)) {
+			result = env->NewStringUTF(c_str);
+			free(c_str);
+		}
+	}
+	RETURN(result, jobject);
+}
+
+static jint nativeSetBandwidthLimit(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint bytes_per_interval) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->setBandwidthLimit(bytes_per_interval);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeGetReorderDepth(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	jint result = 0;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->getReorderDepth();
+	}
+	RETURN(result, jint);
+}
+
 //======================================================================
 // カメラコントロールでサポートしている機能を取得する
 static jlong nativeGetCtrlSupports(JNIEnv *env, jobject thiz,
@@ -2027,9 +2348,33 @@ static JNINativeMethod methods[] = {
 	{ "nativeStartPreview",				"(J)I", (void *) nativeStartPreview },
 	{ "nativeStopPreview",				"(J)I", (void *) nativeStopPreview },
 	{ "nativeSetPreviewDisplay",		"(JLandroid/view/Surface;)I", (void *) nativeSetPreviewDisplay },
-	{ "nativeSetFrameCallback",			"(JLcom/serenegiant/usb/IFrameCallback;I)I", (void *) nativeSetFrameCallback },
+	{ "nativeSetFrameCallback",			"(JLjava/lang/Object;II)I", (void *) nativeSetFrameCallback },
+	{ "nativeSetPipeline",				"(JLcom/serenegiant/usb/IPipeline;)I", (void *) nativeSetPipeline },
+	{ "nativeSetFrameReader",			"(JLcom/serenegiant/usb/FrameReader;IIII)I", (void *) nativeSetFrameReader },
+	{ "nativeAcquireReaderFrame",		"(JZLcom/serenegiant/usb/FrameInfo;)Ljava/nio/ByteBuffer;", (void *) nativeAcquireReaderFrame },
+	{ "nativeReleaseReaderFrame",		"(JLjava/nio/ByteBuffer;)I", (void *) nativeReleaseReaderFrame },
 
 	{ "nativeSetCaptureDisplay",		"(JLandroid/view/Surface;)I", (void *) nativeSetCaptureDisplay },
+	{ "nativeSetZeroCopy",				"(JZ)I", (void *) nativeSetZeroCopy },
+	{ "nativeGetCopiedBytes",			"(J)J", (void *) nativeGetCopiedBytes },
+	{ "nativeGetCopiedFrames",			"(J)J", (void *) nativeGetCopiedFrames },
+	{ "nativeSetDecodeThreads",			"(JI)I", (void *) nativeSetDecodeThreads },
+	{ "nativeSetStripeDecodeThreads",	"(JI)I", (void *) nativeSetStripeDecodeThreads },
+	{ "nativeGetDecodeFps",				"(J)F", (void *) nativeGetDecodeFps },
+	{ "nativeGetReorderDepth",			"(J)I", (void *) nativeGetReorderDepth },
+	{ "nativeGetPipelineStats",			"(J)Ljava/lang/String;", (void *) nativeGetPipelineStats },
+	{ "nativeSetFrameDropCallback",		"(JLcom/serenegiant/usb/IFrameDropCallback;I)I", (void *) nativeSetFrameDropCallback },
+	{ "nativeGetFrameDrops",			"(J)[I", (void *) nativeGetFrameDrops },
+	{ "nativeSetTransferCount",			"(JI)I", (void *) nativeSetTransferCount },
+	{ "nativeGetMemoryUsage",			"(J)Ljava/lang/String;", (void *) nativeGetMemoryUsage },
+	{ "nativeCaptureStill",				"(JLjava/lang/String;I)I", (void *) nativeCaptureStill },
+	{ "nativeStartBurst",				"(JLjava/lang/String;IIII)I", (void *) nativeStartBurst },
+	{ "nativeWaitBurst",				"(JI)I", (void *) nativeWaitBurst },
+	{ "nativeStopBurst",				"(J)I", (void *) nativeStopBurst },
+	{ "nativeGetBurstStats",			"(J)Ljava/lang/String;", (void *) nativeGetBurstStats },
+	{ "nativeSetPayloadRecording",		"(JLjava/lang/String;)I", (void *) nativeSetPayloadRecording },
+	{ "nativeGetBandwidthInfo",			"(J)Ljava/lang/String;", (void *) nativeGetBandwidthInfo },
+	{ "nativeSetBandwidthLimit",		"(JI)I", (void *) nativeSetBandwidthLimit },
 
 	{ "nativeGetCtrlSupports",			"(J)J", (void *) nativeGetCtrlSupports },
 	{ "nativeGetProcSupports",			"(J)J", (void *) nativeGetProcSupports },
@@ -0,0 +1,205 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: spscring.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef SPSCRING_H_
+#define SPSCRING_H_
+
+#include <stdint.h>
+#include <pthread.h>
+#include "utilbase.h"
+
+#define SPSC_DROP_NEWEST 0		// put fails and returns the new object when full
+#define SPSC_DROP_OLDEST 1		// put evicts and returns the oldest object when full
+
+#define SPSC_CACHE_LINE 64
+
+/**
+ * bounded lock-free ring buffer for one producer thread and one consumer thread.
+ * T should be a pointer type and NULL is used as "no object".
+ * put/get never take a lock, the mutex/condition are only used
+ * to park the consumer while the ring is empty and only touched by the producer
+ * when the consumer is actually parked.
+ */
+template <class T>
+class SPSCRing {
+private:
+	T *m_elements;
+	uint32_t m_capacity;
+	uint32_t m_mask;
+	const int m_policy;
+	// padding is used instead of aligned attribute because heap allocation
+	// with new does not honor over-aligned type before C++17
+	uint8_t m_pad0[SPSC_CACHE_LINE];
+	// read position, advanced by consumer (and by producer when evicting with SPSC_DROP_OLDEST)
+	volatile uint32_t m_head;
+	uint8_t m_pad1[SPSC_CACHE_LINE];
+	// write position, advanced only by producer
+	volatile uint32_t m_tail;
+	uint8_t m_pad2[SPSC_CACHE_LINE];
+	volatile int m_waiting;
+	int m_interrupted;
+	pthread_mutex_t m_mutex;
+	pthread_cond_t m_sync;
+
+	void notify() {
+		// pairs with the store to m_waiting in #wait
+		__atomic_thread_fence(__ATOMIC_SEQ_CST);
+		if (UNLIKELY(__atomic_load_n(&m_waiting, __ATOMIC_SEQ_CST))) {
+			pthread_mutex_lock(&m_mutex);
+			pthread_cond_signal(&m_sync);
+			pthread_mutex_unlock(&m_mutex);
+		}
+	}
+public:
+	/**
+	 * @param capacity will be rounded up to power of 2
+	 * @param policy SPSC_DROP_NEWEST or SPSC_DROP_OLDEST
+	 */
+	SPSCRing(int capacity = 4, int policy = SPSC_DROP_NEWEST)
+		: m_elements(NULL),
+		  m_capacity(1),
+		  m_mask(0),
+		  m_policy(policy),
+		  m_head(0),
+		  m_tail(0),
+		  m_waiting(0),
+		  m_interrupted(0) {
+
+		for (; (int)m_capacity < capacity ;) m_capacity <<= 1;
+		m_mask = m_capacity - 1;
+		m_elements = new T[m_capacity];
+		for (uint32_t i = 0; i < m_capacity; i++) {
+			m_elements[i] = NULL;
+		}
+		pthread_mutex_init(&m_mutex, NULL);
+		pthread_cond_init(&m_sync, NULL);
+	}
+
+	~SPSCRing() {
+		SAFE_DELETE_ARRAY(m_elements);
+		pthread_cond_destroy(&m_sync);
+		pthread_mutex_destroy(&m_mutex);
+	}
+
+	inline int capacity() const { return m_capacity; }
+	inline int policy() const { return m_policy; }
+	inline int size() const {
+		return (int)(__atomic_load_n(&m_tail, __ATOMIC_SEQ_CST) - __atomic_load_n(&m_head, __ATOMIC_SEQ_CST));
+	}
+	inline bool isEmpty() const { return size() <= 0; }
+
+	/**
+	 * add object, call only from producer thread
+	 * @return NULL if object was queued without drop,
+	 * 	otherwise dropped object(new one for SPSC_DROP_NEWEST, oldest one for SPSC_DROP_OLDEST)
+	 * 	and the caller is responsible to release it
+	 */
+	T put(T object) {
+		T dropped = NULL;
+		const uint32_t tail = __atomic_load_n(&m_tail, __ATOMIC_RELAXED);
+		for (;;) {
+			uint32_t head = __atomic_load_n(&m_head, __ATOMIC_ACQUIRE);
+			if (LIKELY(tail - head < m_capacity)) break;
+			if (m_policy == SPSC_DROP_NEWEST) {
+				return object;
+			}
+			// evict oldest, this may race with consumer's #get, retry if consumer won
+			T oldest = __atomic_load_n(&m_elements[head & m_mask], __ATOMIC_RELAXED);
+			if (__atomic_compare_exchange_n(&m_head, &head, head + 1, false,
+				__ATOMIC_ACQ_REL, __ATOMIC_ACQUIRE)) {
+
+				dropped = oldest;
+				break;
+			}
+		}
+		__atomic_store_n(&m_elements[tail & m_mask], object, __ATOMIC_RELAXED);
+		__atomic_store_n(&m_tail, tail + 1, __ATOMIC_RELEASE);
+		notify();
+		return dropped;
+	}
+
+	/**
+	 * get oldest object without blocking, call only from consumer thread
+	 * @return NULL if empty
+	 */
+	T get() {
+		for (;;) {
+			uint32_t head = __atomic_load_n(&m_head, __ATOMIC_ACQUIRE);
+			const uint32_t tail = __atomic_load_n(&m_tail, __ATOMIC_ACQUIRE);
+			if (head == tail) return NULL;
+			T object = __atomic_load_n(&m_elements[head & m_mask], __ATOMIC_RELAXED);
+			if (m_policy == SPSC_DROP_NEWEST) {
+				// only consumer advances m_head
+				__atomic_store_n(&m_head, head + 1, __ATOMIC_RELEASE);
+				return object;
+			}
+			if (__atomic_compare_exchange_n(&m_head, &head, head + 1, false,
+				__ATOMIC_ACQ_REL, __ATOMIC_ACQUIRE)) {
+				return object;
+			}
+		}
+	}
+
+	/**
+	 * get oldest object, if empty, block until producer put new one or #wakeup is called.
+	 * call only from consumer thread.
+	 * @return NULL if woken up by #wakeup
+	 */
+	T wait() {
+		T object = get();
+		if (!object) {
+			pthread_mutex_lock(&m_mutex);
+			{
+				__atomic_store_n(&m_waiting, 1, __ATOMIC_SEQ_CST);
+				if (isEmpty() && !m_interrupted) {
+					pthread_cond_wait(&m_sync, &m_mutex);
+				}
+				__atomic_store_n(&m_waiting, 0, __ATOMIC_SEQ_CST);
+				object = get();
+				// keep the wakeup request if we got an object, it will be consumed by next #wait
+				if (!object) {
+					m_interrupted = 0;
+				}
+			}
+			pthread_mutex_unlock(&m_mutex);
+		}
+		return object;
+	}
+
+	/**
+	 * release consumer blocking in #wait, can call from any thread.
+	 * if the consumer is not blocking now, next #wait returns immediately
+	 */
+	void wakeup() {
+		pthread_mutex_lock(&m_mutex);
+		{
+			m_interrupted = 1;
+			pthread_cond_broadcast(&m_sync);
+		}
+		pthread_mutex_unlock(&m_mutex);
+	}
+};
+
+#endif	// SPSCRING_H_
@@ -0,0 +1,163 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: burst_capture_bench.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+/*
+ * host side benchmark of BurstCapture(BurstCapture.cpp).
+ * synthetic YUYV or MJPEG frames are handed over at the given frame rate like the capture thread
+ * of UVCPreview and reports time that the capture thread spends for each frame,
+ * dropped frames and time until all frames are written.
+ *
+ * build & run on host(from jni directory, libjpeg-turbo including turbojpeg.c should be built
+ * for host as libturbojpeg.a):
+ *   gcc -O2 -std=gnu99 -c -I. -Ilibusb -Ilibuvc/include -Ilibjpeg-turbo-1.5.0 -Ilibjpeg-turbo-1.5.0/include \
+ *       -I$JAVA_HOME/include -I$JAVA_HOME/include/linux \
+ *       libuvc/src/frame.c libuvc/src/frame-simd.c libuvc/src/frame-mjpeg.c
+ *   g++ -O2 -std=gnu++11 -pthread -DLOG_NDEBUG -I. -IUVCCamera -Ilibusb -Ilibuvc/include \
+ *       -Ilibjpeg-turbo-1.5.0 -Ilibjpeg-turbo-1.5.0/include -Irapidjson/include \
+ *       -I$JAVA_HOME/include -I$JAVA_HOME/include/linux -Wl,--gc-sections \
+ *       UVCCamera/test/burst_capture_bench.cpp UVCCamera/BurstCapture.cpp UVCCamera/JpegEncoder.cpp \
+ *       frame.o frame-simd.o frame-mjpeg.o libturbojpeg.a -lm -o burst_capture_bench
+ *   ./burst_capture_bench [frames=30] [fps=30] [threads=2] [dir=/tmp]
+ */
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <math.h>
+#include <time.h>
+#include <unistd.h>
+
+#include "libuvc/libuvc.h"
+#include "turbojpeg.h"
+#include "BurstCapture.h"
+
+static inline int64_t now_ns() {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (int64_t)ts.tv_sec * 1000000000LL + ts.tv_nsec;
+}
+
+/** synthetic YUYV frame like usual UVC camera */
+static uvc_frame_t *make_yuyv(int width, int height) {
+	uvc_frame_t *frame = uvc_allocate_frame(width * height * 2);
+	uint8_t *p = (uint8_t *)frame->data;
+	for (int y = 0; y < height; y++) {
+		for (int x = 0; x < width; x += 2, p += 4) {
+			p[0] = (uint8_t)(16 + ((x + y) % 220));
+			p[1] = (uint8_t)(128 + 100 * sin((x + y * 2) / 40.0));
+			p[2] = (uint8_t)(16 + ((x + 1 + y) % 220));
+			p[3] = (uint8_t)((x * x + y * 3) >> 4);
+		}
+	}
+	frame->width = width;
+	frame->height = height;
+	frame->step = width * 2;
+	frame->frame_format = UVC_FRAME_FORMAT_YUYV;
+	return frame;
+}
+
+/** MJPEG frame without Huffman tables is not needed here, libjpeg-turbo output is used as is */
+static uvc_frame_t *make_mjpeg(uvc_frame_t *yuyv) {
+	tjhandle tj = tjInitCompress();
+	uint8_t *rgbx = (uint8_t *)malloc(yuyv->width * yuyv->height * 4);
+	uvc_frame_t tmp = *yuyv;
+	uvc_frame_t *rgbx_frame = uvc_allocate_frame(yuyv->width * yuyv->height * 4);
+	uvc_yuyv2rgbx(&tmp, rgbx_frame);
+	unsigned char *jpeg = NULL;
+	unsigned long jpeg_bytes = 0;
+	tjCompress2(tj, (uint8_t *)rgbx_frame->data, yuyv->width, yuyv->width * 4, yuyv->height, TJPF_RGBX,
+		&jpeg, &jpeg_bytes, TJSAMP_422, 85, 0);
+	uvc_frame_t *frame = uvc_allocate_frame(jpeg_bytes);
+	memcpy(frame->data, jpeg, jpeg_bytes);
+	frame->width = yuyv->width;
+	frame->height = yuyv->height;
+	frame->step = 0;
+	frame->frame_format = UVC_FRAME_FORMAT_MJPEG;
+	tjFree(jpeg);
+	uvc_free_frame(rgbx_frame);
+	free(rgbx);
+	tjDestroy(tj);
+	return frame;
+}
+
+static void bench(const char *name, BurstCapture &burst, uvc_frame_t *frame,
+	int frames, int fps, int threads, const char *dir) {
+
+	const size_t slot_bytes = frame->width * frame->height * 2;
+	const int64_t interval = fps > 0 ? 1000000000LL / fps : 0;
+	int64_t start = now_ns();
+	if (burst.start(dir, frames, 0, 90, threads, slot_bytes)) {
+		printf("%s: failed to start\n", name);
+		return;
+	}
+	const int64_t alloc_ms = (now_ns() - start) / 1000000LL;
+	int64_t max_hand_over = 0, sum_hand_over = 0;
+	int handed = 0;
+	start = now_ns();
+	for (uint32_t seq = 1; burst.isArmed(); seq++) {
+		const int64_t t = now_ns();
+		frame->sequence = seq;
+		frame->capture_time_ns = t;
+		burst.handOverFrame(frame);
+		const int64_t d = now_ns() - t;
+		sum_hand_over += d;
+		if (d > max_hand_over) max_hand_over = d;
+		handed++;
+		if (interval) {
+			const int64_t next = start + interval * handed;
+			const int64_t wait = next - now_ns();
+			if (wait > 0) usleep(wait / 1000);
+		}
+	}
+	const int64_t captured = now_ns();
+	const int written = burst.wait(10000);
+	const int64_t finished = now_ns();
+	char *stats = burst.getStats();
+	printf("%s %dx%d: slots %lldms, hand-over avg %.2fms max %.2fms, capture %lldms, written %d frames %lldms after last frame\n  %s\n",
+		name, frame->width, frame->height, (long long)alloc_ms,
+		sum_hand_over / 1000000.0 / handed, max_hand_over / 1000000.0,
+		(long long)((captured - start) / 1000000LL), written,
+		(long long)((finished - captured) / 1000000LL), stats);
+	free(stats);
+}
+
+int main(int argc, char **argv) {
+	const int frames = argc > 1 ? atoi(argv[1]) : 30;
+	const int fps = argc > 2 ? atoi(argv[2]) : 30;
+	const int threads = argc > 3 ? atoi(argv[3]) : 2;
+	const char *dir = argc > 4 ? argv[4] : "/tmp";
+	static const int sizes[][2] = { { 640, 480 }, { 1280, 720 }, { 1920, 1080 } };
+
+	printf("frames=%d, fps=%d, threads=%d, dir=%s\n", frames, fps, threads, dir);
+	BurstCapture burst;
+	for (int i = 0; i < (int)(sizeof(sizes) / sizeof(sizes[0])); i++) {
+		uvc_frame_t *yuyv = make_yuyv(sizes[i][0], sizes[i][1]);
+		uvc_frame_t *mjpeg = make_mjpeg(yuyv);
+		bench("YUYV ", burst, yuyv, frames, fps, threads, dir);
+		bench("MJPEG", burst, mjpeg, frames, fps, threads, dir);
+		uvc_free_frame(yuyv);
+		uvc_free_frame(mjpeg);
+	}
+	return 0;
+}
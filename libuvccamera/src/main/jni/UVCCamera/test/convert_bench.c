@@ -0,0 +1,232 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: convert_bench.c
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+/*
+ * host side benchmark of drawing preview frame into the Surface.
+ * compares the path that UVCPreview#draw_preview_one used before
+ * (convert into intermediate RGBX/RGB565 frame, then copy it row by row into window buffer)
+ * with the stride aware converters that write into window buffer directly(uvc_xxx_to).
+ * window buffer is emulated with heap memory whose stride is aligned to WINDOW_ALIGN pixels.
+ * output of both paths are also compared. when the width is not a multiple of 8,
+ * old converters stop at the last 8 pixel block of the frame and their last row is incomplete.
+ *
+ * build & run on host(from jni directory, libjpeg-turbo should be built for host as libjpeg.a):
+ *   gcc -O2 -std=gnu99 -DLOG_NDEBUG -I. -Ilibusb -Ilibuvc/include -Ilibjpeg-turbo-1.5.0 \
+ *       -Ilibjpeg-turbo-1.5.0/include -I$JAVA_HOME/include -I$JAVA_HOME/include/linux \
+ *       UVCCamera/test/convert_bench.c libuvc/src/frame.c libuvc/src/frame-simd.c \
+ *       libuvc/src/frame-mjpeg.c libjpeg.a -lpthread -o convert_bench
+ *   ./convert_bench [width=1920] [height=1080] [loops=50]
+ */
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <jpeglib.h>
+
+#include "libuvc/libuvc.h"
+
+#define WINDOW_ALIGN 64		// pixels, emulate stride of gralloc buffer
+
+typedef uvc_error_t (*conv_func_t)(uvc_frame_t *in, uvc_frame_t *out);
+typedef uvc_error_t (*conv_to_func_t)(uvc_frame_t *in, uint8_t *dst, int dst_step, int dst_width, int dst_height);
+
+typedef struct window_buffer {
+	uint8_t *bits;
+	int width;
+	int height;
+	int stride;			// pixels
+	int pixel_bytes;
+} window_buffer_t;
+
+static inline double now_ms() {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return ts.tv_sec * 1000.0 + ts.tv_nsec / 1000000.0;
+}
+
+/** same as copyToSurface in UVCPreview.cpp */
+static void copy_to_window(uvc_frame_t *frame, window_buffer_t *window) {
+	const int src_step = frame->width * window->pixel_bytes;
+	const int dest_step = window->stride * window->pixel_bytes;
+	const int w = (frame->width < window->width ? frame->width : window->width) * window->pixel_bytes;
+	const int h = frame->height < window->height ? frame->height : window->height;
+	const uint8_t *src = (const uint8_t *)frame->data;
+	uint8_t *dest = window->bits;
+	int i;
+	for (i = 0; i < h; i++) {
+		memcpy(dest, src, w);
+		dest += dest_step; src += src_step;
+	}
+}
+
+static void fill_yuyv(uvc_frame_t *frame, int width, int height) {
+	int x, y;
+	uint8_t *p = (uint8_t *)frame->data;
+	frame->width = width;
+	frame->height = height;
+	frame->step = width * 2;
+	frame->frame_format = UVC_FRAME_FORMAT_YUYV;
+	frame->actual_bytes = width * height * 2;
+	for (y = 0; y < height; y++) {
+		for (x = 0; x < width; x += 2) {
+			*p++ = (uint8_t)(x + y);			// Y0
+			*p++ = (uint8_t)(x * 3 + (y >> 2));	// U
+			*p++ = (uint8_t)(x + y + 1);		// Y1
+			*p++ = (uint8_t)(y * 5 - x);		// V
+		}
+	}
+}
+
+/** encode YUYV test pattern as 4:2:2 MJPEG like usual UVC camera */
+static int make_mjpeg(uvc_frame_t *yuyv, uvc_frame_t *mjpeg) {
+	struct jpeg_compress_struct cinfo;
+	struct jpeg_error_mgr jerr;
+	unsigned char *buf = NULL;
+	unsigned long size = 0;
+	uvc_frame_t *rgb = uvc_allocate_frame(yuyv->width * yuyv->height * 3);
+	if (!rgb || uvc_yuyv2rgb(yuyv, rgb)) return -1;
+
+	cinfo.err = jpeg_std_error(&jerr);
+	jpeg_create_compress(&cinfo);
+	jpeg_mem_dest(&cinfo, &buf, &size);
+	cinfo.image_width = yuyv->width;
+	cinfo.image_height = yuyv->height;
+	cinfo.input_components = 3;
+	cinfo.in_color_space = JCS_RGB;
+	jpeg_set_defaults(&cinfo);
+	jpeg_set_quality(&cinfo, 85, TRUE);
+	cinfo.comp_info[0].h_samp_factor = 2;
+	cinfo.comp_info[0].v_samp_factor = 1;
+	jpeg_start_compress(&cinfo, TRUE);
+	for (; cinfo.next_scanline < cinfo.image_height ;) {
+		JSAMPROW row = (uint8_t *)rgb->data + cinfo.next_scanline * rgb->step;
+		jpeg_write_scanlines(&cinfo, &row, 1);
+	}
+	jpeg_finish_compress(&cinfo);
+	jpeg_destroy_compress(&cinfo);
+
+	uvc_ensure_frame_size(mjpeg, size);
+	memcpy(mjpeg->data, buf, size);
+	mjpeg->actual_bytes = size;
+	mjpeg->width = yuyv->width;
+	mjpeg->height = yuyv->height;
+	mjpeg->step = 0;
+	mjpeg->frame_format = UVC_FRAME_FORMAT_MJPEG;
+	free(buf);
+	uvc_free_frame(rgb);
+	return 0;
+}
+
+static int compare_window(window_buffer_t *a, window_buffer_t *b) {
+	const int bytes = a->width * a->pixel_bytes;
+	const int step = a->stride * a->pixel_bytes;
+	int y;
+	for (y = 0; y < a->height; y++) {
+		if (memcmp(a->bits + step * y, b->bits + step * y, bytes)) return y + 1;
+	}
+	return 0;
+}
+
+/**
+ * run both paths for same input
+ * @param decode optional conversion applied before convert, emulates MJPEG => YUYV of old preview path
+ */
+static void bench(const char *name, uvc_frame_t *in, int loops,
+	conv_func_t decode, conv_func_t convert, conv_to_func_t convert_to, int pixel_bytes) {
+
+	window_buffer_t old_window, new_window;
+	uvc_frame_t *decoded = uvc_allocate_frame(in->width * in->height * 2);
+	uvc_frame_t *converted = uvc_allocate_frame(in->width * in->height * pixel_bytes);
+	int i;
+	double start, old_ms, new_ms;
+
+	old_window.width = new_window.width = in->width;
+	old_window.height = new_window.height = in->height;
+	old_window.stride = new_window.stride = (in->width + WINDOW_ALIGN - 1) & ~(WINDOW_ALIGN - 1);
+	old_window.pixel_bytes = new_window.pixel_bytes = pixel_bytes;
+	old_window.bits = calloc(1, old_window.stride * old_window.height * pixel_bytes);
+	new_window.bits = calloc(1, new_window.stride * new_window.height * pixel_bytes);
+
+	// old path: (decode =>) convert into intermediate frame => copy into window
+	start = now_ms();
+	for (i = 0; i < loops; i++) {
+		uvc_frame_t *src = in;
+		if (decode) {
+			decode(in, decoded);
+			src = decoded;
+		}
+		convert(src, converted);
+		copy_to_window(converted, &old_window);
+	}
+	old_ms = (now_ms() - start) / loops;
+
+	// new path: convert into window directly
+	start = now_ms();
+	for (i = 0; i < loops; i++) {
+		convert_to(in, new_window.bits, new_window.stride * pixel_bytes, new_window.width, new_window.height);
+	}
+	new_ms = (now_ms() - start) / loops;
+
+	const int diff = compare_window(&old_window, &new_window);
+	printf("%-28s old=%7.2fms/frame new=%7.2fms/frame  x%.2f  intermediate=%dKB  %s",
+		name, old_ms, new_ms, old_ms / new_ms,
+		(int)(converted->data_bytes + (decode ? decoded->data_bytes : 0)) / 1024,
+		diff ? "MISMATCH" : "identical");
+	if (diff) {
+		printf(" at row %d", diff - 1);
+	}
+	printf("\n");
+
+	free(old_window.bits);
+	free(new_window.bits);
+	uvc_free_frame(decoded);
+	uvc_free_frame(converted);
+}
+
+int main(int argc, char **argv) {
+	const int width = argc > 1 ? atoi(argv[1]) : 1920;
+	const int height = argc > 2 ? atoi(argv[2]) : 1080;
+	const int loops = argc > 3 ? atoi(argv[3]) : 50;
+	printf("frame=%dx%d, window stride aligned to %d pixels, loops=%d\n", width, height, WINDOW_ALIGN, loops);
+
+	uvc_frame_t *yuyv = uvc_allocate_frame(width * height * 2);
+	uvc_frame_t *mjpeg = uvc_allocate_frame(width * height * 2);
+	fill_yuyv(yuyv, width, height);
+	if (make_mjpeg(yuyv, mjpeg)) {
+		fprintf(stderr, "failed to create MJPEG frame\n");
+		return 1;
+	}
+	printf("MJPEG frame=%d bytes\n", (int)mjpeg->actual_bytes);
+
+	bench("YUYV=>RGBX", yuyv, loops, NULL, uvc_yuyv2rgbx, uvc_yuyv2rgbx_to, 4);
+	bench("YUYV=>RGB565", yuyv, loops, NULL, uvc_yuyv2rgb565, uvc_yuyv2rgb565_to, 2);
+	bench("MJPEG=>RGBX", mjpeg, loops, NULL, uvc_mjpeg2rgbx, uvc_mjpeg2rgbx_to, 4);
+	// output differs because old preview path goes through YUYV(chroma averaging)
+	bench("MJPEG=>YUYV=>RGBX(preview)", mjpeg, loops, uvc_mjpeg2yuyv, uvc_yuyv2rgbx, uvc_mjpeg2rgbx_to, 4);
+
+	uvc_free_frame(yuyv);
+	uvc_free_frame(mjpeg);
+	return 0;
+}
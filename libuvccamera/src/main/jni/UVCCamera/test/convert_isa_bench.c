@@ -0,0 +1,194 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: convert_isa_bench.c
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+/*
+ * benchmark of pixel format converters for each instruction set(uvc_convert_set_isa).
+ * first checks that the output of each ISA is bit-exact with scalar one for several frame sizes
+ * including width that is not a multiple of SIMD block, then reports MPix/s.
+ * ISA that is not available on the build/CPU is shown as n/a.
+ * this can be built with ndk as executable and run on device via adb shell too.
+ *
+ * build & run on host(from jni directory, libjpeg-turbo should be built for host as libjpeg.a):
+ *   gcc -O2 -std=gnu99 -DLOG_NDEBUG -I. -Ilibusb -Ilibuvc/include -Ilibjpeg-turbo-1.5.0 \
+ *       -Ilibjpeg-turbo-1.5.0/include -I$JAVA_HOME/include -I$JAVA_HOME/include/linux \
+ *       UVCCamera/test/convert_isa_bench.c libuvc/src/frame.c libuvc/src/frame-simd.c \
+ *       libuvc/src/frame-mjpeg.c libjpeg.a -lpthread -o convert_isa_bench
+ *   ./convert_isa_bench [width=1920] [height=1080] [loops=100]
+ */
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+
+#include "libuvc/libuvc.h"
+
+typedef uvc_error_t (*conv_func_t)(uvc_frame_t *in, uvc_frame_t *out);
+
+typedef struct converter {
+	const char *name;
+	enum uvc_frame_format in_format;
+	conv_func_t func;
+} converter_t;
+
+/** write into RGBX window buffer that has wider stride than the frame */
+static uvc_error_t yuyv2rgbx_to(uvc_frame_t *in, uvc_frame_t *out) {
+	const int stride = ((in->width + 63) & ~63) * 4;
+	uvc_error_t ret = uvc_ensure_frame_size(out, stride * in->height);
+	if (!ret) {
+		ret = uvc_yuyv2rgbx_to(in, out->data, stride, in->width, in->height);
+	}
+	return ret;
+}
+
+static const converter_t converters[] = {
+	{ "yuyv2rgbx", UVC_FRAME_FORMAT_YUYV, uvc_yuyv2rgbx },
+	{ "yuyv2rgb565", UVC_FRAME_FORMAT_YUYV, uvc_yuyv2rgb565 },
+	{ "uyvy2rgbx", UVC_FRAME_FORMAT_UYVY, uvc_uyvy2rgbx },
+	{ "uyvy2rgb565", UVC_FRAME_FORMAT_UYVY, uvc_uyvy2rgb565 },
+	{ "yuyv2yuv420SP", UVC_FRAME_FORMAT_YUYV, uvc_yuyv2yuv420SP },
+	{ "yuyv2iyuv420SP", UVC_FRAME_FORMAT_YUYV, uvc_yuyv2iyuv420SP },
+	{ "yuyv2rgbx_to", UVC_FRAME_FORMAT_YUYV, yuyv2rgbx_to },
+};
+#define NUM_CONVERTERS (sizeof(converters) / sizeof(converter_t))
+
+static const int isas[] = {
+	UVC_CONVERT_ISA_SCALAR, UVC_CONVERT_ISA_NEON, UVC_CONVERT_ISA_SSE2, UVC_CONVERT_ISA_AVX2,
+};
+#define NUM_ISAS (sizeof(isas) / sizeof(int))
+
+static inline double now_ms() {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return ts.tv_sec * 1000.0 + ts.tv_nsec / 1000000.0;
+}
+
+static uvc_frame_t *make_frame(enum uvc_frame_format format, int width, int height) {
+	uvc_frame_t *frame = uvc_allocate_frame(width * height * 2);
+	uint8_t *p = (uint8_t *)frame->data;
+	size_t i;
+	frame->width = width;
+	frame->height = height;
+	frame->step = width * 2;
+	frame->frame_format = format;
+	frame->actual_bytes = frame->data_bytes;
+	for (i = 0; i < frame->data_bytes; i++) {
+		p[i] = (uint8_t)rand();	// random value hits the saturation of both ends
+	}
+	return frame;
+}
+
+/**
+ * output frame should be allocated with non-zero size, otherwise libuvc does not own its buffer
+ * and the converters fail with UVC_ERROR_NO_MEM
+ */
+static uvc_frame_t *make_output(int width, int height) {
+	uvc_frame_t *frame = uvc_allocate_frame(((width + 63) & ~63) * height * 4);
+	// clear so that bytes that converter does not write(e.g. padding of stride) do not differ
+	memset(frame->data, 0, frame->data_bytes);
+	return frame;
+}
+
+/**
+ * @return 0 if all ISAs produce same result as scalar
+ */
+static int verify(int width, int height) {
+	int errors = 0;
+	size_t c, i;
+	for (c = 0; c < NUM_CONVERTERS; c++) {
+		uvc_frame_t *in = make_frame(converters[c].in_format, width, height);
+		uvc_frame_t *expected = make_output(width, height);
+		uvc_convert_set_isa(UVC_CONVERT_ISA_SCALAR);
+		if (converters[c].func(in, expected)) {
+			printf("FAILED %s %dx%d\n", converters[c].name, width, height);
+			errors++;
+		}
+		for (i = 1; i < NUM_ISAS; i++) {
+			if (uvc_convert_set_isa(isas[i])) continue;
+			uvc_frame_t *out = make_output(width, height);
+			converters[c].func(in, out);
+			if ((out->data_bytes != expected->data_bytes)
+				|| memcmp(out->data, expected->data, out->data_bytes)) {
+
+				size_t pos = 0;
+				for (; pos < out->data_bytes && ((uint8_t *)out->data)[pos] == ((uint8_t *)expected->data)[pos]; pos++) ;
+				printf("MISMATCH %s/%s %dx%d at byte %d\n",
+					converters[c].name, uvc_convert_isa_name(isas[i]), width, height, (int)pos);
+				errors++;
+			}
+			uvc_free_frame(out);
+		}
+		uvc_free_frame(expected);
+		uvc_free_frame(in);
+	}
+	return errors;
+}
+
+int main(int argc, char **argv) {
+	const int width = argc > 1 ? atoi(argv[1]) : 1920;
+	const int height = argc > 2 ? atoi(argv[2]) : 1080;
+	const int loops = argc > 3 ? atoi(argv[3]) : 100;
+	// widths that are not a multiple of 8/16/32 pixels check the tail handling
+	static const int sizes[][2] = { { 1920, 1080 }, { 1912, 36 }, { 1916, 36 }, { 644, 480 }, { 36, 6 }, { 4, 2 } };
+	size_t c, i;
+	int errors = 0;
+
+	srand(1);
+	uvc_convert_set_isa(UVC_CONVERT_ISA_AUTO);
+	printf("auto selected ISA=%s\n", uvc_convert_isa_name(uvc_convert_get_isa()));
+
+	for (i = 0; i < sizeof(sizes) / sizeof(sizes[0]); i++) {
+		errors += verify(sizes[i][0], sizes[i][1]);
+	}
+	printf("bit-exact check: %s\n\n", errors ? "FAILED" : "OK");
+
+	printf("%dx%d, %d loops, MPix/s\n%-16s", width, height, loops, "");
+	for (i = 0; i < NUM_ISAS; i++) {
+		printf("%10s", uvc_convert_isa_name(isas[i]));
+	}
+	printf("\n");
+	for (c = 0; c < NUM_CONVERTERS; c++) {
+		uvc_frame_t *in = make_frame(converters[c].in_format, width, height);
+		uvc_frame_t *out = make_output(width, height);
+		printf("%-16s", converters[c].name);
+		for (i = 0; i < NUM_ISAS; i++) {
+			if (uvc_convert_set_isa(isas[i])) {
+				printf("%10s", "n/a");
+				continue;
+			}
+			int n;
+			converters[c].func(in, out);	// warm up
+			const double start = now_ms();
+			for (n = 0; n < loops; n++) {
+				converters[c].func(in, out);
+			}
+			const double ms = now_ms() - start;
+			printf("%10.1f", (double)width * height * loops / (ms * 1000.0));
+		}
+		printf("\n");
+		uvc_free_frame(in);
+		uvc_free_frame(out);
+	}
+	return errors ? 1 : 0;
+}
@@ -0,0 +1,243 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: jpeg_encode_bench.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+/*
+ * host side benchmark of JpegEncoder(JpegEncoder.cpp).
+ * compares encoding a YUYV/NV21 frame directly from YUV planes with the paths that
+ * Android app usually takes:
+ *   Bitmap.compress: YUYV -> RGBX(uvc_yuyv2rgbx) -> JPEG, libjpeg-turbo converts RGB back into YCbCr
+ *   YuvImage.compressToJpeg: NV21 -> de-interleave VU rows -> jpeg_write_raw_data,
+ *     output buffer is allocated for each frame like ByteArrayOutputStream
+ * output is decoded and compared with the source luma.
+ *
+ * build & run on host(from jni directory, libjpeg-turbo including turbojpeg.c should be built
+ * for host as libturbojpeg.a):
+ *   gcc -O2 -std=gnu99 -c -I. -Ilibusb -Ilibuvc/include -I$JAVA_HOME/include -I$JAVA_HOME/include/linux \
+ *       libuvc/src/frame.c libuvc/src/frame-simd.c
+ *   g++ -O2 -std=gnu++11 -DLOG_NDEBUG -I. -IUVCCamera -Ilibusb -Ilibuvc/include \
+ *       -Ilibjpeg-turbo-1.5.0 -Ilibjpeg-turbo-1.5.0/include \
+ *       -I$JAVA_HOME/include -I$JAVA_HOME/include/linux -Wl,--gc-sections \
+ *       UVCCamera/test/jpeg_encode_bench.cpp UVCCamera/JpegEncoder.cpp \
+ *       frame.o frame-simd.o libturbojpeg.a -lm -o jpeg_encode_bench
+ *   ./jpeg_encode_bench [loops=30] [quality=90]
+ */
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <math.h>
+#include <time.h>
+#include <jpeglib.h>
+
+#include "libuvc/libuvc.h"
+#include "turbojpeg.h"
+#include "JpegEncoder.h"
+
+static inline double now_ms() {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return ts.tv_sec * 1000.0 + ts.tv_nsec / 1000000.0;
+}
+
+static uvc_frame_t *make_output(size_t bytes) {
+	// should be allocated with non-zero size so that libuvc owns the buffer
+	uvc_frame_t *frame = uvc_allocate_frame(bytes);
+	memset(frame->data, 0, bytes);
+	return frame;
+}
+
+/** synthetic YUYV frame like usual UVC camera */
+static uvc_frame_t *make_yuyv(int width, int height) {
+	uvc_frame_t *frame = make_output(width * height * 2);
+	uint8_t *p = (uint8_t *)frame->data;
+	for (int y = 0; y < height; y++) {
+		for (int x = 0; x < width; x += 2, p += 4) {
+			p[0] = (uint8_t)(16 + ((x + y) % 220));
+			p[1] = (uint8_t)(128 + 100 * sin((x + y * 2) / 40.0));
+			p[2] = (uint8_t)(16 + ((x + 1 + y) % 220));
+			p[3] = (uint8_t)((x * x + y * 3) >> 4);
+		}
+	}
+	frame->width = width;
+	frame->height = height;
+	frame->step = width * 2;
+	frame->frame_format = UVC_FRAME_FORMAT_YUYV;
+	return frame;
+}
+
+/** same as YuvToJpegEncoder of Android framework that YuvImage#compressToJpeg uses */
+static size_t yuvimage_compress(const uint8_t *nv21, int width, int height, int quality) {
+	struct jpeg_compress_struct cinfo;
+	struct jpeg_error_mgr jerr;
+	unsigned char *buf = NULL;
+	unsigned long size = 0;
+
+	cinfo.err = jpeg_std_error(&jerr);
+	jpeg_create_compress(&cinfo);
+	jpeg_mem_dest(&cinfo, &buf, &size);
+	cinfo.image_width = width;
+	cinfo.image_height = height;
+	cinfo.input_components = 3;
+	cinfo.in_color_space = JCS_YCbCr;
+	jpeg_set_defaults(&cinfo);
+	jpeg_set_quality(&cinfo, quality, TRUE);
+	cinfo.raw_data_in = TRUE;
+	cinfo.dct_method = JDCT_IFAST;
+	cinfo.comp_info[0].h_samp_factor = 2;
+	cinfo.comp_info[0].v_samp_factor = 2;
+	cinfo.comp_info[1].h_samp_factor = 1;
+	cinfo.comp_info[1].v_samp_factor = 1;
+	cinfo.comp_info[2].h_samp_factor = 1;
+	cinfo.comp_info[2].v_samp_factor = 1;
+	jpeg_start_compress(&cinfo, TRUE);
+
+	const uint8_t *vu_plane = nv21 + width * height;
+	uint8_t *u_rows = (uint8_t *)malloc(width / 2 * 8);
+	uint8_t *v_rows = (uint8_t *)malloc(width / 2 * 8);
+	JSAMPROW y[16], cb[8], cr[8];
+	JSAMPARRAY planes[3] = { y, cb, cr };
+	while (cinfo.next_scanline < cinfo.image_height) {
+		const int row = cinfo.next_scanline;
+		for (int i = 0; i < 16; i++) {
+			const int r = row + i < height ? row + i : height - 1;
+			y[i] = (JSAMPROW)(nv21 + width * r);
+		}
+		for (int i = 0; i < 8; i++) {
+			const int r = row / 2 + i < height / 2 ? row / 2 + i : height / 2 - 1;
+			const uint8_t *vu = vu_plane + width * r;
+			cb[i] = u_rows + width / 2 * i;
+			cr[i] = v_rows + width / 2 * i;
+			for (int j = 0; j < width / 2; j++) {
+				cr[i][j] = vu[2 * j];
+				cb[i][j] = vu[2 * j + 1];
+			}
+		}
+		jpeg_write_raw_data(&cinfo, planes, 16);
+	}
+	jpeg_finish_compress(&cinfo);
+	jpeg_destroy_compress(&cinfo);
+	free(u_rows);
+	free(v_rows);
+	free(buf);
+	return size;
+}
+
+/** decode JPEG into gray scale and compare with source luma */
+static double psnr_y(tjhandle dec, const uint8_t *jpeg, size_t bytes,
+	const uint8_t *y, int width, int height, uint8_t *work) {
+
+	if (tjDecompress2(dec, jpeg, bytes, work, width, width, height, TJPF_GRAY, 0)) {
+		return -1;
+	}
+	double sum = 0;
+	for (int i = 0; i < width * height; i++) {
+		const int d = (int)work[i] - (int)y[i];
+		sum += d * d;
+	}
+	return sum > 0 ? 10 * log10(255.0 * 255.0 * width * height / sum) : INFINITY;
+}
+
+static void bench(int width, int height, int loops, int quality) {
+	uvc_frame_t *yuyv = make_yuyv(width, height);
+	uvc_frame_t *rgbx = make_output(width * height * 4);
+	uvc_frame_t *nv21 = make_output(width * height * 3 / 2);
+	uvc_yuyv2iyuv420SP(yuyv, nv21);
+	// luma plane of NV21 is the reference of PSNR
+	const uint8_t *y = (const uint8_t *)nv21->data;
+	const size_t max_bytes = JpegEncoder::getMaxBytes(width, height, TJSAMP_420);
+	// output of Bitmap, JpegEncoder from YUYV and from NV21
+	uint8_t *dst = (uint8_t *)malloc(max_bytes * 3);
+	uint8_t *work = (uint8_t *)malloc(width * height);
+	tjhandle tj = tjInitCompress();
+	tjhandle dec = tjInitDecompress();
+	JpegEncoder encoder;
+	double start, ms[4], db[4];
+	size_t bytes[4];
+	int i, k;
+
+	// paths are interleaved and the best time is taken so that load of other processes
+	// does not favor one of them
+	for (k = 0; k < 4; k++) {
+		ms[k] = INFINITY;
+	}
+	for (i = 0; i < loops; i++) {
+		// Bitmap.compress
+		start = now_ms();
+		unsigned char *jpeg = dst;
+		unsigned long jpeg_bytes = max_bytes;
+		uvc_yuyv2rgbx(yuyv, rgbx);
+		tjCompress2(tj, (uint8_t *)rgbx->data, width, width * 4, height, TJPF_RGBX,
+			&jpeg, &jpeg_bytes, TJSAMP_420, quality, TJFLAG_NOREALLOC | TJFLAG_FASTDCT);
+		bytes[0] = jpeg_bytes;
+		ms[0] = fmin(ms[0], now_ms() - start);
+
+		// YuvImage.compressToJpeg
+		start = now_ms();
+		bytes[1] = yuvimage_compress(y, width, height, quality);
+		ms[1] = fmin(ms[1], now_ms() - start);
+
+		// JpegEncoder from YUYV
+		start = now_ms();
+		int r = encoder.encode((uint8_t *)yuyv->data, width, height, JPEG_ENCODER_FORMAT_YUYV,
+			dst + max_bytes, max_bytes, quality, TJSAMP_420);
+		bytes[2] = r > 0 ? r : 0;
+		ms[2] = fmin(ms[2], now_ms() - start);
+
+		// JpegEncoder from NV21
+		start = now_ms();
+		r = encoder.encode(y, width, height, JPEG_ENCODER_FORMAT_NV21,
+			dst + max_bytes * 2, max_bytes, quality, TJSAMP_420);
+		bytes[3] = r > 0 ? r : 0;
+		ms[3] = fmin(ms[3], now_ms() - start);
+	}
+	db[0] = psnr_y(dec, dst, bytes[0], y, width, height, work);
+	db[1] = -1;	// output buffer is already released
+	db[2] = psnr_y(dec, dst + max_bytes, bytes[2], y, width, height, work);
+	db[3] = psnr_y(dec, dst + max_bytes * 2, bytes[3], y, width, height, work);
+
+	printf("%4dx%-4d YUYV: Bitmap %6.2fms(%7zu bytes, %5.1fdB) => JpegEncoder %6.2fms(%7zu bytes, %5.1fdB) x%.2f\n",
+		width, height, ms[0], bytes[0], db[0], ms[2], bytes[2], db[2], ms[0] / ms[2]);
+	printf("%4dx%-4d NV21: YuvImage %6.2fms(%7zu bytes)          => JpegEncoder %6.2fms(%7zu bytes, %5.1fdB) x%.2f\n",
+		width, height, ms[1], bytes[1], ms[3], bytes[3], db[3], ms[1] / ms[3]);
+
+	tjDestroy(tj);
+	tjDestroy(dec);
+	free(dst);
+	free(work);
+	uvc_free_frame(yuyv);
+	uvc_free_frame(rgbx);
+	uvc_free_frame(nv21);
+}
+
+int main(int argc, char **argv) {
+	const int loops = argc > 1 ? atoi(argv[1]) : 30;
+	const int quality = argc > 2 ? atoi(argv[2]) : 90;
+	static const int sizes[][2] = { { 640, 480 }, { 1280, 720 }, { 1920, 1080 } };
+
+	printf("loops=%d, quality=%d, 4:2:0, best ms per frame of current Android path => JpegEncoder\n", loops, quality);
+	for (int i = 0; i < (int)(sizeof(sizes) / sizeof(sizes[0])); i++) {
+		bench(sizes[i][0], sizes[i][1], loops, quality);
+	}
+	return 0;
+}
@@ -0,0 +1,262 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: mjpeg_decode_bench.c
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+/*
+ * host side benchmark of MJPEG decoding in UVCPreview.
+ * compares the path through YUYV intermediate frame(uvc_mjpeg2yuyv + uvc_yuyv2xxx)
+ * with direct decoding into the format that each consumer needs
+ * (uvc_mjpeg2rgbx_to for preview Surface, uvc_mjpeg2iyuv420SP for NV21 frame callback)
+ * and reports fps for each resolution.
+ * frames recorded from the camera(each file is one MJPEG frame, e.g. dumped from IFrameCallback
+ * with PIXEL_FORMAT_RAW or extracted from the stream) can be given as arguments,
+ * otherwise synthetic 4:2:2 and 4:2:0 frames are used.
+ * NV21 output of both paths differs slightly because uvc_mjpeg2yuyv averages
+ * upsampled chroma, so PSNR of chroma plane is shown instead of bit-exact comparison.
+ * fps of decoding with DCT scaling(1/2, 1/4, 1/8) for low resolution frame callback is also shown.
+ *
+ * build & run on host(from jni directory, libjpeg-turbo should be built for host as libjpeg.a):
+ *   gcc -O2 -std=gnu99 -DLOG_NDEBUG -I. -Ilibusb -Ilibuvc/include -Ilibjpeg-turbo-1.5.0 \
+ *       -Ilibjpeg-turbo-1.5.0/include -I$JAVA_HOME/include -I$JAVA_HOME/include/linux \
+ *       UVCCamera/test/mjpeg_decode_bench.c libuvc/src/frame.c libuvc/src/frame-simd.c \
+ *       libuvc/src/frame-mjpeg.c libjpeg.a -lpthread -lm -o mjpeg_decode_bench
+ *   ./mjpeg_decode_bench [loops=30] [frame.jpg...]
+ */
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <math.h>
+#include <time.h>
+#include <jpeglib.h>
+
+#include "libuvc/libuvc.h"
+
+#define WINDOW_ALIGN 64		// pixels, emulate stride of gralloc buffer
+
+static inline double now_ms() {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return ts.tv_sec * 1000.0 + ts.tv_nsec / 1000000.0;
+}
+
+static uvc_frame_t *make_output(size_t bytes) {
+	// should be allocated with non-zero size so that libuvc owns the buffer
+	uvc_frame_t *frame = uvc_allocate_frame(bytes);
+	memset(frame->data, 0, bytes);
+	return frame;
+}
+
+/** encode synthetic pattern as MJPEG frame like usual UVC camera */
+static uvc_frame_t *make_mjpeg(int width, int height, int v_samp) {
+	struct jpeg_compress_struct cinfo;
+	struct jpeg_error_mgr jerr;
+	unsigned char *buf = NULL;
+	unsigned long size = 0;
+	uint8_t *row = malloc(width * 3);
+	int x, y;
+
+	cinfo.err = jpeg_std_error(&jerr);
+	jpeg_create_compress(&cinfo);
+	jpeg_mem_dest(&cinfo, &buf, &size);
+	cinfo.image_width = width;
+	cinfo.image_height = height;
+	cinfo.input_components = 3;
+	cinfo.in_color_space = JCS_RGB;
+	jpeg_set_defaults(&cinfo);
+	jpeg_set_quality(&cinfo, 85, TRUE);
+	cinfo.comp_info[0].h_samp_factor = 2;
+	cinfo.comp_info[0].v_samp_factor = v_samp;
+	jpeg_start_compress(&cinfo, TRUE);
+	for (y = 0; y < height; y++) {
+		for (x = 0; x < width; x++) {
+			row[x * 3 + 0] = (uint8_t)(x + y);
+			row[x * 3 + 1] = (uint8_t)((x * x + y * 3) >> 4);
+			row[x * 3 + 2] = (uint8_t)(128 + 100 * sin((x + y * 2) / 40.0));
+		}
+		jpeg_write_scanlines(&cinfo, &row, 1);
+	}
+	jpeg_finish_compress(&cinfo);
+	jpeg_destroy_compress(&cinfo);
+	free(row);
+
+	uvc_frame_t *frame = uvc_allocate_frame(size);
+	memcpy(frame->data, buf, size);
+	frame->width = width;
+	frame->height = height;
+	frame->step = 0;
+	frame->frame_format = UVC_FRAME_FORMAT_MJPEG;
+	free(buf);
+	return frame;
+}
+
+static uvc_frame_t *load_mjpeg(const char *path) {
+	struct jpeg_decompress_struct dinfo;
+	struct jpeg_error_mgr jerr;
+	uvc_frame_t *frame = NULL;
+	FILE *f = fopen(path, "rb");
+	if (!f) return NULL;
+	fseek(f, 0, SEEK_END);
+	const long size = ftell(f);
+	fseek(f, 0, SEEK_SET);
+	if (size > 0) {
+		frame = uvc_allocate_frame(size);
+		if (fread(frame->data, 1, size, f) == (size_t)size) {
+			dinfo.err = jpeg_std_error(&jerr);
+			jpeg_create_decompress(&dinfo);
+			jpeg_mem_src(&dinfo, frame->data, size);
+			jpeg_read_header(&dinfo, TRUE);
+			frame->width = dinfo.image_width;
+			frame->height = dinfo.image_height;
+			frame->step = 0;
+			frame->frame_format = UVC_FRAME_FORMAT_MJPEG;
+			jpeg_destroy_decompress(&dinfo);
+		} else {
+			uvc_free_frame(frame);
+			frame = NULL;
+		}
+	}
+	fclose(f);
+	return frame;
+}
+
+static double psnr(const uint8_t *a, const uint8_t *b, size_t bytes) {
+	double sum = 0;
+	size_t i;
+	for (i = 0; i < bytes; i++) {
+		const int d = (int)a[i] - (int)b[i];
+		sum += d * d;
+	}
+	return sum > 0 ? 10 * log10(255.0 * 255.0 * bytes / sum) : INFINITY;
+}
+
+static void bench(const char *name, uvc_frame_t *mjpeg, int loops) {
+	const int width = mjpeg->width;
+	const int height = mjpeg->height;
+	const int stride = ((width + WINDOW_ALIGN - 1) & ~(WINDOW_ALIGN - 1)) * 4;
+	uint8_t *window = calloc(1, stride * height);
+	uvc_frame_t *yuyv = make_output(width * height * 2);
+	uvc_frame_t *nv21_old = make_output(width * height * 3 / 2);
+	uvc_frame_t *nv21_new = make_output(width * height * 3 / 2);
+	double start, ms[6];
+	int i;
+
+	// preview only
+	start = now_ms();
+	for (i = 0; i < loops; i++) {
+		uvc_mjpeg2yuyv(mjpeg, yuyv);
+		uvc_yuyv2rgbx_to(yuyv, window, stride, width, height);
+	}
+	ms[0] = (now_ms() - start) / loops;
+	start = now_ms();
+	for (i = 0; i < loops; i++) {
+		uvc_mjpeg2rgbx_to(mjpeg, window, stride, width, height);
+	}
+	ms[1] = (now_ms() - start) / loops;
+
+	// NV21 frame callback only
+	start = now_ms();
+	for (i = 0; i < loops; i++) {
+		uvc_mjpeg2yuyv(mjpeg, yuyv);
+		uvc_yuyv2iyuv420SP(yuyv, nv21_old);
+	}
+	ms[2] = (now_ms() - start) / loops;
+	start = now_ms();
+	for (i = 0; i < loops; i++) {
+		uvc_mjpeg2iyuv420SP(mjpeg, nv21_new);
+	}
+	ms[3] = (now_ms() - start) / loops;
+
+	// preview + NV21 frame callback, new path decodes twice on preview/capture thread,
+	// shown as the time of the slower thread and total CPU time
+	start = now_ms();
+	for (i = 0; i < loops; i++) {
+		uvc_mjpeg2yuyv(mjpeg, yuyv);
+		uvc_yuyv2rgbx_to(yuyv, window, stride, width, height);
+		uvc_yuyv2iyuv420SP(yuyv, nv21_old);
+	}
+	ms[4] = (now_ms() - start) / loops;
+	ms[5] = ms[1] > ms[3] ? ms[1] : ms[3];
+
+	const size_t y_bytes = width * height;
+	printf("%-24s %4dx%-4d preview %6.1f => %6.1f fps, NV21 %6.1f => %6.1f fps, both %6.1f => %6.1f fps(cpu %6.1f)  Y:%s UV:%.1fdB\n",
+		name, width, height,
+		1000 / ms[0], 1000 / ms[1], 1000 / ms[2], 1000 / ms[3],
+		1000 / ms[4], 1000 / ms[5], 1000 / (ms[1] + ms[3]),
+		memcmp(nv21_old->data, nv21_new->data, y_bytes) ? "differ" : "identical",
+		psnr((uint8_t *)nv21_old->data + y_bytes, (uint8_t *)nv21_new->data + y_bytes, y_bytes / 2));
+
+	// scaled decoding for low resolution frame callback(uvc_mjpeg2xxx_scaled)
+	int denom;
+	printf("%-24s", "");
+	for (denom = 2; denom <= 8; denom <<= 1) {
+		start = now_ms();
+		for (i = 0; i < loops; i++) {
+			uvc_mjpeg2iyuv420SP_scaled(mjpeg, nv21_new, denom);
+		}
+		const double nv21_ms = (now_ms() - start) / loops;
+		start = now_ms();
+		for (i = 0; i < loops; i++) {
+			uvc_mjpeg2rgbx_scaled(mjpeg, yuyv, denom);
+		}
+		const double rgbx_ms = (now_ms() - start) / loops;
+		printf(" 1/%d %4dx%-4d NV21 %6.1f fps RGBX %6.1f fps %s", denom, nv21_new->width, nv21_new->height,
+			1000 / nv21_ms, 1000 / rgbx_ms, denom < 8 ? "|" : "\n");
+	}
+
+	free(window);
+	uvc_free_frame(yuyv);
+	uvc_free_frame(nv21_old);
+	uvc_free_frame(nv21_new);
+}
+
+int main(int argc, char **argv) {
+	const int loops = argc > 1 ? atoi(argv[1]) : 30;
+	static const int sizes[][2] = { { 640, 480 }, { 1280, 720 }, { 1920, 1080 } };
+	char name[64];
+	int i, v;
+
+	printf("loops=%d, fps of YUYV intermediate path => direct decoding path\n", loops);
+	if (argc > 2) {
+		for (i = 2; i < argc; i++) {
+			uvc_frame_t *mjpeg = load_mjpeg(argv[i]);
+			if (mjpeg) {
+				const char *p = strrchr(argv[i], '/');
+				bench(p ? p + 1 : argv[i], mjpeg, loops);
+				uvc_free_frame(mjpeg);
+			} else {
+				fprintf(stderr, "failed to load %s\n", argv[i]);
+			}
+		}
+	} else {
+		for (v = 1; v <= 2; v++) {
+			for (i = 0; i < (int)(sizeof(sizes) / sizeof(sizes[0])); i++) {
+				uvc_frame_t *mjpeg = make_mjpeg(sizes[i][0], sizes[i][1], v);
+				snprintf(name, sizeof(name), "synthetic %s", v == 1 ? "4:2:2" : "4:2:0");
+				bench(name, mjpeg, loops);
+				uvc_free_frame(mjpeg);
+			}
+		}
+	}
+	return 0;
+}
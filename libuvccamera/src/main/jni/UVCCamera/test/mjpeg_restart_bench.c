@@ -0,0 +1,225 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: mjpeg_restart_bench.c
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+/*
+ * host side benchmark of decoding single MJPEG frame in parallel stripes split at
+ * restart markers(uvc_mjpeg2rgbx_to_parallel).
+ * synthetic frames are encoded with several restart intervals, and without DRI to check fallback.
+ * output is compared with serial decoding(uvc_mjpeg2rgbx_to), it should be identical
+ * for both 4:2:2 and 4:2:0 frames. ms/frame is shown for 1, 2, 4 and 8 threads,
+ * worker threads are kept in uvc_stripe_pool_t while decoding same frame repeatedly.
+ * frames recorded from the camera can be given as arguments.
+ *
+ * build & run on host(from jni directory, libjpeg-turbo should be built for host as libjpeg.a):
+ *   gcc -O2 -std=gnu99 -DLOG_NDEBUG -I. -Ilibusb -Ilibuvc/include -Ilibjpeg-turbo-1.5.0 \
+ *       -Ilibjpeg-turbo-1.5.0/include -I$JAVA_HOME/include -I$JAVA_HOME/include/linux \
+ *       UVCCamera/test/mjpeg_restart_bench.c libuvc/src/frame.c libuvc/src/frame-simd.c \
+ *       libuvc/src/frame-mjpeg.c libjpeg.a -lpthread -lm -o mjpeg_restart_bench
+ *   ./mjpeg_restart_bench [loops=10] [frame.jpg...]
+ */
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <math.h>
+#include <time.h>
+#include <jpeglib.h>
+
+#include "libuvc/libuvc.h"
+
+static inline double now_ms() {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return ts.tv_sec * 1000.0 + ts.tv_nsec / 1000000.0;
+}
+
+/**
+ * encode synthetic pattern as MJPEG frame
+ * @param restart_rows restart interval in MCU rows, 0 means no DRI
+ * @param restart_mcus restart interval in MCUs, used when restart_rows is 0
+ */
+static uvc_frame_t *make_mjpeg(int width, int height, int v_samp, int restart_rows, int restart_mcus) {
+	struct jpeg_compress_struct cinfo;
+	struct jpeg_error_mgr jerr;
+	unsigned char *buf = NULL;
+	unsigned long size = 0;
+	uint8_t *row = malloc(width * 3);
+	int x, y;
+
+	cinfo.err = jpeg_std_error(&jerr);
+	jpeg_create_compress(&cinfo);
+	jpeg_mem_dest(&cinfo, &buf, &size);
+	cinfo.image_width = width;
+	cinfo.image_height = height;
+	cinfo.input_components = 3;
+	cinfo.in_color_space = JCS_RGB;
+	jpeg_set_defaults(&cinfo);
+	jpeg_set_quality(&cinfo, 85, TRUE);
+	cinfo.comp_info[0].h_samp_factor = 2;
+	cinfo.comp_info[0].v_samp_factor = v_samp;
+	cinfo.restart_in_rows = restart_rows;
+	cinfo.restart_interval = restart_mcus;
+	jpeg_start_compress(&cinfo, TRUE);
+	for (y = 0; y < height; y++) {
+		for (x = 0; x < width; x++) {
+			row[x * 3 + 0] = (uint8_t)(x + y);
+			row[x * 3 + 1] = (uint8_t)((x * x + y * 3) >> 4);
+			row[x * 3 + 2] = (uint8_t)(128 + 100 * sin((x + y * 2) / 40.0));
+		}
+		jpeg_write_scanlines(&cinfo, &row, 1);
+	}
+	jpeg_finish_compress(&cinfo);
+	jpeg_destroy_compress(&cinfo);
+	free(row);
+
+	uvc_frame_t *frame = uvc_allocate_frame(size);
+	memcpy(frame->data, buf, size);
+	frame->width = width;
+	frame->height = height;
+	frame->step = 0;
+	frame->frame_format = UVC_FRAME_FORMAT_MJPEG;
+	free(buf);
+	return frame;
+}
+
+static uvc_frame_t *load_mjpeg(const char *path) {
+	struct jpeg_decompress_struct dinfo;
+	struct jpeg_error_mgr jerr;
+	uvc_frame_t *frame = NULL;
+	FILE *f = fopen(path, "rb");
+	if (!f) return NULL;
+	fseek(f, 0, SEEK_END);
+	const long size = ftell(f);
+	fseek(f, 0, SEEK_SET);
+	if (size > 0) {
+		frame = uvc_allocate_frame(size);
+		if (fread(frame->data, 1, size, f) == (size_t)size) {
+			dinfo.err = jpeg_std_error(&jerr);
+			jpeg_create_decompress(&dinfo);
+			jpeg_mem_src(&dinfo, frame->data, size);
+			jpeg_read_header(&dinfo, TRUE);
+			frame->width = dinfo.image_width;
+			frame->height = dinfo.image_height;
+			frame->step = 0;
+			frame->frame_format = UVC_FRAME_FORMAT_MJPEG;
+			jpeg_destroy_decompress(&dinfo);
+		} else {
+			uvc_free_frame(frame);
+			frame = NULL;
+		}
+	}
+	fclose(f);
+	return frame;
+}
+
+/** @return number of rows that differ */
+static int compare_rows(const uint8_t *a, const uint8_t *b, int step, int width, int height) {
+	int y, diff = 0;
+	for (y = 0; y < height; y++) {
+		if (memcmp(a + y * step, b + y * step, width * 4)) diff++;
+	}
+	return diff;
+}
+
+static int bench(const char *name, uvc_frame_t *mjpeg, int loops) {
+	static const int threads[] = { 1, 2, 4, 8 };
+	const int width = mjpeg->width;
+	const int height = mjpeg->height;
+	const int step = ((width + 63) & ~63) * 4;	// emulate stride of window buffer
+	uint8_t *expected = calloc(1, step * height);
+	uint8_t *out = calloc(1, step * height);
+	int errors = 0;
+	size_t t;
+	int i;
+
+	if (uvc_mjpeg2rgbx_to(mjpeg, expected, step, width, height)) {
+		printf("%-28s failed to decode\n", name);
+		errors++;
+	}
+	printf("%-28s %4dx%-4d %7d bytes", name, width, height, (int)mjpeg->actual_bytes);
+	for (t = 0; t < sizeof(threads) / sizeof(int); t++) {
+		// NULL pool decodes serially on the calling thread
+		uvc_stripe_pool_t *pool = threads[t] > 1 ? uvc_stripe_pool_create(threads[t]) : NULL;
+		memset(out, 0, step * height);
+		if (uvc_mjpeg2rgbx_to_parallel(mjpeg, out, step, width, height, pool)) {
+			printf(" FAILED(%d threads)", threads[t]);
+			errors++;
+			uvc_stripe_pool_destroy(pool);
+			continue;
+		}
+		const int diff = compare_rows(expected, out, step, width, height);
+		const double start = now_ms();
+		for (i = 0; i < loops; i++) {
+			uvc_mjpeg2rgbx_to_parallel(mjpeg, out, step, width, height, pool);
+		}
+		printf(" | %dT %6.2fms diff rows %3d", uvc_stripe_pool_get_threads(pool), (now_ms() - start) / loops, diff);
+		uvc_stripe_pool_destroy(pool);
+	}
+	printf("\n");
+
+	free(expected);
+	free(out);
+	return errors;
+}
+
+int main(int argc, char **argv) {
+	const int loops = argc > 1 ? atoi(argv[1]) : 10;
+	// restart interval: { MCU rows, MCUs }
+	static const int restarts[][2] = { { 0, 0 }, { 1, 0 }, { 2, 0 }, { 0, 7 }, { 0, 1 } };
+	static const int sizes[][2] = { { 1920, 1080 }, { 3840, 2160 }, { 1000, 750 } };
+	char name[64];
+	int i, r, v, errors = 0;
+
+	printf("loops=%d, ms/frame for each number of threads, rows that differ from serial decoding\n", loops);
+	if (argc > 2) {
+		for (i = 2; i < argc; i++) {
+			uvc_frame_t *mjpeg = load_mjpeg(argv[i]);
+			if (mjpeg) {
+				const char *p = strrchr(argv[i], '/');
+				errors += bench(p ? p + 1 : argv[i], mjpeg, loops);
+				uvc_free_frame(mjpeg);
+			} else {
+				fprintf(stderr, "failed to load %s\n", argv[i]);
+			}
+		}
+	} else {
+		for (i = 0; i < (int)(sizeof(sizes) / sizeof(sizes[0])); i++) {
+			for (v = 1; v <= 2; v++) {
+				for (r = 0; r < (int)(sizeof(restarts) / sizeof(restarts[0])); r++) {
+					uvc_frame_t *mjpeg = make_mjpeg(sizes[i][0], sizes[i][1], v, restarts[r][0], restarts[r][1]);
+					if (restarts[r][0]) {
+						snprintf(name, sizeof(name), "%s DRI=%d row", v == 1 ? "4:2:2" : "4:2:0", restarts[r][0]);
+					} else if (restarts[r][1]) {
+						snprintf(name, sizeof(name), "%s DRI=%d MCU", v == 1 ? "4:2:2" : "4:2:0", restarts[r][1]);
+					} else {
+						snprintf(name, sizeof(name), "%s no DRI", v == 1 ? "4:2:2" : "4:2:0");
+					}
+					errors += bench(name, mjpeg, loops);
+					uvc_free_frame(mjpeg);
+				}
+			}
+		}
+	}
+	return errors ? 1 : 0;
+}
@@ -0,0 +1,334 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: replay_bench.c
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+/*
+ * host side benchmark of the streaming path without the camera.
+ * payload recording(UVCCamera#setPayloadRecording) is replayed through a virtual device
+ * of libuvc(uvc_replay_open), so payload parsing/frame assembly of stream.c and
+ * the frame callback run exactly as with USB. the callback decodes each MJPEG frame
+ * into RGBX buffer like preview of UVCPreview and the delivered fps, decoding time
+ * and dropped frames are reported.
+ * without recording, synthetic MJPEG frames are split into isochronous packets
+ * with UVC payload header(3072 bytes/125us) and recorded first, then each delivered
+ * frame is checked that it is identical to one of the encoded frames.
+ * synthetic payloads have SCR of the device clock(1MHz, slightly faster than the host) and
+ * each frame arrives with random delay, so the jitter of the frame interval is compared
+ * between capture time(PTS converted with the recovered device clock) and completion time.
+ *
+ * build & run on host(from jni directory, libjpeg-turbo should be built for host as libjpeg.a,
+ * libusb is not used but its headers are needed):
+ *   gcc -O2 -std=gnu99 -DLOG_NDEBUG -I. -Ilibusb -Ilibusb/libusb -Ilibuvc/include -Ilibuvc/include/libuvc \
+ *       -Ilibjpeg-turbo-1.5.0 -Ilibjpeg-turbo-1.5.0/include -I$JAVA_HOME/include -I$JAVA_HOME/include/linux \
+ *       UVCCamera/test/replay_bench.c libuvc/src/stream.c libuvc/src/replay.c libuvc/src/clock.c \
+ *       libuvc/src/device.c \
+ *       libuvc/src/ctrl.c libuvc/src/diag.c libuvc/src/init.c libuvc/src/frame.c libuvc/src/frame-simd.c \
+ *       libuvc/src/frame-mjpeg.c libjpeg.a -lusb-1.0 -lpthread -lm -o replay_bench
+ *   ./replay_bench [speed=1.0] [loops=1] [recording.uvcp]
+ * speed 0 feeds payloads as fast as possible, then frames that the callback could not take are dropped.
+ */
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <math.h>
+#include <time.h>
+#include <unistd.h>
+#include <jpeglib.h>
+
+#include "libuvc/libuvc.h"
+
+#define SYNTH_PATH "replay_bench.uvcp"
+#define SYNTH_WIDTH 1280
+#define SYNTH_HEIGHT 720
+#define SYNTH_FRAMES 60
+#define SYNTH_FPS 30
+#define PACKET_BYTES 3072		// high bandwidth high speed endpoint
+#define PACKET_NS 125000		// microframe
+#define HEADER_BYTES 12			// with PTS and SCR
+#define CLOCK_FREQUENCY 1000000	// device clock of PTS/SCR
+#define CLOCK_DRIFT 1.0002		// device clock runs faster than the host by 200ppm
+#define EXPOSURE_NS 8000000LL	// PTS is this before the first payload of the frame
+#define MAX_DELAY_NS 4000000	// max random delay of each frame
+#define MAX_TIMES 4096
+
+typedef struct bench {
+	int width, height, step;
+	uint8_t *window;
+	int frames;
+	int decode_errors;
+	int matched;
+	double decode_ms, max_decode_ms;
+	double first_ms, last_ms;
+	int64_t capture_time[MAX_TIMES], complete_time[MAX_TIMES];
+	int num_times;
+	// synthetic frames to compare
+	uint8_t **expected;
+	size_t *expected_bytes;
+	int num_expected;
+} bench_t;
+
+static inline double now_ms() {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return ts.tv_sec * 1000.0 + ts.tv_nsec / 1000000.0;
+}
+
+/** encode synthetic pattern that moves on each frame */
+static uint8_t *make_mjpeg(int width, int height, int index, size_t *bytes) {
+	struct jpeg_compress_struct cinfo;
+	struct jpeg_error_mgr jerr;
+	unsigned char *buf = NULL;
+	unsigned long size = 0;
+	uint8_t *row = malloc(width * 3);
+	int x, y;
+
+	cinfo.err = jpeg_std_error(&jerr);
+	jpeg_create_compress(&cinfo);
+	jpeg_mem_dest(&cinfo, &buf, &size);
+	cinfo.image_width = width;
+	cinfo.image_height = height;
+	cinfo.input_components = 3;
+	cinfo.in_color_space = JCS_RGB;
+	jpeg_set_defaults(&cinfo);
+	jpeg_set_quality(&cinfo, 85, TRUE);
+	cinfo.comp_info[0].h_samp_factor = 2;
+	cinfo.comp_info[0].v_samp_factor = 1;
+	jpeg_start_compress(&cinfo, TRUE);
+	for (y = 0; y < height; y++) {
+		for (x = 0; x < width; x++) {
+			row[x * 3 + 0] = (uint8_t)(x + y + index * 8);
+			row[x * 3 + 1] = (uint8_t)((x * x + y * 3) >> 4);
+			row[x * 3 + 2] = (uint8_t)(128 + 100 * sin((x + y * 2 + index * 16) / 40.0));
+		}
+		jpeg_write_scanlines(&cinfo, &row, 1);
+	}
+	jpeg_finish_compress(&cinfo);
+	jpeg_destroy_compress(&cinfo);
+	free(row);
+
+	*bytes = size;
+	return buf;
+}
+
+/** split each frame into isochronous packets with payload header and record them */
+static int make_recording(const char *path, bench_t *bench) {
+	uvc_replay_info_t info;
+	uvc_payload_recorder_t *rec;
+	uint8_t packet[PACKET_BYTES];
+	const int64_t frame_ns = 1000000000LL / SYNTH_FPS;
+	size_t max_bytes = 0;
+	int i;
+
+	bench->num_expected = SYNTH_FRAMES;
+	bench->expected = calloc(SYNTH_FRAMES, sizeof(uint8_t *));
+	bench->expected_bytes = calloc(SYNTH_FRAMES, sizeof(size_t));
+	for (i = 0; i < SYNTH_FRAMES; i++) {
+		bench->expected[i] = make_mjpeg(SYNTH_WIDTH, SYNTH_HEIGHT, i, &bench->expected_bytes[i]);
+		if (bench->expected_bytes[i] > max_bytes) max_bytes = bench->expected_bytes[i];
+	}
+
+	memset(&info, 0, sizeof(info));
+	info.frame_format = UVC_FRAME_FORMAT_MJPEG;
+	info.width = SYNTH_WIDTH;
+	info.height = SYNTH_HEIGHT;
+	info.dwFrameInterval = 10000000 / SYNTH_FPS;
+	info.dwMaxVideoFrameSize = max_bytes;
+	info.dwMaxPayloadTransferSize = PACKET_BYTES;
+	info.dwClockFrequency = CLOCK_FREQUENCY;
+	info.bcdUVC = 0x0100;
+	info.isochronous = 1;
+	if (uvc_recorder_open(path, &info, &rec)) {
+		fprintf(stderr, "failed to create %s\n", path);
+		return -1;
+	}
+	for (i = 0; i < SYNTH_FRAMES; i++) {
+		const uint8_t *data = bench->expected[i];
+		const size_t bytes = bench->expected_bytes[i];
+		const int64_t frame_start_ns = EXPOSURE_NS + i * frame_ns;
+		const uint32_t pts = (uint32_t)((frame_start_ns - EXPOSURE_NS) * CLOCK_DRIFT / (1000000000 / CLOCK_FREQUENCY));
+		// whole frame arrives late, as when the thread that handles USB events is delayed
+		const int64_t delay_ns = rand() % MAX_DELAY_NS;
+		int64_t time_ns = frame_start_ns;
+		size_t pos = 0;
+		for (; pos < bytes; time_ns += PACKET_NS) {
+			const uint32_t scr = (uint32_t)(time_ns * CLOCK_DRIFT / (1000000000 / CLOCK_FREQUENCY));
+			size_t len = bytes - pos;
+			if (len > PACKET_BYTES - HEADER_BYTES) len = PACKET_BYTES - HEADER_BYTES;
+			packet[0] = HEADER_BYTES;
+			packet[1] = 0x80 | 0x08 | 0x04 | (i & 1)	// EOH, SCR, PTS, FID
+				| (pos + len == bytes ? 0x02 : 0);		// EOF
+			memcpy(packet + 2, &pts, 4);
+			memcpy(packet + 6, &scr, 4);
+			memset(packet + 10, 0, 2);	// SOF counter is not used
+			memcpy(packet + HEADER_BYTES, data + pos, len);
+			uvc_recorder_write(rec, time_ns + delay_ns, packet, len + HEADER_BYTES);
+			pos += len;
+		}
+	}
+	uvc_recorder_close(rec);
+	return 0;
+}
+
+/**
+ * jitter of the interval between frames, the first half second is skipped
+ * because the device clock is not recovered yet
+ * @return max deviation of the interval from the mean in milliseconds
+ */
+static double interval_jitter(const int64_t *times, int n, int skip, double *mean_ms, int *backward) {
+	double mean = 0, max = 0;
+	int i;
+	*backward = 0;
+	*mean_ms = 0;
+	if (n - skip < 3) return 0;
+	for (i = skip + 1; i < n; i++) {
+		mean += times[i] - times[i - 1];
+		if (times[i] <= times[i - 1]) (*backward)++;
+	}
+	mean /= n - skip - 1;
+	for (i = skip + 1; i < n; i++) {
+		const double d = fabs((times[i] - times[i - 1]) - mean);
+		if (d > max) max = d;
+	}
+	*mean_ms = mean / 1000000.0;
+	return max / 1000000.0;
+}
+
+static void frame_callback(uvc_frame_t *frame, void *ptr) {
+	bench_t *bench = (bench_t *)ptr;
+	const double start = now_ms();
+	int i;
+
+	if (!bench->frames) bench->first_ms = start;
+	if (bench->num_times < MAX_TIMES) {
+		bench->capture_time[bench->num_times] = frame->capture_time_ns;
+		bench->complete_time[bench->num_times] = frame->complete_time;
+		bench->num_times++;
+	}
+	if (uvc_mjpeg2rgbx_to(frame, bench->window, bench->step, bench->width, bench->height)) {
+		bench->decode_errors++;
+	}
+	const double end = now_ms();
+	bench->decode_ms += end - start;
+	if (end - start > bench->max_decode_ms) bench->max_decode_ms = end - start;
+	for (i = 0; i < bench->num_expected; i++) {
+		if ((frame->actual_bytes == bench->expected_bytes[i])
+			&& !memcmp(frame->data, bench->expected[i], frame->actual_bytes)) {
+			bench->matched++;
+			break;
+		}
+	}
+	bench->frames++;
+	bench->last_ms = end;
+}
+
+int main(int argc, char **argv) {
+	const float speed = argc > 1 ? atof(argv[1]) : 1.0f;
+	const int loops = argc > 2 ? atoi(argv[2]) : 1;
+	const char *path = argc > 3 ? argv[3] : SYNTH_PATH;
+	uvc_device_handle_t *devh;
+	uvc_stream_handle_t *strmh;
+	uvc_stream_ctrl_t ctrl;
+	uvc_replay_info_t info;
+	uvc_stream_drops_t drops;
+	bench_t bench;
+	int i, result;
+
+	memset(&bench, 0, sizeof(bench));
+	if ((argc <= 3) && make_recording(path, &bench)) {
+		return 1;
+	}
+
+	result = uvc_replay_open(path, speed, loops, &devh);
+	if (result) {
+		fprintf(stderr, "failed to open %s:err=%d\n", path, result);
+		return 1;
+	}
+	uvc_replay_get_info(devh, &info);
+	const int fps = info.dwFrameInterval ? 10000000 / info.dwFrameInterval : 30;
+	printf("%s: format=%d %dx%d@%dfps, %s, speed=%.2f, loops=%d\n", path, info.frame_format,
+		info.width, info.height, fps, info.isochronous ? "isochronous" : "bulk", speed, loops);
+	if (info.frame_format != UVC_FRAME_FORMAT_MJPEG) {
+		fprintf(stderr, "only MJPEG recording is benchmarked\n");
+		uvc_replay_close(devh);
+		return 1;
+	}
+
+	bench.width = info.width;
+	bench.height = info.height;
+	bench.step = ((info.width + 63) & ~63) * 4;	// emulate stride of window buffer
+	bench.window = calloc(1, bench.step * info.height);
+
+	// same sequence as UVCPreview, but the stream is opened separately to check the API
+	result = uvc_get_stream_ctrl_format_size(devh, &ctrl, UVC_FRAME_FORMAT_MJPEG, info.width, info.height, fps);
+	if (!result) result = uvc_stream_open_ctrl(devh, &strmh, &ctrl);
+	if (!result) result = uvc_stream_start(strmh, frame_callback, &bench, 0);
+	if (result) {
+		fprintf(stderr, "failed to start stream:err=%d\n", result);
+		uvc_replay_close(devh);
+		return 1;
+	}
+	const double start = now_ms();
+	for (; !uvc_replay_finished(devh) ;) {
+		usleep(10000);
+	}
+	usleep(100000);	// last frame may be in the callback
+	const double elapsed = now_ms() - start;
+	uvc_stream_stop(strmh);
+	uvc_get_stream_drops(devh, &drops);
+	uvc_stream_close(strmh);
+	uvc_replay_close(devh);
+
+	const double span = bench.frames > 1 ? bench.last_ms - bench.first_ms : 0;
+	printf("frames=%d in %.1fms(%.1f fps), decode mean %.2fms max %.2fms, decode errors=%d\n",
+		bench.frames, elapsed, span > 0 ? (bench.frames - 1) * 1000.0 / span : 0,
+		bench.frames ? bench.decode_ms / bench.frames : 0, bench.max_decode_ms, bench.decode_errors);
+	printf("drops: error=%u skipped=%u no buffer=%u\n",
+		drops.error_frames, drops.skipped_frames, drops.no_buffer_frames);
+	{
+		const int skip = fps / 2;
+		double capture_mean, complete_mean, latency = 0;
+		int capture_backward, complete_backward;
+		const double capture_jitter = interval_jitter(bench.capture_time, bench.num_times, skip,
+			&capture_mean, &capture_backward);
+		const double complete_jitter = interval_jitter(bench.complete_time, bench.num_times, skip,
+			&complete_mean, &complete_backward);
+		for (i = skip; i < bench.num_times; i++) {
+			latency += bench.complete_time[i] - bench.capture_time[i];
+		}
+		if (bench.num_times > skip) latency /= (bench.num_times - skip) * 1000000.0;
+		printf("frame interval: capture time mean %.3fms jitter %.3fms(%d backward), complete time mean %.3fms jitter %.3fms\n",
+			capture_mean, capture_jitter, capture_backward, complete_mean, complete_jitter);
+		printf("capture->complete mean %.2fms\n", latency);
+	}
+	if (bench.num_expected) {
+		printf("identical to encoded frames: %d/%d\n", bench.matched, bench.frames);
+		for (i = 0; i < bench.num_expected; i++) {
+			free(bench.expected[i]);
+		}
+		free(bench.expected);
+		free(bench.expected_bytes);
+	}
+	free(bench.window);
+	return bench.num_expected && (bench.matched != bench.frames || !bench.frames) ? 1 : 0;
+}
@@ -0,0 +1,306 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: spscring_test.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+/*
+ * host side stress test for SPSCRing(spscring.h)
+ * push synthetic uvc_frame_t from producer thread to consumer thread
+ * and report hand-off latency(time from put to get) and drop count.
+ * the mutex + condition + ObjectArray queue that UVCPreview used before
+ * is also measured as reference.
+ *
+ * build & run on host(from jni directory):
+ *   g++ -O2 -std=gnu++11 -pthread -DLOG_NDEBUG -I. -IUVCCamera -Ilibusb -Ilibuvc/include \
+ *       -I$JAVA_HOME/include -I$JAVA_HOME/include/linux \
+ *       UVCCamera/test/spscring_test.cpp -o spscring_test
+ *   ./spscring_test [frames=20000] [fps=0(unlimited)] [consumer work usec=0]
+ */
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <unistd.h>
+#include <pthread.h>
+#include <algorithm>
+
+#include "libuvc/libuvc.h"
+#include "objectarray.h"
+#include "spscring.h"
+
+#define POOL_SZ 64
+
+static inline int64_t now_ns() {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (int64_t)ts.tv_sec * 1000000000LL + ts.tv_nsec;
+}
+
+/**
+ * same hand-off as UVCPreview#addPreviewFrame/#waitPreviewFrame before SPSCRing
+ */
+class LockedQueue {
+private:
+	pthread_mutex_t mutex;
+	pthread_cond_t sync;
+	ObjectArray<uvc_frame_t *> frames;
+	const int max_frames;
+	const int policy;
+	int interrupted;
+public:
+	LockedQueue(int _max_frames, int _policy)
+	:	max_frames(_max_frames), policy(_policy), interrupted(0) {
+		pthread_mutex_init(&mutex, NULL);
+		pthread_cond_init(&sync, NULL);
+	}
+	~LockedQueue() {
+		pthread_cond_destroy(&sync);
+		pthread_mutex_destroy(&mutex);
+	}
+	uvc_frame_t *put(uvc_frame_t *frame) {
+		uvc_frame_t *dropped = NULL;
+		pthread_mutex_lock(&mutex);
+		{
+			if (frames.size() >= max_frames) {
+				if (policy == SPSC_DROP_NEWEST) {
+					dropped = frame;
+					frame = NULL;
+				} else {
+					dropped = frames.remove(0);
+				}
+			}
+			if (frame) {
+				frames.put(frame);
+				pthread_cond_signal(&sync);
+			}
+		}
+		pthread_mutex_unlock(&mutex);
+		return dropped;
+	}
+	uvc_frame_t *get() {
+		uvc_frame_t *frame = NULL;
+		pthread_mutex_lock(&mutex);
+		if (frames.size()) frame = frames.remove(0);
+		pthread_mutex_unlock(&mutex);
+		return frame;
+	}
+	uvc_frame_t *wait() {
+		uvc_frame_t *frame = NULL;
+		pthread_mutex_lock(&mutex);
+		{
+			if (!frames.size() && !interrupted) {
+				pthread_cond_wait(&sync, &mutex);
+			}
+			if (frames.size()) {
+				frame = frames.remove(0);
+			} else {
+				interrupted = 0;
+			}
+		}
+		pthread_mutex_unlock(&mutex);
+		return frame;
+	}
+	void wakeup() {
+		pthread_mutex_lock(&mutex);
+		interrupted = 1;
+		pthread_cond_broadcast(&sync);
+		pthread_mutex_unlock(&mutex);
+	}
+};
+
+/**
+ * frames are returned from consumer to producer via another SPSCRing(pool)
+ * so that frame pool itself does not add lock contention.
+ * dropped frames are kept in producer local array to keep pool single producer.
+ */
+template <class Q>
+struct test_context {
+	Q *queue;
+	SPSCRing<uvc_frame_t *> *pool;
+	int64_t *put_ns;		// indexed by frame->sequence
+	int64_t *latency_ns;	// indexed by received order
+	int frames;
+	int fps;
+	int work_us;
+	volatile bool producer_finished;
+	int received;
+	int dropped;
+};
+
+template <class Q>
+static void *producer_func(void *args) {
+	test_context<Q> *ctx = (test_context<Q> *)args;
+	const int64_t interval = ctx->fps > 0 ? 1000000000LL / ctx->fps : 0;
+	ObjectArray<uvc_frame_t *> local_pool(POOL_SZ);
+	int64_t next = now_ns();
+	for (int i = 0; i < ctx->frames; i++) {
+		if (interval) {
+			next += interval;
+			for (; now_ns() < next ;) ;	// busy wait to keep pacing precise
+		}
+		uvc_frame_t *frame = local_pool.isEmpty() ? ctx->pool->get() : local_pool.last();
+		if (UNLIKELY(!frame)) {
+			// consumer holds all frames, count as drop like UVCPreview#get_frame failure
+			ctx->dropped++;
+			continue;
+		}
+		frame->sequence = i;
+		ctx->put_ns[i] = now_ns();
+		uvc_frame_t *dropped = ctx->queue->put(frame);
+		if (dropped) {
+			ctx->dropped++;
+			local_pool.put(dropped);
+		}
+	}
+	ctx->producer_finished = true;
+	ctx->queue->wakeup();
+	return NULL;
+}
+
+template <class Q>
+static void *consumer_func(void *args) {
+	test_context<Q> *ctx = (test_context<Q> *)args;
+	for (;;) {
+		uvc_frame_t *frame = ctx->queue->wait();
+		if (!frame) {
+			if (ctx->producer_finished) {
+				// drain remaining
+				frame = ctx->queue->get();
+				if (!frame) break;
+			} else {
+				continue;
+			}
+		}
+		const int64_t t = now_ns();
+		ctx->latency_ns[ctx->received++] = t - ctx->put_ns[frame->sequence];
+		if (ctx->work_us > 0) {
+			usleep(ctx->work_us);
+		}
+		ctx->pool->put(frame);
+	}
+	return NULL;
+}
+
+template <class Q>
+static void run(const char *name, Q *queue, int frames, int fps, int work_us) {
+	test_context<Q> ctx;
+	memset(&ctx, 0, sizeof(ctx));
+	SPSCRing<uvc_frame_t *> pool(POOL_SZ, SPSC_DROP_NEWEST);
+	uvc_frame_t *all[POOL_SZ];
+	for (int i = 0; i < pool.capacity(); i++) {
+		all[i] = uvc_allocate_frame(64);
+		pool.put(all[i]);
+	}
+	ctx.queue = queue;
+	ctx.pool = &pool;
+	ctx.put_ns = new int64_t[frames];
+	ctx.latency_ns = new int64_t[frames];
+	ctx.frames = frames;
+	ctx.fps = fps;
+	ctx.work_us = work_us;
+
+	pthread_t producer, consumer;
+	const int64_t start = now_ns();
+	pthread_create(&consumer, NULL, consumer_func<Q>, &ctx);
+	pthread_create(&producer, NULL, producer_func<Q>, &ctx);
+	pthread_join(producer, NULL);
+	pthread_join(consumer, NULL);
+	const int64_t elapsed = now_ns() - start;
+
+	const int n = ctx.received;
+	std::sort(ctx.latency_ns, ctx.latency_ns + n);
+	if (n > 0) {
+		printf("%-24s recv=%7d drop=%7d  p50=%8.2fus p99=%8.2fus p99.9=%8.2fus max=%9.2fus  %.0f frames/s\n",
+			name, n, ctx.dropped,
+			ctx.latency_ns[n / 2] / 1000.0,
+			ctx.latency_ns[(int)(n * 0.99)] / 1000.0,
+			ctx.latency_ns[(int)(n * 0.999)] / 1000.0,
+			ctx.latency_ns[n - 1] / 1000.0,
+			n * 1e9 / elapsed);
+	} else {
+		printf("%-24s no frame received\n", name);
+	}
+	if (ctx.received + ctx.dropped != frames) {
+		printf("%-24s ERROR: %d frames lost(recv=%d,drop=%d)\n",
+			name, frames - ctx.received - ctx.dropped, ctx.received, ctx.dropped);
+	}
+
+	delete [] ctx.put_ns;
+	delete [] ctx.latency_ns;
+	for (int i = 0; i < pool.capacity(); i++) {
+		uvc_free_frame(all[i]);
+	}
+}
+
+/**
+ * very small uvc_allocate_frame/uvc_free_frame so that this test does not need libuvc itself
+ */
+uvc_frame_t *uvc_allocate_frame(size_t data_bytes) {
+	uvc_frame_t *frame = (uvc_frame_t *)calloc(1, sizeof(uvc_frame_t));
+	if (frame) {
+		frame->data = malloc(data_bytes);
+		frame->data_bytes = data_bytes;
+		frame->library_owns_data = 1;
+	}
+	return frame;
+}
+
+void uvc_free_frame(uvc_frame_t *frame) {
+	if (frame) {
+		free(frame->data);
+		free(frame);
+	}
+}
+
+int main(int argc, char **argv) {
+	const int frames = argc > 1 ? atoi(argv[1]) : 20000;
+	const int fps = argc > 2 ? atoi(argv[2]) : 0;
+	const int work_us = argc > 3 ? atoi(argv[3]) : 0;
+	printf("frames=%d, fps=%d, consumer work=%dus\n", frames, fps, work_us);
+
+	for (int loop = 0; loop < 2; loop++) {
+		// preview queue: MAX_FRAME=4, drop newest
+		{
+			LockedQueue q(4, SPSC_DROP_NEWEST);
+			run("mutex/drop-newest(4)", &q, frames, fps, work_us);
+		}
+		{
+			SPSCRing<uvc_frame_t *> q(4, SPSC_DROP_NEWEST);
+			run("spsc/drop-newest(4)", &q, frames, fps, work_us);
+		}
+		// capture queue: keep latest one, drop oldest
+		{
+			LockedQueue q(1, SPSC_DROP_OLDEST);
+			run("mutex/drop-oldest(1)", &q, frames, fps, work_us);
+		}
+		{
+			SPSCRing<uvc_frame_t *> q(1, SPSC_DROP_OLDEST);
+			run("spsc/drop-oldest(1)", &q, frames, fps, work_us);
+		}
+		{
+			SPSCRing<uvc_frame_t *> q(8, SPSC_DROP_OLDEST);
+			run("spsc/drop-oldest(8)", &q, frames, fps, work_us);
+		}
+	}
+	return 0;
+}
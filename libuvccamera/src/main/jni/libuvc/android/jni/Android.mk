@@ -68,7 +68,17 @@ LOCAL_SRC_FILES := \
 	src/frame.c \
 	src/frame-mjpeg.c \
 	src/init.c \
-	src/stream.c
+	src/stream.c \
+	src/replay.c \
+	src/clock.c
+
+# SIMD pixel format converters, selected at runtime(see uvc_convert_set_isa)
+ifeq ($(TARGET_ARCH_ABI),armeabi-v7a)
+# build only this file with -mfpu=neon, NEON is checked with getauxval before use
+LOCAL_SRC_FILES += src/frame-simd.c.neon
+else
+LOCAL_SRC_FILES += src/frame-simd.c
+endif
 
 LOCAL_MODULE := libuvc_static
 include $(BUILD_STATIC_LIBRARY)
@@ -470,7 +470,8 @@ typedef struct uvc_frame {
 	size_t step;
 	/** Frame number (may skip, but is strictly monotonically increasing) */
 	uint32_t sequence;
-	/** Estimate of system time when the device started capturing the image */
+	/** Estimate of system time when the device started capturing the image
+	 * XXX CLOCK_MONOTONIC, same as capture_time_ns */
 	struct timeval capture_time;
 	/** Handle on the device that produced the image.
 	 * @warning You must not call any uvc_* functions during a callback. */
@@ -482,6 +483,17 @@ typedef struct uvc_frame {
 	 * Set this field to zero if you are supplying the buffer.
 	 */
 	uint8_t library_owns_data;
+	/** XXX CLOCK_MONOTONIC time[ns] when libuvc received the last payload of the frame */
+	int64_t complete_time;
+	/** XXX CLOCK_MONOTONIC time[ns] that the user code can use to measure latency of its own stages,
+	 * libuvc sets same value as complete_time */
+	int64_t stage_time;
+	/** XXX presentation time stamp of payload header in the device clock, 0 if the device did not send it */
+	uint32_t pts;
+	/** XXX CLOCK_MONOTONIC time[ns] when the device captured the image, PTS converted with the device clock
+	 * recovered from SCR, or the time when the first payload of the frame arrived if it is not available.
+	 * This always increases frame by frame while streaming */
+	int64_t capture_time_ns;
 } uvc_frame_t;
 
 /** A callback function to handle incoming assembled UVC frames
@@ -489,6 +501,113 @@ typedef struct uvc_frame {
  */
 typedef void(uvc_frame_callback_t)(struct uvc_frame *frame, void *user_ptr);
 
+/** XXX frame pool for zero-copy streaming
+ * When a stream has frame pool, libuvc assembles payloads directly into the data buffer
+ * of the frame that is obtained from #get_frame and hands over the frame itself
+ * to the user callback function instead of copying it.
+ * The user callback function owns the frame and should return it with #recycle_frame
+ * (or any other way the pool owner likes) when it finished using the frame.
+ * @ingroup streaming
+ */
+typedef struct uvc_frame_pool {
+	/** return frame whose data buffer has at least data_bytes, NULL if no frame is available */
+	struct uvc_frame *(*get_frame)(size_t data_bytes, void *pool_ptr);
+	/** return frame to the pool */
+	void (*recycle_frame)(struct uvc_frame *frame, void *pool_ptr);
+	void *pool_ptr;
+} uvc_frame_pool_t;
+
+/** XXX number of frames that libuvc dropped before passing them to the user callback
+ * @ingroup streaming
+ */
+typedef struct uvc_stream_drops {
+	/** frames that had broken payload header or overflowed the frame buffer */
+	uint32_t error_frames;
+	/** frames that were overwritten by next frame before the user callback thread took them
+	 * (gaps of frame sequence) */
+	uint32_t skipped_frames;
+	/** zero-copy streaming: frames that were lost because frame pool was empty */
+	uint32_t no_buffer_frames;
+	/** payload recording: payloads that were not recorded because the writer thread fell behind,
+	 * these are counted in payloads and the frames themselves are not dropped */
+	uint32_t unrecorded_payloads;
+} uvc_stream_drops_t;
+
+/** XXX memory that libuvc allocated for a stream
+ * @ingroup streaming
+ */
+typedef struct uvc_stream_memory {
+	/** interface number of the stream */
+	uint8_t bInterfaceNumber;
+	/** number of transfers */
+	int num_transfers;
+	/** total size of transfer buffers */
+	size_t transfer_bytes;
+	/** size of working/holding buffers and frame for the user callback,
+	 * 0 on zero-copy streaming because the frames belong to the frame pool */
+	size_t frame_buf_bytes;
+	/** number of times the working buffer grew because the camera sent larger frame than dwMaxVideoFrameSize */
+	uint32_t frame_buf_grows;
+} uvc_stream_memory_t;
+
+/** XXX pass to uvc_stream_set_num_transfers/uvc_set_num_transfers to choose number of transfers
+ * and packets per isochronous transfer from frame size, frame interval and endpoint packet size
+ * @ingroup streaming
+ */
+#define UVC_NUM_TRANSFERS_AUTO (-1)
+
+/** XXX USB transfers of a stream
+ * @ingroup streaming
+ */
+typedef struct uvc_stream_transfer_info {
+	/** interface number of the stream */
+	uint8_t bInterfaceNumber;
+	/** 1 if isochronous, 0 if bulk */
+	uint8_t isochronous;
+	/** 1 if num_transfers and packets_per_transfer were auto-tuned */
+	uint8_t auto_tuned;
+	/** number of transfers in flight */
+	int num_transfers;
+	/** packets per isochronous transfer, 0 on bulk */
+	int packets_per_transfer;
+	/** bytes per isochronous packet, or bytes per bulk transfer */
+	size_t bytes_per_packet;
+	/** duration of one isochronous transfer in microseconds, 0 on bulk */
+	uint32_t transfer_us;
+	/** completion callbacks since the stream started */
+	uint64_t callbacks;
+	/** completion callbacks per second, updated every second */
+	float callbacks_per_sec;
+} uvc_stream_transfer_info_t;
+
+/** XXX stream format of payload recording, a virtual device opened with uvc_replay_open
+ * provides a single format/frame descriptor that matches this
+ * @ingroup replay
+ */
+typedef struct uvc_replay_info {
+	enum uvc_frame_format frame_format;
+	uint16_t width;
+	uint16_t height;
+	/** frame interval in 100ns */
+	uint32_t dwFrameInterval;
+	uint32_t dwMaxVideoFrameSize;
+	uint32_t dwMaxPayloadTransferSize;
+	uint32_t dwClockFrequency;
+	uint16_t bcdUVC;
+	/** 1 if payloads were isochronous packets, 0 if bulk transfers */
+	uint8_t isochronous;
+} uvc_replay_info_t;
+
+/** XXX writer of payload recording
+ * @ingroup replay
+ */
+typedef struct uvc_payload_recorder uvc_payload_recorder_t;
+
+/** XXX worker threads that decode stripes of MJPEG frame in parallel
+ * @ingroup frame
+ */
+typedef struct uvc_stripe_pool uvc_stripe_pool_t;
+
 /** Streaming mode, includes all information needed to select stream
  * @ingroup streaming
  */
@@ -587,6 +706,10 @@ uvc_error_t uvc_start_streaming_bandwidth(uvc_device_handle_t *devh,
 		uvc_stream_ctrl_t *ctrl, uvc_frame_callback_t *cb, void *user_ptr,
 		float bandwidth,
 		uint8_t flags);	// XXX added saki
+uvc_error_t uvc_start_streaming_bandwidth_pool(uvc_device_handle_t *devh,
+		uvc_stream_ctrl_t *ctrl, uvc_frame_callback_t *cb, void *user_ptr,
+		float bandwidth, const uvc_frame_pool_t *pool,
+		uint8_t flags);	// XXX added for zero-copy streaming
 
 uvc_error_t uvc_start_iso_streaming(uvc_device_handle_t *devh,
 		uvc_stream_ctrl_t *ctrl, uvc_frame_callback_t *cb, void *user_ptr);
@@ -603,11 +726,33 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 		uvc_frame_callback_t *cb, void *user_ptr, float bandwidth, uint8_t flags);	// XXX added saki
 uvc_error_t uvc_stream_start_iso(uvc_stream_handle_t *strmh,
 		uvc_frame_callback_t *cb, void *user_ptr);
+uvc_error_t uvc_stream_set_frame_pool(uvc_stream_handle_t *strmh,
+		const uvc_frame_pool_t *pool);	// XXX added for zero-copy streaming
+uvc_error_t uvc_stream_set_num_transfers(uvc_stream_handle_t *strmh, int num_transfers);	// XXX
+uvc_error_t uvc_set_num_transfers(uvc_device_handle_t *devh, int num_transfers);	// XXX
+uvc_error_t uvc_stream_get_memory_usage(uvc_stream_handle_t *strmh, uvc_stream_memory_t *usage);	// XXX
+int uvc_get_memory_usage(uvc_device_handle_t *devh, uvc_stream_memory_t *usage, int max_streams);	// XXX
+uvc_error_t uvc_stream_get_transfer_info(uvc_stream_handle_t *strmh, uvc_stream_transfer_info_t *info);	// XXX
+int uvc_get_transfer_info(uvc_device_handle_t *devh, uvc_stream_transfer_info_t *info, int max_streams);	// XXX
+void uvc_get_stream_drops(uvc_device_handle_t *devh, uvc_stream_drops_t *drops);	// XXX
+uvc_error_t uvc_stream_record_payloads(uvc_stream_handle_t *strmh, const char *path);	// XXX
+uvc_error_t uvc_record_payloads(uvc_device_handle_t *devh, const char *path);	// XXX
 uvc_error_t uvc_stream_get_frame(uvc_stream_handle_t *strmh,
 		uvc_frame_t **frame, int32_t timeout_us);
 uvc_error_t uvc_stream_stop(uvc_stream_handle_t *strmh);
 void uvc_stream_close(uvc_stream_handle_t *strmh);
 
+// XXX payload recording and virtual device that replays it(replay.c)
+uvc_error_t uvc_recorder_open(const char *path, const uvc_replay_info_t *info,
+		uvc_payload_recorder_t **recorder);
+uvc_error_t uvc_recorder_write(uvc_payload_recorder_t *recorder, int64_t time_ns,
+		const uint8_t *payload, size_t payload_len);
+void uvc_recorder_close(uvc_payload_recorder_t *recorder);
+uvc_error_t uvc_replay_open(const char *path, float speed, int loops, uvc_device_handle_t **devh);
+uvc_error_t uvc_replay_get_info(uvc_device_handle_t *devh, uvc_replay_info_t *info);
+int uvc_replay_finished(uvc_device_handle_t *devh);
+void uvc_replay_close(uvc_device_handle_t *devh);
+
 // Generic Controls
 int uvc_get_ctrl_len(uvc_device_handle_t *devh, uint8_t unit, uint8_t ctrl);
 int uvc_get_ctrl(uvc_device_handle_t *devh, uint8_t unit, uint8_t ctrl,
@@ -797,10 +942,24 @@ uvc_error_t uvc_any2bgr(uvc_frame_t *in, uvc_frame_t *out);
 
 #ifdef LIBUVC_HAS_JPEG
 uvc_error_t uvc_mjpeg2rgb(uvc_frame_t *in, uvc_frame_t *out);
+uvc_error_t uvc_mjpeg2jpeg(uvc_frame_t *in, uvc_frame_t *out);	// XXX
 uvc_error_t uvc_mjpeg2bgr(uvc_frame_t *in, uvc_frame_t *out);		// XXX
 uvc_error_t uvc_mjpeg2rgb565(uvc_frame_t *in, uvc_frame_t *out);	// XXX
 uvc_error_t uvc_mjpeg2rgbx(uvc_frame_t *in, uvc_frame_t *out);		// XXX
 uvc_error_t uvc_mjpeg2yuyv(uvc_frame_t *in, uvc_frame_t *out);		// XXX
+uvc_error_t uvc_mjpeg2rgbx_to(uvc_frame_t *in, uint8_t *dst, int dst_step, int dst_width, int dst_height);	// XXX
+uvc_stripe_pool_t *uvc_stripe_pool_create(int num_threads);	// XXX
+void uvc_stripe_pool_destroy(uvc_stripe_pool_t *pool);		// XXX
+int uvc_stripe_pool_get_threads(uvc_stripe_pool_t *pool);		// XXX
+uvc_error_t uvc_mjpeg2rgbx_parallel(uvc_frame_t *in, uvc_frame_t *out, uvc_stripe_pool_t *pool);	// XXX
+uvc_error_t uvc_mjpeg2rgbx_to_parallel(uvc_frame_t *in, uint8_t *dst, int dst_step, int dst_width, int dst_height, uvc_stripe_pool_t *pool);	// XXX
+uvc_error_t uvc_mjpeg2yuv420SP(uvc_frame_t *in, uvc_frame_t *out);	// XXX
+uvc_error_t uvc_mjpeg2iyuv420SP(uvc_frame_t *in, uvc_frame_t *out);	// XXX
+uvc_error_t uvc_mjpeg2rgb565_scaled(uvc_frame_t *in, uvc_frame_t *out, int scale_denom);	// XXX
+uvc_error_t uvc_mjpeg2rgbx_scaled(uvc_frame_t *in, uvc_frame_t *out, int scale_denom);	// XXX
+uvc_error_t uvc_mjpeg2yuyv_scaled(uvc_frame_t *in, uvc_frame_t *out, int scale_denom);	// XXX
+uvc_error_t uvc_mjpeg2yuv420SP_scaled(uvc_frame_t *in, uvc_frame_t *out, int scale_denom);	// XXX
+uvc_error_t uvc_mjpeg2iyuv420SP_scaled(uvc_frame_t *in, uvc_frame_t *out, int scale_denom);	// XXX
 #endif
 
 uvc_error_t uvc_yuyv2rgb565(uvc_frame_t *in, uvc_frame_t *out);		// XXX
@@ -813,6 +972,12 @@ uvc_error_t uvc_uyvy2rgbx(uvc_frame_t *in, uvc_frame_t *out);		// XXX
 uvc_error_t uvc_rgb2rgbx(uvc_frame_t *in, uvc_frame_t *out);		// XXX
 uvc_error_t uvc_any2rgbx(uvc_frame_t *in, uvc_frame_t *out);		// XXX
 
+// XXX write converted image directly into the memory that has arbitrary stride(e.g. locked ANativeWindow_Buffer)
+uvc_error_t uvc_yuyv2rgbx_to(uvc_frame_t *in, uint8_t *dst, int dst_step, int dst_width, int dst_height);
+uvc_error_t uvc_yuyv2rgb565_to(uvc_frame_t *in, uint8_t *dst, int dst_step, int dst_width, int dst_height);
+uvc_error_t uvc_any2rgbx_to(uvc_frame_t *in, uint8_t *dst, int dst_step, int dst_width, int dst_height);
+uvc_error_t uvc_any2rgb565_to(uvc_frame_t *in, uint8_t *dst, int dst_step, int dst_width, int dst_height);
+
 uvc_error_t uvc_yuyv2yuv420P(uvc_frame_t *in, uvc_frame_t *out);	// XXX
 uvc_error_t uvc_yuyv2yuv420SP(uvc_frame_t *in, uvc_frame_t *out);	// XXX
 uvc_error_t uvc_any2yuv420SP(uvc_frame_t *in, uvc_frame_t *out);	// XXX
@@ -825,6 +990,18 @@ uvc_error_t uvc_any2yuyv(uvc_frame_t *in, uvc_frame_t *out);		// XXX
 
 uvc_error_t uvc_ensure_frame_size(uvc_frame_t *frame, size_t need_bytes); // XXX
 
+// XXX instruction set for pixel format conversion
+enum uvc_convert_isa {
+	UVC_CONVERT_ISA_AUTO = -1,
+	UVC_CONVERT_ISA_SCALAR = 0,
+	UVC_CONVERT_ISA_NEON = 1,
+	UVC_CONVERT_ISA_SSE2 = 2,
+	UVC_CONVERT_ISA_AVX2 = 3,
+};
+uvc_error_t uvc_convert_set_isa(int isa);	// XXX
+int uvc_convert_get_isa(void);				// XXX
+const char *uvc_convert_isa_name(int isa);	// XXX
+
 //**********************************************************************
 // added for diagnostic
 // t_saki@serenegiant.com
@@ -247,10 +247,40 @@ typedef struct uvc_device_info {
   We could/should change this to allow reduce it to, say, 5 by default
   and then allow the user to change the number of buffers as required.
  */
-#define LIBUVC_NUM_TRANSFER_BUFS 10
-
+#define LIBUVC_NUM_TRANSFER_BUFS 10	// XXX default number of transfers of each stream
+#define LIBUVC_MAX_TRANSFER_BUFS 32	// XXX
+#define LIBUVC_MAX_ISO_PACKETS 128	// XXX max packets per isochronous transfer that usbfs accepts
+#define LIBUVC_AUTO_MIN_ISO_PACKETS 8	// XXX 1ms on high speed
+#define LIBUVC_AUTO_SLACK_US 50000	// XXX transfers in flight should cover this time to avoid under-run
+#define LIBUVC_MAX_ISO_BYTES (15 * 1024 * 1024)	// XXX total of isochronous transfers, usbfs allows 16MB by default
+
+// XXX max size of working buffers, they are allocated with dwMaxVideoFrameSize and grow up to this
 #define LIBUVC_XFER_BUF_SIZE	( 16 * 1024 * 1024 )
 
+#define LIBUVC_CLOCK_SAMPLES 32	// XXX samples of device clock recovery, see clock.c
+#define LIBUVC_MAX_CAPTURE_LATENCY_NS 1000000000LL	// XXX capture time older than this from completion is not plausible
+
+/** XXX pair of device clock(SCR) and CLOCK_MONOTONIC[ns] when the payload was received */
+typedef struct uvc_clock_sample {
+  uint32_t stc;
+  int64_t host_ns;
+} uvc_clock_sample_t;
+
+/** XXX recovered device clock, host_ns = base_host + offset + rate * tick_ns * (stc - base_stc) */
+typedef struct uvc_clock {
+  uint32_t frequency;	// dwClockFrequency, 0 if the clock is not recovered
+  double tick_ns;
+  uvc_clock_sample_t samples[LIBUVC_CLOCK_SAMPLES];
+  int head, count;
+  uvc_clock_sample_t candidate;	// sample with the least delay in current period
+  uint8_t has_candidate;
+  int64_t period_start;
+  uint8_t valid;
+  uint32_t base_stc;
+  int64_t base_host;
+  double rate, offset;
+} uvc_clock_t;
+
 struct uvc_stream_handle {
   struct uvc_device_handle *devh;
   struct uvc_stream_handle *prev, *next;
@@ -268,19 +298,44 @@ struct uvc_stream_handle {
   uint32_t seq, hold_seq;
   uint32_t pts, hold_pts;
   uint32_t last_scr, hold_last_scr;
+  int64_t hold_complete_time;	// XXX CLOCK_MONOTONIC[ns] when the held frame was completed
+  int64_t hold_capture_time;	// XXX CLOCK_MONOTONIC[ns] when the held frame was captured
+  int64_t last_capture_time;	// XXX capture time of previous frame, capture times always increase
+  int64_t payload_time;	// XXX CLOCK_MONOTONIC[ns] when the payload being processed was received
+  int64_t frame_start_time;	// XXX payload_time of the first payload of current frame
+  uvc_clock_t clock;	// XXX device clock recovered from SCR
   size_t got_bytes, hold_bytes;
   size_t size_buf;	// XXX add for boundary check
+  size_t hold_size_buf;	// XXX size of holdbuf, outbuf and holdbuf can differ after growing
+  uint32_t frame_buf_grows;	// XXX number of times the working buffer grew
   uint8_t *outbuf, *holdbuf;
+  /* XXX zero-copy streaming, outbuf/holdbuf point to data of these frames when frame_pool is set */
+  uvc_frame_pool_t frame_pool;
+  struct uvc_frame *out_frame, *hold_frame;
   pthread_mutex_t cb_mutex;
   pthread_cond_t cb_cond;
   pthread_t cb_thread;
   uint32_t last_polled_seq;
+  uint8_t pool_starved;	// XXX payloads are being discarded because frame pool was empty
   uvc_frame_callback_t *user_cb;
   void *user_ptr;
-  struct libusb_transfer *transfers[LIBUVC_NUM_TRANSFER_BUFS];
-  uint8_t *transfer_bufs[LIBUVC_NUM_TRANSFER_BUFS];
+  int num_transfer_bufs;	// XXX number of transfers, LIBUVC_NUM_TRANSFER_BUFS by default
+  size_t transfer_bytes;	// XXX total size of transfer buffers
+  /* XXX isochronous transfers are tuned from frame size/interval when auto_transfers is set */
+  uint8_t isochronous, auto_transfers;
+  int packets_per_transfer;
+  size_t bytes_per_packet;
+  uint32_t transfer_us;
+  /* XXX completion callbacks of transfers, only the thread that handles USB events updates these */
+  uint64_t xfer_callbacks;
+  uint32_t xfer_rate_count;
+  int64_t xfer_rate_start;
+  float xfer_callback_rate;
+  struct libusb_transfer *transfers[LIBUVC_MAX_TRANSFER_BUFS];
+  uint8_t *transfer_bufs[LIBUVC_MAX_TRANSFER_BUFS];
   struct uvc_frame frame;
   enum uvc_frame_format frame_format;
+  struct uvc_payload_recorder *recorder;	// XXX writes every payload while set, closed at stop
 };
 
 /** Handle on an open UVC device
@@ -307,6 +362,15 @@ struct uvc_device_handle {
   /** Whether the camera is an iSight that sends one header per frame */
   uint8_t is_isight;
   uint8_t reset_on_release_if;	// XXX whether interface alt setting needs to reset to 0.
+  /** XXX frames dropped before the user callback since the device was opened, see uvc_get_stream_drops */
+  uvc_stream_drops_t drops;
+  /** XXX number of transfers for streams opened later, 0 means LIBUVC_NUM_TRANSFER_BUFS
+   * and UVC_NUM_TRANSFERS_AUTO means auto-tuning */
+  int num_transfer_bufs;
+  /** XXX path of payload recording for the stream started next, see uvc_record_payloads */
+  char *record_path;
+  /** XXX non-NULL on virtual device that replays payload recording instead of USB */
+  struct uvc_replay *replay;
 };
 
 /** Context within which we communicate with devices */
@@ -331,6 +395,45 @@ void uvc_start_handler_thread(uvc_context_t *ctx);
 uvc_error_t uvc_claim_if(uvc_device_handle_t *devh, int idx);
 uvc_error_t uvc_release_if(uvc_device_handle_t *devh, int idx);
 
+// XXX payload processing that is shared by USB transfers and replay
+void _uvc_process_payload(uvc_stream_handle_t *strmh, const uint8_t *payload, size_t payload_len);
+const uint8_t *_uvc_frame_format_guid(enum uvc_frame_format fmt);
+// XXX also used for bandwidth information of UVCCamera
+int _uvc_get_device_speed(uvc_device_handle_t *devh);
+size_t _uvc_endpoint_bytes_per_interval(const struct libusb_endpoint_descriptor *endpoint);
+// XXX device clock recovery(clock.c)
+void _uvc_clock_reset(uvc_clock_t *clock, uint32_t frequency);
+void _uvc_clock_add_sample(uvc_clock_t *clock, uint32_t stc, int64_t host_ns);
+uvc_error_t _uvc_clock_to_host(const uvc_clock_t *clock, uint32_t stc, int64_t *host_ns);
+// XXX virtual device(replay.c)
+uvc_error_t _uvc_replay_query_stream_ctrl(uvc_device_handle_t *devh,
+	uvc_stream_ctrl_t *ctrl, enum uvc_req_code req);
+uvc_error_t _uvc_replay_start(uvc_stream_handle_t *strmh);
+void _uvc_replay_stop(uvc_stream_handle_t *strmh);
+
+// XXX row converters for pixel format conversion, implementation is selected at runtime by CPU features
+/** convert pixels(even number) on a row */
+typedef void (*uvc_convert_row_t)(const uint8_t *src, uint8_t *dst, int pixels);
+/** convert 2 rows into 2 rows of luma and 1 row of interleaved chroma, pixels are processed by 4 */
+typedef void (*uvc_convert_row_420sp_t)(const uint8_t *src0, const uint8_t *src1,
+	uint8_t *y0, uint8_t *y1, uint8_t *uv, int pixels);
+
+typedef struct uvc_convert_funcs {
+	int isa;	// UVC_CONVERT_ISA_XXX
+	uvc_convert_row_t yuyv2rgbx;
+	uvc_convert_row_t yuyv2rgb565;
+	uvc_convert_row_t uyvy2rgbx;
+	uvc_convert_row_t uyvy2rgb565;
+	uvc_convert_row_420sp_t yuyv2yuv420SP;
+	uvc_convert_row_420sp_t yuyv2iyuv420SP;
+} uvc_convert_funcs_t;
+
+extern const uvc_convert_funcs_t _uvc_convert_funcs_scalar;
+// these return NULL if the ISA is not available on this build/CPU (frame-simd.c)
+const uvc_convert_funcs_t *_uvc_convert_funcs_neon(void);
+const uvc_convert_funcs_t *_uvc_convert_funcs_sse2(void);
+const uvc_convert_funcs_t *_uvc_convert_funcs_avx2(void);
+
 #endif // !def(LIBUVC_INTERNAL_H)
 /** @endcond */
 
@@ -0,0 +1,183 @@
+/*********************************************************************
+ * device clock recovery from SCR of payload header
+ * Copyright (C) 2014-2017 saki@serenegiant All rights reserved.
+ *********************************************************************/
+/*********************************************************************
+ * Software License Agreement (BSD License)
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   * Neither the name of the author nor other contributors may be
+ *     used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************/
+/**
+ * @internal
+ * @brief XXX recover the device clock(the clock of PTS/SCR in payload header) against CLOCK_MONOTONIC
+ *
+ * SCR of payload header has the device clock(STC) when the payload was sent, and the host knows
+ * roughly when it received the payload. The delay between them varies with USB transfers and
+ * scheduling of the thread that handles USB events but it is never negative, so the payload
+ * that arrived with the least delay is taken as a sample in each LIBUVC_CLOCK_PERIOD_NS,
+ * the rate of the device clock is fitted to the samples in the window(about a second)
+ * and the mapping is moved down to the lower envelope of the samples.
+ * PTS of each frame is converted to CLOCK_MONOTONIC with this mapping.
+ * Only the thread that handles USB events(or feeds the replay) updates and reads the clock.
+ */
+
+#define LOCAL_DEBUG 0
+
+#define LOG_TAG "libuvc/clock"
+#if 1	// デバッグ情報を出さない時1
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// LOGV/LOGD/MARKを出力しない時
+		#endif
+	#undef USE_LOGALL			// 指定したLOGxだけを出力
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+	#undef NDEBUG
+#endif
+
+#include <stdlib.h>
+#include <string.h>
+
+#include "libuvc/libuvc.h"
+#include "libuvc/libuvc_internal.h"
+
+#define LIBUVC_CLOCK_PERIOD_NS 32000000LL		// one sample in this period, LIBUVC_CLOCK_SAMPLES covers about a second
+#define LIBUVC_CLOCK_MIN_SPAN_NS 250000000LL	// samples should cover this to fit the rate, nominal rate is used until then
+#define LIBUVC_CLOCK_MAX_ERROR_NS 100000000LL	// samples are discarded when the device clock jumps more than this
+#define LIBUVC_CLOCK_MIN_RATE 0.5				// limit of fitted rate against dwClockFrequency
+#define LIBUVC_CLOCK_MAX_RATE 2.0
+
+/** @internal
+ * @brief clear samples and start recovering the clock of the frequency
+ * @param frequency dwClockFrequency of the stream, 0 disables clock recovery
+ */
+void _uvc_clock_reset(uvc_clock_t *clock, uint32_t frequency) {
+	memset(clock, 0, sizeof(*clock));
+	clock->frequency = frequency;
+	clock->tick_ns = frequency ? 1000000000.0 / frequency : 0;
+}
+
+/** @internal
+ * @brief fit the rate and offset of the mapping to the samples
+ */
+static void _uvc_clock_fit(uvc_clock_t *clock) {
+	const int n = clock->count;
+	const uvc_clock_sample_t *base = &clock->samples[(clock->head + LIBUVC_CLOCK_SAMPLES - 1) % LIBUVC_CLOCK_SAMPLES];
+	double x[LIBUVC_CLOCK_SAMPLES], y[LIBUVC_CLOCK_SAMPLES];
+	double mean_x = 0, mean_y = 0, rate = 1.0;
+	int i;
+
+	for (i = 0; i < n; i++) {
+		const uvc_clock_sample_t *sample = &clock->samples[(clock->head + LIBUVC_CLOCK_SAMPLES - n + i) % LIBUVC_CLOCK_SAMPLES];
+		x[i] = clock->tick_ns * (int32_t)(sample->stc - base->stc);
+		y[i] = (double)(sample->host_ns - base->host_ns);
+		mean_x += x[i];
+		mean_y += y[i];
+	}
+	if ((n >= 4) && (-x[0] >= LIBUVC_CLOCK_MIN_SPAN_NS)) {
+		double sxx = 0, sxy = 0;
+		mean_x /= n;
+		mean_y /= n;
+		for (i = 0; i < n; i++) {
+			sxx += (x[i] - mean_x) * (x[i] - mean_x);
+			sxy += (x[i] - mean_x) * (y[i] - mean_y);
+		}
+		if (sxx > 0) {
+			rate = sxy / sxx;
+			if (rate < LIBUVC_CLOCK_MIN_RATE) rate = LIBUVC_CLOCK_MIN_RATE;
+			if (rate > LIBUVC_CLOCK_MAX_RATE) rate = LIBUVC_CLOCK_MAX_RATE;
+		}
+	}
+	// lower envelope, the sample that arrived with the least delay
+	double offset = y[0] - rate * x[0];
+	for (i = 1; i < n; i++) {
+		const double d = y[i] - rate * x[i];
+		if (d < offset) offset = d;
+	}
+	clock->base_stc = base->stc;
+	clock->base_host = base->host_ns;
+	clock->rate = rate;
+	clock->offset = offset;
+	clock->valid = n >= 2;
+}
+
+/** @internal
+ * @brief add a pair of SCR and the time when the payload was received
+ * @param stc source time clock of SCR
+ * @param host_ns CLOCK_MONOTONIC[ns] when the payload was received
+ */
+void _uvc_clock_add_sample(uvc_clock_t *clock, uint32_t stc, int64_t host_ns) {
+	if (UNLIKELY(!clock->frequency)) return;
+
+	if (clock->valid) {
+		int64_t expected;
+		_uvc_clock_to_host(clock, stc, &expected);
+		if (UNLIKELY(llabs(host_ns - expected) > LIBUVC_CLOCK_MAX_ERROR_NS)) {
+			// the camera restarted its clock or the samples were wrong
+			MARK("device clock jumped:%lld ns", (long long)(host_ns - expected));
+			_uvc_clock_reset(clock, clock->frequency);
+		}
+	}
+	if (!clock->has_candidate) {
+		clock->candidate.stc = stc;
+		clock->candidate.host_ns = host_ns;
+		clock->has_candidate = 1;
+		if (!clock->period_start)
+			clock->period_start = host_ns;
+	} else {
+		// negative means that this payload arrived with less delay than the candidate
+		const double delay = (double)(host_ns - clock->candidate.host_ns)
+			- clock->tick_ns * (int32_t)(stc - clock->candidate.stc);
+		if (delay < 0) {
+			clock->candidate.stc = stc;
+			clock->candidate.host_ns = host_ns;
+		}
+	}
+	if (host_ns - clock->period_start >= LIBUVC_CLOCK_PERIOD_NS) {
+		clock->samples[clock->head] = clock->candidate;
+		clock->head = (clock->head + 1) % LIBUVC_CLOCK_SAMPLES;
+		if (clock->count < LIBUVC_CLOCK_SAMPLES)
+			clock->count++;
+		clock->has_candidate = 0;
+		clock->period_start = host_ns;
+		_uvc_clock_fit(clock);
+	}
+}
+
+/** @internal
+ * @brief convert the device clock(e.g. PTS) to CLOCK_MONOTONIC
+ * @param[out] host_ns
+ * @return 0 if converted, UVC_ERROR_NOT_FOUND if the clock is not recovered yet
+ */
+uvc_error_t _uvc_clock_to_host(const uvc_clock_t *clock, uint32_t stc, int64_t *host_ns) {
+	if (UNLIKELY(!clock->valid))
+		return UVC_ERROR_NOT_FOUND;
+	*host_ns = clock->base_host
+		+ (int64_t)(clock->offset + clock->rate * clock->tick_ns * (int32_t)(stc - clock->base_stc));
+	return UVC_SUCCESS;
+}
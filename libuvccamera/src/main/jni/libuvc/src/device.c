@@ -831,6 +831,10 @@ uvc_error_t uvc_claim_if(uvc_device_handle_t *devh, int idx) {
 	int ret;
 
 	UVC_ENTER();
+	if (UNLIKELY(devh->replay)) {	// XXX virtual device has no USB interface
+		UVC_EXIT(UVC_SUCCESS);
+		return UVC_SUCCESS;
+	}
 #if !UVC_DETACH_ATTACH
 	// libusb automatically attach/detach kernel driver on supported platforms
 	UVC_DEBUG("claiming interface %d", idx);
@@ -863,6 +867,10 @@ uvc_error_t uvc_release_if(uvc_device_handle_t *devh, int idx) {
 	int ret;
 
 	UVC_ENTER();
+	if (UNLIKELY(devh->replay)) {	// XXX virtual device has no USB interface
+		UVC_EXIT(UVC_SUCCESS);
+		return UVC_SUCCESS;
+	}
 	UVC_DEBUG("releasing interface %d", idx);
 	/* libusb_release_interface *should* reset the alternate setting to the first available,
 	 but sometimes (e.g. on Darwin) it doesn't. Thus, we do it explicitly here.
@@ -1538,6 +1546,8 @@ void uvc_free_devh(uvc_device_handle_t *devh) {
 
 	if (devh->status_xfer)
 		libusb_free_transfer(devh->status_xfer);
+	if (devh->record_path)	// XXX
+		free(devh->record_path);
 
 	free(devh);
 
@@ -143,6 +143,92 @@ static inline void insert_huff_tables(j_decompress_ptr dinfo) {
 	COPY_HUFF_TABLE(dinfo, ac_huff_tbl_ptrs[1], ac_chromi);
 }
 
+#define DHT_TABLE_BYTES(name) (1 + 16 + sizeof(name##_val))
+// DHT segment with the default tables, excluding marker
+#define DHT_SEGMENT_BYTES (2 + DHT_TABLE_BYTES(dc_lumi) + DHT_TABLE_BYTES(dc_chromi) \
+	+ DHT_TABLE_BYTES(ac_lumi) + DHT_TABLE_BYTES(ac_chromi))
+
+static inline uint8_t *_uvc_put_dht_table(uint8_t *p, const uint8_t tc_th,
+	const unsigned char *len, const unsigned char *val, const size_t val_bytes) {
+	*p++ = tc_th;
+	memcpy(p, len + 1, 16);	// bits[0] is unused
+	p += 16;
+	memcpy(p, val, val_bytes);
+	return p + val_bytes;
+}
+
+/** @brief Convert an MJPEG frame into a complete JPEG(JFIF) image without decoding
+ * @ingroup frame
+ *
+ * MJPEG payloads of many UVC devices do not have Huffman tables(DHT) and rely on
+ * the default tables, so the default tables are inserted before SOS if the payload
+ * does not have DHT. Other data is copied as is.
+ *
+ * @param in MJPEG frame
+ * @param out MJPEG frame that can be saved as JPEG file
+ */
+uvc_error_t uvc_mjpeg2jpeg(uvc_frame_t *in, uvc_frame_t *out) {
+	const uint8_t *data = in->data;
+	const size_t bytes = in->actual_bytes;
+	size_t pos = 2, sos_pos = 0;
+	int has_dht = 0;
+
+	if (UNLIKELY((in->frame_format != UVC_FRAME_FORMAT_MJPEG)
+		|| (bytes < 4) || (data[0] != 0xFF) || (data[1] != 0xD8)))
+		return UVC_ERROR_INVALID_PARAM;
+	for (; pos + 4 <= bytes ;) {
+		if (UNLIKELY(data[pos] != 0xFF)) return UVC_ERROR_INVALID_PARAM;
+		const uint8_t marker = data[pos + 1];
+		if ((marker == 0xFF) || (marker == 0x01) || ((marker >= 0xD0) && (marker <= 0xD8))) {
+			pos += marker == 0xFF ? 1 : 2;
+			continue;
+		}
+		if (marker == 0xDA) {
+			sos_pos = pos;
+			break;
+		}
+		const size_t len = (data[pos + 2] << 8) | data[pos + 3];
+		if (UNLIKELY((marker == 0xD9) || (len < 2) || (pos + 2 + len > bytes)))
+			return UVC_ERROR_INVALID_PARAM;
+		if (marker == 0xC4) has_dht = 1;
+		pos += 2 + len;
+	}
+	if (UNLIKELY(!sos_pos))
+		return UVC_ERROR_INVALID_PARAM;
+
+	const size_t out_bytes = has_dht ? bytes : bytes + 2 + DHT_SEGMENT_BYTES;
+	if (UNLIKELY(uvc_ensure_frame_size(out, out_bytes) < 0))
+		return UVC_ERROR_NO_MEM;
+	uint8_t *dst = out->data;
+	if (has_dht) {
+		memcpy(dst, data, bytes);
+	} else {
+		memcpy(dst, data, sos_pos);
+		dst += sos_pos;
+		*dst++ = 0xFF;
+		*dst++ = 0xC4;
+		*dst++ = (uint8_t)(DHT_SEGMENT_BYTES >> 8);
+		*dst++ = (uint8_t)(DHT_SEGMENT_BYTES & 0xFF);
+		dst = _uvc_put_dht_table(dst, 0x00, dc_lumi_len, dc_lumi_val, sizeof(dc_lumi_val));
+		dst = _uvc_put_dht_table(dst, 0x01, dc_chromi_len, dc_chromi_val, sizeof(dc_chromi_val));
+		dst = _uvc_put_dht_table(dst, 0x10, ac_lumi_len, ac_lumi_val, sizeof(ac_lumi_val));
+		dst = _uvc_put_dht_table(dst, 0x11, ac_chromi_len, ac_chromi_val, sizeof(ac_chromi_val));
+		memcpy(dst, data + sos_pos, bytes - sos_pos);
+	}
+	out->width = in->width;
+	out->height = in->height;
+	out->frame_format = UVC_FRAME_FORMAT_MJPEG;
+	if (out->library_owns_data)
+		out->step = 0;
+	out->sequence = in->sequence;
+	out->capture_time = in->capture_time;
+	out->capture_time_ns = in->capture_time_ns;
+	out->source = in->source;
+	out->actual_bytes = out_bytes;
+
+	return UVC_SUCCESS;
+}
+
 // XXX added to improve the performance of decoding
 // maximun reading lines for each call of jpeg_read_scanlines
 // when defined this macro, it's value should be common factor
@@ -305,16 +391,38 @@ fail:
 	return UVC_ERROR_OTHER+1;
 }
 
-/** @brief Convert an MJPEG frame to RGB565
- * @ingroup frame
- *
- * @param in MJPEG frame
- * @param out RGB frame
+/** @internal
+ * set DCT scaling of decompressor and calculate output dimensions.
+ * this should be called after out_color_space is set.
+ * @param scale_denom 1, 2, 4 or 8, output will be ceil(width / scale_denom) x ceil(height / scale_denom)
+ * @return UVC_SUCCESS or UVC_ERROR_INVALID_PARAM
  */
-uvc_error_t uvc_mjpeg2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
+static uvc_error_t _uvc_mjpeg_set_scale(j_decompress_ptr dinfo, const int scale_denom) {
+	switch (scale_denom) {
+	case 1:
+	case 2:
+	case 4:
+	case 8:
+		break;
+	default:
+		return UVC_ERROR_INVALID_PARAM;
+	}
+	dinfo->scale_num = 1;
+	dinfo->scale_denom = scale_denom;
+	jpeg_calc_output_dimensions(dinfo);
+	return UVC_SUCCESS;
+}
+
+/** @internal
+ * decode MJPEG frame into packed RGB565/RGBX frame with DCT scaling
+ */
+static uvc_error_t _uvc_mjpeg2packed(uvc_frame_t *in, uvc_frame_t *out, const int scale_denom,
+	const J_COLOR_SPACE color_space, const enum uvc_frame_format frame_format, const int pixel_bytes) {
+
 	struct jpeg_decompress_struct dinfo;
 	struct error_mgr jerr;
 	size_t lines_read;
+	uvc_error_t result;
 
 	int num_scanlines, i;
 	lines_read = 0;
@@ -324,17 +432,6 @@ uvc_error_t uvc_mjpeg2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
 	if (UNLIKELY(in->frame_format != UVC_FRAME_FORMAT_MJPEG))
 		return UVC_ERROR_INVALID_PARAM;
 
-	if (uvc_ensure_frame_size(out, in->width * in->height * 2) < 0)
-		return UVC_ERROR_NO_MEM;
-
-	out->width = in->width;
-	out->height = in->height;
-	out->frame_format = UVC_FRAME_FORMAT_RGB565;
-	out->step = in->width * 2;
-	out->sequence = in->sequence;
-	out->capture_time = in->capture_time;
-	out->source = in->source;
-
 	dinfo.err = jpeg_std_error(&jerr.super);
 	jerr.super.error_exit = _error_exit;
 
@@ -343,7 +440,7 @@ uvc_error_t uvc_mjpeg2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
 	}
 
 	jpeg_create_decompress(&dinfo);
-	jpeg_mem_src(&dinfo, in->data, in->actual_bytes/*in->data_bytes*/);
+	jpeg_mem_src(&dinfo, in->data, in->actual_bytes/*in->data_bytes*/);	// XXX
 	jpeg_read_header(&dinfo, TRUE);
 
 	if (dinfo.dc_huff_tbl_ptrs[0] == NULL) {
@@ -351,8 +448,29 @@ uvc_error_t uvc_mjpeg2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
 		insert_huff_tables(&dinfo);
 	}
 
-	dinfo.out_color_space = JCS_RGB565;
+	dinfo.out_color_space = color_space;
 	dinfo.dct_method = JDCT_IFAST;
+	result = _uvc_mjpeg_set_scale(&dinfo, scale_denom);
+	if (UNLIKELY(result)) {
+		jpeg_destroy_decompress(&dinfo);
+		return result;
+	}
+
+	// without scaling, output should be same size as the frame
+	const int width = scale_denom > 1 ? (int)dinfo.output_width : (int)in->width;
+	const int height = scale_denom > 1 ? (int)dinfo.output_height : (int)in->height;
+	if (UNLIKELY(uvc_ensure_frame_size(out, width * height * pixel_bytes) < 0)) {
+		jpeg_destroy_decompress(&dinfo);
+		return UVC_ERROR_NO_MEM;
+	}
+
+	out->width = width;
+	out->height = height;
+	out->frame_format = frame_format;	// XXX
+	out->step = width * pixel_bytes;
+	out->sequence = in->sequence;
+	out->capture_time = in->capture_time;
+	out->source = in->source;
 
 	jpeg_start_decompress(&dinfo);
 
@@ -360,7 +478,7 @@ uvc_error_t uvc_mjpeg2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
 	uint8_t *data = out->data;
 	const int out_step = out->step;
 
-	if (LIKELY(dinfo.output_height == out->height)) {
+	if (LIKELY((dinfo.output_height == out->height) && (dinfo.output_width == out->width))) {
 		for (; dinfo.output_scanline < dinfo.output_height ;) {
 			buffer[0] = data + (lines_read) * out_step;
 			for (i = 1; i < MAX_READLINE; i++)
@@ -368,9 +486,11 @@ uvc_error_t uvc_mjpeg2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
 			num_scanlines = jpeg_read_scanlines(&dinfo, buffer, MAX_READLINE);
 			lines_read += num_scanlines;
 		}
-		out->actual_bytes = in->width * in->height * 2;	// XXX
+		out->actual_bytes = width * height * pixel_bytes;	// XXX
+		jpeg_finish_decompress(&dinfo);
+	} else {
+		jpeg_abort_decompress(&dinfo);
 	}
-	jpeg_finish_decompress(&dinfo);
 	jpeg_destroy_decompress(&dinfo);
 	return lines_read == out->height ? UVC_SUCCESS : UVC_ERROR_OTHER;	// XXX
 
@@ -379,6 +499,29 @@ fail:
 	return UVC_ERROR_OTHER+1;
 }
 
+/** @brief Convert an MJPEG frame to RGB565
+ * @ingroup frame
+ *
+ * @param in MJPEG frame
+ * @param out RGB frame
+ */
+uvc_error_t uvc_mjpeg2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
+	return _uvc_mjpeg2packed(in, out, 1, JCS_RGB565, UVC_FRAME_FORMAT_RGB565, 2);
+}
+
+/** @brief Convert an MJPEG frame to RGB565 with reduced resolution
+ * only 1/scale_denom of the frame is decoded using DCT scaling of libjpeg,
+ * this is much faster than decoding whole frame and resizing it.
+ * @ingroup frame
+ *
+ * @param in MJPEG frame
+ * @param out RGB565 frame, ceil(width / scale_denom) x ceil(height / scale_denom)
+ * @param scale_denom 1, 2, 4 or 8
+ */
+uvc_error_t uvc_mjpeg2rgb565_scaled(uvc_frame_t *in, uvc_frame_t *out, int scale_denom) {
+	return _uvc_mjpeg2packed(in, out, scale_denom, JCS_RGB565, UVC_FRAME_FORMAT_RGB565, 2);
+}
+
 /** @brief Convert an MJPEG frame to RGBX
  * @ingroup frame
  *
@@ -386,31 +529,97 @@ fail:
  * @param out RGBX frame
  */
 uvc_error_t uvc_mjpeg2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
-	struct jpeg_decompress_struct dinfo;
-	struct error_mgr jerr;
-	size_t lines_read;
-	// local copy
-	uint8_t *data = out->data;
-	const int out_step = out->step;
+	return _uvc_mjpeg2packed(in, out, 1, JCS_EXT_RGBA, UVC_FRAME_FORMAT_RGBX, 4);
+}
 
-	int num_scanlines, i;
-	lines_read = 0;
-	unsigned char *buffer[MAX_READLINE];
+/** @brief Convert an MJPEG frame to RGBX with reduced resolution
+ * @ingroup frame
+ * @see uvc_mjpeg2rgb565_scaled
+ *
+ * @param in MJPEG frame
+ * @param out RGBX frame, ceil(width / scale_denom) x ceil(height / scale_denom)
+ * @param scale_denom 1, 2, 4 or 8
+ */
+uvc_error_t uvc_mjpeg2rgbx_scaled(uvc_frame_t *in, uvc_frame_t *out, int scale_denom) {
+	return _uvc_mjpeg2packed(in, out, scale_denom, JCS_EXT_RGBA, UVC_FRAME_FORMAT_RGBX, 4);
+}
 
-	out->actual_bytes = 0;	// XXX
-	if (UNLIKELY(in->frame_format != UVC_FRAME_FORMAT_MJPEG))
-		return UVC_ERROR_INVALID_PARAM;
+/** @internal
+ * source manager that feeds JPEG stream from several memory chunks without copying them,
+ * used to decode a stripe of MJPEG frame with patched header
+ */
+#define MAX_SRC_CHUNKS 4
+
+struct chunk_src_mgr {
+	struct jpeg_source_mgr pub;
+	const JOCTET *chunks[MAX_SRC_CHUNKS];
+	size_t sizes[MAX_SRC_CHUNKS];
+	int num_chunks;
+	int next;
+};
 
-	if (uvc_ensure_frame_size(out, in->width * in->height * 4) < 0)
-		return UVC_ERROR_NO_MEM;
+static const JOCTET _eoi[2] = { 0xFF, JPEG_EOI };
 
-	out->width = in->width;
-	out->height = in->height;
-	out->frame_format = UVC_FRAME_FORMAT_RGBX;	// XXX
-	out->step = in->width * 4;
-	out->sequence = in->sequence;
-	out->capture_time = in->capture_time;
-	out->source = in->source;
+static void _chunk_init_source(j_decompress_ptr dinfo) {
+	(void)dinfo;	// unused
+}
+
+static boolean _chunk_fill_input_buffer(j_decompress_ptr dinfo) {
+	struct chunk_src_mgr *src = (struct chunk_src_mgr *)dinfo->src;
+	for (; (src->next < src->num_chunks) && !src->sizes[src->next] ;) src->next++;
+	if (src->next < src->num_chunks) {
+		src->pub.next_input_byte = src->chunks[src->next];
+		src->pub.bytes_in_buffer = src->sizes[src->next];
+		src->next++;
+	} else {
+		// insert fake EOI marker like jpeg_mem_src
+		src->pub.next_input_byte = _eoi;
+		src->pub.bytes_in_buffer = 2;
+	}
+	return TRUE;
+}
+
+static void _chunk_skip_input_data(j_decompress_ptr dinfo, long num_bytes) {
+	struct chunk_src_mgr *src = (struct chunk_src_mgr *)dinfo->src;
+	if (num_bytes > 0) {
+		for (; num_bytes > (long)src->pub.bytes_in_buffer ;) {
+			num_bytes -= (long)src->pub.bytes_in_buffer;
+			_chunk_fill_input_buffer(dinfo);
+		}
+		src->pub.next_input_byte += num_bytes;
+		src->pub.bytes_in_buffer -= num_bytes;
+	}
+}
+
+static void _chunk_term_source(j_decompress_ptr dinfo) {
+	(void)dinfo;	// unused
+}
+
+/** @internal
+ * decode MJPEG stream given as memory chunks into RGBX memory that has arbitrary stride
+ * @param skip_rows number of rows on the top that are decoded but not written into dst
+ */
+static uvc_error_t _uvc_mjpeg_chunks2rgbx_to(const JOCTET **chunks, const size_t *sizes, const int num_chunks,
+	const int skip_rows, uint8_t *dst, const int dst_step, const int dst_width, const int dst_height) {
+
+	struct jpeg_decompress_struct dinfo;
+	struct error_mgr jerr;
+	struct chunk_src_mgr src;
+	int lines_read = 0;
+	int num_scanlines, i, n, hh;
+	unsigned char *buffer[MAX_READLINE];
+
+	memset(&src, 0, sizeof(src));
+	for (i = 0; i < num_chunks; i++) {
+		src.chunks[i] = chunks[i];
+		src.sizes[i] = sizes[i];
+	}
+	src.num_chunks = num_chunks;
+	src.pub.init_source = _chunk_init_source;
+	src.pub.fill_input_buffer = _chunk_fill_input_buffer;
+	src.pub.skip_input_data = _chunk_skip_input_data;
+	src.pub.resync_to_restart = jpeg_resync_to_restart;
+	src.pub.term_source = _chunk_term_source;
 
 	dinfo.err = jpeg_std_error(&jerr.super);
 	jerr.super.error_exit = _error_exit;
@@ -420,7 +629,7 @@ uvc_error_t uvc_mjpeg2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 	}
 
 	jpeg_create_decompress(&dinfo);
-	jpeg_mem_src(&dinfo, in->data, in->actual_bytes/*in->data_bytes*/);	// XXX
+	dinfo.src = &src.pub;
 	jpeg_read_header(&dinfo, TRUE);
 
 	if (dinfo.dc_huff_tbl_ptrs[0] == NULL) {
@@ -433,25 +642,514 @@ uvc_error_t uvc_mjpeg2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 
 	jpeg_start_decompress(&dinfo);
 
-	if (LIKELY(dinfo.output_height == out->height)) {
-		for (; dinfo.output_scanline < dinfo.output_height ;) {
-			buffer[0] = data + (lines_read) * out_step;
-			for (i = 1; i < MAX_READLINE; i++)
-				buffer[i] = buffer[i-1] + out_step;
-			num_scanlines = jpeg_read_scanlines(&dinfo, buffer, MAX_READLINE);
-			lines_read += num_scanlines;
+	if (UNLIKELY((int)dinfo.output_width > dst_width)) {
+		jpeg_destroy_decompress(&dinfo);
+		return UVC_ERROR_INVALID_PARAM;
+	}
+	if (skip_rows > 0) {
+		JSAMPARRAY skip = (*dinfo.mem->alloc_sarray)((j_common_ptr)&dinfo, JPOOL_IMAGE,
+			dinfo.output_width * dinfo.output_components, 1);
+		for (; (int)dinfo.output_scanline < skip_rows ;) {
+			if (UNLIKELY(!jpeg_read_scanlines(&dinfo, skip, 1))) break;
 		}
-		out->actual_bytes = in->width * in->height * 4;	// XXX
 	}
-	jpeg_finish_decompress(&dinfo);
+	hh = (int)dinfo.output_height - skip_rows < dst_height ? (int)dinfo.output_height - skip_rows : dst_height;
+	for (; lines_read < hh ;) {
+		n = hh - lines_read < MAX_READLINE ? hh - lines_read : MAX_READLINE;
+		buffer[0] = dst + lines_read * dst_step;
+		for (i = 1; i < n; i++)
+			buffer[i] = buffer[i-1] + dst_step;
+		num_scanlines = jpeg_read_scanlines(&dinfo, buffer, n);
+		if (UNLIKELY(!num_scanlines)) break;
+		lines_read += num_scanlines;
+	}
+	if (dinfo.output_scanline < dinfo.output_height) {
+		// destination is shorter than the frame, discard remaining
+		jpeg_abort_decompress(&dinfo);
+	} else {
+		jpeg_finish_decompress(&dinfo);
+	}
 	jpeg_destroy_decompress(&dinfo);
-	return lines_read == out->height ? UVC_SUCCESS : UVC_ERROR_OTHER;	// XXX
+	return lines_read == hh ? UVC_SUCCESS : UVC_ERROR_OTHER;	// XXX
 
 fail:
 	jpeg_destroy_decompress(&dinfo);
 	return UVC_ERROR_OTHER+1;
 }
 
+/** @brief Convert an MJPEG frame to RGBX and write it directly into the memory
+ * that has arbitrary stride, e.g. locked ANativeWindow_Buffer, without intermediate frame.
+ * libjpeg always writes whole scanline, so destination should be wider than or equal to the frame.
+ * rows that exceed dst_height are not decoded.
+ * @ingroup frame
+ *
+ * @param in MJPEG frame
+ * @param dst top-left of destination
+ * @param dst_step bytes per row of destination
+ * @param dst_width width of destination[pixels]
+ * @param dst_height height of destination[pixels]
+ */
+uvc_error_t uvc_mjpeg2rgbx_to(uvc_frame_t *in, uint8_t *dst, int dst_step, int dst_width, int dst_height) {
+	const JOCTET *chunk = (const JOCTET *)in->data;
+	const size_t size = in->actual_bytes/*in->data_bytes*/;
+
+	if (UNLIKELY(in->frame_format != UVC_FRAME_FORMAT_MJPEG))
+		return UVC_ERROR_INVALID_PARAM;
+	if (UNLIKELY(!dst || (dst_step < dst_width * 4)))
+		return UVC_ERROR_INVALID_PARAM;
+
+	return _uvc_mjpeg_chunks2rgbx_to(&chunk, &size, 1, 0, dst, dst_step, dst_width, dst_height);
+}
+
+//======================================================================
+// XXX parallel decoding of MJPEG frame that has restart markers.
+// the entropy coded data of each restart interval can be decoded independently
+// because DC predictors are reset at every RSTn marker. the frame is split into
+// horizontal stripes of whole MCU rows at RSTn boundaries and each stripe is decoded
+// by its own thread as a standalone JPEG: original header with patched image height
+// in SOF + part of the original entropy coded data(+ fake EOI), without copying them.
+// stripes start at a multiple of 8 restart intervals, so RSTn markers
+// in each stripe are numbered from RST0 as libjpeg expects.
+// when chroma is subsampled vertically(4:2:0), fancy upsampling of the last row of a stripe
+// and the first row of next stripe refers to chroma of the other stripe. so each stripe
+// except the last one also decodes the first MCU row of next stripe(following RSTn markers
+// keep their numbers) and writes the first row of next stripe, and next stripe discards it.
+// this makes the output identical to serial decoding.
+// stripes are decoded by worker threads of uvc_stripe_pool_t that the caller keeps
+// while streaming, and by the calling thread, so no thread is created for each frame.
+//======================================================================
+#define MAX_STRIPES 8
+
+/** @internal layout of MJPEG frame that is needed to split it into stripes */
+struct mjpeg_layout {
+	size_t sof_height_pos;		// offset of image height field in SOF segment
+	size_t header_bytes;		// offset of entropy coded data
+	int width, height;
+	int mcu_width, mcu_height;	// pixels
+	int restart_interval;		// MCUs, 0 if DRI is not present
+	int v_subsampled;			// 1 if some component is subsampled vertically
+};
+
+static inline int _be16(const uint8_t *p) {
+	return (p[0] << 8) | p[1];
+}
+
+/** @internal
+ * parse markers until SOS.
+ * @return 0 if the frame is sequential Huffman JPEG with one interleaved scan, otherwise -1
+ */
+static int _uvc_mjpeg_parse_layout(const uint8_t *data, const size_t bytes, struct mjpeg_layout *layout) {
+	size_t pos = 2;
+	int num_components = 0;
+	int i;
+
+	memset(layout, 0, sizeof(struct mjpeg_layout));
+	if (UNLIKELY((bytes < 4) || (data[0] != 0xFF) || (data[1] != 0xD8)))
+		return -1;
+	for (; pos + 4 <= bytes ;) {
+		if (UNLIKELY(data[pos] != 0xFF)) return -1;
+		const uint8_t marker = data[pos + 1];
+		if ((marker == 0xFF) || (marker == 0x01) || ((marker >= 0xD0) && (marker <= 0xD8))) {
+			// fill byte or marker without length
+			pos += marker == 0xFF ? 1 : 2;
+			continue;
+		}
+		const size_t len = _be16(data + pos + 2);
+		if (UNLIKELY((marker == 0xD9) || (len < 2) || (pos + 2 + len > bytes)))
+			return -1;
+		switch (marker) {
+		case 0xC0:	// baseline
+		case 0xC1:	// extended sequential, Huffman
+			if (UNLIKELY(len < 8)) return -1;
+			layout->sof_height_pos = pos + 5;
+			layout->height = _be16(data + pos + 5);
+			layout->width = _be16(data + pos + 7);
+			num_components = data[pos + 9];
+			if (UNLIKELY(!layout->height || !layout->width	// height should not be defined by DNL
+				|| !num_components || (len < 8 + 3 * (size_t)num_components)))
+				return -1;
+			layout->mcu_width = layout->mcu_height = 8;
+			for (i = 0; i < num_components; i++) {
+				const int h = (data[pos + 11 + 3 * i] >> 4) * 8;
+				const int v = (data[pos + 11 + 3 * i] & 0x0f) * 8;
+				if (h > layout->mcu_width) layout->mcu_width = h;
+				if (v > layout->mcu_height) layout->mcu_height = v;
+			}
+			for (i = 0; i < num_components; i++) {
+				if ((data[pos + 11 + 3 * i] & 0x0f) * 8 < layout->mcu_height)
+					layout->v_subsampled = 1;
+			}
+			if (num_components == 1) {
+				// non-interleaved scan, MCU is one block
+				layout->mcu_width = layout->mcu_height = 8;
+			}
+			break;
+		case 0xC2: case 0xC3: case 0xC5: case 0xC6: case 0xC7:
+		case 0xC9: case 0xCA: case 0xCB: case 0xCD: case 0xCE: case 0xCF:
+			// progressive, lossless, hierarchical or arithmetic coding
+			return -1;
+		case 0xDD:	// DRI
+			if (UNLIKELY(len < 4)) return -1;
+			layout->restart_interval = _be16(data + pos + 4);
+			break;
+		case 0xDA:	// SOS
+			if (UNLIKELY(!num_components || (data[pos + 4] != num_components)))
+				return -1;
+			layout->header_bytes = pos + 2 + len;
+			return 0;
+		default:
+			break;
+		}
+		pos += 2 + len;
+	}
+	return -1;
+}
+
+/** @internal one stripe of MJPEG frame */
+struct mjpeg_stripe {
+	const uint8_t *header;
+	struct mjpeg_layout *layout;
+	const uint8_t *scan;	// start of entropy coded data of this stripe
+	size_t scan_bytes;
+	int height;				// pixels to decode, including the first MCU row of next stripe
+	int skip_rows;			// rows on the top that previous stripe writes
+	uint8_t *dst;
+	int dst_step;
+	int dst_width;
+	int dst_height;			// rows to write, may be smaller than height
+	uvc_error_t result;
+	struct mjpeg_stripe *next;	// next queued stripe
+	int *remaining;			// number of stripes of the frame that are not decoded yet
+};
+
+/** @internal worker threads that decode stripes */
+struct uvc_stripe_pool {
+	pthread_mutex_t mutex;
+	pthread_cond_t job_sync;	// signaled when stripes are queued or workers should terminate
+	pthread_cond_t done_sync;	// signaled when a stripe is decoded
+	pthread_t threads[MAX_STRIPES - 1];
+	int num_workers;
+	int running;
+	struct mjpeg_stripe *head, *tail;	// queued stripes
+};
+
+static uvc_error_t _uvc_mjpeg_decode_stripe(struct mjpeg_stripe *stripe) {
+	const struct mjpeg_layout *layout = stripe->layout;
+	const JOCTET height[2] = { (JOCTET)(stripe->height >> 8), (JOCTET)(stripe->height & 0xff) };
+	const JOCTET *chunks[] = {
+		stripe->header,
+		height,
+		stripe->header + layout->sof_height_pos + 2,
+		stripe->scan,
+	};
+	const size_t sizes[] = {
+		layout->sof_height_pos,
+		2,
+		layout->header_bytes - layout->sof_height_pos - 2,
+		stripe->scan_bytes,
+	};
+
+	if (stripe->dst_height <= 0) return UVC_SUCCESS;
+	return _uvc_mjpeg_chunks2rgbx_to(chunks, sizes, 4, stripe->skip_rows,
+		stripe->dst, stripe->dst_step, stripe->dst_width, stripe->dst_height);
+}
+
+/** @internal
+ * take one queued stripe, pool->mutex should be locked
+ */
+static struct mjpeg_stripe *_uvc_stripe_pool_take(uvc_stripe_pool_t *pool) {
+	struct mjpeg_stripe *stripe = pool->head;
+	if (stripe) {
+		pool->head = stripe->next;
+		if (!pool->head) pool->tail = NULL;
+	}
+	return stripe;
+}
+
+/** @internal
+ * decode the stripe, pool->mutex should be locked and it is unlocked while decoding
+ */
+static void _uvc_stripe_pool_run(uvc_stripe_pool_t *pool, struct mjpeg_stripe *stripe) {
+	pthread_mutex_unlock(&pool->mutex);
+	stripe->result = _uvc_mjpeg_decode_stripe(stripe);
+	pthread_mutex_lock(&pool->mutex);
+	(*stripe->remaining)--;
+	pthread_cond_broadcast(&pool->done_sync);
+}
+
+static void *_uvc_stripe_pool_thread_func(void *arg) {
+	uvc_stripe_pool_t *pool = (uvc_stripe_pool_t *)arg;
+	pthread_mutex_lock(&pool->mutex);
+	for (; pool->running ;) {
+		struct mjpeg_stripe *stripe = _uvc_stripe_pool_take(pool);
+		if (stripe) {
+			_uvc_stripe_pool_run(pool, stripe);
+		} else {
+			pthread_cond_wait(&pool->job_sync, &pool->mutex);
+		}
+	}
+	pthread_mutex_unlock(&pool->mutex);
+	return NULL;
+}
+
+/** @brief Create worker threads that decode stripes of MJPEG frames for uvc_mjpeg2rgbx_to_parallel.
+ * the threads wait for stripes until uvc_stripe_pool_destroy is called.
+ * @ingroup frame
+ *
+ * @param num_threads number of threads that decode one frame including the calling thread, 2 to 8
+ * @return pool or NULL if failed
+ */
+uvc_stripe_pool_t *uvc_stripe_pool_create(int num_threads) {
+	uvc_stripe_pool_t *pool;
+	int i;
+
+	if (UNLIKELY((num_threads < 2) || (num_threads > MAX_STRIPES)))
+		return NULL;
+	pool = calloc(1, sizeof(uvc_stripe_pool_t));
+	if (UNLIKELY(!pool))
+		return NULL;
+	pthread_mutex_init(&pool->mutex, NULL);
+	pthread_cond_init(&pool->job_sync, NULL);
+	pthread_cond_init(&pool->done_sync, NULL);
+	pool->running = 1;
+	for (i = 0; i < num_threads - 1; i++) {
+		if (UNLIKELY(pthread_create(&pool->threads[i], NULL, _uvc_stripe_pool_thread_func, pool)))
+			break;
+		pool->num_workers++;
+	}
+	if (UNLIKELY(!pool->num_workers)) {
+		uvc_stripe_pool_destroy(pool);
+		return NULL;
+	}
+	return pool;
+}
+
+/** @brief Terminate worker threads and free the pool
+ * @ingroup frame
+ */
+void uvc_stripe_pool_destroy(uvc_stripe_pool_t *pool) {
+	int i;
+
+	if (!pool) return;
+	pthread_mutex_lock(&pool->mutex);
+	{
+		pool->running = 0;
+		pthread_cond_broadcast(&pool->job_sync);
+	}
+	pthread_mutex_unlock(&pool->mutex);
+	for (i = 0; i < pool->num_workers; i++) {
+		pthread_join(pool->threads[i], NULL);
+	}
+	pthread_cond_destroy(&pool->done_sync);
+	pthread_cond_destroy(&pool->job_sync);
+	pthread_mutex_destroy(&pool->mutex);
+	free(pool);
+}
+
+/** @brief number of threads that decode one frame including the calling thread
+ * @ingroup frame
+ */
+int uvc_stripe_pool_get_threads(uvc_stripe_pool_t *pool) {
+	return pool ? pool->num_workers + 1 : 1;
+}
+
+static int _gcd(int a, int b) {
+	for (; b ;) {
+		const int t = a % b;
+		a = b;
+		b = t;
+	}
+	return a;
+}
+
+/** @internal
+ * split the frame into stripes and decode them in parallel
+ * @return UVC_ERROR_NOT_SUPPORTED if the frame can not be split, caller should decode it serially
+ */
+static uvc_error_t _uvc_mjpeg2rgbx_to_parallel(uvc_frame_t *in, uint8_t *dst, const int dst_step,
+	const int dst_width, const int dst_height, uvc_stripe_pool_t *pool) {
+
+	struct mjpeg_layout layout;
+	struct mjpeg_stripe stripes[MAX_STRIPES];
+	const uint8_t *data = (const uint8_t *)in->data;
+	const size_t bytes = in->actual_bytes;
+	int num_stripes = uvc_stripe_pool_get_threads(pool);
+	int remaining, i;
+
+	if (_uvc_mjpeg_parse_layout(data, bytes, &layout) || !layout.restart_interval)
+		return UVC_ERROR_NOT_SUPPORTED;
+
+	const int mcus_per_row = (layout.width + layout.mcu_width - 1) / layout.mcu_width;
+	const int mcu_rows = (layout.height + layout.mcu_height - 1) / layout.mcu_height;
+	// minimum number of MCU rows that is a multiple of 8 restart intervals
+	const int unit_mcus = layout.restart_interval * 8;
+	const int unit_rows = unit_mcus / _gcd(unit_mcus, mcus_per_row);
+	int rows_per_stripe = (mcu_rows + num_stripes - 1) / num_stripes;
+	rows_per_stripe = ((rows_per_stripe + unit_rows - 1) / unit_rows) * unit_rows;
+	num_stripes = (mcu_rows + rows_per_stripe - 1) / rows_per_stripe;
+	if (num_stripes < 2)
+		return UVC_ERROR_NOT_SUPPORTED;
+
+	// find start of each stripe by counting RSTn markers
+	const int intervals_per_stripe = rows_per_stripe * mcus_per_row / layout.restart_interval;
+	const uint8_t *p = data + layout.header_bytes;
+	const uint8_t *end = data + bytes;
+	int intervals = 0;
+	int found = 1;
+	stripes[0].scan = p;
+	for (; (found < num_stripes) && (p + 1 < end) ;) {
+		p = (const uint8_t *)memchr(p, 0xFF, end - p - 1);
+		if (UNLIKELY(!p)) break;
+		const uint8_t marker = p[1];
+		if ((marker >= 0xD0) && (marker <= 0xD7)) {
+			intervals++;
+			if (intervals == found * intervals_per_stripe) {
+				stripes[found - 1].scan_bytes = p - stripes[found - 1].scan;
+				stripes[found++].scan = p + 2;
+			}
+			p += 2;
+		} else if (marker == 0xD9) {
+			break;	// EOI
+		} else {
+			p += marker == 0xFF ? 1 : 2;	// fill byte, stuffed zero
+		}
+	}
+	if (UNLIKELY(found < num_stripes))
+		return UVC_ERROR_NOT_SUPPORTED;	// broken or truncated frame
+	stripes[num_stripes - 1].scan_bytes = end - stripes[num_stripes - 1].scan;
+
+	const int stripe_height = rows_per_stripe * layout.mcu_height;
+	for (i = 0; i < num_stripes; i++) {
+		const int top = i * stripe_height;
+		const int last = i == num_stripes - 1;
+		int bottom = last ? layout.height : top + stripe_height;	// exclusive
+		int first = top;
+		stripes[i].header = data;
+		stripes[i].layout = &layout;
+		stripes[i].skip_rows = 0;
+		if (layout.v_subsampled) {
+			if (!last) {
+				// decode the first MCU row of next stripe too, the rest of the frame is given
+				// because decoding is aborted after the rows are written
+				stripes[i].height = top + stripe_height + layout.mcu_height < layout.height
+					? stripe_height + layout.mcu_height : layout.height - top;
+				stripes[i].scan_bytes = end - stripes[i].scan;
+				bottom++;
+			} else {
+				stripes[i].height = layout.height - top;
+			}
+			if (i) {
+				stripes[i].skip_rows = 1;
+				first++;
+			}
+		} else {
+			stripes[i].height = bottom - top;
+		}
+		if (bottom > dst_height) bottom = dst_height;
+		stripes[i].dst = dst + first * dst_step;
+		stripes[i].dst_step = dst_step;
+		stripes[i].dst_width = dst_width;
+		stripes[i].dst_height = bottom - first;
+		stripes[i].result = UVC_SUCCESS;
+		stripes[i].next = i < num_stripes - 1 ? &stripes[i + 1] : NULL;
+		stripes[i].remaining = &remaining;
+	}
+	// queue stripes except the first one that this thread decodes
+	pthread_mutex_lock(&pool->mutex);
+	{
+		remaining = num_stripes - 1;
+		if (pool->tail) {
+			pool->tail->next = &stripes[1];
+		} else {
+			pool->head = &stripes[1];
+		}
+		pool->tail = &stripes[num_stripes - 1];
+		pthread_cond_broadcast(&pool->job_sync);
+	}
+	pthread_mutex_unlock(&pool->mutex);
+	stripes[0].result = _uvc_mjpeg_decode_stripe(&stripes[0]);
+	pthread_mutex_lock(&pool->mutex);
+	for (; remaining > 0 ;) {
+		// help workers instead of waiting if stripes are still queued
+		struct mjpeg_stripe *stripe = _uvc_stripe_pool_take(pool);
+		if (stripe) {
+			_uvc_stripe_pool_run(pool, stripe);
+		} else {
+			pthread_cond_wait(&pool->done_sync, &pool->mutex);
+		}
+	}
+	pthread_mutex_unlock(&pool->mutex);
+	for (i = 0; i < num_stripes; i++) {
+		if (UNLIKELY(stripes[i].result))
+			return stripes[i].result;
+	}
+	return UVC_SUCCESS;
+}
+
+/** @brief Convert an MJPEG frame to RGBX with several threads and write it directly into the memory
+ * that has arbitrary stride like uvc_mjpeg2rgbx_to.
+ * if the frame has restart markers(DRI), it is split into horizontal stripes at RSTn boundaries
+ * and they are decoded in parallel, otherwise this is same as uvc_mjpeg2rgbx_to.
+ * output is identical to serial decoding, for 4:2:0 frames each stripe decodes one more MCU row
+ * so that chroma upsampling at the border of stripes has same context.
+ * @ingroup frame
+ *
+ * @param in MJPEG frame
+ * @param dst top-left of destination
+ * @param dst_step bytes per row of destination
+ * @param dst_width width of destination[pixels]
+ * @param dst_height height of destination[pixels]
+ * @param pool worker threads from uvc_stripe_pool_create, the frame is decoded serially if NULL
+ */
+uvc_error_t uvc_mjpeg2rgbx_to_parallel(uvc_frame_t *in, uint8_t *dst, int dst_step, int dst_width, int dst_height,
+	uvc_stripe_pool_t *pool) {
+
+	if (UNLIKELY(in->frame_format != UVC_FRAME_FORMAT_MJPEG))
+		return UVC_ERROR_INVALID_PARAM;
+	if (UNLIKELY(!dst || (dst_step < dst_width * 4)))
+		return UVC_ERROR_INVALID_PARAM;
+
+	if (pool) {
+		const uvc_error_t result = _uvc_mjpeg2rgbx_to_parallel(in, dst, dst_step, dst_width, dst_height, pool);
+		if (result != UVC_ERROR_NOT_SUPPORTED)
+			return result;
+	}
+	return uvc_mjpeg2rgbx_to(in, dst, dst_step, dst_width, dst_height);
+}
+
+/** @brief Convert an MJPEG frame to RGBX with several threads
+ * @ingroup frame
+ * @see uvc_mjpeg2rgbx_to_parallel
+ *
+ * @param in MJPEG frame
+ * @param out RGBX frame
+ * @param pool worker threads from uvc_stripe_pool_create, the frame is decoded serially if NULL
+ */
+uvc_error_t uvc_mjpeg2rgbx_parallel(uvc_frame_t *in, uvc_frame_t *out, uvc_stripe_pool_t *pool) {
+	uvc_error_t result;
+
+	out->actual_bytes = 0;	// XXX
+	if (UNLIKELY(in->frame_format != UVC_FRAME_FORMAT_MJPEG))
+		return UVC_ERROR_INVALID_PARAM;
+
+	if (UNLIKELY(uvc_ensure_frame_size(out, in->width * in->height * 4) < 0))
+		return UVC_ERROR_NO_MEM;
+
+	out->width = in->width;
+	out->height = in->height;
+	out->frame_format = UVC_FRAME_FORMAT_RGBX;
+	out->step = in->width * 4;
+	out->sequence = in->sequence;
+	out->capture_time = in->capture_time;
+	out->source = in->source;
+
+	result = uvc_mjpeg2rgbx_to_parallel(in, out->data, out->step, out->width, out->height, pool);
+	if (LIKELY(!result)) {
+		out->actual_bytes = in->width * in->height * 4;	// XXX
+	}
+	return result;
+}
+
 static inline unsigned char sat(int i) {
 	return (unsigned char) (i >= 255 ? 255 : (i < 0 ? 0 : i));
 }
@@ -464,28 +1162,22 @@ static inline unsigned char sat(int i) {
 		*(yuyv++) = (*(YCbCr+2) + *(YCbCr+5)) >> 1; \
 	}
 
-uvc_error_t uvc_mjpeg2yuyv(uvc_frame_t *in, uvc_frame_t *out) {
+/** @internal
+ * decode MJPEG frame into YUYV frame with DCT scaling.
+ * output width is rounded down to even number.
+ */
+static uvc_error_t _uvc_mjpeg2yuyv(uvc_frame_t *in, uvc_frame_t *out, const int scale_denom) {
 
 	out->actual_bytes = 0;	// XXX
 	if (UNLIKELY(in->frame_format != UVC_FRAME_FORMAT_MJPEG))
 		return UVC_ERROR_INVALID_PARAM;
 
-	if (uvc_ensure_frame_size(out, in->width * in->height * 2) < 0)
-		return UVC_ERROR_NO_MEM;
-
 	size_t lines_read = 0;
 	int i, j;
 	int num_scanlines;
+	uvc_error_t result;
 	register uint8_t *yuyv, *ycbcr;
 
-	out->width = in->width;
-	out->height = in->height;
-	out->frame_format = UVC_FRAME_FORMAT_YUYV;
-	out->step = in->width * 2;
-	out->sequence = in->sequence;
-	out->capture_time = in->capture_time;
-	out->source = in->source;
-
 	struct jpeg_decompress_struct dinfo;
 	struct error_mgr jerr;
 	dinfo.err = jpeg_std_error(&jerr.super);
@@ -506,12 +1198,34 @@ uvc_error_t uvc_mjpeg2yuyv(uvc_frame_t *in, uvc_frame_t *out) {
 
 	dinfo.out_color_space = JCS_YCbCr;
 	dinfo.dct_method = JDCT_IFAST;
+	result = _uvc_mjpeg_set_scale(&dinfo, scale_denom);
+	if (UNLIKELY(result)) {
+		jpeg_destroy_decompress(&dinfo);
+		return result;
+	}
+
+	const int width = (scale_denom > 1 ? (int)dinfo.output_width : (int)in->width) & ~1;
+	const int height = scale_denom > 1 ? (int)dinfo.output_height : (int)in->height;
+	if (UNLIKELY(uvc_ensure_frame_size(out, width * height * 2) < 0)) {
+		jpeg_destroy_decompress(&dinfo);
+		return UVC_ERROR_NO_MEM;
+	}
+
+	out->width = width;
+	out->height = height;
+	out->frame_format = UVC_FRAME_FORMAT_YUYV;
+	out->step = width * 2;
+	out->sequence = in->sequence;
+	out->capture_time = in->capture_time;
+	out->source = in->source;
 
 	// start decompressor
 	jpeg_start_decompress(&dinfo);
 
 	// these dinfo.xxx valiables are only valid after jpeg_start_decompress
 	const int row_stride = dinfo.output_width * dinfo.output_components;
+	// YCbCr bytes to be converted, odd pixel at the end is dropped
+	const int row_bytes = width * 3;
 
 	// allocate buffer
 	register JSAMPARRAY buffer = (*dinfo.mem->alloc_sarray)
@@ -521,7 +1235,7 @@ uvc_error_t uvc_mjpeg2yuyv(uvc_frame_t *in, uvc_frame_t *out) {
 	uint8_t *data = out->data;
 	const int out_step = out->step;
 
-	if (LIKELY(dinfo.output_height == out->height)) {
+	if (LIKELY((dinfo.output_height == out->height) && ((int)dinfo.output_width >= width))) {
 		for (; dinfo.output_scanline < dinfo.output_height ;) {
 			// convert lines of mjpeg data to YCbCr
 			num_scanlines = jpeg_read_scanlines(&dinfo, buffer, MAX_READLINE);
@@ -529,19 +1243,23 @@ uvc_error_t uvc_mjpeg2yuyv(uvc_frame_t *in, uvc_frame_t *out) {
 			for (j = 0; j < num_scanlines; j++) {
 				yuyv = data + (lines_read + j) * out_step;
 				ycbcr = buffer[j];
-				for (i = 0; i < row_stride; i += 24) {	// step by YCbCr x 8 pixels = 3 x 8 bytes
+				for (i = 0; i + 24 <= row_bytes; i += 24) {	// step by YCbCr x 8 pixels = 3 x 8 bytes
 					YCbCr_YUYV_2(ycbcr + i, yuyv);
 					YCbCr_YUYV_2(ycbcr + i + 6, yuyv);
 					YCbCr_YUYV_2(ycbcr + i + 12, yuyv);
 					YCbCr_YUYV_2(ycbcr + i + 18, yuyv);
 				}
+				for (; i < row_bytes; i += 6) {	// remaining pixels that are not a multiple of 8
+					YCbCr_YUYV_2(ycbcr + i, yuyv);
+				}
 			}
 			lines_read += num_scanlines;
 		}
-		out->actual_bytes = in->width * in->height * 2;	// XXX
+		out->actual_bytes = width * height * 2;	// XXX
+		jpeg_finish_decompress(&dinfo);
+	} else {
+		jpeg_abort_decompress(&dinfo);
 	}
-
-	jpeg_finish_decompress(&dinfo);
 	jpeg_destroy_decompress(&dinfo);
 	return lines_read == out->height ? UVC_SUCCESS : UVC_ERROR_OTHER;
 
@@ -550,3 +1268,215 @@ fail:
 	return lines_read == out->height ? UVC_SUCCESS : UVC_ERROR_OTHER+1;
 }
 
+/** @brief Convert an MJPEG frame to YUYV
+ * @ingroup frame
+ *
+ * @param in MJPEG frame
+ * @param out YUYV frame
+ */
+uvc_error_t uvc_mjpeg2yuyv(uvc_frame_t *in, uvc_frame_t *out) {
+	return _uvc_mjpeg2yuyv(in, out, 1);
+}
+
+/** @brief Convert an MJPEG frame to YUYV with reduced resolution
+ * @ingroup frame
+ * @see uvc_mjpeg2rgb565_scaled
+ *
+ * @param in MJPEG frame
+ * @param out YUYV frame, (ceil(width / scale_denom) & ~1) x ceil(height / scale_denom)
+ * @param scale_denom 1, 2, 4 or 8
+ */
+uvc_error_t uvc_mjpeg2yuyv_scaled(uvc_frame_t *in, uvc_frame_t *out, int scale_denom) {
+	return _uvc_mjpeg2yuyv(in, out, scale_denom);
+}
+
+/** @internal
+ * fallback of uvc_mjpeg2yuv420SP/uvc_mjpeg2iyuv420SP for the frame
+ * whose sampling can not be read as raw data, decode into YUYV frame and convert it
+ */
+static uvc_error_t _uvc_mjpeg2yuv420SP_via_yuyv(uvc_frame_t *in, uvc_frame_t *out,
+	const int scale_denom, const int vu) {
+
+	uvc_error_t result = UVC_ERROR_NO_MEM;
+	uvc_frame_t *yuyv = uvc_allocate_frame(in->width * in->height * 2);
+	if (LIKELY(yuyv)) {
+		result = _uvc_mjpeg2yuyv(in, yuyv, scale_denom);
+		if (LIKELY(!result)) {
+			yuyv->height &= ~1;
+			result = vu ? uvc_yuyv2iyuv420SP(yuyv, out) : uvc_yuyv2yuv420SP(yuyv, out);
+		}
+		uvc_free_frame(yuyv);
+	}
+	return result;
+}
+
+/** @internal
+ * decode MJPEG frame into semi planar YUV420 without YUYV intermediate frame.
+ * Y/Cb/Cr planes are read as raw data(no upsampling and no color conversion)
+ * for each iMCU row and written into the output frame directly.
+ * when the frame has 4:2:2 sampling, chroma of even rows are used
+ * like as uvc_yuyv2yuv420SP.
+ * with DCT scaling, output width and height are rounded down to even number.
+ * @param scale_denom 1, 2, 4 or 8
+ * @param vu 0: NV12(U first), 1: NV21(V first)
+ */
+static uvc_error_t _uvc_mjpeg2yuv420SP(uvc_frame_t *in, uvc_frame_t *out, const int scale_denom, const int vu) {
+	struct jpeg_decompress_struct dinfo;
+	struct error_mgr jerr;
+	JSAMPARRAY planes[3];
+	int lines_read = 0;
+	int i, j, n, ci;
+	uvc_error_t result;
+
+	out->actual_bytes = 0;	// XXX
+	if (UNLIKELY(in->frame_format != UVC_FRAME_FORMAT_MJPEG))
+		return UVC_ERROR_INVALID_PARAM;
+
+	dinfo.err = jpeg_std_error(&jerr.super);
+	jerr.super.error_exit = _error_exit;
+
+	if (setjmp(jerr.jmp)) {
+		goto fail;
+	}
+
+	jpeg_create_decompress(&dinfo);
+	jpeg_mem_src(&dinfo, in->data, in->actual_bytes/*in->data_bytes*/);
+	jpeg_read_header(&dinfo, TRUE);
+
+	if (dinfo.dc_huff_tbl_ptrs[0] == NULL) {
+		/* This frame is missing the Huffman tables: fill in the standard ones */
+		insert_huff_tables(&dinfo);
+	}
+
+	const jpeg_component_info *comp = dinfo.comp_info;
+	if (UNLIKELY((dinfo.num_components != 3)
+		|| (dinfo.jpeg_color_space != JCS_YCbCr)
+		|| ((int)dinfo.image_width != (int)in->width) || ((int)dinfo.image_height != (int)in->height)
+		|| (in->width & 1) || (in->height & 1)
+		|| (comp[0].h_samp_factor != 2)
+		|| ((comp[0].v_samp_factor != 1) && (comp[0].v_samp_factor != 2))
+		|| (comp[1].h_samp_factor != 1) || (comp[1].v_samp_factor != 1)
+		|| (comp[2].h_samp_factor != 1) || (comp[2].v_samp_factor != 1))) {
+
+		// only 4:2:2 and 4:2:0 are read as raw data, other frames are rare for UVC
+		jpeg_destroy_decompress(&dinfo);
+		return _uvc_mjpeg2yuv420SP_via_yuyv(in, out, scale_denom, vu);
+	}
+
+	dinfo.raw_data_out = TRUE;
+	dinfo.do_fancy_upsampling = FALSE;
+	dinfo.dct_method = JDCT_IFAST;
+	result = _uvc_mjpeg_set_scale(&dinfo, scale_denom);
+	if (UNLIKELY(result)) {
+		jpeg_destroy_decompress(&dinfo);
+		return result;
+	}
+
+	const int width = (int)dinfo.output_width & ~1;
+	const int height = (int)dinfo.output_height & ~1;
+	if (UNLIKELY(uvc_ensure_frame_size(out, (width * height * 3) / 2) < 0)) {
+		jpeg_destroy_decompress(&dinfo);
+		return UVC_ERROR_NO_MEM;
+	}
+
+	jpeg_start_decompress(&dinfo);
+
+	// Y rows of each iMCU row, chroma has DCT_scaled_size rows
+	const int mcu_rows = comp[0].v_samp_factor * dinfo.min_DCT_scaled_size;
+	// Y rows per chroma row, 2 for 4:2:0, 1 for 4:2:2
+	const int v_samp = comp[0].v_samp_factor;
+	for (ci = 0; ci < 3; ci++) {
+		planes[ci] = (*dinfo.mem->alloc_sarray)((j_common_ptr) &dinfo, JPOOL_IMAGE,
+			comp[ci].width_in_blocks * comp[ci].DCT_scaled_size,
+			comp[ci].v_samp_factor * comp[ci].DCT_scaled_size);
+	}
+
+	out->width = out->step = width;
+	out->height = height;
+	out->sequence = in->sequence;
+	out->capture_time = in->capture_time;
+	out->source = in->source;
+
+	uint8_t *y = out->data;
+	uint8_t *uv = y + width * height;
+	const int cw = width >> 1;
+	const int u_index = vu ? 2 : 1;
+	const int v_index = vu ? 1 : 2;
+	for (; lines_read < height ;) {
+		if (UNLIKELY(!jpeg_read_raw_data(&dinfo, planes, mcu_rows))) break;
+		n = height - lines_read < mcu_rows ? height - lines_read : mcu_rows;
+		for (j = 0; j < n; j++) {
+			memcpy(y, planes[0][j], width);
+			y += width;
+		}
+		// 4:2:0 => every chroma row, 4:2:2 => chroma of even rows
+		for (j = (lines_read & 1); j < n; j += 2) {
+			const uint8_t *u = planes[u_index][j / v_samp];
+			const uint8_t *v = planes[v_index][j / v_samp];
+			for (i = 0; i < cw; i++) {
+				*(uv++) = u[i];
+				*(uv++) = v[i];
+			}
+		}
+		lines_read += n;
+	}
+	if (dinfo.output_scanline < dinfo.output_height) {
+		jpeg_abort_decompress(&dinfo);
+	} else {
+		jpeg_finish_decompress(&dinfo);
+	}
+	jpeg_destroy_decompress(&dinfo);
+	if (LIKELY(lines_read == height)) {
+		out->actual_bytes = (width * height * 3) / 2;	// XXX
+		return UVC_SUCCESS;
+	}
+	return UVC_ERROR_OTHER;
+
+fail:
+	jpeg_destroy_decompress(&dinfo);
+	return UVC_ERROR_OTHER+1;
+}
+
+/** @brief Convert an MJPEG frame to semi planar YUV420(NV12, Y plane + interleaved U/V plane)
+ * @ingroup frame
+ *
+ * @param in MJPEG frame
+ * @param out NV12 frame
+ */
+uvc_error_t uvc_mjpeg2yuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
+	return _uvc_mjpeg2yuv420SP(in, out, 1, 0);
+}
+
+/** @brief Convert an MJPEG frame to NV12 with reduced resolution
+ * @ingroup frame
+ * @see uvc_mjpeg2rgb565_scaled
+ *
+ * @param in MJPEG frame
+ * @param out NV12 frame, width and height are ceil(width / scale_denom) & ~1 x ceil(height / scale_denom) & ~1
+ * @param scale_denom 1, 2, 4 or 8
+ */
+uvc_error_t uvc_mjpeg2yuv420SP_scaled(uvc_frame_t *in, uvc_frame_t *out, int scale_denom) {
+	return _uvc_mjpeg2yuv420SP(in, out, scale_denom, 0);
+}
+
+/** @brief Convert an MJPEG frame to semi planar YUV420(NV21, Y plane + interleaved V/U plane)
+ * @ingroup frame
+ *
+ * @param in MJPEG frame
+ * @param out NV21 frame
+ */
+uvc_error_t uvc_mjpeg2iyuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
+	return _uvc_mjpeg2yuv420SP(in, out, 1, 1);
+}
+
+/** @brief Convert an MJPEG frame to NV21 with reduced resolution
+ * @ingroup frame
+ * @see uvc_mjpeg2yuv420SP_scaled
+ *
+ * @param in MJPEG frame
+ * @param out NV21 frame
+ * @param scale_denom 1, 2, 4 or 8
+ */
+uvc_error_t uvc_mjpeg2iyuv420SP_scaled(uvc_frame_t *in, uvc_frame_t *out, int scale_denom) {
+	return _uvc_mjpeg2yuv420SP(in, out, scale_denom, 1);
+}
@@ -0,0 +1,616 @@
+/*********************************************************************
+ * SIMD implementation of row converters for frame.c
+ * Copyright (C) 2014-2017 saki@serenegiant All rights reserved.
+ *********************************************************************/
+/*********************************************************************
+ * Software License Agreement (BSD License)
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   * Neither the name of the author nor other contributors may be
+ *     used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************/
+
+/*
+ * All implementations here must produce exactly same result as the scalar row converters in frame.c.
+ * The scalar one calculates chroma offsets of each 2 pixels as
+ *   r = (22987 * (v - 128)) >> 14
+ *   g = (-5636 * (u - 128) - 11698 * (v - 128)) >> 14
+ *   b = (29049 * (u - 128)) >> 14
+ * and clamps y + r/g/b into [0, 255]. The products do not fit in 16 bits,
+ * so they are calculated in 32 bits and narrowed after the arithmetic shift.
+ * The remaining pixels that do not fill a SIMD block are passed to the scalar one.
+ *
+ * armeabi-v7a: this file should be compiled with NEON enabled(.neon suffix in Android.mk),
+ * 	NEON is checked at runtime.
+ * arm64-v8a: NEON is always available.
+ * x86/x86_64: SSE2 and AVX2 functions are compiled with target attribute
+ * 	and selected at runtime, so no special compiler option is needed.
+ */
+
+#include "libuvc/libuvc.h"
+#include "libuvc/libuvc_internal.h"
+
+#define COEF_RV		(22987)
+#define COEF_GU		(-5636)
+#define COEF_GV		(-11698)
+#define COEF_BU		(29049)
+
+#if defined(__ARM_NEON__) || defined(__ARM_NEON) || defined(__aarch64__)
+//**********************************************************************
+// NEON
+//**********************************************************************
+#include <arm_neon.h>
+#if !defined(__aarch64__)
+#include <sys/auxv.h>
+#ifndef HWCAP_NEON
+#define HWCAP_NEON (1 << 12)
+#endif
+#endif
+
+/**
+ * 16 pixels(8 chroma pairs) => R, G, B in pixel order
+ */
+static inline void yuv2rgb_neon(const uint8x8_t y_even, const uint8x8_t y_odd,
+	const uint8x8_t u8, const uint8x8_t v8,
+	uint8x16_t *r, uint8x16_t *g, uint8x16_t *b) {
+
+	const int16x8_t offset = vdupq_n_s16(128);
+	const int16x8_t u = vsubq_s16(vreinterpretq_s16_u16(vmovl_u8(u8)), offset);
+	const int16x8_t v = vsubq_s16(vreinterpretq_s16_u16(vmovl_u8(v8)), offset);
+	const int16x4_t u_lo = vget_low_s16(u), u_hi = vget_high_s16(u);
+	const int16x4_t v_lo = vget_low_s16(v), v_hi = vget_high_s16(v);
+
+	const int16x8_t rr = vcombine_s16(
+		vmovn_s32(vshrq_n_s32(vmull_n_s16(v_lo, COEF_RV), 14)),
+		vmovn_s32(vshrq_n_s32(vmull_n_s16(v_hi, COEF_RV), 14)));
+	const int16x8_t gg = vcombine_s16(
+		vmovn_s32(vshrq_n_s32(vmlal_n_s16(vmull_n_s16(u_lo, COEF_GU), v_lo, COEF_GV), 14)),
+		vmovn_s32(vshrq_n_s32(vmlal_n_s16(vmull_n_s16(u_hi, COEF_GU), v_hi, COEF_GV), 14)));
+	const int16x8_t bb = vcombine_s16(
+		vmovn_s32(vshrq_n_s32(vmull_n_s16(u_lo, COEF_BU), 14)),
+		vmovn_s32(vshrq_n_s32(vmull_n_s16(u_hi, COEF_BU), 14)));
+
+	const int16x8_t ye = vreinterpretq_s16_u16(vmovl_u8(y_even));
+	const int16x8_t yo = vreinterpretq_s16_u16(vmovl_u8(y_odd));
+	uint8x8x2_t z;
+	z = vzip_u8(vqmovun_s16(vaddq_s16(ye, rr)), vqmovun_s16(vaddq_s16(yo, rr)));
+	*r = vcombine_u8(z.val[0], z.val[1]);
+	z = vzip_u8(vqmovun_s16(vaddq_s16(ye, gg)), vqmovun_s16(vaddq_s16(yo, gg)));
+	*g = vcombine_u8(z.val[0], z.val[1]);
+	z = vzip_u8(vqmovun_s16(vaddq_s16(ye, bb)), vqmovun_s16(vaddq_s16(yo, bb)));
+	*b = vcombine_u8(z.val[0], z.val[1]);
+}
+
+static inline void store_rgbx_neon(uint8_t *dst, const uint8x16_t r, const uint8x16_t g, const uint8x16_t b) {
+	uint8x16x4_t rgbx;
+	rgbx.val[0] = r;
+	rgbx.val[1] = g;
+	rgbx.val[2] = b;
+	rgbx.val[3] = vdupq_n_u8(0xff);
+	vst4q_u8(dst, rgbx);
+}
+
+static inline uint16x8_t rgb565_neon(const uint8x8_t r8, const uint8x8_t g8, const uint8x8_t b8) {
+	const uint16x8_t r = vshlq_n_u16(vmovl_u8(vand_u8(r8, vdup_n_u8(0xf8))), 8);
+	const uint16x8_t g = vshlq_n_u16(vmovl_u8(vand_u8(g8, vdup_n_u8(0xfc))), 3);
+	const uint16x8_t b = vshrq_n_u16(vmovl_u8(b8), 3);
+	return vorrq_u16(vorrq_u16(r, g), b);
+}
+
+static inline void store_rgb565_neon(uint8_t *dst, const uint8x16_t r, const uint8x16_t g, const uint8x16_t b) {
+	vst1q_u8(dst, vreinterpretq_u8_u16(
+		rgb565_neon(vget_low_u8(r), vget_low_u8(g), vget_low_u8(b))));
+	vst1q_u8(dst + 16, vreinterpretq_u8_u16(
+		rgb565_neon(vget_high_u8(r), vget_high_u8(g), vget_high_u8(b))));
+}
+
+static void yuyv2rgbx_row_neon(const uint8_t *src, uint8_t *dst, int pixels) {
+	uint8x16_t r, g, b;
+	int w;
+	for (w = 0; w + 16 <= pixels; w += 16) {
+		const uint8x8x4_t yuyv = vld4_u8(src);	// Y0, U, Y1, V
+		yuv2rgb_neon(yuyv.val[0], yuyv.val[2], yuyv.val[1], yuyv.val[3], &r, &g, &b);
+		store_rgbx_neon(dst, r, g, b);
+		src += 32;
+		dst += 64;
+	}
+	if (w < pixels) {
+		_uvc_convert_funcs_scalar.yuyv2rgbx(src, dst, pixels - w);
+	}
+}
+
+static void yuyv2rgb565_row_neon(const uint8_t *src, uint8_t *dst, int pixels) {
+	uint8x16_t r, g, b;
+	int w;
+	for (w = 0; w + 16 <= pixels; w += 16) {
+		const uint8x8x4_t yuyv = vld4_u8(src);	// Y0, U, Y1, V
+		yuv2rgb_neon(yuyv.val[0], yuyv.val[2], yuyv.val[1], yuyv.val[3], &r, &g, &b);
+		store_rgb565_neon(dst, r, g, b);
+		src += 32;
+		dst += 32;
+	}
+	if (w < pixels) {
+		_uvc_convert_funcs_scalar.yuyv2rgb565(src, dst, pixels - w);
+	}
+}
+
+static void uyvy2rgbx_row_neon(const uint8_t *src, uint8_t *dst, int pixels) {
+	uint8x16_t r, g, b;
+	int w;
+	for (w = 0; w + 16 <= pixels; w += 16) {
+		const uint8x8x4_t uyvy = vld4_u8(src);	// U, Y0, V, Y1
+		yuv2rgb_neon(uyvy.val[1], uyvy.val[3], uyvy.val[0], uyvy.val[2], &r, &g, &b);
+		store_rgbx_neon(dst, r, g, b);
+		src += 32;
+		dst += 64;
+	}
+	if (w < pixels) {
+		_uvc_convert_funcs_scalar.uyvy2rgbx(src, dst, pixels - w);
+	}
+}
+
+static void uyvy2rgb565_row_neon(const uint8_t *src, uint8_t *dst, int pixels) {
+	uint8x16_t r, g, b;
+	int w;
+	for (w = 0; w + 16 <= pixels; w += 16) {
+		const uint8x8x4_t uyvy = vld4_u8(src);	// U, Y0, V, Y1
+		yuv2rgb_neon(uyvy.val[1], uyvy.val[3], uyvy.val[0], uyvy.val[2], &r, &g, &b);
+		store_rgb565_neon(dst, r, g, b);
+		src += 32;
+		dst += 32;
+	}
+	if (w < pixels) {
+		_uvc_convert_funcs_scalar.uyvy2rgb565(src, dst, pixels - w);
+	}
+}
+
+static void yuyv2yuv420SP_row_neon(const uint8_t *src0, const uint8_t *src1,
+	uint8_t *y0, uint8_t *y1, uint8_t *uv, int pixels) {
+
+	int w;
+	for (w = 0; w + 16 <= pixels; w += 16) {
+		const uint8x16x2_t yuyv0 = vld2q_u8(src0);	// Y, UV
+		const uint8x16x2_t yuyv1 = vld2q_u8(src1);
+		vst1q_u8(y0, yuyv0.val[0]);
+		vst1q_u8(uv, yuyv0.val[1]);
+		vst1q_u8(y1, yuyv1.val[0]);
+		src0 += 32; src1 += 32;
+		y0 += 16; y1 += 16; uv += 16;
+	}
+	if (w < pixels) {
+		_uvc_convert_funcs_scalar.yuyv2yuv420SP(src0, src1, y0, y1, uv, pixels - w);
+	}
+}
+
+static void yuyv2iyuv420SP_row_neon(const uint8_t *src0, const uint8_t *src1,
+	uint8_t *y0, uint8_t *y1, uint8_t *uv, int pixels) {
+
+	int w;
+	for (w = 0; w + 16 <= pixels; w += 16) {
+		const uint8x16x2_t yuyv0 = vld2q_u8(src0);	// Y, UV
+		const uint8x16x2_t yuyv1 = vld2q_u8(src1);
+		vst1q_u8(y0, yuyv0.val[0]);
+		vst1q_u8(uv, vrev16q_u8(yuyv0.val[1]));		// UV => VU
+		vst1q_u8(y1, yuyv1.val[0]);
+		src0 += 32; src1 += 32;
+		y0 += 16; y1 += 16; uv += 16;
+	}
+	if (w < pixels) {
+		_uvc_convert_funcs_scalar.yuyv2iyuv420SP(src0, src1, y0, y1, uv, pixels - w);
+	}
+}
+
+static const uvc_convert_funcs_t convert_funcs_neon = {
+	.isa = UVC_CONVERT_ISA_NEON,
+	.yuyv2rgbx = yuyv2rgbx_row_neon,
+	.yuyv2rgb565 = yuyv2rgb565_row_neon,
+	.uyvy2rgbx = uyvy2rgbx_row_neon,
+	.uyvy2rgb565 = uyvy2rgb565_row_neon,
+	.yuyv2yuv420SP = yuyv2yuv420SP_row_neon,
+	.yuyv2iyuv420SP = yuyv2iyuv420SP_row_neon,
+};
+
+const uvc_convert_funcs_t *_uvc_convert_funcs_neon(void) {
+#if defined(__aarch64__)
+	return &convert_funcs_neon;
+#else
+	// some old armv7 cpu(e.g. Tegra2) does not have NEON
+	return (getauxval(AT_HWCAP) & HWCAP_NEON) ? &convert_funcs_neon : NULL;
+#endif
+}
+#else
+const uvc_convert_funcs_t *_uvc_convert_funcs_neon(void) {
+	return NULL;
+}
+#endif	// NEON
+
+#if (defined(__i386__) || defined(__x86_64__)) && !defined(__ARM_NEON__)
+//**********************************************************************
+// SSE2
+//**********************************************************************
+#include <emmintrin.h>
+#include <immintrin.h>
+
+#define SSE2 __attribute__((target("sse2")))
+#define AVX2 __attribute__((target("avx2")))
+
+/**
+ * 8 pixels => R, G, B as 16 bit values clamped into [0, 255]
+ * @param y luma of each pixel in 16 bits
+ * @param uv U, V of each 2 pixels in 16 bits, already subtracted 128
+ */
+static inline SSE2 void yuv2rgb_sse2(const __m128i y, const __m128i uv,
+	__m128i *r, __m128i *g, __m128i *b) {
+
+	// _mm_madd_epi16 calculates u * lower + v * upper in 32 bits
+	const __m128i coef_r = _mm_set_epi16(COEF_RV, 0, COEF_RV, 0, COEF_RV, 0, COEF_RV, 0);
+	const __m128i coef_g = _mm_set_epi16(COEF_GV, COEF_GU, COEF_GV, COEF_GU, COEF_GV, COEF_GU, COEF_GV, COEF_GU);
+	const __m128i coef_b = _mm_set_epi16(0, COEF_BU, 0, COEF_BU, 0, COEF_BU, 0, COEF_BU);
+	const __m128i zero = _mm_setzero_si128();
+	const __m128i max = _mm_set1_epi16(255);
+
+	const __m128i rg = _mm_packs_epi32(
+		_mm_srai_epi32(_mm_madd_epi16(uv, coef_r), 14),
+		_mm_srai_epi32(_mm_madd_epi16(uv, coef_g), 14));	// r0-r3, g0-g3
+	__m128i bb = _mm_srai_epi32(_mm_madd_epi16(uv, coef_b), 14);
+	bb = _mm_packs_epi32(bb, bb);							// b0-b3, b0-b3
+	// each chroma is shared by 2 pixels
+	const __m128i rr = _mm_unpacklo_epi16(rg, rg);
+	const __m128i gg = _mm_unpackhi_epi16(rg, rg);
+	bb = _mm_unpacklo_epi16(bb, bb);
+	*r = _mm_min_epi16(_mm_max_epi16(_mm_add_epi16(y, rr), zero), max);
+	*g = _mm_min_epi16(_mm_max_epi16(_mm_add_epi16(y, gg), zero), max);
+	*b = _mm_min_epi16(_mm_max_epi16(_mm_add_epi16(y, bb), zero), max);
+}
+
+static inline SSE2 void store_rgbx_sse2(uint8_t *dst, const __m128i r, const __m128i g, const __m128i b) {
+	const __m128i rg = _mm_or_si128(r, _mm_slli_epi16(g, 8));
+	const __m128i bx = _mm_or_si128(b, _mm_set1_epi16((short)0xff00));
+	_mm_storeu_si128((__m128i *)dst, _mm_unpacklo_epi16(rg, bx));
+	_mm_storeu_si128((__m128i *)(dst + 16), _mm_unpackhi_epi16(rg, bx));
+}
+
+static inline SSE2 __m128i rgb565_sse2(const __m128i r, const __m128i g, const __m128i b) {
+	return _mm_or_si128(_mm_or_si128(
+		_mm_slli_epi16(_mm_and_si128(r, _mm_set1_epi16(0xf8)), 8),
+		_mm_slli_epi16(_mm_and_si128(g, _mm_set1_epi16(0xfc)), 3)),
+		_mm_srli_epi16(b, 3));
+}
+
+static SSE2 void yuyv2rgbx_row_sse2(const uint8_t *src, uint8_t *dst, int pixels) {
+	const __m128i mask = _mm_set1_epi16(0xff);
+	const __m128i offset = _mm_set1_epi16(128);
+	__m128i r, g, b;
+	int w;
+	for (w = 0; w + 8 <= pixels; w += 8) {
+		const __m128i x = _mm_loadu_si128((const __m128i *)src);
+		yuv2rgb_sse2(_mm_and_si128(x, mask), _mm_sub_epi16(_mm_srli_epi16(x, 8), offset), &r, &g, &b);
+		store_rgbx_sse2(dst, r, g, b);
+		src += 16;
+		dst += 32;
+	}
+	if (w < pixels) {
+		_uvc_convert_funcs_scalar.yuyv2rgbx(src, dst, pixels - w);
+	}
+}
+
+static SSE2 void yuyv2rgb565_row_sse2(const uint8_t *src, uint8_t *dst, int pixels) {
+	const __m128i mask = _mm_set1_epi16(0xff);
+	const __m128i offset = _mm_set1_epi16(128);
+	__m128i r, g, b;
+	int w;
+	for (w = 0; w + 8 <= pixels; w += 8) {
+		const __m128i x = _mm_loadu_si128((const __m128i *)src);
+		yuv2rgb_sse2(_mm_and_si128(x, mask), _mm_sub_epi16(_mm_srli_epi16(x, 8), offset), &r, &g, &b);
+		_mm_storeu_si128((__m128i *)dst, rgb565_sse2(r, g, b));
+		src += 16;
+		dst += 16;
+	}
+	if (w < pixels) {
+		_uvc_convert_funcs_scalar.yuyv2rgb565(src, dst, pixels - w);
+	}
+}
+
+static SSE2 void uyvy2rgbx_row_sse2(const uint8_t *src, uint8_t *dst, int pixels) {
+	const __m128i mask = _mm_set1_epi16(0xff);
+	const __m128i offset = _mm_set1_epi16(128);
+	__m128i r, g, b;
+	int w;
+	for (w = 0; w + 8 <= pixels; w += 8) {
+		const __m128i x = _mm_loadu_si128((const __m128i *)src);
+		yuv2rgb_sse2(_mm_srli_epi16(x, 8), _mm_sub_epi16(_mm_and_si128(x, mask), offset), &r, &g, &b);
+		store_rgbx_sse2(dst, r, g, b);
+		src += 16;
+		dst += 32;
+	}
+	if (w < pixels) {
+		_uvc_convert_funcs_scalar.uyvy2rgbx(src, dst, pixels - w);
+	}
+}
+
+static SSE2 void uyvy2rgb565_row_sse2(const uint8_t *src, uint8_t *dst, int pixels) {
+	const __m128i mask = _mm_set1_epi16(0xff);
+	const __m128i offset = _mm_set1_epi16(128);
+	__m128i r, g, b;
+	int w;
+	for (w = 0; w + 8 <= pixels; w += 8) {
+		const __m128i x = _mm_loadu_si128((const __m128i *)src);
+		yuv2rgb_sse2(_mm_srli_epi16(x, 8), _mm_sub_epi16(_mm_and_si128(x, mask), offset), &r, &g, &b);
+		_mm_storeu_si128((__m128i *)dst, rgb565_sse2(r, g, b));
+		src += 16;
+		dst += 16;
+	}
+	if (w < pixels) {
+		_uvc_convert_funcs_scalar.uyvy2rgb565(src, dst, pixels - w);
+	}
+}
+
+static SSE2 void yuyv2yuv420SP_row_sse2(const uint8_t *src0, const uint8_t *src1,
+	uint8_t *y0, uint8_t *y1, uint8_t *uv, int pixels) {
+
+	const __m128i mask = _mm_set1_epi16(0xff);
+	int w;
+	for (w = 0; w + 16 <= pixels; w += 16) {
+		const __m128i a0 = _mm_loadu_si128((const __m128i *)src0);
+		const __m128i a1 = _mm_loadu_si128((const __m128i *)(src0 + 16));
+		const __m128i b0 = _mm_loadu_si128((const __m128i *)src1);
+		const __m128i b1 = _mm_loadu_si128((const __m128i *)(src1 + 16));
+		_mm_storeu_si128((__m128i *)y0, _mm_packus_epi16(_mm_and_si128(a0, mask), _mm_and_si128(a1, mask)));
+		_mm_storeu_si128((__m128i *)uv, _mm_packus_epi16(_mm_srli_epi16(a0, 8), _mm_srli_epi16(a1, 8)));
+		_mm_storeu_si128((__m128i *)y1, _mm_packus_epi16(_mm_and_si128(b0, mask), _mm_and_si128(b1, mask)));
+		src0 += 32; src1 += 32;
+		y0 += 16; y1 += 16; uv += 16;
+	}
+	if (w < pixels) {
+		_uvc_convert_funcs_scalar.yuyv2yuv420SP(src0, src1, y0, y1, uv, pixels - w);
+	}
+}
+
+static SSE2 void yuyv2iyuv420SP_row_sse2(const uint8_t *src0, const uint8_t *src1,
+	uint8_t *y0, uint8_t *y1, uint8_t *uv, int pixels) {
+
+	const __m128i mask = _mm_set1_epi16(0xff);
+	int w;
+	for (w = 0; w + 16 <= pixels; w += 16) {
+		const __m128i a0 = _mm_loadu_si128((const __m128i *)src0);
+		const __m128i a1 = _mm_loadu_si128((const __m128i *)(src0 + 16));
+		const __m128i b0 = _mm_loadu_si128((const __m128i *)src1);
+		const __m128i b1 = _mm_loadu_si128((const __m128i *)(src1 + 16));
+		const __m128i chroma = _mm_packus_epi16(_mm_srli_epi16(a0, 8), _mm_srli_epi16(a1, 8));
+		_mm_storeu_si128((__m128i *)y0, _mm_packus_epi16(_mm_and_si128(a0, mask), _mm_and_si128(a1, mask)));
+		// UV => VU
+		_mm_storeu_si128((__m128i *)uv, _mm_or_si128(_mm_slli_epi16(chroma, 8), _mm_srli_epi16(chroma, 8)));
+		_mm_storeu_si128((__m128i *)y1, _mm_packus_epi16(_mm_and_si128(b0, mask), _mm_and_si128(b1, mask)));
+		src0 += 32; src1 += 32;
+		y0 += 16; y1 += 16; uv += 16;
+	}
+	if (w < pixels) {
+		_uvc_convert_funcs_scalar.yuyv2iyuv420SP(src0, src1, y0, y1, uv, pixels - w);
+	}
+}
+
+static const uvc_convert_funcs_t convert_funcs_sse2 = {
+	.isa = UVC_CONVERT_ISA_SSE2,
+	.yuyv2rgbx = yuyv2rgbx_row_sse2,
+	.yuyv2rgb565 = yuyv2rgb565_row_sse2,
+	.uyvy2rgbx = uyvy2rgbx_row_sse2,
+	.uyvy2rgb565 = uyvy2rgb565_row_sse2,
+	.yuyv2yuv420SP = yuyv2yuv420SP_row_sse2,
+	.yuyv2iyuv420SP = yuyv2iyuv420SP_row_sse2,
+};
+
+const uvc_convert_funcs_t *_uvc_convert_funcs_sse2(void) {
+	__builtin_cpu_init();
+	return __builtin_cpu_supports("sse2") ? &convert_funcs_sse2 : NULL;
+}
+
+//**********************************************************************
+// AVX2, same as SSE2 but 16 pixels at once.
+// most of AVX2 instructions work within each 128 bit lane,
+// so the results are permuted before storing when they cross the lanes.
+//**********************************************************************
+static inline AVX2 void yuv2rgb_avx2(const __m256i y, const __m256i uv,
+	__m256i *r, __m256i *g, __m256i *b) {
+
+	const __m256i coef_r = _mm256_set_epi16(
+		COEF_RV, 0, COEF_RV, 0, COEF_RV, 0, COEF_RV, 0,
+		COEF_RV, 0, COEF_RV, 0, COEF_RV, 0, COEF_RV, 0);
+	const __m256i coef_g = _mm256_set_epi16(
+		COEF_GV, COEF_GU, COEF_GV, COEF_GU, COEF_GV, COEF_GU, COEF_GV, COEF_GU,
+		COEF_GV, COEF_GU, COEF_GV, COEF_GU, COEF_GV, COEF_GU, COEF_GV, COEF_GU);
+	const __m256i coef_b = _mm256_set_epi16(
+		0, COEF_BU, 0, COEF_BU, 0, COEF_BU, 0, COEF_BU,
+		0, COEF_BU, 0, COEF_BU, 0, COEF_BU, 0, COEF_BU);
+	const __m256i zero = _mm256_setzero_si256();
+	const __m256i max = _mm256_set1_epi16(255);
+
+	const __m256i rg = _mm256_packs_epi32(
+		_mm256_srai_epi32(_mm256_madd_epi16(uv, coef_r), 14),
+		_mm256_srai_epi32(_mm256_madd_epi16(uv, coef_g), 14));
+	__m256i bb = _mm256_srai_epi32(_mm256_madd_epi16(uv, coef_b), 14);
+	bb = _mm256_packs_epi32(bb, bb);
+	const __m256i rr = _mm256_unpacklo_epi16(rg, rg);
+	const __m256i gg = _mm256_unpackhi_epi16(rg, rg);
+	bb = _mm256_unpacklo_epi16(bb, bb);
+	*r = _mm256_min_epi16(_mm256_max_epi16(_mm256_add_epi16(y, rr), zero), max);
+	*g = _mm256_min_epi16(_mm256_max_epi16(_mm256_add_epi16(y, gg), zero), max);
+	*b = _mm256_min_epi16(_mm256_max_epi16(_mm256_add_epi16(y, bb), zero), max);
+}
+
+static inline AVX2 void store_rgbx_avx2(uint8_t *dst, const __m256i r, const __m256i g, const __m256i b) {
+	const __m256i rg = _mm256_or_si256(r, _mm256_slli_epi16(g, 8));
+	const __m256i bx = _mm256_or_si256(b, _mm256_set1_epi16((short)0xff00));
+	const __m256i lo = _mm256_unpacklo_epi16(rg, bx);	// pixel 0-3, 8-11
+	const __m256i hi = _mm256_unpackhi_epi16(rg, bx);	// pixel 4-7, 12-15
+	_mm256_storeu_si256((__m256i *)dst, _mm256_permute2x128_si256(lo, hi, 0x20));
+	_mm256_storeu_si256((__m256i *)(dst + 32), _mm256_permute2x128_si256(lo, hi, 0x31));
+}
+
+static inline AVX2 __m256i rgb565_avx2(const __m256i r, const __m256i g, const __m256i b) {
+	return _mm256_or_si256(_mm256_or_si256(
+		_mm256_slli_epi16(_mm256_and_si256(r, _mm256_set1_epi16(0xf8)), 8),
+		_mm256_slli_epi16(_mm256_and_si256(g, _mm256_set1_epi16(0xfc)), 3)),
+		_mm256_srli_epi16(b, 3));
+}
+
+static AVX2 void yuyv2rgbx_row_avx2(const uint8_t *src, uint8_t *dst, int pixels) {
+	const __m256i mask = _mm256_set1_epi16(0xff);
+	const __m256i offset = _mm256_set1_epi16(128);
+	__m256i r, g, b;
+	int w;
+	for (w = 0; w + 16 <= pixels; w += 16) {
+		const __m256i x = _mm256_loadu_si256((const __m256i *)src);
+		yuv2rgb_avx2(_mm256_and_si256(x, mask), _mm256_sub_epi16(_mm256_srli_epi16(x, 8), offset), &r, &g, &b);
+		store_rgbx_avx2(dst, r, g, b);
+		src += 32;
+		dst += 64;
+	}
+	if (w < pixels) {
+		yuyv2rgbx_row_sse2(src, dst, pixels - w);
+	}
+}
+
+static AVX2 void yuyv2rgb565_row_avx2(const uint8_t *src, uint8_t *dst, int pixels) {
+	const __m256i mask = _mm256_set1_epi16(0xff);
+	const __m256i offset = _mm256_set1_epi16(128);
+	__m256i r, g, b;
+	int w;
+	for (w = 0; w + 16 <= pixels; w += 16) {
+		const __m256i x = _mm256_loadu_si256((const __m256i *)src);
+		yuv2rgb_avx2(_mm256_and_si256(x, mask), _mm256_sub_epi16(_mm256_srli_epi16(x, 8), offset), &r, &g, &b);
+		_mm256_storeu_si256((__m256i *)dst, rgb565_avx2(r, g, b));
+		src += 32;
+		dst += 32;
+	}
+	if (w < pixels) {
+		yuyv2rgb565_row_sse2(src, dst, pixels - w);
+	}
+}
+
+static AVX2 void uyvy2rgbx_row_avx2(const uint8_t *src, uint8_t *dst, int pixels) {
+	const __m256i mask = _mm256_set1_epi16(0xff);
+	const __m256i offset = _mm256_set1_epi16(128);
+	__m256i r, g, b;
+	int w;
+	for (w = 0; w + 16 <= pixels; w += 16) {
+		const __m256i x = _mm256_loadu_si256((const __m256i *)src);
+		yuv2rgb_avx2(_mm256_srli_epi16(x, 8), _mm256_sub_epi16(_mm256_and_si256(x, mask), offset), &r, &g, &b);
+		store_rgbx_avx2(dst, r, g, b);
+		src += 32;
+		dst += 64;
+	}
+	if (w < pixels) {
+		uyvy2rgbx_row_sse2(src, dst, pixels - w);
+	}
+}
+
+static AVX2 void uyvy2rgb565_row_avx2(const uint8_t *src, uint8_t *dst, int pixels) {
+	const __m256i mask = _mm256_set1_epi16(0xff);
+	const __m256i offset = _mm256_set1_epi16(128);
+	__m256i r, g, b;
+	int w;
+	for (w = 0; w + 16 <= pixels; w += 16) {
+		const __m256i x = _mm256_loadu_si256((const __m256i *)src);
+		yuv2rgb_avx2(_mm256_srli_epi16(x, 8), _mm256_sub_epi16(_mm256_and_si256(x, mask), offset), &r, &g, &b);
+		_mm256_storeu_si256((__m256i *)dst, rgb565_avx2(r, g, b));
+		src += 32;
+		dst += 32;
+	}
+	if (w < pixels) {
+		uyvy2rgb565_row_sse2(src, dst, pixels - w);
+	}
+}
+
+// _mm256_packus_epi16 packs within each lane, 0xd8 restores the order of 64 bit blocks
+#define PACKUS_AVX2(a, b) _mm256_permute4x64_epi64(_mm256_packus_epi16(a, b), 0xd8)
+
+static AVX2 void yuyv2yuv420SP_row_avx2(const uint8_t *src0, const uint8_t *src1,
+	uint8_t *y0, uint8_t *y1, uint8_t *uv, int pixels) {
+
+	const __m256i mask = _mm256_set1_epi16(0xff);
+	int w;
+	for (w = 0; w + 32 <= pixels; w += 32) {
+		const __m256i a0 = _mm256_loadu_si256((const __m256i *)src0);
+		const __m256i a1 = _mm256_loadu_si256((const __m256i *)(src0 + 32));
+		const __m256i b0 = _mm256_loadu_si256((const __m256i *)src1);
+		const __m256i b1 = _mm256_loadu_si256((const __m256i *)(src1 + 32));
+		_mm256_storeu_si256((__m256i *)y0, PACKUS_AVX2(_mm256_and_si256(a0, mask), _mm256_and_si256(a1, mask)));
+		_mm256_storeu_si256((__m256i *)uv, PACKUS_AVX2(_mm256_srli_epi16(a0, 8), _mm256_srli_epi16(a1, 8)));
+		_mm256_storeu_si256((__m256i *)y1, PACKUS_AVX2(_mm256_and_si256(b0, mask), _mm256_and_si256(b1, mask)));
+		src0 += 64; src1 += 64;
+		y0 += 32; y1 += 32; uv += 32;
+	}
+	if (w < pixels) {
+		yuyv2yuv420SP_row_sse2(src0, src1, y0, y1, uv, pixels - w);
+	}
+}
+
+static AVX2 void yuyv2iyuv420SP_row_avx2(const uint8_t *src0, const uint8_t *src1,
+	uint8_t *y0, uint8_t *y1, uint8_t *uv, int pixels) {
+
+	const __m256i mask = _mm256_set1_epi16(0xff);
+	int w;
+	for (w = 0; w + 32 <= pixels; w += 32) {
+		const __m256i a0 = _mm256_loadu_si256((const __m256i *)src0);
+		const __m256i a1 = _mm256_loadu_si256((const __m256i *)(src0 + 32));
+		const __m256i b0 = _mm256_loadu_si256((const __m256i *)src1);
+		const __m256i b1 = _mm256_loadu_si256((const __m256i *)(src1 + 32));
+		const __m256i chroma = PACKUS_AVX2(_mm256_srli_epi16(a0, 8), _mm256_srli_epi16(a1, 8));
+		_mm256_storeu_si256((__m256i *)y0, PACKUS_AVX2(_mm256_and_si256(a0, mask), _mm256_and_si256(a1, mask)));
+		// UV => VU
+		_mm256_storeu_si256((__m256i *)uv, _mm256_or_si256(_mm256_slli_epi16(chroma, 8), _mm256_srli_epi16(chroma, 8)));
+		_mm256_storeu_si256((__m256i *)y1, PACKUS_AVX2(_mm256_and_si256(b0, mask), _mm256_and_si256(b1, mask)));
+		src0 += 64; src1 += 64;
+		y0 += 32; y1 += 32; uv += 32;
+	}
+	if (w < pixels) {
+		yuyv2iyuv420SP_row_sse2(src0, src1, y0, y1, uv, pixels - w);
+	}
+}
+
+static const uvc_convert_funcs_t convert_funcs_avx2 = {
+	.isa = UVC_CONVERT_ISA_AVX2,
+	.yuyv2rgbx = yuyv2rgbx_row_avx2,
+	.yuyv2rgb565 = yuyv2rgb565_row_avx2,
+	.uyvy2rgbx = uyvy2rgbx_row_avx2,
+	.uyvy2rgb565 = uyvy2rgb565_row_avx2,
+	.yuyv2yuv420SP = yuyv2yuv420SP_row_avx2,
+	.yuyv2iyuv420SP = yuyv2iyuv420SP_row_avx2,
+};
+
+const uvc_convert_funcs_t *_uvc_convert_funcs_avx2(void) {
+	__builtin_cpu_init();
+	return __builtin_cpu_supports("avx2") ? &convert_funcs_avx2 : NULL;
+}
+#else
+const uvc_convert_funcs_t *_uvc_convert_funcs_sse2(void) {
+	return NULL;
+}
+
+const uvc_convert_funcs_t *_uvc_convert_funcs_avx2(void) {
+	return NULL;
+}
+#endif	// x86
@@ -52,6 +52,10 @@
 #include "libuvc/libuvc_internal.h"
 
 #define USE_STRIDE 1
+
+static inline const uvc_convert_funcs_t *_uvc_convert_funcs(void);
+static void _uvc_convert_rows(uvc_frame_t *in, uvc_frame_t *out,
+	const int in_pixel_bytes, const int out_pixel_bytes, uvc_convert_row_t func);
 /** @internal */
 uvc_error_t uvc_ensure_frame_size(uvc_frame_t *frame, size_t need_bytes) {
 	if LIKELY(frame->library_owns_data) {
@@ -137,6 +141,10 @@ uvc_error_t uvc_duplicate_frame(uvc_frame_t *in, uvc_frame_t *out) {
 	out->capture_time = in->capture_time;
 	out->source = in->source;
 	out->actual_bytes = in->actual_bytes;	// XXX
+	out->complete_time = in->complete_time;	// XXX
+	out->stage_time = in->stage_time;	// XXX
+	out->pts = in->pts;	// XXX
+	out->capture_time_ns = in->capture_time_ns;	// XXX
 
 #if USE_STRIDE	 // XXX
 	if (in->step && out->step) {
@@ -492,51 +500,7 @@ uvc_error_t uvc_yuyv2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
 	out->capture_time = in->capture_time;
 	out->source = in->source;
 
-	uint8_t *pyuv = in->data;
-	const uint8_t *pyuv_end = pyuv + in->data_bytes - PIXEL8_YUYV;
-	uint8_t *prgb565 = out->data;
-	const uint8_t *prgb565_end = prgb565 + out->data_bytes - PIXEL8_RGB565;
-
-	uint8_t tmp[PIXEL8_RGB];	// for temporary rgb888 data(8pixel)
-
-#if USE_STRIDE
-	if (in->step && out->step && (in->step != out->step)) {
-		const int hh = in->height < out->height ? in->height : out->height;
-		const int ww = in->width < out->width ? in->width : out->width;
-		int h, w;
-		for (h = 0; h < hh; h++) {
-			w = 0;
-			pyuv = in->data + in->step * h;
-			prgb565 = out->data + out->step * h;
-			for (; (prgb565 <= prgb565_end) && (pyuv <= pyuv_end) && (w < ww) ;) {
-				IYUYV2RGB_8(pyuv, tmp, 0, 0);
-				RGB2RGB565_8(tmp, prgb565, 0, 0);
-
-				prgb565 += PIXEL8_YUYV;
-				pyuv += PIXEL8_RGB565;
-				w += 8;
-			}
-		}
-	} else {
-		// compressed format? XXX if only one of the frame in / out has step, this may lead to crash...
-		for (; (prgb565 <= prgb565_end) && (pyuv <= pyuv_end) ;) {
-			IYUYV2RGB_8(pyuv, tmp, 0, 0);
-			RGB2RGB565_8(tmp, prgb565, 0, 0);
-
-			prgb565 += PIXEL8_YUYV;
-			pyuv += PIXEL8_RGB565;
-		}
-	}
-#else
-	// YUYV => RGB565
-	for (; (prgb565 <= prgb565_end) && (pyuv <= pyuv_end) ;) {
-		IYUYV2RGB_8(pyuv, tmp, 0, 0);
-		RGB2RGB565_8(tmp, prgb565, 0, 0);
-
-		prgb565 += PIXEL8_YUYV;
-		pyuv += PIXEL8_RGB565;
-	}
-#endif
+	_uvc_convert_rows(in, out, PIXEL_YUYV, PIXEL_RGB565, _uvc_convert_funcs()->yuyv2rgb565);
 	return UVC_SUCCESS;
 }
 
@@ -588,46 +552,74 @@ uvc_error_t uvc_yuyv2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 	out->capture_time = in->capture_time;
 	out->source = in->source;
 
-	uint8_t *pyuv = in->data;
-	const uint8_t *pyuv_end = pyuv + in->data_bytes - PIXEL8_YUYV;
-	uint8_t *prgbx = out->data;
-	const uint8_t *prgbx_end = prgbx + out->data_bytes - PIXEL8_RGBX;
+	_uvc_convert_rows(in, out, PIXEL_YUYV, PIXEL_RGBX, _uvc_convert_funcs()->yuyv2rgbx);
+	return UVC_SUCCESS;
+}
 
-	// YUYV => RGBX8888
-#if USE_STRIDE
-	if (in->step && out->step && (in->step != out->step)) {
-		const int hh = in->height < out->height ? in->height : out->height;
-		const int ww = in->width < out->width ? in->width : out->width;
-		int h, w;
-		for (h = 0; h < hh; h++) {
-			w = 0;
-			pyuv = in->data + in->step * h;
-			prgbx = out->data + out->step * h;
-			for (; (prgbx <= prgbx_end) && (pyuv <= pyuv_end) && (w < ww) ;) {
-				IYUYV2RGBX_8(pyuv, prgbx, 0, 0);
+/** @internal
+ * number of rows that can be converted into destination without overrun
+ */
+static inline int _uvc_dst_rows(uvc_frame_t *in, const int src_step, const int dst_height) {
+	const int height = (int)in->height;
+	const int hh = height < dst_height ? height : dst_height;
+	const int avail = src_step > 0 ? (int)(in->data_bytes / src_step) : 0;
+	return hh < avail ? hh : avail;
+}
 
-				prgbx += PIXEL8_RGBX;
-				pyuv += PIXEL8_YUYV;
-				w += 8;
-			}
-		}
-	} else {
-		// compressed format? XXX if only one of the frame in / out has step, this may lead to crash...
-		for (; (prgbx <= prgbx_end) && (pyuv <= pyuv_end) ;) {
-			IYUYV2RGBX_8(pyuv, prgbx, 0, 0);
+/** @brief Convert a frame from YUYV to RGBX8888 and write it directly into the memory
+ * that has arbitrary stride, e.g. locked ANativeWindow_Buffer, without intermediate frame.
+ * the image is clipped to the smaller width/height of the frame and the destination.
+ * @ingroup frame
+ * @param in YUYV frame
+ * @param dst top-left of destination
+ * @param dst_step bytes per row of destination
+ * @param dst_width width of destination[pixels]
+ * @param dst_height height of destination[pixels]
+ */
+uvc_error_t uvc_yuyv2rgbx_to(uvc_frame_t *in, uint8_t *dst, int dst_step, int dst_width, int dst_height) {
+	if (UNLIKELY(in->frame_format != UVC_FRAME_FORMAT_YUYV))
+		return UVC_ERROR_INVALID_PARAM;
+	if (UNLIKELY(!dst || !in->data || (dst_step < dst_width * PIXEL_RGBX)))
+		return UVC_ERROR_INVALID_PARAM;
 
-			prgbx += PIXEL8_RGBX;
-			pyuv += PIXEL8_YUYV;
-		}
+	const int width = (int)in->width;
+	const int src_step = in->step ? (int)in->step : width * PIXEL_YUYV;
+	const int hh = _uvc_dst_rows(in, src_step, dst_height);
+	// YUYV has 2 pixels per macro pixel
+	const int ww = (width < dst_width ? width : dst_width) & ~1;
+	const uvc_convert_row_t func = _uvc_convert_funcs()->yuyv2rgbx;
+	int h;
+	for (h = 0; h < hh; h++) {
+		func((const uint8_t *)in->data + src_step * h, dst + dst_step * h, ww);
 	}
-#else
-	for (; (prgbx <= prgbx_end) && (pyuv <= pyuv_end) ;) {
-		IYUYV2RGBX_8(pyuv, prgbx, 0, 0);
+	return UVC_SUCCESS;
+}
 
-		prgbx += PIXEL8_RGBX;
-		pyuv += PIXEL8_YUYV;
+/** @brief Convert a frame from YUYV to RGB565 and write it directly into the memory
+ * that has arbitrary stride, e.g. locked ANativeWindow_Buffer, without intermediate frame.
+ * the image is clipped to the smaller width/height of the frame and the destination.
+ * @ingroup frame
+ * @param in YUYV frame
+ * @param dst top-left of destination
+ * @param dst_step bytes per row of destination
+ * @param dst_width width of destination[pixels]
+ * @param dst_height height of destination[pixels]
+ */
+uvc_error_t uvc_yuyv2rgb565_to(uvc_frame_t *in, uint8_t *dst, int dst_step, int dst_width, int dst_height) {
+	if (UNLIKELY(in->frame_format != UVC_FRAME_FORMAT_YUYV))
+		return UVC_ERROR_INVALID_PARAM;
+	if (UNLIKELY(!dst || !in->data || (dst_step < dst_width * PIXEL_RGB565)))
+		return UVC_ERROR_INVALID_PARAM;
+
+	const int width = (int)in->width;
+	const int src_step = in->step ? (int)in->step : width * PIXEL_YUYV;
+	const int hh = _uvc_dst_rows(in, src_step, dst_height);
+	const int ww = (width < dst_width ? width : dst_width) & ~1;
+	const uvc_convert_row_t func = _uvc_convert_funcs()->yuyv2rgb565;
+	int h;
+	for (h = 0; h < hh; h++) {
+		func((const uint8_t *)in->data + src_step * h, dst + dst_step * h, ww);
 	}
-#endif
 	return UVC_SUCCESS;
 }
 
@@ -831,51 +823,7 @@ uvc_error_t uvc_uyvy2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
 	out->capture_time = in->capture_time;
 	out->source = in->source;
 
-	uint8_t *pyuv = in->data;
-	const uint8_t *pyuv_end = pyuv + in->data_bytes - PIXEL8_UYVY;
-	uint8_t *prgb565 = out->data;
-	const uint8_t *prgb565_end = prgb565 + out->data_bytes - PIXEL8_RGB565;
-
-	uint8_t tmp[PIXEL8_RGB];		// for temporary rgb888 data(8pixel)
-
-	// UYVY => RGB565
-#if USE_STRIDE
-	if (in->step && out->step && (in->step != out->step)) {
-		const int hh = in->height < out->height ? in->height : out->height;
-		const int ww = in->width < out->width ? in->width : out->width;
-		int h, w;
-		for (h = 0; h < hh; h++) {
-			w = 0;
-			pyuv = in->data + in->step * h;
-			prgb565 = out->data + out->step * h;
-			for (; (prgb565 <= prgb565_end) && (pyuv <= pyuv_end) && (w < ww) ;) {
-				IUYVY2RGB_8(pyuv, tmp, 0, 0);
-				RGB2RGB565_8(tmp, prgb565, 0, 0);
-
-				prgb565 += PIXEL8_RGB565;
-				pyuv += PIXEL8_UYVY;
-				w += 8;
-			}
-		}
-	} else {
-		// compressed format? XXX if only one of the frame in / out has step, this may lead to crash...
-		for (; (prgb565 <= prgb565_end) && (pyuv <= pyuv_end) ;) {
-			IUYVY2RGB_8(pyuv, tmp, 0, 0);
-			RGB2RGB565_8(tmp, prgb565, 0, 0);
-
-			prgb565 += PIXEL8_RGB565;
-			pyuv += PIXEL8_UYVY;
-		}
-	}
-#else
-	for (; (prgb565 <= prgb565_end) && (pyuv <= pyuv_end) ;) {
-		IUYVY2RGB_8(pyuv, tmp, 0, 0);
-		RGB2RGB565_8(tmp, prgb565, 0, 0);
-
-		prgb565 += PIXEL8_RGB565;
-		pyuv += PIXEL8_UYVY;
-	}
-#endif
+	_uvc_convert_rows(in, out, PIXEL_UYVY, PIXEL_RGB565, _uvc_convert_funcs()->uyvy2rgb565);
 	return UVC_SUCCESS;
 }
 
@@ -927,46 +875,7 @@ uvc_error_t uvc_uyvy2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 	out->capture_time = in->capture_time;
 	out->source = in->source;
 
-	uint8_t *pyuv = in->data;
-	const uint8_t *pyuv_end = pyuv + in->data_bytes - PIXEL8_UYVY;
-	uint8_t *prgbx = out->data;
-	const uint8_t *prgbx_end = prgbx + out->data_bytes - PIXEL8_RGBX;
-
-	// UYVY => RGBX8888
-#if USE_STRIDE
-	if (in->step && out->step && (in->step != out->step)) {
-		const int hh = in->height < out->height ? in->height : out->height;
-		const int ww = in->width < out->width ? in->width : out->width;
-		int h, w;
-		for (h = 0; h < hh; h++) {
-			w = 0;
-			pyuv = in->data + in->step * h;
-			prgbx = out->data + out->step * h;
-			for (; (prgbx <= prgbx_end) && (pyuv <= pyuv_end) && (w < ww) ;) {
-				IUYVY2RGBX_8(pyuv, prgbx, 0, 0);
-
-				prgbx += PIXEL8_RGBX;
-				pyuv += PIXEL8_UYVY;
-				w += 8;
-			}
-		}
-	} else {
-		// compressed format? XXX if only one of the frame in / out has step, this may lead to crash...
-		for (; (prgbx <= prgbx_end) && (pyuv <= pyuv_end) ;) {
-			IUYVY2RGBX_8(pyuv, prgbx, 0, 0);
-
-			prgbx += PIXEL8_RGBX;
-			pyuv += PIXEL8_UYVY;
-		}
-	}
-#else
-	for (; (prgbx <= prgbx_end) && (pyuv <= pyuv_end) ;) {
-		IUYVY2RGBX_8(pyuv, prgbx, 0, 0);
-
-		prgbx += PIXEL8_RGBX;
-		pyuv += PIXEL8_UYVY;
-	}
-#endif
+	_uvc_convert_rows(in, out, PIXEL_UYVY, PIXEL_RGBX, _uvc_convert_funcs()->uyvy2rgbx);
 	return UVC_SUCCESS;
 }
 
@@ -1059,6 +968,254 @@ uvc_error_t uvc_uyvy2bgr(uvc_frame_t *in, uvc_frame_t *out) {
 	return UVC_SUCCESS;
 }
 
+//**********************************************************************
+// XXX row converters
+// scalar implementation is the reference, SIMD implementations in frame-simd.c
+// should produce exactly same result as these.
+//**********************************************************************
+static void yuyv2rgbx_row(const uint8_t *pyuv, uint8_t *prgbx, int pixels) {
+	int w;
+	for (w = 0; w + 8 <= pixels; w += 8) {
+		IYUYV2RGBX_8(pyuv, prgbx, 0, 0);
+
+		prgbx += PIXEL8_RGBX;
+		pyuv += PIXEL8_YUYV;
+	}
+	for (; w < pixels; w += 2) {
+		IYUYV2RGBX_2(pyuv, prgbx, 0, 0);
+
+		prgbx += PIXEL2_RGBX;
+		pyuv += PIXEL2_YUYV;
+	}
+}
+
+static void yuyv2rgb565_row(const uint8_t *pyuv, uint8_t *prgb565, int pixels) {
+	uint8_t tmp[PIXEL8_RGB];	// for temporary rgb888 data(8pixel)
+	int w;
+	for (w = 0; w + 8 <= pixels; w += 8) {
+		IYUYV2RGB_8(pyuv, tmp, 0, 0);
+		RGB2RGB565_8(tmp, prgb565, 0, 0);
+
+		prgb565 += PIXEL8_RGB565;
+		pyuv += PIXEL8_YUYV;
+	}
+	for (; w < pixels; w += 2) {
+		IYUYV2RGB_2(pyuv, tmp, 0, 0);
+		RGB2RGB565_2(tmp, prgb565, 0, 0);
+
+		prgb565 += PIXEL2_RGB565;
+		pyuv += PIXEL2_YUYV;
+	}
+}
+
+static void uyvy2rgbx_row(const uint8_t *pyuv, uint8_t *prgbx, int pixels) {
+	int w;
+	for (w = 0; w + 8 <= pixels; w += 8) {
+		IUYVY2RGBX_8(pyuv, prgbx, 0, 0);
+
+		prgbx += PIXEL8_RGBX;
+		pyuv += PIXEL8_UYVY;
+	}
+	for (; w < pixels; w += 2) {
+		IUYVY2RGBX_2(pyuv, prgbx, 0, 0);
+
+		prgbx += PIXEL2_RGBX;
+		pyuv += PIXEL2_UYVY;
+	}
+}
+
+static void uyvy2rgb565_row(const uint8_t *pyuv, uint8_t *prgb565, int pixels) {
+	uint8_t tmp[PIXEL8_RGB];	// for temporary rgb888 data(8pixel)
+	int w;
+	for (w = 0; w + 8 <= pixels; w += 8) {
+		IUYVY2RGB_8(pyuv, tmp, 0, 0);
+		RGB2RGB565_8(tmp, prgb565, 0, 0);
+
+		prgb565 += PIXEL8_RGB565;
+		pyuv += PIXEL8_UYVY;
+	}
+	for (; w < pixels; w += 2) {
+		IUYVY2RGB_2(pyuv, tmp, 0, 0);
+		RGB2RGB565_2(tmp, prgb565, 0, 0);
+
+		prgb565 += PIXEL2_RGB565;
+		pyuv += PIXEL2_UYVY;
+	}
+}
+
+// 2 rows of YUYV => 2 rows of Y and 1 row of interleaved UV(chroma of the upper row)
+static void yuyv2yuv420SP_row(const uint8_t *yuv, const uint8_t *yuv1,
+	uint8_t *y0, uint8_t *y1, uint8_t *uv, int pixels) {
+
+	int w;
+	for (w = 0; w < pixels; w += 4) {
+		*(y0++) = yuv[0];	// y
+		*(y0++) = yuv[2];	// y'
+		*(y0++) = yuv[4];	// y''
+		*(y0++) = yuv[6];	// y'''
+		*(uv++) = yuv[1];	// u
+		*(uv++) = yuv[3];	// v
+		*(uv++) = yuv[5];	// u
+		*(uv++) = yuv[7];	// v
+		*(y1++) = yuv1[0];	// y on next low
+		*(y1++) = yuv1[2];	// y' on next low
+		*(y1++) = yuv1[4];	// y''  on next low
+		*(y1++) = yuv1[6];	// y'''  on next low
+		yuv += 8;	// (1pixel=2bytes)x4pixels=8bytes
+		yuv1 += 8;
+	}
+}
+
+// same as yuyv2yuv420SP_row but VU order
+static void yuyv2iyuv420SP_row(const uint8_t *yuv, const uint8_t *yuv1,
+	uint8_t *y0, uint8_t *y1, uint8_t *uv, int pixels) {
+
+	int w;
+	for (w = 0; w < pixels; w += 4) {
+		*(y0++) = yuv[0];	// y
+		*(y0++) = yuv[2];	// y'
+		*(y0++) = yuv[4];	// y''
+		*(y0++) = yuv[6];	// y'''
+		*(uv++) = yuv[3];	// v
+		*(uv++) = yuv[1];	// u
+		*(uv++) = yuv[7];	// v
+		*(uv++) = yuv[5];	// u
+		*(y1++) = yuv1[0];	// y on next low
+		*(y1++) = yuv1[2];	// y' on next low
+		*(y1++) = yuv1[4];	// y''  on next low
+		*(y1++) = yuv1[6];	// y'''  on next low
+		yuv += 8;	// (1pixel=2bytes)x4pixels=8bytes
+		yuv1 += 8;
+	}
+}
+
+const uvc_convert_funcs_t _uvc_convert_funcs_scalar = {
+	.isa = UVC_CONVERT_ISA_SCALAR,
+	.yuyv2rgbx = yuyv2rgbx_row,
+	.yuyv2rgb565 = yuyv2rgb565_row,
+	.uyvy2rgbx = uyvy2rgbx_row,
+	.uyvy2rgb565 = uyvy2rgb565_row,
+	.yuyv2yuv420SP = yuyv2yuv420SP_row,
+	.yuyv2iyuv420SP = yuyv2iyuv420SP_row,
+};
+
+static pthread_once_t convert_once = PTHREAD_ONCE_INIT;
+static const uvc_convert_funcs_t *convert_funcs = &_uvc_convert_funcs_scalar;
+
+/** @internal
+ * @return NULL if the ISA is not available on this build/CPU
+ */
+static const uvc_convert_funcs_t *_uvc_convert_funcs_for(int isa) {
+	switch (isa) {
+	case UVC_CONVERT_ISA_SCALAR:
+		return &_uvc_convert_funcs_scalar;
+	case UVC_CONVERT_ISA_NEON:
+		return _uvc_convert_funcs_neon();
+	case UVC_CONVERT_ISA_SSE2:
+		return _uvc_convert_funcs_sse2();
+	case UVC_CONVERT_ISA_AVX2:
+		return _uvc_convert_funcs_avx2();
+	case UVC_CONVERT_ISA_AUTO:
+	{
+		const uvc_convert_funcs_t *funcs = _uvc_convert_funcs_avx2();
+		if (!funcs) funcs = _uvc_convert_funcs_sse2();
+		if (!funcs) funcs = _uvc_convert_funcs_neon();
+		return funcs ? funcs : &_uvc_convert_funcs_scalar;
+	}
+	default:
+		return NULL;
+	}
+}
+
+static void _uvc_convert_init(void) {
+	convert_funcs = _uvc_convert_funcs_for(UVC_CONVERT_ISA_AUTO);
+}
+
+static inline const uvc_convert_funcs_t *_uvc_convert_funcs(void) {
+	pthread_once(&convert_once, _uvc_convert_init);
+	return convert_funcs;
+}
+
+/** @brief Select instruction set for pixel format conversion
+ * The best one available on the CPU is selected automatically at first conversion,
+ * this is mainly for benchmarking and debugging.
+ * @ingroup frame
+ *
+ * @param isa UVC_CONVERT_ISA_XXX
+ * @return UVC_ERROR_NOT_SUPPORTED if the ISA is not available on this build/CPU
+ */
+uvc_error_t uvc_convert_set_isa(int isa) {
+	pthread_once(&convert_once, _uvc_convert_init);
+	const uvc_convert_funcs_t *funcs = _uvc_convert_funcs_for(isa);
+	if (UNLIKELY(!funcs))
+		return UVC_ERROR_NOT_SUPPORTED;
+	convert_funcs = funcs;
+	return UVC_SUCCESS;
+}
+
+/** @brief Get instruction set that is currently used for pixel format conversion
+ * @ingroup frame
+ */
+int uvc_convert_get_isa(void) {
+	return _uvc_convert_funcs()->isa;
+}
+
+const char *uvc_convert_isa_name(int isa) {
+	switch (isa) {
+	case UVC_CONVERT_ISA_AUTO:		return "auto";
+	case UVC_CONVERT_ISA_SCALAR:	return "scalar";
+	case UVC_CONVERT_ISA_NEON:		return "neon";
+	case UVC_CONVERT_ISA_SSE2:		return "sse2";
+	case UVC_CONVERT_ISA_AVX2:		return "avx2";
+	default:						return "unknown";
+	}
+}
+
+static inline int _uvc_blocks(const size_t bytes, const size_t offset, const size_t block_bytes) {
+	return bytes >= offset + block_bytes ? (int)((bytes - offset) / block_bytes) : 0;
+}
+
+/** @internal
+ * apply row converter in the same way as the 8 pixel block loop that converters used before,
+ * i.e. convert each row by 8 pixels while the block fits in both of the input and the output frame.
+ */
+static void _uvc_convert_rows(uvc_frame_t *in, uvc_frame_t *out,
+	const int in_pixel_bytes, const int out_pixel_bytes, uvc_convert_row_t func) {
+
+	const uint8_t *src = in->data;
+	uint8_t *dst = out->data;
+	const size_t in_block = in_pixel_bytes * 8;
+	const size_t out_block = out_pixel_bytes * 8;
+	int n, m;
+#if USE_STRIDE
+	if (in->step && out->step && (in->step != out->step)) {
+		const int hh = in->height < out->height ? in->height : out->height;
+		const int ww = in->width < out->width ? in->width : out->width;
+		const int blocks = (ww + 7) >> 3;
+		int h;
+		for (h = 0; h < hh; h++) {
+			const size_t in_offset = in->step * h;
+			const size_t out_offset = out->step * h;
+			n = _uvc_blocks(in->data_bytes, in_offset, in_block);
+			m = _uvc_blocks(out->data_bytes, out_offset, out_block);
+			if (m < n) n = m;
+			if (blocks < n) n = blocks;
+			if (n > 0) {
+				func(src + in_offset, dst + out_offset, n * 8);
+			}
+		}
+		return;
+	}
+#endif
+	// compressed format? XXX if only one of the frame in / out has step, this may lead to crash...
+	n = _uvc_blocks(in->data_bytes, 0, in_block);
+	m = _uvc_blocks(out->data_bytes, 0, out_block);
+	if (m < n) n = m;
+	if (n > 0) {
+		func(src, dst, n * 8);
+	}
+}
+
 int uvc_yuyv2yuv420P(uvc_frame_t *in, uvc_frame_t *out) {
 
 	ENTER();
@@ -1166,26 +1323,13 @@ uvc_error_t uvc_yuyv2yuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
 
 	const uint32_t hh = src_height < dest_height ? src_height : dest_height;
 	uint8_t *uv = dest + dest_width * dest_height;
-	int h, w;
+	const uvc_convert_row_420sp_t func = _uvc_convert_funcs()->yuyv2yuv420SP;
+	int h;
 	for (h = 0; h < hh - 1; h += 2) {
 		uint8_t *y0 = dest + width * h;
-		uint8_t *y1 = y0 + width;
 		const uint8_t *yuv = src + src_width * h;
-		for (w = 0; w < width; w += 4) {
-			*(y0++) = yuv[0];	// y
-			*(y0++) = yuv[2];	// y'
-			*(y0++) = yuv[4];	// y''
-			*(y0++) = yuv[6];	// y'''
-			*(uv++) = yuv[1];	// u
-			*(uv++) = yuv[3];	// v
-			*(uv++) = yuv[5];	// u
-			*(uv++) = yuv[7];	// v
-			*(y1++) = yuv[src_width+0];	// y on next low
-			*(y1++) = yuv[src_width+2];	// y' on next low
-			*(y1++) = yuv[src_width+4];	// y''  on next low
-			*(y1++) = yuv[src_width+6];	// y'''  on next low
-			yuv += 8;	// (1pixel=2bytes)x4pixels=8bytes
-		}
+		func(yuv, yuv + src_width, y0, y0 + width, uv, width);
+		uv += (width + 3) & ~3;	// row converter processes 4 pixels at once
 	}
 	
 	RETURN(UVC_SUCCESS, uvc_error_t);
@@ -1211,26 +1355,13 @@ uvc_error_t uvc_yuyv2iyuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
 
 	const uint32_t hh = src_height < dest_height ? src_height : dest_height;
 	uint8_t *uv = dest + dest_width * dest_height;
-	int h, w;
+	const uvc_convert_row_420sp_t func = _uvc_convert_funcs()->yuyv2iyuv420SP;
+	int h;
 	for (h = 0; h < hh - 1; h += 2) {
 		uint8_t *y0 = dest + width * h;
-		uint8_t *y1 = y0 + width;
 		const uint8_t *yuv = src + src_width * h;
-		for (w = 0; w < width; w += 4) {
-			*(y0++) = yuv[0];	// y
-			*(y0++) = yuv[2];	// y'
-			*(y0++) = yuv[4];	// y''
-			*(y0++) = yuv[6];	// y'''
-			*(uv++) = yuv[3];	// v
-			*(uv++) = yuv[1];	// u
-			*(uv++) = yuv[7];	// v
-			*(uv++) = yuv[5];	// u
-			*(y1++) = yuv[src_width+0];	// y on next low
-			*(y1++) = yuv[src_width+2];	// y' on next low
-			*(y1++) = yuv[src_width+4];	// y''  on next low
-			*(y1++) = yuv[src_width+6];	// y'''  on next low
-			yuv += 8;	// (1pixel=2bytes)x4pixels=8bytes
-		}
+		func(yuv, yuv + src_width, y0, y0 + width, uv, width);
+		uv += (width + 3) & ~3;	// row converter processes 4 pixels at once
 	}
 	
 	RETURN(UVC_SUCCESS, uvc_error_t);
@@ -1336,6 +1467,62 @@ uvc_error_t uvc_any2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 	}
 }
 
+/** @brief Convert a frame to RGBX8888 and write it directly into the memory that has arbitrary stride
+ * @ingroup frame
+ *
+ * @param in YUYV, MJPEG or RGBX frame
+ * @param dst top-left of destination
+ * @param dst_step bytes per row of destination
+ * @param dst_width width of destination[pixels]
+ * @param dst_height height of destination[pixels]
+ */
+uvc_error_t uvc_any2rgbx_to(uvc_frame_t *in, uint8_t *dst, int dst_step, int dst_width, int dst_height) {
+
+	switch (in->frame_format) {
+#ifdef LIBUVC_HAS_JPEG
+	case UVC_FRAME_FORMAT_MJPEG:
+		return uvc_mjpeg2rgbx_to(in, dst, dst_step, dst_width, dst_height);
+#endif
+	case UVC_FRAME_FORMAT_YUYV:
+		return uvc_yuyv2rgbx_to(in, dst, dst_step, dst_width, dst_height);
+	case UVC_FRAME_FORMAT_RGBX:
+	{
+		if (UNLIKELY(!dst || !in->data))
+			return UVC_ERROR_INVALID_PARAM;
+		const int width = (int)in->width;
+		const int src_step = in->step ? (int)in->step : width * PIXEL_RGBX;
+		const int hh = _uvc_dst_rows(in, src_step, dst_height);
+		const int bytes = (width < dst_width ? width : dst_width) * PIXEL_RGBX;
+		int h;
+		for (h = 0; h < hh; h++) {
+			memcpy(dst + dst_step * h, (const uint8_t *)in->data + src_step * h, bytes);
+		}
+		return UVC_SUCCESS;
+	}
+	default:
+		return UVC_ERROR_NOT_SUPPORTED;
+	}
+}
+
+/** @brief Convert a frame to RGB565 and write it directly into the memory that has arbitrary stride
+ * @ingroup frame
+ *
+ * @param in YUYV frame
+ * @param dst top-left of destination
+ * @param dst_step bytes per row of destination
+ * @param dst_width width of destination[pixels]
+ * @param dst_height height of destination[pixels]
+ */
+uvc_error_t uvc_any2rgb565_to(uvc_frame_t *in, uint8_t *dst, int dst_step, int dst_width, int dst_height) {
+
+	switch (in->frame_format) {
+	case UVC_FRAME_FORMAT_YUYV:
+		return uvc_yuyv2rgb565_to(in, dst, dst_step, dst_width, dst_height);
+	default:
+		return UVC_ERROR_NOT_SUPPORTED;
+	}
+}
+
 /** @brief Convert a frame to yuyv
  * @ingroup frame
  *
@@ -1363,6 +1550,16 @@ uvc_error_t uvc_any2yuyv(uvc_frame_t *in, uvc_frame_t *out) {
  * @param out yuv420sp frame
  */
 uvc_error_t uvc_any2yuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
+	switch (in->frame_format) {
+#ifdef LIBUVC_HAS_JPEG
+	case UVC_FRAME_FORMAT_MJPEG:
+		return uvc_mjpeg2yuv420SP(in, out);
+#endif
+	case UVC_FRAME_FORMAT_YUYV:
+		return uvc_yuyv2yuv420SP(in, out);
+	default:
+		break;
+	}
 	uvc_error_t result = UVC_ERROR_NO_MEM;
 	uvc_frame_t *yuv = uvc_allocate_frame((in->width * in->height * 3) / 2);
 	if (yuv) {
@@ -1382,6 +1579,16 @@ uvc_error_t uvc_any2yuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
  * @param out iyuv420SP(NV21) frame
  */
 uvc_error_t uvc_any2iyuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
+	switch (in->frame_format) {
+#ifdef LIBUVC_HAS_JPEG
+	case UVC_FRAME_FORMAT_MJPEG:
+		return uvc_mjpeg2iyuv420SP(in, out);
+#endif
+	case UVC_FRAME_FORMAT_YUYV:
+		return uvc_yuyv2iyuv420SP(in, out);
+	default:
+		break;
+	}
 	uvc_error_t result = UVC_ERROR_NO_MEM;
 	uvc_frame_t *yuv = uvc_allocate_frame((in->width * in->height * 3) / 2);
 	if (yuv) {
@@ -0,0 +1,631 @@
+/*********************************************************************
+ * payload recording and virtual device that replays it
+ * Copyright (C) 2014-2017 saki@serenegiant All rights reserved.
+ *********************************************************************/
+/*********************************************************************
+ * Software License Agreement (BSD License)
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   * Neither the name of the author nor other contributors may be
+ *     used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************/
+/**
+ * @defgroup replay Payload recording and replay
+ * @brief Record payloads of a stream and replay them without the camera
+ *
+ * The recording keeps every payload with its UVC payload header as it was passed
+ * to the payload processing of stream.c, so the replay goes through exactly the same
+ * path as USB transfers(header parsing, frame assembly, frame pool and user callback)
+ * and reproduces broken/missing payloads too.
+ * uvc_replay_open returns a virtual device that has one format/frame descriptor of
+ * the recording, so the usual uvc_get_stream_ctrl_format_size/uvc_start_streaming_XXX
+ * work with it on any platform without USB. Controls of ctrl.c are not available.
+ *
+ * File format(all values are little endian):
+ *   header(40 bytes): "UVCP", version(2), header size(2), frame format(4), width(2), height(2),
+ *     dwFrameInterval(4), dwMaxVideoFrameSize(4), dwMaxPayloadTransferSize(4),
+ *     dwClockFrequency(4), bcdUVC(2), isochronous(1), reserved(5)
+ *   records: time from previous payload in microseconds(4), payload length(4), payload
+ * Empty isochronous packets are not recorded.
+ * The thread that handles USB events only copies the payloads into a ring buffer and
+ * a writer thread of the recorder writes them into the file. When the writer falls behind
+ * and the ring buffer is full, the payload is not recorded and counted as a drop.
+ */
+
+#define LOCAL_DEBUG 0
+
+#define LOG_TAG "libuvc/replay"
+#if 1	// デバッグ情報を出さない時1
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// LOGV/LOGD/MARKを出力しない時
+		#endif
+	#undef USE_LOGALL			// 指定したLOGxだけを出力
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+	#undef NDEBUG
+#endif
+
+#include <time.h>
+
+#include "libuvc/libuvc.h"
+#include "libuvc/libuvc_internal.h"
+
+#define REPLAY_MAGIC "UVCP"
+#define REPLAY_VERSION 1
+#define REPLAY_HEADER_SIZE 40
+#define REPLAY_RECORD_HEADER_SIZE 8
+#define REPLAY_INTERFACE 1		// interface number of the virtual stream
+#define RECORDER_RING_SIZE (8 * 1024 * 1024)	// payloads that wait for the writer thread, some uncompressed frames
+#define REPLAY_MAX_SLEEP_NS 10000000LL	// check stop request at least every 10ms while waiting
+
+void uvc_free_devh(uvc_device_handle_t *devh);
+
+struct uvc_payload_recorder {
+	FILE *fp;
+	int64_t last_ns;
+	volatile int failed;
+	// ring buffer, head is touched only by uvc_recorder_write and tail only by the writer thread
+	uint8_t *ring;
+	size_t head;
+	size_t tail;
+	size_t used;
+	pthread_mutex_t mutex;
+	pthread_cond_t sync;
+	pthread_t thread;
+	int running;
+};
+
+struct uvc_replay {
+	FILE *fp;
+	uvc_replay_info_t info;
+	float speed;
+	int loops;
+	pthread_t thread;
+	uvc_stream_handle_t *strmh;
+	volatile int finished;
+	uint8_t *buf;
+	size_t buf_size;
+};
+
+static inline void _put16(uint8_t *p, uint16_t v) {
+	p[0] = v; p[1] = v >> 8;
+}
+
+static inline void _put32(uint8_t *p, uint32_t v) {
+	p[0] = v; p[1] = v >> 8; p[2] = v >> 16; p[3] = v >> 24;
+}
+
+static inline uint16_t _get16(const uint8_t *p) {
+	return p[0] | (p[1] << 8);
+}
+
+static inline uint32_t _get32(const uint8_t *p) {
+	return p[0] | (p[1] << 8) | (p[2] << 16) | ((uint32_t)p[3] << 24);
+}
+
+static inline int64_t _monotonic_ns(void) {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return ts.tv_sec * 1000000000LL + ts.tv_nsec;
+}
+
+/** @internal
+ * @brief copy into the ring buffer of the recorder from head, wraps around at the end
+ */
+static void _uvc_recorder_copy(uvc_payload_recorder_t *rec, const uint8_t *data, size_t len) {
+	const size_t n = RECORDER_RING_SIZE - rec->head < len ? RECORDER_RING_SIZE - rec->head : len;
+	memcpy(rec->ring + rec->head, data, n);
+	if (n < len) {
+		memcpy(rec->ring, data + n, len - n);
+	}
+	rec->head = (rec->head + len) % RECORDER_RING_SIZE;
+}
+
+/** @internal
+ * @brief writer thread of the recorder, writes payloads in the ring buffer into the file
+ * until the recorder is closed and the ring buffer becomes empty
+ */
+static void *_uvc_recorder_thread_func(void *arg) {
+	uvc_payload_recorder_t *rec = (uvc_payload_recorder_t *)arg;
+
+	for ( ; ; ) {
+		size_t len;
+		pthread_mutex_lock(&rec->mutex);
+		{
+			while (rec->running && !rec->used) {
+				pthread_cond_wait(&rec->sync, &rec->mutex);
+			}
+			// contiguous bytes from tail, the rest is written on next loop
+			len = RECORDER_RING_SIZE - rec->tail < rec->used ? RECORDER_RING_SIZE - rec->tail : rec->used;
+		}
+		pthread_mutex_unlock(&rec->mutex);
+		if (!len) break;	// closed and all payloads were written
+		if (LIKELY(!rec->failed)
+			&& UNLIKELY(fwrite(rec->ring + rec->tail, 1, len, rec->fp) != len)) {
+
+			LOGW("failed to write payload, recording stops here");
+			rec->failed = 1;
+		}
+		pthread_mutex_lock(&rec->mutex);
+		{
+			rec->tail = (rec->tail + len) % RECORDER_RING_SIZE;
+			rec->used -= len;
+		}
+		pthread_mutex_unlock(&rec->mutex);
+	}
+	return NULL;
+}
+
+/** @brief Create payload recording
+ * @ingroup replay
+ *
+ * uvc_stream_record_payloads/uvc_record_payloads is usually used instead of this.
+ *
+ * @param path
+ * @param info stream format that is written into the header
+ * @param[out] recorder
+ */
+uvc_error_t uvc_recorder_open(const char *path, const uvc_replay_info_t *info,
+		uvc_payload_recorder_t **recorder) {
+
+	uint8_t header[REPLAY_HEADER_SIZE];
+
+	if (UNLIKELY(!path || !info || !recorder))
+		return UVC_ERROR_INVALID_PARAM;
+
+	uvc_payload_recorder_t *rec = calloc(1, sizeof(*rec));
+	if (UNLIKELY(!rec))
+		return UVC_ERROR_NO_MEM;
+	rec->fp = fopen(path, "wb");
+	if (UNLIKELY(!rec->fp)) {
+		LOGE("failed to open %s", path);
+		free(rec);
+		return UVC_ERROR_ACCESS;
+	}
+	pthread_mutex_init(&rec->mutex, NULL);
+	pthread_cond_init(&rec->sync, NULL);
+	rec->ring = malloc(RECORDER_RING_SIZE);
+	if (UNLIKELY(!rec->ring)) {
+		uvc_recorder_close(rec);
+		return UVC_ERROR_NO_MEM;
+	}
+
+	memset(header, 0, sizeof(header));
+	memcpy(header, REPLAY_MAGIC, 4);
+	_put16(header + 4, REPLAY_VERSION);
+	_put16(header + 6, REPLAY_HEADER_SIZE);
+	_put32(header + 8, info->frame_format);
+	_put16(header + 12, info->width);
+	_put16(header + 14, info->height);
+	_put32(header + 16, info->dwFrameInterval);
+	_put32(header + 20, info->dwMaxVideoFrameSize);
+	_put32(header + 24, info->dwMaxPayloadTransferSize);
+	_put32(header + 28, info->dwClockFrequency);
+	_put16(header + 32, info->bcdUVC);
+	header[34] = info->isochronous;
+	if (UNLIKELY(fwrite(header, 1, sizeof(header), rec->fp) != sizeof(header))) {
+		uvc_recorder_close(rec);
+		return UVC_ERROR_IO;
+	}
+	rec->running = 1;
+	if (UNLIKELY(pthread_create(&rec->thread, NULL, _uvc_recorder_thread_func, rec))) {
+		rec->running = 0;
+		uvc_recorder_close(rec);
+		return UVC_ERROR_OTHER;
+	}
+
+	*recorder = rec;
+	return UVC_SUCCESS;
+}
+
+/** @brief Append a payload to the recording
+ * @ingroup replay
+ *
+ * The payload is copied and written into the file by the writer thread of the recorder.
+ * This should be called from one thread.
+ * Once writing failed(e.g. storage is full), following payloads are discarded silently.
+ *
+ * @param recorder
+ * @param time_ns CLOCK_MONOTONIC when the payload was received
+ * @param payload payload with UVC payload header
+ * @param payload_len
+ * @return UVC_ERROR_OVERFLOW if the payload was not recorded because the writer thread fell behind
+ */
+uvc_error_t uvc_recorder_write(uvc_payload_recorder_t *recorder, int64_t time_ns,
+		const uint8_t *payload, size_t payload_len) {
+
+	uint8_t record[REPLAY_RECORD_HEADER_SIZE];
+
+	if (UNLIKELY(!recorder || recorder->failed))
+		return UVC_ERROR_IO;
+
+	size_t used;
+	pthread_mutex_lock(&recorder->mutex);
+	{
+		used = recorder->used;
+	}
+	pthread_mutex_unlock(&recorder->mutex);
+	// the writer thread only frees the space, so the payload fits if it fits now
+	if (UNLIKELY(RECORDER_RING_SIZE - used < sizeof(record) + payload_len))
+		return UVC_ERROR_OVERFLOW;
+
+	// accumulate rounded value so that the time does not drift on long recording,
+	// the time of the dropped payload is included in next record
+	int64_t delta_us = recorder->last_ns ? (time_ns - recorder->last_ns) / 1000 : 0;
+	if (delta_us < 0) delta_us = 0;
+	if (delta_us > 0xffffffffLL) delta_us = 0xffffffffLL;
+	recorder->last_ns = recorder->last_ns ? recorder->last_ns + delta_us * 1000 : time_ns;
+
+	_put32(record, (uint32_t)delta_us);
+	_put32(record + 4, (uint32_t)payload_len);
+	_uvc_recorder_copy(recorder, record, sizeof(record));
+	_uvc_recorder_copy(recorder, payload, payload_len);
+	pthread_mutex_lock(&recorder->mutex);
+	{
+		recorder->used += sizeof(record) + payload_len;
+		pthread_cond_signal(&recorder->sync);
+	}
+	pthread_mutex_unlock(&recorder->mutex);
+	return UVC_SUCCESS;
+}
+
+/** @brief Flush and close the recording
+ * @ingroup replay
+ *
+ * This waits until the writer thread writes all payloads in the ring buffer.
+ */
+void uvc_recorder_close(uvc_payload_recorder_t *recorder) {
+	if (!recorder) return;
+
+	if (recorder->running) {
+		pthread_mutex_lock(&recorder->mutex);
+		{
+			recorder->running = 0;
+			pthread_cond_signal(&recorder->sync);
+		}
+		pthread_mutex_unlock(&recorder->mutex);
+		pthread_join(recorder->thread, NULL);
+	}
+	if (recorder->fp)
+		fclose(recorder->fp);
+	pthread_cond_destroy(&recorder->sync);
+	pthread_mutex_destroy(&recorder->mutex);
+	free(recorder->ring);
+	free(recorder);
+}
+
+/** @internal
+ * @brief build descriptors of the virtual device, one stream with one format/frame
+ */
+static uvc_error_t _uvc_replay_build_info(uvc_device_handle_t *devh) {
+	const uvc_replay_info_t *info = &devh->replay->info;
+	const uint8_t *guid = _uvc_frame_format_guid(info->frame_format);
+
+	if (UNLIKELY(!guid))
+		return UVC_ERROR_NOT_SUPPORTED;
+
+	uvc_device_info_t *dev_info = calloc(1, sizeof(*dev_info));
+	uvc_streaming_interface_t *stream_if = calloc(1, sizeof(*stream_if));
+	uvc_format_desc_t *format = calloc(1, sizeof(*format));
+	uvc_frame_desc_t *frame = calloc(1, sizeof(*frame));
+	uint32_t *intervals = calloc(2, sizeof(uint32_t));
+	if (UNLIKELY(!dev_info || !stream_if || !format || !frame || !intervals)) {
+		free(dev_info);
+		free(stream_if);
+		free(format);
+		free(frame);
+		free(intervals);
+		return UVC_ERROR_NO_MEM;
+	}
+
+	dev_info->ctrl_if.parent = dev_info;
+	dev_info->ctrl_if.bcdUVC = info->bcdUVC;
+	dev_info->ctrl_if.bInterfaceNumber = 0;
+
+	stream_if->parent = dev_info;
+	stream_if->bInterfaceNumber = REPLAY_INTERFACE;
+	stream_if->bEndpointAddress = 0x81;
+
+	format->parent = stream_if;
+	format->bDescriptorSubtype = info->frame_format == UVC_FRAME_FORMAT_MJPEG
+		? UVC_VS_FORMAT_MJPEG : UVC_VS_FORMAT_UNCOMPRESSED;
+	format->bFormatIndex = 1;
+	format->bNumFrameDescriptors = 1;
+	memcpy(format->guidFormat, guid, 16);
+	format->bDefaultFrameIndex = 1;
+
+	frame->parent = format;
+	frame->bDescriptorSubtype = info->frame_format == UVC_FRAME_FORMAT_MJPEG
+		? UVC_VS_FRAME_MJPEG : UVC_VS_FRAME_UNCOMPRESSED;
+	frame->bFrameIndex = 1;
+	frame->wWidth = info->width;
+	frame->wHeight = info->height;
+	frame->dwMaxVideoFrameBufferSize = info->dwMaxVideoFrameSize;
+	frame->dwDefaultFrameInterval = frame->dwMinFrameInterval
+		= frame->dwMaxFrameInterval = info->dwFrameInterval;
+	frame->bFrameIntervalType = 1;
+	intervals[0] = info->dwFrameInterval;
+	frame->intervals = intervals;
+
+	DL_APPEND(format->frame_descs, frame);
+	DL_APPEND(stream_if->format_descs, format);
+	DL_APPEND(dev_info->stream_ifs, stream_if);
+	devh->info = dev_info;
+
+	return UVC_SUCCESS;
+}
+
+/** @brief Open payload recording as a virtual device
+ * @ingroup replay
+ *
+ * The virtual device should be closed with uvc_replay_close, not uvc_close.
+ * Each start of the stream replays the recording from the beginning.
+ *
+ * @param path payload recording that was made by uvc_stream_record_payloads/uvc_record_payloads
+ * @param speed 1.0f plays with original timing, 2.0f twice as fast, 0 or negative as fast as possible
+ * @param loops how many times the recording is played, 0 means forever
+ * @param[out] devh
+ */
+uvc_error_t uvc_replay_open(const char *path, float speed, int loops, uvc_device_handle_t **devh) {
+	uint8_t header[REPLAY_HEADER_SIZE];
+	uvc_device_handle_t *internal_devh = NULL;
+	struct uvc_replay *replay = NULL;
+	uvc_error_t ret;
+
+	UVC_ENTER();
+
+	if (UNLIKELY(!path || !devh || (loops < 0))) {
+		ret = UVC_ERROR_INVALID_PARAM;
+		goto fail;
+	}
+
+	replay = calloc(1, sizeof(*replay));
+	if (UNLIKELY(!replay)) {
+		ret = UVC_ERROR_NO_MEM;
+		goto fail;
+	}
+	replay->speed = speed;
+	replay->loops = loops;
+	replay->finished = 1;
+	replay->fp = fopen(path, "rb");
+	if (UNLIKELY(!replay->fp)) {
+		LOGE("failed to open %s", path);
+		ret = UVC_ERROR_ACCESS;
+		goto fail;
+	}
+	if (UNLIKELY((fread(header, 1, sizeof(header), replay->fp) != sizeof(header))
+		|| memcmp(header, REPLAY_MAGIC, 4)
+		|| (_get16(header + 4) != REPLAY_VERSION)
+		|| (_get16(header + 6) != REPLAY_HEADER_SIZE))) {
+
+		LOGE("%s is not a payload recording", path);
+		ret = UVC_ERROR_INVALID_PARAM;
+		goto fail;
+	}
+	replay->info.frame_format = (enum uvc_frame_format)_get32(header + 8);
+	replay->info.width = _get16(header + 12);
+	replay->info.height = _get16(header + 14);
+	replay->info.dwFrameInterval = _get32(header + 16);
+	replay->info.dwMaxVideoFrameSize = _get32(header + 20);
+	replay->info.dwMaxPayloadTransferSize = _get32(header + 24);
+	replay->info.dwClockFrequency = _get32(header + 28);
+	replay->info.bcdUVC = _get16(header + 32);
+	replay->info.isochronous = header[34];
+
+	internal_devh = calloc(1, sizeof(*internal_devh));
+	if (UNLIKELY(!internal_devh)) {
+		ret = UVC_ERROR_NO_MEM;
+		goto fail;
+	}
+	pthread_mutex_init(&internal_devh->status_mutex, NULL);
+	internal_devh->replay = replay;
+	ret = _uvc_replay_build_info(internal_devh);
+	if (UNLIKELY(ret)) {
+		internal_devh->replay = NULL;
+		uvc_free_devh(internal_devh);
+		goto fail;
+	}
+
+	*devh = internal_devh;
+	UVC_EXIT(UVC_SUCCESS);
+	return UVC_SUCCESS;
+
+fail:
+	if (replay) {
+		if (replay->fp)
+			fclose(replay->fp);
+		free(replay);
+	}
+	UVC_EXIT(ret);
+	return ret;
+}
+
+/** @brief Get stream format of the recording
+ * @ingroup replay
+ */
+uvc_error_t uvc_replay_get_info(uvc_device_handle_t *devh, uvc_replay_info_t *info) {
+	if (UNLIKELY(!devh || !devh->replay || !info))
+		return UVC_ERROR_INVALID_PARAM;
+
+	*info = devh->replay->info;
+	return UVC_SUCCESS;
+}
+
+/** @brief Whether all loops of the recording were fed into the stream
+ * @ingroup replay
+ *
+ * The last frame may still be in the user callback when this returns true.
+ */
+int uvc_replay_finished(uvc_device_handle_t *devh) {
+	return devh && devh->replay ? devh->replay->finished : 1;
+}
+
+/** @brief Close virtual device
+ * @ingroup replay
+ *
+ * Stops and closes the stream of the virtual device if it is still open.
+ */
+void uvc_replay_close(uvc_device_handle_t *devh) {
+	UVC_ENTER();
+
+	if (!devh || !devh->replay) { UVC_EXIT_VOID() };
+
+	if (devh->streams)
+		uvc_stop_streaming(devh);
+
+	struct uvc_replay *replay = devh->replay;
+	fclose(replay->fp);
+	free(replay->buf);
+	free(replay);
+	// devh->replay should be cleared after the stream was closed
+	devh->replay = NULL;
+	uvc_free_devh(devh);
+
+	UVC_EXIT_VOID();
+}
+
+/** @internal
+ * @brief answer stream control query of the virtual device, only the recorded format/frame is available
+ */
+uvc_error_t _uvc_replay_query_stream_ctrl(uvc_device_handle_t *devh,
+	uvc_stream_ctrl_t *ctrl, enum uvc_req_code req) {
+
+	const uvc_replay_info_t *info = &devh->replay->info;
+
+	if (req == UVC_SET_CUR) {
+		return (ctrl->bFormatIndex == 1) && (ctrl->bFrameIndex == 1)
+			? UVC_SUCCESS : UVC_ERROR_INVALID_MODE;
+	}
+
+	ctrl->bmHint = 0;
+	ctrl->bFormatIndex = 1;
+	ctrl->bFrameIndex = 1;
+	ctrl->dwFrameInterval = info->dwFrameInterval;
+	ctrl->wKeyFrameRate = ctrl->wPFrameRate = 0;
+	ctrl->wCompQuality = ctrl->wCompWindowSize = 0;
+	ctrl->wDelay = 0;
+	ctrl->dwMaxVideoFrameSize = info->dwMaxVideoFrameSize;
+	ctrl->dwMaxPayloadTransferSize = info->dwMaxPayloadTransferSize;
+	ctrl->dwClockFrequency = info->dwClockFrequency;
+
+	return UVC_SUCCESS;
+}
+
+/** @internal
+ * @return 0 if the payload was read, 1 on end of the recording, negative on error
+ */
+static int _uvc_replay_read(struct uvc_replay *replay, uint32_t *delta_us, uint32_t *len) {
+	uint8_t record[REPLAY_RECORD_HEADER_SIZE];
+
+	const size_t n = fread(record, 1, sizeof(record), replay->fp);
+	if (n != sizeof(record))
+		return n ? UVC_ERROR_IO : 1;
+	*delta_us = _get32(record);
+	*len = _get32(record + 4);
+	if (UNLIKELY(*len > LIBUVC_XFER_BUF_SIZE))
+		return UVC_ERROR_IO;
+	if (UNLIKELY(*len > replay->buf_size)) {
+		uint8_t *buf = realloc(replay->buf, *len);
+		if (UNLIKELY(!buf))
+			return UVC_ERROR_NO_MEM;
+		replay->buf = buf;
+		replay->buf_size = *len;
+	}
+	return fread(replay->buf, 1, *len, replay->fp) == *len ? 0 : 1;	// truncated recording
+}
+
+/** @internal
+ * @brief thread that feeds recorded payloads in place of the thread that handles USB events
+ */
+static void *_uvc_replay_thread(void *arg) {
+	uvc_stream_handle_t *strmh = (uvc_stream_handle_t *)arg;
+	struct uvc_replay *replay = strmh->devh->replay;
+	const int64_t start = _monotonic_ns();
+	int64_t time_ns = 0;	// position in the recording
+	uint32_t delta_us, len;
+	int loop = 0;
+	int ret;
+
+	for (; strmh->running ;) {
+		ret = _uvc_replay_read(replay, &delta_us, &len);
+		if (UNLIKELY(ret)) {
+			if (ret < 0) {
+				LOGE("broken payload recording:err=%d", ret);
+				break;
+			}
+			if (replay->loops && (++loop >= replay->loops))
+				break;
+			fseek(replay->fp, REPLAY_HEADER_SIZE, SEEK_SET);
+			// first record of the recording has no delta, keep one frame interval between loops
+			time_ns += replay->info.dwFrameInterval * 100LL;
+			continue;
+		}
+		time_ns += delta_us * 1000LL;
+		if (replay->speed > 0) {
+			const int64_t target = start + (int64_t)(time_ns / replay->speed);
+			for (; strmh->running ;) {
+				int64_t wait_ns = target - _monotonic_ns();
+				if (wait_ns <= 0) break;
+				if (wait_ns > REPLAY_MAX_SLEEP_NS) wait_ns = REPLAY_MAX_SLEEP_NS;
+				struct timespec ts = { (time_t)(wait_ns / 1000000000LL), (long)(wait_ns % 1000000000LL) };
+				nanosleep(&ts, NULL);
+			}
+		}
+		_uvc_process_payload(strmh, replay->buf, len);
+	}
+	replay->finished = 1;
+	return NULL;
+}
+
+/** @internal
+ * @brief start feeding payloads from the beginning of the recording, strmh->running should be set
+ */
+uvc_error_t _uvc_replay_start(uvc_stream_handle_t *strmh) {
+	struct uvc_replay *replay = strmh->devh->replay;
+
+	fseek(replay->fp, REPLAY_HEADER_SIZE, SEEK_SET);
+	replay->finished = 0;
+	replay->strmh = strmh;
+	if (UNLIKELY(pthread_create(&replay->thread, NULL, _uvc_replay_thread, (void *)strmh))) {
+		replay->finished = 1;
+		replay->strmh = NULL;
+		return UVC_ERROR_NO_MEM;
+	}
+	return UVC_SUCCESS;
+}
+
+/** @internal
+ * @brief wait for the thread that feeds payloads, strmh->running should be cleared
+ */
+void _uvc_replay_stop(uvc_stream_handle_t *strmh) {
+	struct uvc_replay *replay = strmh->devh->replay;
+
+	if (replay->strmh == strmh) {
+		pthread_join(replay->thread, NULL);
+		replay->strmh = NULL;
+	}
+}
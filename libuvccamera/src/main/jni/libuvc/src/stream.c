@@ -68,6 +68,17 @@ uvc_frame_desc_t *uvc_find_frame_desc(uvc_device_handle_t *devh,
 		uint16_t format_id, uint16_t frame_id);
 static void *_uvc_user_caller(void *arg);
 static void _uvc_populate_frame(uvc_stream_handle_t *strmh);
+static void _uvc_populate_frame_fields(uvc_stream_handle_t *strmh, uvc_frame_t *frame);
+
+// XXX zero-copy streaming is enabled when frame pool is set
+#define IS_ZERO_COPY(strmh) ((strmh)->frame_pool.get_frame != NULL)
+
+// XXX timestamp for latency measurement
+static inline int64_t _uvc_monotonic_ns(void) {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return ts.tv_sec * 1000000000LL + ts.tv_nsec;
+}
 
 struct format_table_entry {
 	enum uvc_frame_format format;
@@ -120,6 +131,14 @@ struct format_table_entry *_get_format_entry(enum uvc_frame_format format) {
 #undef FMT
 }
 
+/** @internal
+ * @brief XXX GUID of the concrete frame format, NULL for abstract/unknown format
+ */
+const uint8_t *_uvc_frame_format_guid(enum uvc_frame_format fmt) {
+	struct format_table_entry *format = _get_format_entry(fmt);
+	return format && !format->children_count ? format->guid : NULL;
+}
+
 static uint8_t _uvc_frame_format_matches_guid(enum uvc_frame_format fmt,
 		uint8_t guid[16]) {
 	struct format_table_entry *format;
@@ -170,6 +189,9 @@ uvc_error_t uvc_query_stream_ctrl(uvc_device_handle_t *devh,
 
 	memset(buf, 0, sizeof(buf));	// bzero(buf, sizeof(buf));	// bzero is deprecated
 
+	if (UNLIKELY(devh->replay))	// XXX virtual device answers from the payload recording
+		return _uvc_replay_query_stream_ctrl(devh, ctrl, req);
+
 	const uint16_t bcdUVC = devh->info->ctrl_if.bcdUVC;
 	if (bcdUVC >= 0x0150)
 		len = 48;
@@ -596,33 +618,190 @@ uvc_error_t uvc_probe_stream_ctrl(uvc_device_handle_t *devh,
 	return UVC_SUCCESS;
 }
 
+/** @internal
+ * @brief XXX initial size of working buffers, negotiated max frame size instead of LIBUVC_XFER_BUF_SIZE.
+ * The buffers grow on demand up to LIBUVC_XFER_BUF_SIZE if the camera sends larger frame
+ */
+static size_t _uvc_frame_buf_size(uvc_stream_handle_t *strmh) {
+	const size_t bytes = strmh->cur_ctrl.dwMaxVideoFrameSize;
+	return (bytes && (bytes < LIBUVC_XFER_BUF_SIZE)) ? bytes : LIBUVC_XFER_BUF_SIZE;
+}
+
+/** @internal
+ * @brief XXX allocate working/holding buffers, not used on zero-copy streaming
+ */
+static uvc_error_t _uvc_alloc_frame_bufs(uvc_stream_handle_t *strmh) {
+	const size_t bytes = _uvc_frame_buf_size(strmh);
+	if (!strmh->outbuf) {
+		strmh->outbuf = malloc(bytes);
+		strmh->size_buf = bytes;
+	}
+	if (!strmh->holdbuf) {
+		strmh->holdbuf = malloc(bytes);
+		strmh->hold_size_buf = bytes;
+	}
+	if (UNLIKELY(!strmh->outbuf || !strmh->holdbuf))
+		return UVC_ERROR_NO_MEM;
+	return UVC_SUCCESS;
+}
+
+/** @internal
+ * @brief XXX grow working buffer when the camera sends larger frame than dwMaxVideoFrameSize,
+ * this is called only from the thread that processes transfers
+ * @return 0 if working buffer has room for need_bytes
+ */
+static int _uvc_grow_outbuf(uvc_stream_handle_t *strmh, size_t need_bytes) {
+	size_t bytes;
+	uint8_t *buf;
+
+	if (LIKELY(need_bytes <= strmh->size_buf))
+		return 0;
+	if (UNLIKELY(!strmh->outbuf || (need_bytes > LIBUVC_XFER_BUF_SIZE)))
+		return -1;
+	bytes = strmh->size_buf + (strmh->size_buf >> 1);
+	if (bytes < need_bytes)
+		bytes = need_bytes;
+	if (bytes > LIBUVC_XFER_BUF_SIZE)
+		bytes = LIBUVC_XFER_BUF_SIZE;
+	if (IS_ZERO_COPY(strmh)) {
+		// the frame came from the pool should own its data
+		if (UNLIKELY(!strmh->out_frame->library_owns_data))
+			return -1;
+		buf = realloc(strmh->out_frame->data, bytes);
+		if (UNLIKELY(!buf))
+			return -1;
+		strmh->out_frame->data = buf;
+		strmh->out_frame->data_bytes = bytes;
+	} else {
+		buf = realloc(strmh->outbuf, bytes);
+		if (UNLIKELY(!buf))
+			return -1;
+	}
+	UVC_DEBUG("grow working buffer %zu => %zu bytes", strmh->size_buf, bytes);
+	strmh->outbuf = buf;
+	strmh->size_buf = bytes;
+	strmh->frame_buf_grows++;
+	return 0;
+}
+
+/** @internal
+ * @brief XXX set working frame for zero-copy streaming
+ * @param frame frame to reuse, if NULL, get new one from frame pool
+ */
+static void _uvc_prepare_out_frame(uvc_stream_handle_t *strmh, uvc_frame_t *frame) {
+	if (!frame) {
+		frame = strmh->frame_pool.get_frame(_uvc_frame_buf_size(strmh), strmh->frame_pool.pool_ptr);
+	}
+	strmh->out_frame = frame;
+	if (LIKELY(frame)) {
+		strmh->outbuf = frame->data;
+		strmh->size_buf = frame->data_bytes;
+		strmh->pool_starved = 0;
+	} else {
+		// payloads are discarded until we can get frame
+		strmh->outbuf = NULL;
+		strmh->size_buf = 0;
+	}
+}
+
+/** @internal
+ * @brief XXX return working/holding frames to frame pool for zero-copy streaming
+ */
+static void _uvc_release_pool_frames(uvc_stream_handle_t *strmh) {
+	uvc_frame_t *out_frame, *hold_frame;
+
+	if (!IS_ZERO_COPY(strmh)) return;
+
+	pthread_mutex_lock(&strmh->cb_mutex);
+	{
+		out_frame = strmh->out_frame;
+		hold_frame = strmh->hold_frame;
+		strmh->out_frame = strmh->hold_frame = NULL;
+		strmh->outbuf = strmh->holdbuf = NULL;
+		strmh->size_buf = 0;
+	}
+	pthread_mutex_unlock(&strmh->cb_mutex);
+	if (out_frame)
+		strmh->frame_pool.recycle_frame(out_frame, strmh->frame_pool.pool_ptr);
+	if (hold_frame)
+		strmh->frame_pool.recycle_frame(hold_frame, strmh->frame_pool.pool_ptr);
+}
+
+/** @internal
+ * @brief XXX estimate CLOCK_MONOTONIC[ns] when the device captured current frame
+ * PTS of the frame is converted with the device clock recovered from SCR,
+ * the time when the first payload of the frame arrived is used instead
+ * when the frame has no PTS, the clock is not recovered yet or the result is not plausible.
+ * The result always increases from the previous frame.
+ * @param complete_time CLOCK_MONOTONIC[ns] when the last payload of the frame arrived
+ */
+static int64_t _uvc_capture_time(uvc_stream_handle_t *strmh, const int64_t complete_time) {
+	int64_t capture_time;
+
+	if (!strmh->pts
+		|| _uvc_clock_to_host(&strmh->clock, strmh->pts, &capture_time)
+		|| (capture_time < complete_time - LIBUVC_MAX_CAPTURE_LATENCY_NS)) {
+
+		capture_time = strmh->frame_start_time ? strmh->frame_start_time : complete_time;
+	}
+	if (capture_time > complete_time)
+		capture_time = complete_time;
+	if (UNLIKELY(capture_time <= strmh->last_capture_time))
+		capture_time = strmh->last_capture_time + 1;
+	strmh->last_capture_time = capture_time;
+	return capture_time;
+}
+
 /** @internal
  * @brief Swap the working buffer with the presented buffer and notify consumers
+ * XXX on zero-copy streaming, the working frame itself is presented
+ * and if the previous presented frame was not taken by the user caller yet,
+ * it is reused as next working frame, otherwise new frame is obtained from frame pool
  */
 static void _uvc_swap_buffers(uvc_stream_handle_t *strmh) {
 	uint8_t *tmp_buf;
+	size_t tmp_size;
+	uvc_frame_t *tmp_frame = NULL;
+	const int64_t complete_time = _uvc_monotonic_ns();	// XXX
+	const int64_t capture_time = _uvc_capture_time(strmh, complete_time);	// XXX
 
 	pthread_mutex_lock(&strmh->cb_mutex);
 	{
 		/* swap the buffers */
 		tmp_buf = strmh->holdbuf;
+		tmp_size = strmh->hold_size_buf;
 		strmh->hold_bfh_err = strmh->bfh_err;	// XXX
 		strmh->hold_bytes = strmh->got_bytes;
 		strmh->holdbuf = strmh->outbuf;
+		strmh->hold_size_buf = strmh->size_buf;
 		strmh->outbuf = tmp_buf;
+		strmh->size_buf = tmp_size;
+		if (IS_ZERO_COPY(strmh)) {
+			tmp_frame = strmh->hold_frame;
+			strmh->hold_frame = strmh->out_frame;
+			strmh->out_frame = NULL;
+		}
 		strmh->hold_last_scr = strmh->last_scr;
 		strmh->hold_pts = strmh->pts;
 		strmh->hold_seq = strmh->seq;
+		strmh->hold_complete_time = complete_time;	// XXX
+		strmh->hold_capture_time = capture_time;	// XXX
 
 		pthread_cond_broadcast(&strmh->cb_cond);
 	}
 	pthread_mutex_unlock(&strmh->cb_mutex);
 
+	if (IS_ZERO_COPY(strmh)) {
+		// get frame from pool outside of cb_mutex
+		_uvc_prepare_out_frame(strmh, tmp_frame);
+	}
+
 	strmh->seq++;
 	strmh->got_bytes = 0;
 	strmh->last_scr = 0;
 	strmh->pts = 0;
 	strmh->bfh_err = 0;	// XXX
+	strmh->frame_start_time = 0;	// XXX
 }
 
 static void _uvc_delete_transfer(struct libusb_transfer *transfer) {
@@ -636,7 +815,7 @@ static void _uvc_delete_transfer(struct libusb_transfer *transfer) {
 	pthread_mutex_lock(&strmh->cb_mutex);	// XXX crash while calling uvc_stop_streaming
 	{
 		// Mark transfer as deleted.
-		for (i = 0; i < LIBUVC_NUM_TRANSFER_BUFS; i++) {
+		for (i = 0; i < strmh->num_transfer_bufs; i++) {
 			if (strmh->transfers[i] == transfer) {
 				libusb_cancel_transfer(strmh->transfers[i]);	// XXX 20141112追加
 				UVC_DEBUG("Freeing transfer %d (%p)", i, transfer);
@@ -646,7 +825,7 @@ static void _uvc_delete_transfer(struct libusb_transfer *transfer) {
 				break;
 			}
 		}
-		if (UNLIKELY(i == LIBUVC_NUM_TRANSFER_BUFS)) {
+		if (UNLIKELY(i == strmh->num_transfer_bufs)) {
 			UVC_DEBUG("transfer %p not found; not freeing!", transfer);
 		}
 
@@ -668,7 +847,7 @@ static void _uvc_delete_transfer(struct libusb_transfer *transfer) {
  * transfer (bulk mode)
  * @param payload_len Length of the payload transfer
  */
-static void _uvc_process_payload(uvc_stream_handle_t *strmh, const uint8_t *payload, size_t const payload_len) {
+void _uvc_process_payload(uvc_stream_handle_t *strmh, const uint8_t *payload, size_t const payload_len) {
 	size_t header_len;
 	uint8_t header_info;
 	size_t data_len;
@@ -683,8 +862,28 @@ static void _uvc_process_payload(uvc_stream_handle_t *strmh, const uint8_t *payl
 	};
 
 	// ignore empty payload transfers
-	if (UNLIKELY(!payload || !payload_len || !strmh->outbuf))
+	if (UNLIKELY(!payload || !payload_len))
 		return;
+	strmh->payload_time = _uvc_monotonic_ns();	// XXX
+	if (UNLIKELY(strmh->recorder)) {
+		// XXX record before anything is discarded so that replay reproduces the drops
+		if (UNLIKELY(uvc_recorder_write(strmh->recorder, strmh->payload_time, payload, payload_len) == UVC_ERROR_OVERFLOW)) {
+			__atomic_fetch_add(&strmh->devh->drops.unrecorded_payloads, 1, __ATOMIC_RELAXED);
+		}
+	}
+	if (UNLIKELY(!strmh->outbuf)) {
+		// XXX retry to get working frame if frame pool was empty on last swap
+		if (IS_ZERO_COPY(strmh))
+			_uvc_prepare_out_frame(strmh, NULL);
+		if (!strmh->outbuf) {
+			// XXX count once until we get frame again
+			if (!strmh->pool_starved) {
+				strmh->pool_starved = 1;
+				__atomic_fetch_add(&strmh->devh->drops.no_buffer_frames, 1, __ATOMIC_RELAXED);
+			}
+			return;
+		}
+	}
 
 	/* Certain iSight cameras have strange behavior: They send header
 	 * information in a packet with no image data, and then the following
@@ -726,9 +925,11 @@ static void _uvc_process_payload(uvc_stream_handle_t *strmh, const uint8_t *payl
 		if (UNLIKELY(header_info & UVC_STREAM_ERR)) {
 //			strmh->bfh_err |= UVC_STREAM_ERR;
 			UVC_DEBUG("bad packet: error bit set");
-			libusb_clear_halt(strmh->devh->usb_devh, strmh->stream_if->bEndpointAddress);
-//			uvc_vc_get_error_code(strmh->devh, &vc_error_code, UVC_GET_CUR);
-			uvc_vs_get_error_code(strmh->devh, &vs_error_code, UVC_GET_CUR);
+			if (LIKELY(!strmh->devh->replay)) {	// XXX virtual device has no endpoint
+				libusb_clear_halt(strmh->devh->usb_devh, strmh->stream_if->bEndpointAddress);
+//				uvc_vc_get_error_code(strmh->devh, &vc_error_code, UVC_GET_CUR);
+				uvc_vs_get_error_code(strmh->devh, &vs_error_code, UVC_GET_CUR);
+			}
 //			return;
 		}
 
@@ -758,6 +959,7 @@ static void _uvc_process_payload(uvc_stream_handle_t *strmh, const uint8_t *payl
 			if (LIKELY(variable_offset + 4 <= header_len)) {
 				strmh->last_scr = DW_TO_INT(payload + variable_offset);
 				variable_offset += 4;
+				_uvc_clock_add_sample(&strmh->clock, strmh->last_scr, strmh->payload_time);	// XXX
 			} else {
 				MARK("bogus packet: header info has UVC_STREAM_SCR, but no data");
 				strmh->last_scr = 0;
@@ -766,7 +968,9 @@ static void _uvc_process_payload(uvc_stream_handle_t *strmh, const uint8_t *payl
 	}
 
 	if (LIKELY(data_len > 0)) {
-		if (LIKELY(strmh->got_bytes + data_len < strmh->size_buf)) {
+		if (!strmh->got_bytes)
+			strmh->frame_start_time = strmh->payload_time;	// XXX
+		if (LIKELY(!_uvc_grow_outbuf(strmh, strmh->got_bytes + data_len))) {
 			memcpy(strmh->outbuf + strmh->got_bytes, payload + header_len, data_len);
 			strmh->got_bytes += data_len;
 		} else {
@@ -817,6 +1021,15 @@ static inline void _uvc_process_payload_iso(uvc_stream_handle_t *strmh, struct l
 	int packet_id;
 	uvc_vc_error_code_control_t vc_error_code;
 	uvc_vs_error_code_control_t vs_error_code;
+	// XXX packets were received one per interval until the transfer completed
+	const int64_t complete_time = _uvc_monotonic_ns();
+	const int64_t packet_ns = transfer->num_iso_packets
+		? (int64_t)strmh->transfer_us * 1000 / transfer->num_iso_packets : 0;
+
+	if (UNLIKELY(!strmh->outbuf && IS_ZERO_COPY(strmh))) {
+		// XXX retry to get working frame if frame pool was empty on last swap
+		_uvc_prepare_out_frame(strmh, NULL);
+	}
 
 	for (packet_id = 0; packet_id < transfer->num_iso_packets; ++packet_id) {
 		check_header = 1;
@@ -842,6 +1055,14 @@ static inline void _uvc_process_payload_iso(uvc_stream_handle_t *strmh, struct l
 		pktbuf = libusb_get_iso_packet_buffer_simple(transfer, packet_id);
 		if (LIKELY(pktbuf)) {	// XXX add null check because libusb_get_iso_packet_buffer_simple could return null
 //			assert(pktbuf < transfer->buffer + transfer->length - 1);	// XXX
+			strmh->payload_time = complete_time - (transfer->num_iso_packets - 1 - packet_id) * packet_ns;	// XXX
+			if (UNLIKELY(strmh->recorder)) {
+				// XXX same as _uvc_process_payload, record before anything is discarded
+				if (UNLIKELY(uvc_recorder_write(strmh->recorder, strmh->payload_time,
+					pktbuf, pkt->actual_length) == UVC_ERROR_OVERFLOW)) {
+					__atomic_fetch_add(&strmh->devh->drops.unrecorded_payloads, 1, __ATOMIC_RELAXED);
+				}
+			}
 #ifdef __ANDROID__
 			// XXX optimaization because this flag never become true on Android devices
 			if (UNLIKELY(strmh->devh->is_isight))
@@ -897,8 +1118,11 @@ static inline void _uvc_process_payload_iso(uvc_stream_handle_t *strmh, struct l
 
 				if (header_info & UVC_STREAM_SCR) {
 					// XXX saki some camera may send broken packet or failed to receive all data
-					if (LIKELY(header_len >= 10)) {
-						strmh->last_scr = DW_TO_INT(pktbuf + 6);
+					// XXX SCR follows PTS only when the payload has PTS
+					const size_t scr_offset = (header_info & UVC_STREAM_PTS) ? 6 : 2;
+					if (LIKELY(header_len >= scr_offset + 4)) {
+						strmh->last_scr = DW_TO_INT(pktbuf + scr_offset);
+						_uvc_clock_add_sample(&strmh->clock, strmh->last_scr, strmh->payload_time);	// XXX
 					} else {
 						MARK("bogus packet: header info has UVC_STREAM_SCR, but no data");
 						strmh->last_scr = 0;
@@ -929,11 +1153,15 @@ static inline void _uvc_process_payload_iso(uvc_stream_handle_t *strmh, struct l
 			// from "if (pkt->actual_length - header_len > 0)"
 			if (LIKELY(pkt->actual_length > header_len)) {
 				const size_t odd_bytes = pkt->actual_length - header_len;
-				assert(strmh->got_bytes + odd_bytes < strmh->size_buf);
-				assert(strmh->outbuf);
-				assert(pktbuf);
-				memcpy(strmh->outbuf + strmh->got_bytes, pktbuf + header_len, odd_bytes);
-				strmh->got_bytes += odd_bytes;
+				if (!strmh->got_bytes)
+					strmh->frame_start_time = strmh->payload_time;	// XXX
+				// XXX working buffer may be smaller/missing on zero-copy streaming, discard instead of assert
+				if (LIKELY(strmh->outbuf && !_uvc_grow_outbuf(strmh, strmh->got_bytes + odd_bytes))) {
+					memcpy(strmh->outbuf + strmh->got_bytes, pktbuf + header_len, odd_bytes);
+					strmh->got_bytes += odd_bytes;
+				} else {
+					strmh->bfh_err |= UVC_STREAM_ERR;
+				}
 			}
 #ifdef USE_EOF
 			if ((pktbuf[1] & UVC_STREAM_EOF) && strmh->got_bytes != 0) {
@@ -966,6 +1194,17 @@ static void _uvc_stream_callback(struct libusb_transfer *transfer) {
 
 	int resubmit = 1;
 
+	// XXX count completion callbacks and update their rate every second
+	const int64_t now = _uvc_monotonic_ns();
+	__atomic_store_n(&strmh->xfer_callbacks, strmh->xfer_callbacks + 1, __ATOMIC_RELAXED);
+	strmh->xfer_rate_count++;
+	if (UNLIKELY(now - strmh->xfer_rate_start >= 1000000000LL)) {
+		if (strmh->xfer_rate_start)
+			strmh->xfer_callback_rate = strmh->xfer_rate_count * 1000000000.0f / (now - strmh->xfer_rate_start);
+		strmh->xfer_rate_start = now;
+		strmh->xfer_rate_count = 0;
+	}
+
 #ifndef NDEBUG
 	static int cnt = 0;
 	if UNLIKELY((++cnt % 1000) == 0)
@@ -1243,6 +1482,43 @@ uvc_error_t uvc_start_streaming_bandwidth(uvc_device_handle_t *devh,
 	return UVC_SUCCESS;
 }
 
+/** XXX Begin zero-copy streaming video from the camera into the callback function.
+ * @ingroup streaming
+ *
+ * Frames are assembled directly into the frames obtained from the frame pool
+ * and the callback function takes ownership of the frame passed to it.
+ *
+ * @param devh UVC device
+ * @param ctrl Control block, processed using {uvc_probe_stream_ctrl} or
+ *             {uvc_get_stream_ctrl_format_size}
+ * @param cb   User callback function. See {uvc_frame_callback_t} for restrictions.
+ * @param bandwidth_factor [0.0f, 1.0f]
+ * @param pool frame pool, if NULL, same as uvc_start_streaming_bandwidth
+ * @param flags Stream setup flags, currently undefined. Set this to zero. The lower bit
+ * is reserved for backward compatibility.
+ */
+uvc_error_t uvc_start_streaming_bandwidth_pool(uvc_device_handle_t *devh,
+		uvc_stream_ctrl_t *ctrl, uvc_frame_callback_t *cb, void *user_ptr,
+		float bandwidth_factor, const uvc_frame_pool_t *pool,
+		uint8_t flags) {
+	uvc_error_t ret;
+	uvc_stream_handle_t *strmh;
+
+	ret = uvc_stream_open_ctrl(devh, &strmh, ctrl);
+	if (UNLIKELY(ret != UVC_SUCCESS))
+		return ret;
+
+	ret = uvc_stream_set_frame_pool(strmh, pool);
+	if (LIKELY(ret == UVC_SUCCESS))
+		ret = uvc_stream_start_bandwidth(strmh, cb, user_ptr, bandwidth_factor, flags);
+	if (UNLIKELY(ret != UVC_SUCCESS)) {
+		uvc_stream_close(strmh);
+		return ret;
+	}
+
+	return UVC_SUCCESS;
+}
+
 /** Begin streaming video from the camera into the callback function.
  * @ingroup streaming
  *
@@ -1333,10 +1609,17 @@ uvc_error_t uvc_stream_open_ctrl(uvc_device_handle_t *devh,
 
 	// Set up the streaming status and data space
 	strmh->running = 0;
-	/** @todo take only what we need */
-	strmh->outbuf = malloc(LIBUVC_XFER_BUF_SIZE);
-	strmh->holdbuf = malloc(LIBUVC_XFER_BUF_SIZE);
-	strmh->size_buf = LIBUVC_XFER_BUF_SIZE;	// xxx for boundary check
+	strmh->num_transfer_bufs = devh->num_transfer_bufs > 0
+		? devh->num_transfer_bufs : LIBUVC_NUM_TRANSFER_BUFS;	// XXX
+	strmh->auto_transfers = devh->num_transfer_bufs == UVC_NUM_TRANSFERS_AUTO;
+	// XXX allocate only what the negotiated frame needs, they grow if the camera sends larger frame
+	ret = _uvc_alloc_frame_bufs(strmh);
+	if (UNLIKELY(ret != UVC_SUCCESS)) {
+		free(strmh->outbuf);
+		free(strmh->holdbuf);
+		uvc_release_if(strmh->devh, strmh->stream_if->bInterfaceNumber);
+		goto fail;
+	}
 
 	pthread_mutex_init(&strmh->cb_mutex, NULL);
 	pthread_cond_init(&strmh->cb_cond, NULL);
@@ -1368,6 +1651,299 @@ uvc_error_t uvc_stream_start(uvc_stream_handle_t *strmh,
 	return uvc_stream_start_bandwidth(strmh, cb, user_ptr, 0, flags);
 }
 
+/** XXX Set frame pool for zero-copy streaming
+ * @ingroup streaming
+ *
+ * This should be called before starting stream. When the frame pool is set,
+ * the stream does not use its own working buffers and polling with uvc_stream_get_frame
+ * is not available.
+ *
+ * @param strmh UVC stream
+ * @param pool frame pool, NULL to disable zero-copy streaming
+ */
+uvc_error_t uvc_stream_set_frame_pool(uvc_stream_handle_t *strmh,
+		const uvc_frame_pool_t *pool) {
+
+	if (UNLIKELY(!strmh))
+		return UVC_ERROR_INVALID_PARAM;
+	if (UNLIKELY(strmh->running))
+		return UVC_ERROR_BUSY;
+
+	if (pool && pool->get_frame && pool->recycle_frame) {
+		strmh->frame_pool = *pool;
+		// working buffers are supplied by the frame pool
+		if (strmh->outbuf) {
+			free(strmh->outbuf);
+			strmh->outbuf = NULL;
+		}
+		if (strmh->holdbuf) {
+			free(strmh->holdbuf);
+			strmh->holdbuf = NULL;
+		}
+		strmh->size_buf = strmh->hold_size_buf = 0;
+	} else {
+		memset(&strmh->frame_pool, 0, sizeof(strmh->frame_pool));
+		return _uvc_alloc_frame_bufs(strmh);
+	}
+
+	return UVC_SUCCESS;
+}
+
+/** XXX Set number of transfers of the stream
+ * @ingroup streaming
+ *
+ * This should be called before starting stream. More transfers tolerate longer latency
+ * of the thread that handles USB events, fewer transfers use less memory.
+ * With UVC_NUM_TRANSFERS_AUTO, isochronous stream chooses packets per transfer and number
+ * of transfers when it starts, see _uvc_auto_tune_iso. Bulk stream uses LIBUVC_NUM_TRANSFER_BUFS then.
+ *
+ * @param strmh UVC stream
+ * @param num_transfers [1, LIBUVC_MAX_TRANSFER_BUFS], 0 means LIBUVC_NUM_TRANSFER_BUFS,
+ * 			or UVC_NUM_TRANSFERS_AUTO
+ */
+uvc_error_t uvc_stream_set_num_transfers(uvc_stream_handle_t *strmh, int num_transfers) {
+
+	if (UNLIKELY(!strmh || (num_transfers < UVC_NUM_TRANSFERS_AUTO) || (num_transfers > LIBUVC_MAX_TRANSFER_BUFS)))
+		return UVC_ERROR_INVALID_PARAM;
+	if (UNLIKELY(strmh->running))
+		return UVC_ERROR_BUSY;
+
+	strmh->num_transfer_bufs = num_transfers > 0 ? num_transfers : LIBUVC_NUM_TRANSFER_BUFS;
+	strmh->auto_transfers = num_transfers == UVC_NUM_TRANSFERS_AUTO;
+	return UVC_SUCCESS;
+}
+
+/** XXX Set number of transfers of the streams that are opened later on the device,
+ * e.g. by uvc_start_streaming
+ * @ingroup streaming
+ *
+ * @param devh UVC device
+ * @param num_transfers [1, LIBUVC_MAX_TRANSFER_BUFS], 0 means LIBUVC_NUM_TRANSFER_BUFS,
+ * 			or UVC_NUM_TRANSFERS_AUTO
+ */
+uvc_error_t uvc_set_num_transfers(uvc_device_handle_t *devh, int num_transfers) {
+
+	if (UNLIKELY(!devh || (num_transfers < UVC_NUM_TRANSFERS_AUTO) || (num_transfers > LIBUVC_MAX_TRANSFER_BUFS)))
+		return UVC_ERROR_INVALID_PARAM;
+
+	devh->num_transfer_bufs = num_transfers;
+	return UVC_SUCCESS;
+}
+
+/** XXX Get memory that libuvc allocated for the stream
+ * @ingroup streaming
+ *
+ * @param strmh UVC stream
+ * @param[out] usage
+ */
+uvc_error_t uvc_stream_get_memory_usage(uvc_stream_handle_t *strmh, uvc_stream_memory_t *usage) {
+
+	if (UNLIKELY(!strmh || !usage))
+		return UVC_ERROR_INVALID_PARAM;
+
+	pthread_mutex_lock(&strmh->cb_mutex);
+	{
+		usage->bInterfaceNumber = strmh->stream_if->bInterfaceNumber;
+		usage->num_transfers = strmh->num_transfer_bufs;
+		usage->transfer_bytes = strmh->transfer_bytes;
+		usage->frame_buf_bytes = IS_ZERO_COPY(strmh) ? 0
+			: strmh->size_buf + strmh->hold_size_buf + strmh->frame.data_bytes;
+		usage->frame_buf_grows = strmh->frame_buf_grows;
+	}
+	pthread_mutex_unlock(&strmh->cb_mutex);
+
+	return UVC_SUCCESS;
+}
+
+/** XXX Get memory that libuvc allocated for each open stream of the device
+ * @ingroup streaming
+ *
+ * This should not be called while other thread opens/closes stream of the device.
+ *
+ * @param devh UVC device
+ * @param[out] usage array that has max_streams elements
+ * @param max_streams
+ * @return number of open streams, can be larger than max_streams
+ */
+int uvc_get_memory_usage(uvc_device_handle_t *devh, uvc_stream_memory_t *usage, int max_streams) {
+	uvc_stream_handle_t *strmh;
+	int n = 0;
+
+	DL_FOREACH(devh->streams, strmh)
+	{
+		if (n < max_streams)
+			uvc_stream_get_memory_usage(strmh, &usage[n]);
+		n++;
+	}
+
+	return n;
+}
+
+/** XXX Get USB transfers of the stream and rate of their completion callbacks
+ * @ingroup streaming
+ *
+ * @param strmh UVC stream
+ * @param[out] info
+ */
+uvc_error_t uvc_stream_get_transfer_info(uvc_stream_handle_t *strmh, uvc_stream_transfer_info_t *info) {
+
+	if (UNLIKELY(!strmh || !info))
+		return UVC_ERROR_INVALID_PARAM;
+
+	info->bInterfaceNumber = strmh->stream_if->bInterfaceNumber;
+	info->isochronous = strmh->isochronous;
+	info->auto_tuned = strmh->auto_transfers && strmh->isochronous;
+	info->num_transfers = strmh->num_transfer_bufs;
+	info->packets_per_transfer = strmh->packets_per_transfer;
+	info->bytes_per_packet = strmh->bytes_per_packet;
+	info->transfer_us = strmh->transfer_us;
+	// written by the thread that handles USB events, values may be a bit stale
+	info->callbacks = __atomic_load_n(&strmh->xfer_callbacks, __ATOMIC_RELAXED);
+	info->callbacks_per_sec = strmh->xfer_callback_rate;
+
+	return UVC_SUCCESS;
+}
+
+/** XXX Get USB transfers of each open stream of the device
+ * @ingroup streaming
+ *
+ * This should not be called while other thread opens/closes stream of the device.
+ *
+ * @param devh UVC device
+ * @param[out] info array that has max_streams elements
+ * @param max_streams
+ * @return number of open streams, can be larger than max_streams
+ */
+int uvc_get_transfer_info(uvc_device_handle_t *devh, uvc_stream_transfer_info_t *info, int max_streams) {
+	uvc_stream_handle_t *strmh;
+	int n = 0;
+
+	DL_FOREACH(devh->streams, strmh)
+	{
+		if (n < max_streams)
+			uvc_stream_get_transfer_info(strmh, &info[n]);
+		n++;
+	}
+
+	return n;
+}
+
+/** @internal
+ * @brief XXX speed of the device as enum libusb_speed
+ * libusb does not know the speed of the device that is wrapped from the file descriptor
+ * on Android, then this estimates it from bcdUSB of the device descriptor.
+ * USB 3.x device reports bcdUSB 0x0300 or later only while it runs on SuperSpeed,
+ * and 0x0210 on high speed.
+ */
+int _uvc_get_device_speed(uvc_device_handle_t *devh) {
+	libusb_device *usb_dev = libusb_get_device(devh->usb_devh);
+	int speed = libusb_get_device_speed(usb_dev);
+
+	if (speed == LIBUSB_SPEED_UNKNOWN) {
+		struct libusb_device_descriptor desc;
+		if (!libusb_get_device_descriptor(usb_dev, &desc)) {
+			speed = desc.bcdUSB >= 0x0300 ? LIBUSB_SPEED_SUPER
+				: (desc.bcdUSB >= 0x0200 ? LIBUSB_SPEED_HIGH : LIBUSB_SPEED_FULL);
+		}
+	}
+	return speed;
+}
+
+/** @internal
+ * @brief XXX max bytes that the isochronous endpoint transfers in one service interval,
+ * which is the size of one isochronous packet of libusb
+ *
+ * High speed: wMaxPacketSize [unused:2 (multiplier-1):2 size:11]
+ *	bit10…0:	maximum packet size
+ *	bit12…11:	the number of additional transaction opportunities per microframe
+ *				00 = None (1 transaction per microframe)
+ *				01 = 1 additional (2 per microframe)
+ *				10 = 2 additional (3 per microframe)
+ *				11 = Reserved
+ * SuperSpeed: wMaxPacketSize is up to 1024 without multiplier bits, and the endpoint companion
+ *	descriptor has bMaxBurst(packets per burst - 1), Mult(bmAttributes bit1…0, bursts per interval - 1)
+ *	and wBytesPerInterval that is the actual limit of the interval(up to 48KB).
+ */
+size_t _uvc_endpoint_bytes_per_interval(const struct libusb_endpoint_descriptor *endpoint) {
+
+	const uint16_t wMaxPacketSize = endpoint->wMaxPacketSize;
+	size_t bytes = (wMaxPacketSize & 0x07ff) * (((wMaxPacketSize >> 11) & 3) + 1);
+
+	// the companion descriptor is only in the configuration of SuperSpeed,
+	// libusb_get_device_speed is not checked here because it is unknown on Android
+	struct libusb_ss_endpoint_companion_descriptor *ep_comp = NULL;
+	if (!libusb_get_ss_endpoint_companion_descriptor(NULL, endpoint, &ep_comp) && ep_comp) {
+		const size_t max_bytes = (wMaxPacketSize & 0x07ff)
+			* (ep_comp->bMaxBurst + 1) * ((ep_comp->bmAttributes & 0x03) + 1);
+		// some devices report zero wBytesPerInterval
+		bytes = ep_comp->wBytesPerInterval && (ep_comp->wBytesPerInterval < max_bytes)
+			? ep_comp->wBytesPerInterval : max_bytes;
+		MARK("SuperSpeed endpoint:burst=%d,mult=%d,wBytesPerInterval=%d,bytes=%d",
+			ep_comp->bMaxBurst + 1, (ep_comp->bmAttributes & 0x03) + 1,
+			ep_comp->wBytesPerInterval, (int)bytes);
+		libusb_free_ss_endpoint_companion_descriptor(ep_comp);
+	}
+	return bytes;
+}
+
+/** @internal
+ * @brief XXX interval of isochronous packets in microseconds, one (micro)frame of the bus
+ */
+static uint32_t _uvc_iso_interval_us(uvc_stream_handle_t *strmh) {
+	const int speed = _uvc_get_device_speed(strmh->devh);
+	return speed >= LIBUSB_SPEED_HIGH ? 125 : 1000;
+}
+
+/** @internal
+ * @brief XXX choose packets per isochronous transfer and number of transfers
+ *
+ * Each completion callback costs CPU, so the transfer should be as long as possible.
+ * But the frame is published only when the transfer that has its last packet completes,
+ * so one transfer is limited to a quarter of the frame interval to keep the latency,
+ * and to LIBUVC_MAX_ISO_PACKETS that usbfs accepts.
+ * Transfers in flight should cover LIBUVC_AUTO_SLACK_US so that the host controller
+ * does not run out of transfers while the thread that handles USB events is delayed.
+ * Small frame limits the transfer to the packets that one frame needs so that
+ * the transfer that has the end of the frame completes soon after the frame.
+ *
+ * @return packets per transfer, strmh->num_transfer_bufs is updated
+ */
+static size_t _uvc_auto_tune_iso(uvc_stream_handle_t *strmh,
+		uint32_t max_frame_size, size_t bytes_per_packet) {
+
+	const uint32_t packet_us = _uvc_iso_interval_us(strmh);
+	// dwFrameInterval is in 100ns
+	uint32_t frame_us = strmh->cur_ctrl.dwFrameInterval / 10;
+	if (!frame_us)
+		frame_us = 33333;
+	size_t packets = frame_us / 4 / packet_us;
+	const size_t frame_packets = (max_frame_size + bytes_per_packet - 1) / bytes_per_packet;
+	if (packets > frame_packets)
+		packets = frame_packets;
+	if (packets < LIBUVC_AUTO_MIN_ISO_PACKETS)
+		packets = LIBUVC_AUTO_MIN_ISO_PACKETS;
+	if (packets > LIBUVC_MAX_ISO_PACKETS)
+		packets = LIBUVC_MAX_ISO_PACKETS;
+	// SuperSpeed packets are large, all transfers should be within usbfs memory limit
+	if (packets * bytes_per_packet * 2 > LIBUVC_MAX_ISO_BYTES) {
+		packets = LIBUVC_MAX_ISO_BYTES / 2 / bytes_per_packet;
+		if (!packets)
+			packets = 1;
+	}
+
+	const uint32_t transfer_us = packets * packet_us;
+	int num = (LIBUVC_AUTO_SLACK_US + transfer_us - 1) / transfer_us + 1;
+	if (num < 2)
+		num = 2;
+	if (num > LIBUVC_MAX_TRANSFER_BUFS)
+		num = LIBUVC_MAX_TRANSFER_BUFS;
+	if (num * packets * bytes_per_packet > LIBUVC_MAX_ISO_BYTES)
+		num = LIBUVC_MAX_ISO_BYTES / (packets * bytes_per_packet);
+	strmh->num_transfer_bufs = num;
+
+	return packets;
+}
+
 /** Begin streaming video from the stream into the callback function.
  * @ingroup streaming
  *
@@ -1401,12 +1977,39 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 		return UVC_ERROR_BUSY;
 	}
 
+	if (UNLIKELY(strmh->devh->record_path)) {
+		// XXX payload recording that was requested for the device
+		ret = uvc_stream_record_payloads(strmh, strmh->devh->record_path);
+		if (UNLIKELY(ret)) {
+			LOGW("failed to start payload recording:err=%d", ret);
+		}
+		free(strmh->devh->record_path);
+		strmh->devh->record_path = NULL;
+	}
+
 	strmh->running = 1;
-	strmh->seq = 0;
+	strmh->seq = 1;	// XXX user callback thread waits while hold_seq is 0, so 0 lost the first frame
+	strmh->hold_seq = strmh->last_polled_seq = 0;	// XXX and do not pass the frame of last run
 	strmh->fid = 0;
 	strmh->pts = 0;
 	strmh->last_scr = 0;
 	strmh->bfh_err = 0;	// XXX
+	strmh->got_bytes = 0;
+	strmh->frame_start_time = strmh->last_capture_time = 0;	// XXX
+	_uvc_clock_reset(&strmh->clock, strmh->cur_ctrl.dwClockFrequency);	// XXX
+	strmh->xfer_callbacks = 0;	// XXX
+	strmh->xfer_rate_count = 0;
+	strmh->xfer_rate_start = 0;
+	strmh->xfer_callback_rate = 0;
+
+	if (IS_ZERO_COPY(strmh)) {
+		if (UNLIKELY(!cb)) {
+			// polling is not available on zero-copy streaming
+			ret = UVC_ERROR_INVALID_PARAM;
+			goto fail;
+		}
+		_uvc_prepare_out_frame(strmh, NULL);
+	}
 
 	frame_desc = uvc_find_frame_desc_stream(strmh, ctrl->bFormatIndex, ctrl->bFrameIndex);
 	if (UNLIKELY(!frame_desc)) {
@@ -1425,6 +2028,16 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 	const uint32_t dwMaxVideoFrameSize = ctrl->dwMaxVideoFrameSize <= frame_desc->dwMaxVideoFrameBufferSize
 		? ctrl->dwMaxVideoFrameSize : frame_desc->dwMaxVideoFrameBufferSize;
 
+	if (UNLIKELY(strmh->devh->replay)) {
+		// XXX virtual device feeds recorded payloads from its own thread instead of USB transfers
+		strmh->isochronous = 0;
+		strmh->packets_per_transfer = 0;
+		strmh->bytes_per_packet = ctrl->dwMaxPayloadTransferSize;
+		strmh->transfer_us = 0;
+		strmh->transfer_bytes = 0;
+		goto start_user_caller;
+	}
+
 	// Get the interface that provides the chosen format and frame configuration
 	interface_id = strmh->stream_if->bInterfaceNumber;
 	interface = &strmh->devh->info->config->interface[interface_id];
@@ -1485,17 +2098,7 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 			for (ep_idx = 0; ep_idx < altsetting->bNumEndpoints; ep_idx++) {
 				endpoint = altsetting->endpoint + ep_idx;
 				if (endpoint->bEndpointAddress == format_desc->parent->bEndpointAddress) {
-					endpoint_bytes_per_packet = endpoint->wMaxPacketSize;
-					// wMaxPacketSize: [unused:2 (multiplier-1):3 size:11]
-					// bit10…0:		maximum packet size
-					// bit12…11:	the number of additional transaction opportunities per microframe for high-speed
-					//				00 = None (1 transaction per microframe)
-					//				01 = 1 additional (2 per microframe)
-					//				10 = 2 additional (3 per microframe)
-					//				11 = Reserved
-					endpoint_bytes_per_packet
-						= (endpoint_bytes_per_packet & 0x07ff)
-							* (((endpoint_bytes_per_packet >> 11) & 3) + 1);
+					endpoint_bytes_per_packet = _uvc_endpoint_bytes_per_interval(endpoint);	// XXX
 					break;
 				}
 			}
@@ -1512,6 +2115,12 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 					/* But keep a reasonable limit: Otherwise we start dropping data */
 					if (packets_per_transfer > 32)
 						packets_per_transfer = 32;
+					// XXX SuperSpeed packet can be 48KB, keep all transfers within usbfs memory limit
+					if (packets_per_transfer * endpoint_bytes_per_packet * strmh->num_transfer_bufs > LIBUVC_MAX_ISO_BYTES) {
+						packets_per_transfer = LIBUVC_MAX_ISO_BYTES / strmh->num_transfer_bufs / endpoint_bytes_per_packet;
+						if (!packets_per_transfer)
+							packets_per_transfer = 1;
+					}
 
 					total_transfer_size = packets_per_transfer * endpoint_bytes_per_packet;
 					break;
@@ -1536,6 +2145,19 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 			goto fail;
 		} */
 
+		// XXX choose packets per transfer and number of transfers from frame size/interval
+		if (strmh->auto_transfers) {
+			packets_per_transfer = _uvc_auto_tune_iso(strmh, dwMaxVideoFrameSize, endpoint_bytes_per_packet);
+			total_transfer_size = packets_per_transfer * endpoint_bytes_per_packet;
+		}
+		strmh->isochronous = 1;
+		strmh->packets_per_transfer = packets_per_transfer;
+		strmh->bytes_per_packet = endpoint_bytes_per_packet;
+		strmh->transfer_us = packets_per_transfer * _uvc_iso_interval_us(strmh);
+		LOGI("iso transfers=%d,packets=%d,bytes/packet=%d,%dus/transfer%s", strmh->num_transfer_bufs,
+			(int)packets_per_transfer, (int)endpoint_bytes_per_packet, strmh->transfer_us,
+			strmh->auto_transfers ? "(auto)" : "");
+
 		/* Select the altsetting */
 		MARK("Select the altsetting");
 		ret = libusb_set_interface_alt_setting(strmh->devh->usb_devh,
@@ -1547,10 +2169,12 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 
 		/* Set up the transfers */
 		MARK("Set up the transfers");
-		for (transfer_id = 0; transfer_id < LIBUVC_NUM_TRANSFER_BUFS; ++transfer_id) {
+		strmh->transfer_bytes = 0;
+		for (transfer_id = 0; transfer_id < strmh->num_transfer_bufs; ++transfer_id) {
 			transfer = libusb_alloc_transfer(packets_per_transfer);
 			strmh->transfers[transfer_id] = transfer;
 			strmh->transfer_bufs[transfer_id] = malloc(total_transfer_size);
+			strmh->transfer_bytes += total_transfer_size;
 
 			libusb_fill_iso_transfer(transfer, strmh->devh->usb_devh,
 				format_desc->parent->bEndpointAddress,
@@ -1562,11 +2186,17 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 		}
 	} else {
 		MARK("bulk transfer mode");
+		strmh->isochronous = 0;	// XXX
+		strmh->packets_per_transfer = 0;
+		strmh->bytes_per_packet = strmh->cur_ctrl.dwMaxPayloadTransferSize;
+		strmh->transfer_us = 0;
 		/** prepare for bulk transfer */
-		for (transfer_id = 0; transfer_id < LIBUVC_NUM_TRANSFER_BUFS; ++transfer_id) {
+		strmh->transfer_bytes = 0;
+		for (transfer_id = 0; transfer_id < strmh->num_transfer_bufs; ++transfer_id) {
 			transfer = libusb_alloc_transfer(0);
 			strmh->transfers[transfer_id] = transfer;
 			strmh->transfer_bufs[transfer_id] = malloc(strmh->cur_ctrl.dwMaxPayloadTransferSize);
+			strmh->transfer_bytes += strmh->cur_ctrl.dwMaxPayloadTransferSize;
 			libusb_fill_bulk_transfer(transfer, strmh->devh->usb_devh,
 				format_desc->parent->bEndpointAddress,
 				strmh->transfer_bufs[transfer_id],
@@ -1575,6 +2205,7 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 		}
 	}
 
+start_user_caller:
 	strmh->user_cb = cb;
 	strmh->user_ptr = user_ptr;
 
@@ -1585,12 +2216,24 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 	if LIKELY(cb) {
 		pthread_create(&strmh->cb_thread, NULL, _uvc_user_caller, (void*) strmh);
 	}
-	MARK("submit transfers");
-	for (transfer_id = 0; transfer_id < LIBUVC_NUM_TRANSFER_BUFS; transfer_id++) {
-		ret = libusb_submit_transfer(strmh->transfers[transfer_id]);
-		if (UNLIKELY(ret != UVC_SUCCESS)) {
-			UVC_DEBUG("libusb_submit_transfer failed");
-			break;
+	if (UNLIKELY(strmh->devh->replay)) {
+		MARK("start replay");
+		ret = _uvc_replay_start(strmh);
+		if (UNLIKELY(ret && cb)) {
+			strmh->running = 0;
+			pthread_mutex_lock(&strmh->cb_mutex);
+			pthread_cond_broadcast(&strmh->cb_cond);
+			pthread_mutex_unlock(&strmh->cb_mutex);
+			pthread_join(strmh->cb_thread, NULL);
+		}
+	} else {
+		MARK("submit transfers");
+		for (transfer_id = 0; transfer_id < strmh->num_transfer_bufs; transfer_id++) {
+			ret = libusb_submit_transfer(strmh->transfers[transfer_id]);
+			if (UNLIKELY(ret != UVC_SUCCESS)) {
+				UVC_DEBUG("libusb_submit_transfer failed");
+				break;
+			}
 		}
 	}
 
@@ -1604,6 +2247,7 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 fail:
 	LOGE("fail");
 	strmh->running = 0;
+	_uvc_release_pool_frames(strmh);
 	UVC_EXIT(ret);
 	return ret;
 }
@@ -1633,8 +2277,10 @@ static void *_uvc_user_caller(void *arg) {
 	uvc_stream_handle_t *strmh = (uvc_stream_handle_t *) arg;
 
 	uint32_t last_seq = 0;
+	uvc_frame_t *frame;
 
 	for (; 1 ;) {
+		frame = NULL;
 		pthread_mutex_lock(&strmh->cb_mutex);
 		{
 			for (; strmh->running && (last_seq == strmh->hold_seq) ;) {
@@ -1646,26 +2292,151 @@ static void *_uvc_user_caller(void *arg) {
 				break;
 			}
 
+			// XXX frames that were overwritten before we took them
+			if (last_seq && (strmh->hold_seq - last_seq > 1)) {
+				__atomic_fetch_add(&strmh->devh->drops.skipped_frames,
+					strmh->hold_seq - last_seq - 1, __ATOMIC_RELAXED);
+			}
 			last_seq = strmh->hold_seq;
-			if (LIKELY(!strmh->hold_bfh_err))	// XXX
-				_uvc_populate_frame(strmh);
+			if (UNLIKELY(strmh->hold_bfh_err)) {	// XXX
+				__atomic_fetch_add(&strmh->devh->drops.error_frames, 1, __ATOMIC_RELAXED);
+			} else {
+				if (IS_ZERO_COPY(strmh)) {
+					// XXX take the presented frame itself, the user callback owns it
+					frame = strmh->hold_frame;
+					if (LIKELY(frame)) {
+						_uvc_populate_frame_fields(strmh, frame);
+						strmh->hold_frame = NULL;
+						strmh->holdbuf = NULL;
+					}
+				} else {
+					_uvc_populate_frame(strmh);
+					frame = &strmh->frame;
+				}
+			}
 		}
 		pthread_mutex_unlock(&strmh->cb_mutex);
 
-		if (LIKELY(!strmh->hold_bfh_err))	// XXX
-			strmh->user_cb(&strmh->frame, strmh->user_ptr);	// call user callback function
+		if (LIKELY(frame))
+			strmh->user_cb(frame, strmh->user_ptr);	// call user callback function
 	}
 
 	return NULL; // return value ignored
 }
 
+/** @brief XXX Get number of frames that libuvc dropped before passing them to the user callback
+ * @ingroup streaming
+ *
+ * Counters are accumulated over all streams of the device since it was opened,
+ * so take difference of two calls to get the drops in the interval.
+ * Frames that were overwritten while they had broken payload are counted as skipped_frames.
+ *
+ * @param devh UVC device
+ * @param[out] drops number of dropped frames for each reason
+ */
+void uvc_get_stream_drops(uvc_device_handle_t *devh, uvc_stream_drops_t *drops) {
+	drops->error_frames = __atomic_load_n(&devh->drops.error_frames, __ATOMIC_RELAXED);
+	drops->skipped_frames = __atomic_load_n(&devh->drops.skipped_frames, __ATOMIC_RELAXED);
+	drops->no_buffer_frames = __atomic_load_n(&devh->drops.no_buffer_frames, __ATOMIC_RELAXED);
+	drops->unrecorded_payloads = __atomic_load_n(&devh->drops.unrecorded_payloads, __ATOMIC_RELAXED);
+}
+
+/** @brief XXX Record every payload of the stream into a file
+ * @ingroup streaming
+ *
+ * This should be called before starting stream, recording ends when the stream stops.
+ * The file can be replayed with uvc_replay_open without the camera.
+ *
+ * @param strmh UVC stream
+ * @param path path of the recording, NULL to cancel
+ */
+uvc_error_t uvc_stream_record_payloads(uvc_stream_handle_t *strmh, const char *path) {
+	uvc_replay_info_t info;
+	uvc_frame_desc_t *frame_desc;
+	uvc_error_t ret;
+
+	if (UNLIKELY(!strmh))
+		return UVC_ERROR_INVALID_PARAM;
+	if (UNLIKELY(strmh->running))
+		return UVC_ERROR_BUSY;
+	if (strmh->recorder) {
+		uvc_recorder_close(strmh->recorder);
+		strmh->recorder = NULL;
+	}
+	if (!path)
+		return UVC_SUCCESS;
+	if (UNLIKELY(strmh->devh->replay))
+		return UVC_ERROR_NOT_SUPPORTED;
+
+	frame_desc = uvc_find_frame_desc_stream(strmh,
+		strmh->cur_ctrl.bFormatIndex, strmh->cur_ctrl.bFrameIndex);
+	if (UNLIKELY(!frame_desc))
+		return UVC_ERROR_INVALID_PARAM;
+
+	memset(&info, 0, sizeof(info));
+	info.frame_format = uvc_frame_format_for_guid(frame_desc->parent->guidFormat);
+	info.width = frame_desc->wWidth;
+	info.height = frame_desc->wHeight;
+	info.dwFrameInterval = strmh->cur_ctrl.dwFrameInterval;
+	info.dwMaxVideoFrameSize = strmh->cur_ctrl.dwMaxVideoFrameSize;
+	info.dwMaxPayloadTransferSize = strmh->cur_ctrl.dwMaxPayloadTransferSize;
+	info.dwClockFrequency = strmh->cur_ctrl.dwClockFrequency;
+	info.bcdUVC = strmh->devh->info->ctrl_if.bcdUVC;
+	info.isochronous = strmh->devh->info->config->interface[strmh->stream_if->bInterfaceNumber].num_altsetting > 1;
+
+	ret = uvc_recorder_open(path, &info, &strmh->recorder);
+	return ret;
+}
+
+/** @brief XXX Record every payload of the stream that is started next on the device
+ * @ingroup streaming
+ *
+ * Same as uvc_stream_record_payloads but for uvc_start_streaming_XXX that open and
+ * start the stream at once.
+ *
+ * @param devh UVC device
+ * @param path path of the recording, NULL to cancel
+ */
+uvc_error_t uvc_record_payloads(uvc_device_handle_t *devh, const char *path) {
+
+	if (UNLIKELY(!devh))
+		return UVC_ERROR_INVALID_PARAM;
+	if (devh->record_path) {
+		free(devh->record_path);
+		devh->record_path = NULL;
+	}
+	if (path) {
+		devh->record_path = strdup(path);
+		if (UNLIKELY(!devh->record_path))
+			return UVC_ERROR_NO_MEM;
+	}
+	return UVC_SUCCESS;
+}
+
 /** @internal
  * @brief Populate the fields of a frame to be handed to user code
  * must be called with stream cb lock held!
  */
 void _uvc_populate_frame(uvc_stream_handle_t *strmh) {
-	size_t alloc_size = strmh->cur_ctrl.dwMaxVideoFrameSize;
 	uvc_frame_t *frame = &strmh->frame;
+
+	_uvc_populate_frame_fields(strmh, frame);
+
+	/* copy the image data from the hold buffer to the frame (unnecessary extra buf?) */
+	if (UNLIKELY(frame->data_bytes < strmh->hold_bytes)) {
+		frame->data = realloc(frame->data, strmh->hold_bytes);	// TODO add error handling when failed realloc
+		frame->data_bytes = strmh->hold_bytes;
+	}
+	memcpy(frame->data, strmh->holdbuf, strmh->hold_bytes/*frame->data_bytes*/);	// XXX
+
+	/** @todo set the frame time */
+}
+
+/** @internal
+ * @brief XXX Populate the fields except image data of a frame to be handed to user code
+ * must be called with stream cb lock held!
+ */
+static void _uvc_populate_frame_fields(uvc_stream_handle_t *strmh, uvc_frame_t *frame) {
 	uvc_frame_desc_t *frame_desc;
 
 	/** @todo this stuff that hits the main config cache should really happen
@@ -1694,15 +2465,13 @@ void _uvc_populate_frame(uvc_stream_handle_t *strmh) {
 		frame->step = 0;
 		break;
 	}
-
-	/* copy the image data from the hold buffer to the frame (unnecessary extra buf?) */
-	if (UNLIKELY(frame->data_bytes < strmh->hold_bytes)) {
-		frame->data = realloc(frame->data, strmh->hold_bytes);	// TODO add error handling when failed realloc
-		frame->data_bytes = strmh->hold_bytes;
-	}
-	memcpy(frame->data, strmh->holdbuf, strmh->hold_bytes/*frame->data_bytes*/);	// XXX
-
-	/** @todo set the frame time */
+	frame->sequence = strmh->hold_seq;
+	frame->source = strmh->devh;
+	frame->complete_time = frame->stage_time = strmh->hold_complete_time;	// XXX
+	frame->pts = strmh->hold_pts;	// XXX
+	frame->capture_time_ns = strmh->hold_capture_time;	// XXX
+	frame->capture_time.tv_sec = strmh->hold_capture_time / 1000000000LL;	// XXX
+	frame->capture_time.tv_usec = (strmh->hold_capture_time % 1000000000LL) / 1000;
 }
 
 /** Poll for a frame
@@ -1725,6 +2494,9 @@ uvc_error_t uvc_stream_get_frame(uvc_stream_handle_t *strmh,
 	if (UNLIKELY(strmh->user_cb))
 		return UVC_ERROR_CALLBACK_EXISTS;
 
+	if (UNLIKELY(IS_ZERO_COPY(strmh)))	// XXX
+		return UVC_ERROR_NOT_SUPPORTED;
+
 	pthread_mutex_lock(&strmh->cb_mutex);
 	{
 		if (strmh->last_polled_seq < strmh->hold_seq) {
@@ -1809,9 +2581,12 @@ uvc_error_t uvc_stream_stop(uvc_stream_handle_t *strmh) {
 
 	strmh->running = 0;
 
+	if (UNLIKELY(strmh->devh->replay))
+		_uvc_replay_stop(strmh);	// XXX wait for the thread that feeds payloads
+
 	pthread_mutex_lock(&strmh->cb_mutex);
 	{
-		for (i = 0; i < LIBUVC_NUM_TRANSFER_BUFS; i++) {
+		for (i = 0; i < strmh->num_transfer_bufs; i++) {
 			if (strmh->transfers[i]) {
 				int res = libusb_cancel_transfer(strmh->transfers[i]);
 				if ((res < 0) && (res != LIBUSB_ERROR_NOT_FOUND)) {
@@ -1829,14 +2604,15 @@ uvc_error_t uvc_stream_stop(uvc_stream_handle_t *strmh) {
 
 		/* Wait for transfers to complete/cancel */
 		for (; 1 ;) {
-			for (i = 0; i < LIBUVC_NUM_TRANSFER_BUFS; i++) {
+			for (i = 0; i < strmh->num_transfer_bufs; i++) {
 				if (strmh->transfers[i] != NULL)
 					break;
 			}
-			if (i == LIBUVC_NUM_TRANSFER_BUFS)
+			if (i == strmh->num_transfer_bufs)
 				break;
 			pthread_cond_wait(&strmh->cb_cond, &strmh->cb_mutex);
 		}
+		strmh->transfer_bytes = 0;	// XXX all transfer buffers were freed
 		// Kick the user thread awake
 		pthread_cond_broadcast(&strmh->cb_cond);
 	}
@@ -1848,6 +2624,11 @@ uvc_error_t uvc_stream_stop(uvc_stream_handle_t *strmh) {
 		/* wait for the thread to stop (triggered by LIBUSB_TRANSFER_CANCELLED transfer) */
 		pthread_join(strmh->cb_thread, NULL);
 	}
+	_uvc_release_pool_frames(strmh);	// XXX
+	if (strmh->recorder) {	// XXX no more payloads after all transfers completed
+		uvc_recorder_close(strmh->recorder);
+		strmh->recorder = NULL;
+	}
 
 	RETURN(UVC_SUCCESS, uvc_error_t);
 }
@@ -1869,11 +2650,17 @@ void uvc_stream_close(uvc_stream_handle_t *strmh) {
 
 	uvc_release_if(strmh->devh, strmh->stream_if->bInterfaceNumber);
 
+	if (strmh->recorder) {	// XXX recording was requested but stream was not started
+		uvc_recorder_close(strmh->recorder);
+		strmh->recorder = NULL;
+	}
 	if (strmh->frame.data) {
 		free(strmh->frame.data);
 		strmh->frame.data = NULL;
 	}
 
+	// XXX outbuf/holdbuf belong to the frames from frame pool on zero-copy streaming
+	_uvc_release_pool_frames(strmh);
 	if (strmh->outbuf) {
 		free(strmh->outbuf);
 		strmh->outbuf = NULL;
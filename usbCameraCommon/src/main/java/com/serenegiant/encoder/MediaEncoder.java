@@ -413,7 +413,12 @@ LOOP:	while (mIsCapturing) {
                         throw new RuntimeException("drain:muxer hasn't started");
                     }
                     // write encoded data to muxer(need to adjust presentationTimeUs.
-                   	mBufferInfo.presentationTimeUs = getPTSUs();
+					if (!mKeepInputPTS) {
+	                   	mBufferInfo.presentationTimeUs = getPTSUs();
+					} else if (mBufferInfo.presentationTimeUs < prevOutputPTSUs) {
+						// presentationTimeUs of input should be monotonic too
+						mBufferInfo.presentationTimeUs = prevOutputPTSUs;
+					}
                    	muxer.writeSampleData(mTrackIndex, encodedData, mBufferInfo);
 					prevOutputPTSUs = mBufferInfo.presentationTimeUs;
                 }
@@ -432,6 +437,11 @@ LOOP:	while (mIsCapturing) {
      * previous presentationTimeUs for writing
      */
 	private long prevOutputPTSUs = 0;
+	/**
+	 * if true, presentationTimeUs of input(e.g. capture time of the frame) is written as is,
+	 * otherwise it is replaced with the time when the encoded data is written
+	 */
+	protected volatile boolean mKeepInputPTS;
 	/**
 	 * get next encoding presentationTimeUs
 	 * @return
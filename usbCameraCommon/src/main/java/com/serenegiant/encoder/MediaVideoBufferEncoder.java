@@ -67,6 +67,19 @@ public class MediaVideoBufferEncoder extends MediaEncoder implements IVideoEncod
 		encode(buffer, buffer.capacity(), getPTSUs());
     }
 
+	/**
+	 * encode the frame with the time when the camera captured it
+	 * @param buffer
+	 * @param captureTimeNs same clock as System#nanoTime, see IFrameCallback#onFrame(ByteBuffer, long, int)
+	 */
+	public void encode(final ByteBuffer buffer, final long captureTimeNs) {
+		synchronized (mSync) {
+			if (!mIsCapturing || mRequestStop) return;
+		}
+		mKeepInputPTS = true;
+		encode(buffer, buffer.capacity(), captureTimeNs / 1000L);
+	}
+
 	@Override
 	protected void prepare() throws IOException {
 		if (DEBUG) Log.i(TAG, "prepare: ");
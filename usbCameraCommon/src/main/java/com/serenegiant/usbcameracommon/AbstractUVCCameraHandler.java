@@ -47,6 +47,8 @@ import com.serenegiant.encoder.MediaSurfaceEncoder;
 import com.serenegiant.encoder.MediaVideoBufferEncoder;
 import com.serenegiant.encoder.MediaVideoEncoder;
 import com.serenegiant.usb.IFrameCallback;
+import com.serenegiant.usb.IPipeline;
+import com.serenegiant.usb.MjpegRecordPipeline;
 import com.serenegiant.usb.USBMonitor;
 import com.serenegiant.usb.UVCCamera;
 import com.serenegiant.widget.CameraViewInterface;
@@ -61,6 +63,8 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 
@@ -78,6 +82,16 @@ abstract class AbstractUVCCameraHandler extends Handler {
 		public void onError(final Exception e);
 	}
 
+	public interface BurstCallback {
+		/**
+		 * called on a worker thread when all captured frames of the burst are written
+		 * @param dir directory that burst_XXXX.jpg are written
+		 * @param written number of written frames, negative value on error
+		 * @param stats JSON string of UVCCamera#getBurstStats
+		 */
+		public void onBurstFinished(final String dir, final int written, final String stats);
+	}
+
 	private static final int MSG_OPEN = 0;
 	private static final int MSG_CLOSE = 1;
 	private static final int MSG_PREVIEW_START = 2;
@@ -87,6 +101,22 @@ abstract class AbstractUVCCameraHandler extends Handler {
 	private static final int MSG_CAPTURE_STOP = 6;
 	private static final int MSG_MEDIA_UPDATE = 7;
 	private static final int MSG_RELEASE = 9;
+	private static final int MSG_CAPTURE_BURST = 10;
+
+	/**
+	 * max time to wait next MJPEG frame for still capturing
+	 */
+	private static final int STILL_TIMEOUT_MS = 1000;
+	/**
+	 * JPEG quality of YUYV frames and number of native encoder threads for burst capturing
+	 */
+	private static final int BURST_QUALITY = 90;
+	private static final int BURST_THREADS = 2;
+	/**
+	 * interval to check whether all frames of the burst are written,
+	 * closing the camera waits for this at most
+	 */
+	private static final int BURST_WAIT_MS = 100;
 
 	private final WeakReference<AbstractUVCCameraHandler.CameraThread> mWeakThread;
 	private volatile boolean mReleased;
@@ -201,6 +231,22 @@ abstract class AbstractUVCCameraHandler extends Handler {
 		sendMessage(obtainMessage(MSG_CAPTURE_STILL, path));
 	}
 
+	/**
+	 * capture consecutive frames at full rate and write them as burst_XXXX.jpg into dir.
+	 * frames are copied into the native ring of UVCCamera and written on native encoder threads,
+	 * so this takes only one message to the camera thread for whole burst.
+	 * @param dir directory to write files, if empty, new directory in DCIM is used
+	 * @param numFrames number of frames, [0, UVCCamera.MAX_BURST_FRAMES], 0 means all frames until durationMs
+	 * @param durationMs 0 means until numFrames
+	 * @param callback called when all frames are written, can be null
+	 */
+	protected void captureBurst(final String dir, final int numFrames, final int durationMs,
+		final BurstCallback callback) {
+
+		checkReleased();
+		sendMessage(obtainMessage(MSG_CAPTURE_BURST, new BurstRequest(dir, numFrames, durationMs, callback)));
+	}
+
 	public void startRecording() {
 		checkReleased();
 		sendEmptyMessage(MSG_CAPTURE_START);
@@ -323,11 +369,30 @@ abstract class AbstractUVCCameraHandler extends Handler {
 		case MSG_RELEASE:
 			thread.handleRelease();
 			break;
+		case MSG_CAPTURE_BURST:
+			thread.handleCaptureBurst((BurstRequest)msg.obj);
+			break;
 		default:
 			throw new RuntimeException("unsupported message:what=" + msg.what);
 		}
 	}
 
+	private static final class BurstRequest {
+		private final String dir;
+		private final int numFrames;
+		private final int durationMs;
+		private final BurstCallback callback;
+
+		private BurstRequest(final String dir, final int numFrames, final int durationMs,
+			final BurstCallback callback) {
+
+			this.dir = dir;
+			this.numFrames = numFrames;
+			this.durationMs = durationMs;
+			this.callback = callback;
+		}
+	}
+
 	static final class CameraThread extends Thread {
 		private static final String TAG_THREAD = "CameraThread";
 		private final Object mSync = new Object();
@@ -355,13 +420,19 @@ abstract class AbstractUVCCameraHandler extends Handler {
 		 */
 		private MediaMuxerWrapper mMuxer;
 		private MediaVideoBufferEncoder mVideoEncoder;
+		/**
+		 * for recording MJPEG frames without re-encoding
+		 */
+		private MjpegRecordPipeline mRecordPipeline;
+		private IPipeline mPrevPipeline;
 
 		/**
 		 *
 		 * @param clazz Class extends AbstractUVCCameraHandler
 		 * @param parent parent Activity
 		 * @param cameraView for still capturing
-		 * @param encoderType 0: use MediaSurfaceEncoder, 1: use MediaVideoEncoder, 2: use MediaVideoBufferEncoder
+		 * @param encoderType 0: use MediaSurfaceEncoder, 1: use MediaVideoEncoder, 2: use MediaVideoBufferEncoder,
+		 * 3: record MJPEG frames into .mkv without re-encoding (only when format is FRAME_FORMAT_MJPEG, otherwise same as 0)
 		 * @param width
 		 * @param height
 		 * @param format either FRAME_FORMAT_YUYV(0) or FRAME_FORMAT_MJPEG(1)
@@ -428,7 +499,7 @@ abstract class AbstractUVCCameraHandler extends Handler {
 
 		public boolean isRecording() {
 			synchronized (mSync) {
-				return (mUVCCamera != null) && (mMuxer != null);
+				return (mUVCCamera != null) && ((mMuxer != null) || (mRecordPipeline != null));
 			}
 		}
 
@@ -516,6 +587,7 @@ abstract class AbstractUVCCameraHandler extends Handler {
 			final Activity parent = mWeakParent.get();
 			if (parent == null) return;
 			mSoundPool.play(mSoundId, 0.2f, 0.2f, 0, 0, 1.0f);	// play shutter sound
+			if (handleCaptureStillJpeg(path)) return;
 			try {
 				final Bitmap bitmap = mWeakCameraView.get().captureStillImage();
 				// get buffered output stream for saving a captured still image as a file on external storage.
@@ -540,10 +612,111 @@ abstract class AbstractUVCCameraHandler extends Handler {
 			}
 		}
 
+		/**
+		 * save the next MJPEG frame from the camera as JPEG file as it is
+		 * instead of reading pixels from the view and compressing them.
+		 * this takes only a few milliseconds and does not touch the render thread.
+		 * @return false if the preview is not MJPEG or path is not .jpg,
+		 * then the still image is captured from the view
+		 */
+		private boolean handleCaptureStillJpeg(final String path) {
+			if ((mUVCCamera == null) || !mIsPreviewing
+				|| (mUVCCamera.getFrameFormat() != UVCCamera.FRAME_FORMAT_MJPEG)) return false;
+			if (!TextUtils.isEmpty(path)) {
+				final String lower = path.toLowerCase(Locale.US);
+				if (!lower.endsWith(".jpg") && !lower.endsWith(".jpeg")) return false;
+			}
+			final File outputFile = TextUtils.isEmpty(path)
+				? MediaMuxerWrapper.getCaptureFile(Environment.DIRECTORY_DCIM, ".jpg")
+				: new File(path);
+			if (outputFile == null) return false;
+			final int result = mUVCCamera.captureStill(outputFile.getPath(), STILL_TIMEOUT_MS);
+			if (result > 0) {
+				mHandler.sendMessage(mHandler.obtainMessage(MSG_MEDIA_UPDATE, outputFile.getPath()));
+				return true;
+			}
+			Log.w(TAG, "handleCaptureStillJpeg:failed, err=" + result);
+			return false;
+		}
+
+		/**
+		 * start burst capturing on native side and wait for the files on a worker thread
+		 * so that the camera thread is not blocked while frames are written
+		 */
+		public void handleCaptureBurst(final BurstRequest request) {
+			if (DEBUG) Log.v(TAG_THREAD, "handleCaptureBurst:");
+			final UVCCamera camera = mUVCCamera;
+			if ((camera == null) || !mIsPreviewing) {
+				if (request.callback != null) {
+					request.callback.onBurstFinished(request.dir, -1, null);
+				}
+				return;
+			}
+			final File dir = TextUtils.isEmpty(request.dir)
+				? MediaMuxerWrapper.getCaptureFile(Environment.DIRECTORY_DCIM, "")
+				: new File(request.dir);
+			if ((dir == null) || (!dir.isDirectory() && !dir.mkdirs())) {
+				callOnError(new IOException("can't create directory for burst capturing:" + dir));
+				if (request.callback != null) {
+					request.callback.onBurstFinished(request.dir, -1, null);
+				}
+				return;
+			}
+			final int result = camera.startBurst(dir.getPath(),
+				request.numFrames, request.durationMs, BURST_QUALITY, BURST_THREADS);
+			if (result != 0) {
+				callOnError(new IllegalStateException("failed to start burst capturing:err=" + result));
+				if (request.callback != null) {
+					request.callback.onBurstFinished(dir.getPath(), result, null);
+				}
+				return;
+			}
+			mSoundPool.play(mSoundId, 0.2f, 0.2f, 0, 0, 1.0f);	// play shutter sound
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					int written;
+					do {
+						// returns negative value when the camera is closed
+						written = camera.waitBurst(BURST_WAIT_MS);
+					} while (written == UVCCamera.UVC_ERROR_TIMEOUT);
+					final String stats = camera.getBurstStats();
+					if (DEBUG) Log.v(TAG_THREAD, "handleCaptureBurst:finished," + stats);
+					final File[] files = dir.listFiles();
+					final Activity parent = mWeakParent.get();
+					if ((files != null) && (files.length > 0)
+						&& (parent != null) && (parent.getApplicationContext() != null)) {
+
+						final ArrayList<String> paths = new ArrayList<String>(files.length);
+						for (final File file: files) {
+							final String name = file.getName();
+							if (name.startsWith("burst_") && name.endsWith(".jpg")) {
+								paths.add(file.getPath());
+							}
+						}
+						try {
+							MediaScannerConnection.scanFile(parent.getApplicationContext(),
+								paths.toArray(new String[paths.size()]), null, null);
+						} catch (final Exception e) {
+							Log.e(TAG, "handleCaptureBurst:", e);
+						}
+					}
+					if (request.callback != null) {
+						request.callback.onBurstFinished(dir.getPath(), written, stats);
+					}
+				}
+			}, "BurstWaiter").start();
+		}
+
 		public void handleStartRecording() {
 			if (DEBUG) Log.v(TAG_THREAD, "handleStartRecording:");
 			try {
-				if ((mUVCCamera == null) || (mMuxer != null)) return;
+				if ((mUVCCamera == null) || (mMuxer != null) || (mRecordPipeline != null)) return;
+				// preview may have fallen back to YUV mode
+				if ((mEncoderType == 3) && (mUVCCamera.getFrameFormat() == UVCCamera.FRAME_FORMAT_MJPEG)) {
+					handleStartMjpegRecording();
+					return;
+				}
 				final MediaMuxerWrapper muxer = new MediaMuxerWrapper(".mp4");	// if you record audio only, ".m4a" is also OK.
 				MediaVideoBufferEncoder videoEncoder = null;
 				switch (mEncoderType) {
@@ -578,8 +751,65 @@ abstract class AbstractUVCCameraHandler extends Handler {
 			}
 		}
 
+		/**
+		 * record MJPEG frames from the camera as they are into .mkv file.
+		 * frames are written on the native thread of MjpegRecordPipeline,
+		 * so this does not decode/encode any frames and does not record audio.
+		 */
+		private void handleStartMjpegRecording() throws IOException {
+			if (DEBUG) Log.v(TAG_THREAD, "handleStartMjpegRecording:");
+			final File outputFile = MediaMuxerWrapper.getCaptureFile(Environment.DIRECTORY_MOVIES, ".mkv");
+			if (outputFile == null) throw new IOException("This app has no permission of writing external storage");
+			final MjpegRecordPipeline pipeline;
+			try {
+				pipeline = new MjpegRecordPipeline(outputFile.toString());
+			} catch (final IllegalArgumentException e) {
+				throw new IOException(e.getMessage());
+			}
+			final IPipeline prev = mUVCCamera.getPipeline();
+			// frames still go to the pipeline that is already set
+			pipeline.setPipeline(prev);
+			pipeline.start();
+			mUVCCamera.setPipeline(pipeline);
+			synchronized (mSync) {
+				mRecordPipeline = pipeline;
+				mPrevPipeline = prev;
+			}
+			mIsRecording = true;
+			callOnStartRecording();
+		}
+
+		private void handleStopMjpegRecording(final MjpegRecordPipeline pipeline, final IPipeline prev) {
+			if (DEBUG) Log.v(TAG_THREAD, "handleStopMjpegRecording:" + pipeline.getStats());
+			if (mUVCCamera != null) {
+				mUVCCamera.setPipeline(prev);
+			}
+			// the file is finished when the pipeline stops
+			pipeline.stop();
+			pipeline.release();
+			mIsRecording = false;
+			callOnStopRecording();
+			final Activity parent = mWeakParent.get();
+			final boolean released = (mHandler == null) || mHandler.mReleased;
+			if (!released && (parent != null) && !parent.isDestroyed()) {
+				mHandler.sendMessage(mHandler.obtainMessage(MSG_MEDIA_UPDATE, pipeline.getOutputPath()));
+			}
+		}
+
 		public void handleStopRecording() {
 			if (DEBUG) Log.v(TAG_THREAD, "handleStopRecording:mMuxer=" + mMuxer);
+			final MjpegRecordPipeline pipeline;
+			final IPipeline prev;
+			synchronized (mSync) {
+				pipeline = mRecordPipeline;
+				prev = mPrevPipeline;
+				mRecordPipeline = null;
+				mPrevPipeline = null;
+			}
+			if (pipeline != null) {
+				handleStopMjpegRecording(pipeline, prev);
+				return;
+			}
 			final MediaMuxerWrapper muxer;
 			synchronized (mSync) {
 				muxer = mMuxer;
@@ -605,13 +835,19 @@ abstract class AbstractUVCCameraHandler extends Handler {
 		private final IFrameCallback mIFrameCallback = new IFrameCallback() {
 			@Override
 			public void onFrame(final ByteBuffer frame) {
+				onFrame(frame, System.nanoTime(), 0);
+			}
+
+			@Override
+			public void onFrame(final ByteBuffer frame, final long captureTimeNs, final int sequence) {
 				final MediaVideoBufferEncoder videoEncoder;
 				synchronized (mSync) {
 					videoEncoder = mVideoEncoder;
 				}
 				if (videoEncoder != null) {
 					videoEncoder.frameAvailableSoon();
-					videoEncoder.encode(frame);
+					// use capture time so that the movie keeps the timing of the camera
+					videoEncoder.encode(frame, captureTimeNs);
 				}
 			}
 		};
@@ -65,7 +65,8 @@ public class UVCCameraHandler extends AbstractUVCCameraHandler {
 	 * create UVCCameraHandler, try MJPEG, default bandwidth
 	 * @param parent
 	 * @param cameraView
-	 * @param encoderType 0: use MediaSurfaceEncoder, 1: use MediaVideoEncoder, 2: use MediaVideoBufferEncoder
+	 * @param encoderType 0: use MediaSurfaceEncoder, 1: use MediaVideoEncoder, 2: use MediaVideoBufferEncoder,
+	 * 3: record MJPEG frames into .mkv without re-encoding (only when format is FRAME_FORMAT_MJPEG, otherwise same as 0)
 	 * @param width
 	 * @param height
 	 * @return
@@ -81,7 +82,8 @@ public class UVCCameraHandler extends AbstractUVCCameraHandler {
 	 * create UVCCameraHandler, default bandwidth
 	 * @param parent
 	 * @param cameraView
-	 * @param encoderType 0: use MediaSurfaceEncoder, 1: use MediaVideoEncoder, 2: use MediaVideoBufferEncoder
+	 * @param encoderType 0: use MediaSurfaceEncoder, 1: use MediaVideoEncoder, 2: use MediaVideoBufferEncoder,
+	 * 3: record MJPEG frames into .mkv without re-encoding (only when format is FRAME_FORMAT_MJPEG, otherwise same as 0)
 	 * @param width
 	 * @param height
 	 * @param format either UVCCamera.FRAME_FORMAT_YUYV(0) or UVCCamera.FRAME_FORMAT_MJPEG(1)
@@ -98,7 +100,8 @@ public class UVCCameraHandler extends AbstractUVCCameraHandler {
 	 * create UVCCameraHandler
 	 * @param parent
 	 * @param cameraView
-	 * @param encoderType 0: use MediaSurfaceEncoder, 1: use MediaVideoEncoder, 2: use MediaVideoBufferEncoder
+	 * @param encoderType 0: use MediaSurfaceEncoder, 1: use MediaVideoEncoder, 2: use MediaVideoBufferEncoder,
+	 * 3: record MJPEG frames into .mkv without re-encoding (only when format is FRAME_FORMAT_MJPEG, otherwise same as 0)
 	 * @param width
 	 * @param height
 	 * @param format either UVCCamera.FRAME_FORMAT_YUYV(0) or UVCCamera.FRAME_FORMAT_MJPEG(1)
@@ -132,4 +135,11 @@ public class UVCCameraHandler extends AbstractUVCCameraHandler {
 	public void captureStill(final String path) {
 		super.captureStill(path);
 	}
+
+	@Override
+	public void captureBurst(final String dir, final int numFrames, final int durationMs,
+		final BurstCallback callback) {
+
+		super.captureBurst(dir, numFrames, durationMs, callback);
+	}
 }
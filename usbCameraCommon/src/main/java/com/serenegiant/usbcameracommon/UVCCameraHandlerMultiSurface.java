@@ -99,7 +99,8 @@ public class UVCCameraHandlerMultiSurface extends AbstractUVCCameraHandler {
 	 * create UVCCameraHandlerMultiSurface
 	 * @param parent
 	 * @param cameraView
-	 * @param encoderType 0: use MediaSurfaceEncoder, 1: use MediaVideoEncoder, 2: use MediaVideoBufferEncoder
+	 * @param encoderType 0: use MediaSurfaceEncoder, 1: use MediaVideoEncoder, 2: use MediaVideoBufferEncoder,
+	 * 3: record MJPEG frames into .mkv without re-encoding (only when format is FRAME_FORMAT_MJPEG, otherwise same as 0)
 	 * @param width
 	 * @param height
 	 * @param format either UVCCamera.FRAME_FORMAT_YUYV(0) or UVCCamera.FRAME_FORMAT_MJPEG(1)
@@ -177,4 +178,12 @@ public class UVCCameraHandlerMultiSurface extends AbstractUVCCameraHandler {
 			}
 		});
 	}
+
+	@Override
+	public void captureBurst(final String dir, final int numFrames, final int durationMs,
+		final BurstCallback callback) {
+
+		checkReleased();
+		super.captureBurst(dir, numFrames, durationMs, callback);
+	}
 }
@@ -53,7 +53,7 @@ import com.serenegiant.encoder.MediaMuxerWrapper;
 import com.serenegiant.encoder.MediaSurfaceEncoder;
 import com.serenegiant.glutils.RenderHolderCallback;
 import com.serenegiant.glutils.RendererHolder;
-import com.serenegiant.usb.IFrameCallback;
+import com.serenegiant.usb.IFrameInfoCallback;
 import com.serenegiant.usb.Size;
 import com.serenegiant.usb.USBMonitor.UsbControlBlock;
 import com.serenegiant.usb.UVCCamera;
@@ -631,7 +631,7 @@ public final class CameraServer extends Handler {
 				mUVCCamera.setPreviewDisplay(surface);
 				mUVCCamera.startPreview();
 				mUVCCamera.updateCameraParams();
-				mUVCCamera.setFrameCallback(mIFrameCallback, UVCCamera.PIXEL_FORMAT_RGB565);
+				mUVCCamera.setFrameInfoCallback(mIFrameCallback, UVCCamera.PIXEL_FORMAT_RGB565, 1);
 				Log.d(TAG, "end start preview");
 
 //				File downloadDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
@@ -770,7 +770,7 @@ public final class CameraServer extends Handler {
 			return mUVCCamera.getExposure();
 		}
 
-		private final IFrameCallback mIFrameCallback = frame -> {
+		private final IFrameInfoCallback mIFrameCallback = (frame, info) -> {
 			// 处理前帧率
 			if (runMode == 1) {
 				frameCount ++;
@@ -787,9 +787,11 @@ public final class CameraServer extends Handler {
 			}
 			// ----------- 业务处理 start ----------------
 			try {
-				if (framebuffer == null) {
+				if ((framebuffer == null)
+					|| (framebuffer.getWidth() != info.getWidth())
+					|| (framebuffer.getHeight() != info.getHeight())) {
 //					Timber.d("--------- frame callback create bitmap -------------");
-					framebuffer = Bitmap.createBitmap(mFrameWidth, mFrameHeight, Bitmap.Config.RGB_565);
+					framebuffer = Bitmap.createBitmap(info.getWidth(), info.getHeight(), Bitmap.Config.RGB_565);
 				}
 				framebuffer.copyPixelsFromBuffer(frame);
 			} catch (Exception e) {